@@ -0,0 +1,256 @@
+package edu.uiuc.ncsa.security.benchmarks;
+
+import edu.uiuc.ncsa.security.benchmarks.storage.*;
+import edu.uiuc.ncsa.security.core.BatchStore;
+import edu.uiuc.ncsa.security.core.Identifier;
+import edu.uiuc.ncsa.security.core.util.Identifiers;
+import edu.uiuc.ncsa.security.storage.sql.ConnectionPool;
+import edu.uiuc.ncsa.security.storage.sql.derby.DerbyConnectionParameters;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing many records at once with the {@link BatchStore} operations compared with one call per record, for the
+ * SQL (embedded Derby), file and memory stores. Each measurement is the time for all of the records, by default
+ * 100000 of them, so set a smaller size for a quick run, e.g.
+ * <pre>
+ *     java -jar benchmarks.jar BatchBenchmark -p size=10000
+ * </pre>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class BatchBenchmark {
+    @State(Scope.Benchmark)
+    public static class Records {
+        @Param({"100000"})
+        int size;
+
+        List<Record> records;
+        List<Identifier> ids;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            RecordProvider provider = new RecordProvider();
+            records = new ArrayList<Record>(size);
+            ids = new ArrayList<Identifier>(size);
+            for (int i = 0; i < size; i++) {
+                Record record = provider.newRecord();
+                records.add(record);
+                ids.add(record.getIdentifier());
+            }
+        }
+    }
+
+    /**
+     * A store that is emptied before each measurement and, if {@link #isFull()}, then has every record put in it.
+     */
+    public abstract static class StoreState {
+        BatchStore<Record> store;
+        RecordKeys keys = new RecordKeys();
+        RecordProvider provider = new RecordProvider();
+        RecordConverter converter = new RecordConverter(keys, provider);
+
+        protected abstract BatchStore<Record> createStore() throws Exception;
+
+        protected boolean isFull() {
+            return false;
+        }
+
+        @Setup(Level.Trial)
+        public void setupStore() throws Exception {
+            store = createStore();
+        }
+
+        @Setup(Level.Invocation)
+        public void reset(Records records) {
+            store.clear();
+            if (isFull()) {
+                store.registerAll(records.records);
+            }
+        }
+    }
+
+    public abstract static class SQLState extends StoreState {
+        String databaseName;
+
+        @Override
+        protected BatchStore<Record> createStore() throws Exception {
+            System.setProperty("derby.stream.error.file", new File(System.getProperty("java.io.tmpdir"), "derby-benchmark.log").getPath());
+            databaseName = "batch" + Identifiers.getHexString().substring(0, 8);
+            DerbyConnectionParameters parameters = new DerbyConnectionParameters("", "", databaseName, null,
+                    null, -1, SQLStoreBenchmark.DERBY_DRIVER, false, true, null);
+            ConnectionPool pool = new ConnectionPool(parameters);
+            RecordTable table = new RecordTable(keys, null, null, "RECORDS");
+            Connection c = pool.pop();
+            Statement stmt = c.createStatement();
+            stmt.execute(table.createTableStatement());
+            stmt.close();
+            pool.push(c);
+            return new RecordSQLStore(pool, table, provider, converter);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            try {
+                DriverManager.getConnection("jdbc:derby:memory:" + databaseName + ";drop=true");
+            } catch (SQLException x) {
+                // Derby always reports a drop with an exception.
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class EmptySQL extends SQLState {
+    }
+
+    @State(Scope.Benchmark)
+    public static class FullSQL extends SQLState {
+        @Override
+        protected boolean isFull() {
+            return true;
+        }
+    }
+
+    public abstract static class FileState extends StoreState {
+        File directory;
+
+        @Override
+        protected BatchStore<Record> createStore() throws Exception {
+            directory = Files.createTempDirectory("batch-benchmark").toFile();
+            return new RecordFileStore(directory, provider, converter);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            FileStoreBenchmark.delete(directory);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class EmptyFiles extends FileState {
+    }
+
+    @State(Scope.Benchmark)
+    public static class FullFiles extends FileState {
+        @Override
+        protected boolean isFull() {
+            return true;
+        }
+    }
+
+    public abstract static class MemoryState extends StoreState {
+        @Override
+        protected BatchStore<Record> createStore() {
+            return new RecordMemoryStore(provider, converter);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class EmptyMemory extends MemoryState {
+    }
+
+    @State(Scope.Benchmark)
+    public static class FullMemory extends MemoryState {
+        @Override
+        protected boolean isFull() {
+            return true;
+        }
+    }
+
+    static void registerEach(BatchStore<Record> store, Records records) {
+        for (Record record : records.records) {
+            store.register(record);
+        }
+    }
+
+    static void saveEach(BatchStore<Record> store, Records records) {
+        for (Record record : records.records) {
+            store.save(record);
+        }
+    }
+
+    static void removeEach(BatchStore<Record> store, Records records) {
+        for (Identifier id : records.ids) {
+            store.remove(id);
+        }
+    }
+
+    @Benchmark
+    public void sqlRegisterEach(EmptySQL state, Records records) {
+        registerEach(state.store, records);
+    }
+
+    @Benchmark
+    public void sqlRegisterAll(EmptySQL state, Records records) {
+        state.store.registerAll(records.records);
+    }
+
+    @Benchmark
+    public void sqlSaveEach(FullSQL state, Records records) {
+        saveEach(state.store, records);
+    }
+
+    @Benchmark
+    public void sqlSaveAll(FullSQL state, Records records) {
+        state.store.saveAll(records.records);
+    }
+
+    @Benchmark
+    public void sqlRemoveEach(FullSQL state, Records records) {
+        removeEach(state.store, records);
+    }
+
+    @Benchmark
+    public int sqlRemoveAll(FullSQL state, Records records) {
+        return state.store.removeAll(records.ids);
+    }
+
+    @Benchmark
+    public void fileSaveEach(EmptyFiles state, Records records) {
+        saveEach(state.store, records);
+    }
+
+    @Benchmark
+    public void fileSaveAll(EmptyFiles state, Records records) {
+        state.store.saveAll(records.records);
+    }
+
+    // There is no fileRemoveEach since FileStore.remove lists the whole directory every time, which
+    // with this many files takes far too long to measure.
+    @Benchmark
+    public int fileRemoveAll(FullFiles state, Records records) {
+        return state.store.removeAll(records.ids);
+    }
+
+    @Benchmark
+    public void memorySaveEach(EmptyMemory state, Records records) {
+        saveEach(state.store, records);
+    }
+
+    @Benchmark
+    public void memorySaveAll(EmptyMemory state, Records records) {
+        state.store.saveAll(records.records);
+    }
+
+    @Benchmark
+    public void memoryRemoveEach(FullMemory state, Records records) {
+        removeEach(state.store, records);
+    }
+
+    @Benchmark
+    public int memoryRemoveAll(FullMemory state, Records records) {
+        return state.store.removeAll(records.ids);
+    }
+}
@@ -0,0 +1,42 @@
+package edu.uiuc.ncsa.security.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks in this module. This takes the usual JMH arguments (-h lists them), but unless told
+ * otherwise writes the results as JSON to <code>benchmarks-<i>version</i>.json</code>, so that the results of
+ * one release can be kept and compared with the next. E.g.
+ * <pre>
+ *     mvn -Pbenchmarks package
+ *     java -jar ncsa-security-benchmarks/target/benchmarks.jar                 # everything
+ *     java -jar ncsa-security-benchmarks/target/benchmarks.jar JWTBenchmark    # just the JWTs
+ * </pre>
+ */
+public class Benchmarks {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams()
+                || options.shouldListProfilers() || options.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+        if (!options.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if (!options.getResult().hasValue()) {
+            builder.result("benchmarks-" + getVersion() + ".json");
+        }
+        new Runner(builder.build()).run();
+    }
+
+    static String getVersion() {
+        String version = Benchmarks.class.getPackage().getImplementationVersion();
+        return version == null ? "dev" : version;
+    }
+}
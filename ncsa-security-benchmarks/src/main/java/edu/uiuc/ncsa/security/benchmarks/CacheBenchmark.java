@@ -0,0 +1,112 @@
+package edu.uiuc.ncsa.security.benchmarks;
+
+import edu.uiuc.ncsa.security.core.Identifier;
+import edu.uiuc.ncsa.security.core.cache.Cache;
+import edu.uiuc.ncsa.security.core.cache.Cacheable;
+import edu.uiuc.ncsa.security.core.cache.CachedObject;
+import edu.uiuc.ncsa.security.core.cache.ConcurrentCache;
+import edu.uiuc.ncsa.security.core.util.BasicIdentifier;
+import edu.uiuc.ncsa.security.core.util.IdentifiableImpl;
+import edu.uiuc.ncsa.security.delegation.storage.impl.BasicTransaction;
+import edu.uiuc.ncsa.security.delegation.storage.impl.TransactionCache;
+import edu.uiuc.ncsa.security.delegation.token.AuthorizationGrant;
+import edu.uiuc.ncsa.security.delegation.token.impl.AuthorizationGrantImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups, adds and removes for the {@link Cache}, the {@link ConcurrentCache} and a memory only
+ * {@link TransactionCache}. Each add is followed by a remove of the same entry so the caches stay the same size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+    static class Entry extends IdentifiableImpl implements Cacheable {
+        Entry(Identifier identifier) {
+            super(identifier);
+        }
+    }
+
+    @Param({"10000"})
+    int size;
+
+    Cache cache;
+    ConcurrentCache concurrentCache;
+    TransactionCache<BasicTransaction> transactionCache;
+    Entry[] entries;
+    BasicTransaction[] transactions;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        cache = new Cache();
+        concurrentCache = new ConcurrentCache();
+        transactionCache = new TransactionCache<BasicTransaction>();
+        entries = new Entry[size];
+        transactions = new BasicTransaction[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry(BasicIdentifier.newID("urn:benchmark:cache:" + i));
+            cache.add(entries[i]);
+            concurrentCache.add(entries[i]);
+            transactions[i] = newTransaction(i);
+            transactionCache.put(transactions[i]);
+        }
+    }
+
+    static BasicTransaction newTransaction(int i) {
+        return new BasicTransaction(new AuthorizationGrantImpl(URI.create("urn:benchmark:grant:" + i)));
+    }
+
+    int random() {
+        return ThreadLocalRandom.current().nextInt(size);
+    }
+
+    @Benchmark
+    public CachedObject cacheGet() {
+        return cache.get(entries[random()].getIdentifier());
+    }
+
+    @Benchmark
+    public CachedObject cacheAddRemove() {
+        Entry entry = entries[random()];
+        cache.remove(entry.getIdentifier());
+        return cache.add(entry);
+    }
+
+    @Benchmark
+    public CachedObject concurrentCacheGet() {
+        return concurrentCache.get(entries[random()].getIdentifier());
+    }
+
+    @Benchmark
+    public CachedObject concurrentCacheAddRemove() {
+        Entry entry = entries[random()];
+        concurrentCache.remove(entry.getIdentifier());
+        return concurrentCache.add(entry);
+    }
+
+    @Benchmark
+    public BasicTransaction transactionCacheGet() {
+        return transactionCache.get(transactions[random()].getIdentifier());
+    }
+
+    @Benchmark
+    public BasicTransaction transactionCacheGetByGrant() {
+        AuthorizationGrant grant = transactions[random()].getAuthorizationGrant();
+        return transactionCache.get(grant);
+    }
+
+    @Benchmark
+    public BasicTransaction transactionCachePutRemove() {
+        BasicTransaction transaction = transactions[random()];
+        transactionCache.remove(transaction.getIdentifier());
+        transactionCache.put(transaction);
+        return transaction;
+    }
+}
@@ -0,0 +1,81 @@
+package edu.uiuc.ncsa.security.benchmarks;
+
+import edu.uiuc.ncsa.security.util.pkcs.CertUtil;
+import edu.uiuc.ncsa.security.util.pkcs.KeyAlgorithm;
+import edu.uiuc.ncsa.security.util.pkcs.KeyUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PEM parsing with {@link KeyUtil} and {@link CertUtil} and key pair generation for each {@link KeyAlgorithm}.
+ * RSA key generation varies a lot from one key to the next, so look at the error as well as the score for it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CryptoBenchmark {
+    @Param({"RSA", "EC"})
+    String algorithm;
+
+    String privateKeyPEM;
+    String publicKeyPEM;
+    String certificatePEM;
+    KeyAlgorithm keyAlgorithm;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        keyAlgorithm = KeyAlgorithm.get(algorithm);
+        KeyPair keyPair = KeyUtil.generateKeyPair(keyAlgorithm);
+        privateKeyPEM = KeyUtil.toPKCS8PEM(keyPair.getPrivate());
+        publicKeyPEM = KeyUtil.toX509PEM(keyPair.getPublic());
+        certificatePEM = readResource("/test-cert.pem");
+    }
+
+    static String readResource(String name) throws Exception {
+        InputStream in = CryptoBenchmark.class.getResourceAsStream(name);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while (0 < (n = in.read(buffer))) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return new String(out.toByteArray(), "UTF-8");
+    }
+
+    @Benchmark
+    public PrivateKey parsePrivateKeyPEM() {
+        return KeyUtil.fromPKCS8PEM(privateKeyPEM);
+    }
+
+    @Benchmark
+    public PublicKey parsePublicKeyPEM() {
+        return KeyUtil.fromX509PEM(publicKeyPEM);
+    }
+
+    /**
+     * The certificate is always the same, so this does not depend on the algorithm.
+     *
+     * @return
+     * @throws Exception
+     */
+    @Benchmark
+    public X509Certificate[] parseCertificatePEM() throws Exception {
+        return CertUtil.fromX509PEM(certificatePEM);
+    }
+
+    @Benchmark
+    public KeyPair generateKeyPair() {
+        return KeyUtil.generateKeyPair(keyAlgorithm);
+    }
+}
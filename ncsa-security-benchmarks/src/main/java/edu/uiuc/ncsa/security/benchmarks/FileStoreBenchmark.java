@@ -0,0 +1,74 @@
+package edu.uiuc.ncsa.security.benchmarks;
+
+import edu.uiuc.ncsa.security.benchmarks.storage.*;
+import edu.uiuc.ncsa.security.core.Identifier;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link edu.uiuc.ncsa.security.storage.FileStore} read and write in a temporary directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileStoreBenchmark {
+    @Param({"1000"})
+    int size;
+
+    RecordFileStore store;
+    Identifier[] ids;
+    File directory;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("file-store-benchmark").toFile();
+        RecordKeys keys = new RecordKeys();
+        RecordProvider provider = new RecordProvider();
+        store = new RecordFileStore(directory, provider, new RecordConverter(keys, provider));
+        ids = new Identifier[size];
+        for (int i = 0; i < size; i++) {
+            Record record = provider.newRecord();
+            store.save(record);
+            ids[i] = record.getIdentifier();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        delete(directory);
+    }
+
+    static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+
+    Identifier randomId() {
+        return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+
+    @Benchmark
+    public Record read() {
+        return store.get(randomId());
+    }
+
+    @Benchmark
+    public Record write() {
+        Record record = store.get(randomId());
+        record.setCount(record.getCount() + 1);
+        store.save(record);
+        return record;
+    }
+}
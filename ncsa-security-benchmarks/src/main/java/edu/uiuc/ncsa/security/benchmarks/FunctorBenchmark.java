@@ -0,0 +1,63 @@
+package edu.uiuc.ncsa.security.benchmarks;
+
+import edu.uiuc.ncsa.security.util.functor.JFunctor;
+import edu.uiuc.ncsa.security.util.functor.JFunctorFactory;
+import edu.uiuc.ncsa.security.util.functor.JFunctorImpl;
+import net.sf.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating functors from JSON with a {@link JFunctorFactory} and running them. The functor is a small policy
+ * of the sort used in client configurations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FunctorBenchmark {
+    static final String RAW_JSON = "{\"$and\": [" +
+            "  {\"$endsWith\": [\"jgaynor@ncsa.illinois.edu\", \"@ncsa.illinois.edu\"]}," +
+            "  {\"$or\": [" +
+            "    {\"$contains\": [\"urn:mace:dir:entitlement:common-lib-terms\", \"common-lib\"]}," +
+            "    {\"$equals\": [\"member\", \"faculty\"]}" +
+            "  ]}," +
+            "  {\"$match\": [\"A-12345\", \"[A-Z]-[0-9]+\"]}" +
+            "]}";
+
+    JSONObject json;
+    JFunctorFactory functorFactory;
+    JFunctorImpl functor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        json = JSONObject.fromObject(RAW_JSON);
+        functorFactory = new JFunctorFactory();
+        functor = (JFunctorImpl) functorFactory.create(json);
+    }
+
+    @Benchmark
+    public JFunctor create() {
+        return functorFactory.create(json);
+    }
+
+    @Benchmark
+    public Object createAndExecute() {
+        JFunctor ff = functorFactory.create(json);
+        return ff.execute();
+    }
+
+    /**
+     * Running an existing functor again. Functors keep their result, so this has to clear it first.
+     *
+     * @return
+     */
+    @Benchmark
+    public Object execute() {
+        functor.clearState();
+        return functor.execute();
+    }
+}
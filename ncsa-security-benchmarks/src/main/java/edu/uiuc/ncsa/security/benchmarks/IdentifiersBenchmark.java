@@ -0,0 +1,38 @@
+package edu.uiuc.ncsa.security.benchmarks;
+
+import edu.uiuc.ncsa.security.core.util.Identifiers;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Making identifiers with {@link Identifiers}, from one thread and from several at once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdentifiersBenchmark {
+    @Benchmark
+    public String getHexString() {
+        return Identifiers.getHexString();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String getHexString4Threads() {
+        return Identifiers.getHexString();
+    }
+
+    @Benchmark
+    public String getBase64URLString() {
+        return Identifiers.getBase64URLString();
+    }
+
+    @Benchmark
+    public URI uniqueIdentifier() {
+        return Identifiers.uniqueIdentifier("myproxy:oa4mp,2012:/client/", "1484763844");
+    }
+}
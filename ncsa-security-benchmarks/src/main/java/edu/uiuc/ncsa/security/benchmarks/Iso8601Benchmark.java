@@ -0,0 +1,61 @@
+package edu.uiuc.ncsa.security.benchmarks;
+
+import edu.uiuc.ncsa.security.core.util.Iso8601;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting and parsing dates with {@link Iso8601}, compared with the old way of using a new
+ * {@link java.text.SimpleDateFormat} each time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Iso8601Benchmark {
+    static final int COUNT = 1024; // a power of 2, so the next index is a mask.
+
+    long[] times = new long[COUNT];
+    String[] dates = new String[COUNT];
+    int index = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < COUNT; i++) {
+            times[i] = now - i * 7919L;
+            dates[i] = Iso8601.date2String(times[i]);
+        }
+    }
+
+    int next() {
+        index = (index + 1) & (COUNT - 1);
+        return index;
+    }
+
+    @Benchmark
+    public String oldFormat() {
+        return Iso8601.getUTCDateFormat().format(new Date(times[next()]));
+    }
+
+    @Benchmark
+    public String format() {
+        return Iso8601.date2String(times[next()]);
+    }
+
+    @Benchmark
+    public long oldParse() throws ParseException {
+        String[] date = Iso8601.splitDate(dates[next()]);
+        return Iso8601.getDateFormat().parse(date[0] + date[1]).getTime();
+    }
+
+    @Benchmark
+    public long parse() throws ParseException {
+        return Iso8601.string2Millis(dates[next()]);
+    }
+}
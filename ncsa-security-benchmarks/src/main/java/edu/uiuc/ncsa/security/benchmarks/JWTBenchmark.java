@@ -0,0 +1,61 @@
+package edu.uiuc.ncsa.security.benchmarks;
+
+import edu.uiuc.ncsa.security.oauth_2_0.JWTUtil;
+import edu.uiuc.ncsa.security.util.jwk.JSONWebKey;
+import edu.uiuc.ncsa.security.util.jwk.JSONWebKeys;
+import edu.uiuc.ncsa.security.util.pkcs.KeyUtil;
+import net.sf.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing and verifying ID tokens with {@link JWTUtil} and a 2048 bit RSA key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JWTBenchmark {
+    static final String KEY_ID = "benchmark-key";
+
+    JSONWebKeys keys;
+    JSONWebKey key;
+    JSONObject payload;
+    String jwt;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        KeyPair keyPair = KeyUtil.generateKeyPair();
+        key = new JSONWebKey();
+        key.privateKey = keyPair.getPrivate();
+        key.publicKey = keyPair.getPublic();
+        key.algorithm = JWTUtil.RS256_JWT;
+        key.id = KEY_ID;
+        key.use = "sig";
+        key.type = "RSA";
+        keys = new JSONWebKeys(KEY_ID);
+        keys.put(key);
+        payload = new JSONObject();
+        payload.put("iss", "https://localhost:9443/oauth2");
+        payload.put("sub", "jgaynor");
+        payload.put("aud", "myproxy:oa4mp,2012:/client_id/14649e2f468450dac0c1834811dbd4c7");
+        payload.put("iat", 1484763844L);
+        payload.put("exp", 1484764744L);
+        payload.put("nonce", "0ZIi-EuxeC_X8AgB3VifOoqKiXWsz_NlXSzIu7h8rzU");
+        jwt = JWTUtil.createJWT(payload, key);
+    }
+
+    @Benchmark
+    public String createJWT() throws Exception {
+        return JWTUtil.createJWT(payload, key);
+    }
+
+    @Benchmark
+    public JSONObject verifyAndReadJWT() {
+        return JWTUtil.verifyAndReadJWT(jwt, keys);
+    }
+}
@@ -0,0 +1,95 @@
+package edu.uiuc.ncsa.security.benchmarks;
+
+import edu.uiuc.ncsa.security.benchmarks.storage.*;
+import edu.uiuc.ncsa.security.core.Identifier;
+import edu.uiuc.ncsa.security.core.util.Identifiers;
+import edu.uiuc.ncsa.security.storage.sql.ConnectionPool;
+import edu.uiuc.ncsa.security.storage.sql.derby.DerbyConnectionParameters;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link edu.uiuc.ncsa.security.storage.sql.SQLStore} get and save against an embedded, in memory Derby database.
+ * This measures the store itself (statements, conversion and the connection pool) rather than a database server,
+ * so compare runs with each other, not with a production database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SQLStoreBenchmark {
+    static final String DERBY_DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
+
+    @Param({"1000"})
+    int size;
+
+    RecordSQLStore store;
+    Identifier[] ids;
+    String databaseName;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        // Otherwise Derby leaves a derby.log in the current directory.
+        System.setProperty("derby.stream.error.file", new File(System.getProperty("java.io.tmpdir"), "derby-benchmark.log").getPath());
+        databaseName = "bench" + Identifiers.getHexString().substring(0, 8);
+        DerbyConnectionParameters parameters = new DerbyConnectionParameters("", "", databaseName, null,
+                null, -1, DERBY_DRIVER, false, true, null);
+        ConnectionPool pool = new ConnectionPool(parameters);
+        RecordKeys keys = new RecordKeys();
+        RecordProvider provider = new RecordProvider();
+        // Derby upper cases table names and the store looks for the table by name, so use upper case here.
+        RecordTable table = new RecordTable(keys, null, null, "RECORDS");
+        store = new RecordSQLStore(pool, table, provider, new RecordConverter(keys, provider));
+        Connection c = pool.pop();
+        Statement stmt = c.createStatement();
+        stmt.execute(table.createTableStatement());
+        stmt.close();
+        pool.push(c);
+        ids = new Identifier[size];
+        for (int i = 0; i < size; i++) {
+            Record record = provider.newRecord();
+            store.register(record);
+            ids[i] = record.getIdentifier();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        try {
+            DriverManager.getConnection("jdbc:derby:memory:" + databaseName + ";drop=true");
+        } catch (SQLException x) {
+            // Derby always reports a drop with an exception.
+        }
+    }
+
+    Identifier randomId() {
+        return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+
+    @Benchmark
+    public Record get() {
+        return store.get(randomId());
+    }
+
+    /**
+     * Save of an existing record. With Derby this is a single MERGE statement, see {@link edu.uiuc.ncsa.security.storage.sql.SQLDialect}.
+     *
+     * @return
+     */
+    @Benchmark
+    public Record save() {
+        Record record = store.get(randomId());
+        record.setCount(record.getCount() + 1);
+        store.save(record);
+        return record;
+    }
+}
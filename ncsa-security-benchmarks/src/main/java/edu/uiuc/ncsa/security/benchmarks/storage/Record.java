@@ -0,0 +1,41 @@
+package edu.uiuc.ncsa.security.benchmarks.storage;
+
+import edu.uiuc.ncsa.security.core.Identifier;
+import edu.uiuc.ncsa.security.core.util.IdentifiableImpl;
+
+/**
+ * A small stored object, about the size of a transaction with a few tokens, for the store benchmarks.
+ */
+public class Record extends IdentifiableImpl {
+    public Record(Identifier identifier) {
+        super(identifier);
+    }
+
+    String name;
+    String token;
+    long count = 0L;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+}
@@ -0,0 +1,31 @@
+package edu.uiuc.ncsa.security.benchmarks.storage;
+
+import edu.uiuc.ncsa.security.storage.data.ConversionMap;
+import edu.uiuc.ncsa.security.storage.data.MapConverter;
+
+public class RecordConverter extends MapConverter<Record> {
+    public RecordConverter(RecordKeys keys, RecordProvider provider) {
+        super(keys, provider);
+    }
+
+    RecordKeys rk() {
+        return (RecordKeys) keys;
+    }
+
+    @Override
+    public Record fromMap(ConversionMap<String, Object> map, Record v) {
+        Record record = super.fromMap(map, v);
+        record.setName(map.getString(rk().name()));
+        record.setToken(map.getString(rk().token()));
+        record.setCount(map.getLong(rk().count()));
+        return record;
+    }
+
+    @Override
+    public void toMap(Record value, ConversionMap<String, Object> data) {
+        super.toMap(value, data);
+        data.put(rk().name(), value.getName());
+        data.put(rk().token(), value.getToken());
+        data.put(rk().count(), value.getCount());
+    }
+}
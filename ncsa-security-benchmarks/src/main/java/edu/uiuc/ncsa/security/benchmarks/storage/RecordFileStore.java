@@ -0,0 +1,11 @@
+package edu.uiuc.ncsa.security.benchmarks.storage;
+
+import edu.uiuc.ncsa.security.storage.FileStore;
+
+import java.io.File;
+
+public class RecordFileStore extends FileStore<Record> {
+    public RecordFileStore(File directory, RecordProvider provider, RecordConverter converter) {
+        super(directory, provider, converter);
+    }
+}
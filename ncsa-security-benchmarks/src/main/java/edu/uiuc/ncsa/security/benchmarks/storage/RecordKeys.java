@@ -0,0 +1,35 @@
+package edu.uiuc.ncsa.security.benchmarks.storage;
+
+import edu.uiuc.ncsa.security.storage.data.SerializationKeys;
+
+import java.util.List;
+
+public class RecordKeys extends SerializationKeys {
+    String name = "name";
+    String token = "token";
+    String count = "count";
+
+    public String name(String... x) {
+        if (0 < x.length) name = x[0];
+        return name;
+    }
+
+    public String token(String... x) {
+        if (0 < x.length) token = x[0];
+        return token;
+    }
+
+    public String count(String... x) {
+        if (0 < x.length) count = x[0];
+        return count;
+    }
+
+    @Override
+    public List<String> allKeys() {
+        List<String> allKeys = super.allKeys();
+        allKeys.add(name());
+        allKeys.add(token());
+        allKeys.add(count());
+        return allKeys;
+    }
+}
@@ -0,0 +1,18 @@
+package edu.uiuc.ncsa.security.benchmarks.storage;
+
+import edu.uiuc.ncsa.security.core.XMLConverter;
+import edu.uiuc.ncsa.security.storage.MemoryStore;
+
+public class RecordMemoryStore extends MemoryStore<Record> {
+    public RecordMemoryStore(RecordProvider provider, RecordConverter converter) {
+        super(provider);
+        this.converter = converter;
+    }
+
+    RecordConverter converter;
+
+    @Override
+    public XMLConverter<Record> getXMLConverter() {
+        return converter;
+    }
+}
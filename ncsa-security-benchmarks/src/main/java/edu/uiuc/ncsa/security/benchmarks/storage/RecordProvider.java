@@ -0,0 +1,31 @@
+package edu.uiuc.ncsa.security.benchmarks.storage;
+
+import edu.uiuc.ncsa.security.core.Identifier;
+import edu.uiuc.ncsa.security.core.util.IdentifiableProviderImpl;
+import edu.uiuc.ncsa.security.core.util.IdentifierProvider;
+import edu.uiuc.ncsa.security.core.util.Identifiers;
+
+public class RecordProvider extends IdentifiableProviderImpl<Record> {
+    public RecordProvider() {
+        super(new IdentifierProvider<Identifier>("urn", "benchmark:", "record", false) {
+        });
+    }
+
+    @Override
+    public Record get(boolean createNewIdentifier) {
+        return new Record(createNewId(createNewIdentifier));
+    }
+
+    /**
+     * A new record with a new identifier and every property set.
+     *
+     * @return
+     */
+    public Record newRecord() {
+        Record record = get();
+        record.setName("record " + record.getIdentifierString());
+        record.setToken(Identifiers.getHexString());
+        record.setCount(1L);
+        return record;
+    }
+}
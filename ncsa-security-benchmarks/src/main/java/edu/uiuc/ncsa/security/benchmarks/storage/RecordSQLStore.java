@@ -0,0 +1,10 @@
+package edu.uiuc.ncsa.security.benchmarks.storage;
+
+import edu.uiuc.ncsa.security.storage.sql.ConnectionPool;
+import edu.uiuc.ncsa.security.storage.sql.SQLStore;
+
+public class RecordSQLStore extends SQLStore<Record> {
+    public RecordSQLStore(ConnectionPool connectionPool, RecordTable table, RecordProvider provider, RecordConverter converter) {
+        super(connectionPool, table, provider, converter);
+    }
+}
@@ -0,0 +1,48 @@
+package edu.uiuc.ncsa.security.benchmarks.storage;
+
+import edu.uiuc.ncsa.security.storage.sql.internals.ColumnDescriptorEntry;
+import edu.uiuc.ncsa.security.storage.sql.internals.ColumnTypeTranslator;
+import edu.uiuc.ncsa.security.storage.sql.internals.Table;
+
+import java.sql.Types;
+
+/**
+ * The table for {@link Record}s. Derby has no text type, so columns are made as varchars. The table has a primary
+ * key constraint, so that lookups by identifier use its index.
+ */
+public class RecordTable extends Table {
+    public RecordTable(RecordKeys keys, String schema, String tablenamePrefix, String tablename) {
+        super(keys, schema, tablenamePrefix, tablename);
+    }
+
+    RecordKeys rk() {
+        return (RecordKeys) keys;
+    }
+
+    @Override
+    public void createColumnDescriptors() {
+        getColumnDescriptor().add(new ColumnDescriptorEntry(rk().identifier(), Types.VARCHAR, false, true));
+        getColumnDescriptor().add(new ColumnDescriptorEntry(rk().name(), Types.VARCHAR));
+        getColumnDescriptor().add(new ColumnDescriptorEntry(rk().token(), Types.VARCHAR));
+        getColumnDescriptor().add(new ColumnDescriptorEntry(rk().count(), Types.BIGINT));
+    }
+
+    @Override
+    public String createTableStatement() {
+        String x = super.createTableStatement();
+        return x.substring(0, x.length() - 1) + ", PRIMARY KEY (" + getPrimaryKeyColumnName() + "))";
+    }
+
+    @Override
+    public ColumnTypeTranslator getColumnTypeTranslator() {
+        return new ColumnTypeTranslator() {
+            @Override
+            public String toSQL(int sqlType) {
+                if (sqlType == Types.VARCHAR) {
+                    return "varchar(255)";
+                }
+                return super.toSQL(sqlType);
+            }
+        };
+    }
+}
@@ -0,0 +1,35 @@
+package edu.uiuc.ncsa.security.core;
+
+import java.util.Collection;
+
+/**
+ * A {@link Store} that can write many objects at once. For bulk work, such as migrations, imports or sweeping out
+ * expired entries, this is much faster than calling {@link #save(Identifiable)} etc. for each object, e.g. an
+ * SQL store sends them in JDBC batches in a single transaction rather than one statement and commit per object.
+ * <p>Each call is logically the same as calling the single object version on every element, but a store may
+ * apply them in any order. If one fails, an SQL store rolls back the whole call, others may have applied
+ * some of the elements.
+ */
+public interface BatchStore<V extends Identifiable> extends Store<V> {
+    /**
+     * {@link #register(Identifiable)} every element. None of them may be in the store already.
+     *
+     * @param values
+     */
+    public void registerAll(Collection<? extends V> values);
+
+    /**
+     * {@link #save(Identifiable)} every element, i.e., register the new ones and update the others.
+     *
+     * @param values
+     */
+    public void saveAll(Collection<? extends V> values);
+
+    /**
+     * Remove the objects with these identifiers. Identifiers not in the store are skipped.
+     *
+     * @param identifiers
+     * @return the number of objects removed.
+     */
+    public int removeAll(Collection<? extends Identifier> identifiers);
+}
@@ -0,0 +1,36 @@
+package edu.uiuc.ncsa.security.core;
+
+import edu.uiuc.ncsa.security.core.util.CloseableIterator;
+
+/**
+ * A {@link Store} that can hand back its elements one at a time, rather than reading them all into memory as
+ * {@link #getAll()}, {@link #values()} and {@link #search(String, String, boolean)} do. This is for going through
+ * very large stores, e.g. an SQL store reads the rows with a cursor and makes each object as it is asked for.
+ * Close the iterator if you do not read it to the end, e.g.
+ * <pre>
+ *     try (CloseableIterator&lt;V&gt; iterator = store.iterateAll()) {
+ *         while (iterator.hasNext()) {
+ *             V v = iterator.next();
+ *             ...
+ *         }
+ *     }
+ * </pre>
+ */
+public interface IterableStore<V extends Identifiable> extends Store<V> {
+    /**
+     * Every element in the store.
+     *
+     * @return
+     */
+    public CloseableIterator<V> iterateAll();
+
+    /**
+     * The elements {@link #search(String, String, boolean)} would return.
+     *
+     * @param key
+     * @param condition
+     * @param isRegEx
+     * @return
+     */
+    public CloseableIterator<V> iterateSearch(String key, String condition, boolean isRegEx);
+}
@@ -0,0 +1,28 @@
+package edu.uiuc.ncsa.security.core;
+
+import java.util.List;
+
+/**
+ * A {@link Store} that can be read a page at a time, in order. This uses the last element of the previous page
+ * to find the next one (a keyset, rather than an offset), so each page costs about the same however far into
+ * the store it is and pages do not skip or repeat elements if the store changes in between. E.g.
+ * <pre>
+ *     List&lt;V&gt; page = store.getPage(null, null, 100);
+ *     while (!page.isEmpty()) {
+ *         ...
+ *         page = store.getPage(null, page.get(page.size() - 1), 100);
+ *     }
+ * </pre>
+ */
+public interface PageableStore<V extends Identifiable> extends Store<V> {
+    /**
+     * Get up to pageSize elements, sorted by the value of the sort key and then by identifier, that come after
+     * the given element. Elements with no value for the sort key come first.
+     *
+     * @param sortKey  the serialization key to sort on. If null, sort on the identifier.
+     * @param after    the last element of the previous page, or null for the first page.
+     * @param pageSize the most elements to return.
+     * @return the page, which is empty if there are no more.
+     */
+    public List<V> getPage(String sortKey, V after, int pageSize);
+}
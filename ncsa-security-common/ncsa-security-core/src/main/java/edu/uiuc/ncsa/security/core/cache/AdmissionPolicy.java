@@ -0,0 +1,28 @@
+package edu.uiuc.ncsa.security.core.cache;
+
+import edu.uiuc.ncsa.security.core.Identifier;
+
+/**
+ * Decides if a value should be put in a cache at all. A {@link CachedMapFacade} with one of these
+ * tells it about every lookup and asks it before caching anything it loads from its store. This lets
+ * the cache keep the entries that are used a lot and not replace them with things that are used once,
+ * as happens, e.g., when someone lists every client.
+ */
+public interface AdmissionPolicy {
+    /**
+     * Invoked whenever the key is looked up, whether or not it is in the cache.
+     *
+     * @param key
+     */
+    public void recordAccess(Object key);
+
+    /**
+     * Should this value be cached? Implementations may remove other entries from the cache to make room
+     * if they return true.
+     *
+     * @param key
+     * @param value
+     * @return
+     */
+    public boolean admit(Identifier key, Cacheable value);
+}
@@ -0,0 +1,90 @@
+package edu.uiuc.ncsa.security.core.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of strings, such as token values. If {@link #mightContain(String)} returns false, the string was
+ * certainly never added. If it returns true, it probably was, with the false positive rate given when this was created
+ * (assuming no more than the expected number of strings have been added).
+ * <p>Strings cannot be taken out again, since other strings may share their bits. So something removed from
+ * whatever this is a filter for will still be reported as possibly present. This is safe for a lookup filter,
+ * since it only means a lookup goes through to the store. If a lot of strings are removed over time, {@link #clear()}
+ * this and add back the current ones.
+ * <p>This is thread safe and does not lock.
+ */
+public class BloomFilter {
+    /**
+     * @param expectedInsertions About how many strings will be added.
+     * @param falsePositiveRate  The fraction of strings not added that are reported as present, e.g. 0.01.
+     */
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions <= 0 || falsePositiveRate <= 0.0 || 1.0 <= falsePositiveRate) {
+            throw new IllegalArgumentException("Error: expected insertions must be positive and the false positive rate must be between 0 and 1.");
+        }
+        double ln2 = Math.log(2.0);
+        long bitCount = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (ln2 * ln2));
+        int words = (int) Math.max(1L, Math.min((bitCount + 63) >>> 6, Integer.MAX_VALUE));
+        bits = new AtomicLongArray(words);
+        this.bitCount = ((long) words) << 6;
+        hashCount = Math.max(1, (int) Math.round(((double) this.bitCount) / expectedInsertions * ln2));
+    }
+
+    AtomicLongArray bits;
+    long bitCount;
+    int hashCount;
+
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    public void put(String value) {
+        long hash1 = hash(value);
+        long hash2 = mix(hash1);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long word = bits.get(index);
+            while ((word & mask) == 0 && !bits.compareAndSet(index, word, word | mask)) {
+                word = bits.get(index);
+            }
+        }
+    }
+
+    public boolean mightContain(String value) {
+        long hash1 = hash(value);
+        long hash2 = mix(hash1);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void clear() {
+        for (int i = 0; i < bits.length(); i++) {
+            bits.set(i, 0L);
+        }
+    }
+
+    // 64 bit FNV-1a, since String.hashCode has too few bits for a large filter.
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    static long mix(long h) {
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+}
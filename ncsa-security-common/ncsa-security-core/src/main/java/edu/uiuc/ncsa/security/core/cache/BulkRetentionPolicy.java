@@ -0,0 +1,31 @@
+package edu.uiuc.ncsa.security.core.cache;
+
+import java.util.Date;
+
+/**
+ * A {@link RetentionPolicy} that can be carried out in one operation by the store itself, rather than
+ * by checking each entry. This is the case for policies of the form "remove everything whose timestamp
+ * is before a given date". A store that supports this implements {@link BulkRetentionStore}, e.g.
+ * an SQL store would turn this into a single
+ * <pre>
+ *     DELETE FROM table WHERE timestamp_column &lt; ?
+ * </pre>
+ * {@link Cleanup} uses this whenever it can and falls back to checking each entry with
+ * {@link #retain(Object, Object)} otherwise, so that must still be implemented.
+ */
+public interface BulkRetentionPolicy<K, V> extends RetentionPolicy<K, V> {
+    /**
+     * The name of the property (e.g. a column in an SQL table) that has the timestamp to check.
+     *
+     * @return
+     */
+    public String getTimestampKey();
+
+    /**
+     * Entries whose timestamp is strictly before this date are not retained. This is computed each time it
+     * is called.
+     *
+     * @return
+     */
+    public Date getCutoff();
+}
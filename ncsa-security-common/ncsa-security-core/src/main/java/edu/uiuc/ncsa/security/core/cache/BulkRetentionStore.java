@@ -0,0 +1,25 @@
+package edu.uiuc.ncsa.security.core.cache;
+
+/**
+ * A store (or any map) that can apply a {@link BulkRetentionPolicy} itself, rather than have a
+ * {@link Cleanup} look at every entry in it.
+ */
+public interface BulkRetentionStore {
+    /**
+     * Can this store carry out the given policy? E.g., an SQL store can only do this if the table has
+     * the column named by {@link BulkRetentionPolicy#getTimestampKey()}. If this returns false, the
+     * policy will be applied entry by entry.
+     *
+     * @param policy
+     * @return
+     */
+    public boolean supports(BulkRetentionPolicy policy);
+
+    /**
+     * Remove every entry that the policy would not retain.
+     *
+     * @param policy
+     * @return the number of entries removed.
+     */
+    public int applyRetention(BulkRetentionPolicy policy);
+}
@@ -63,6 +63,16 @@ public class Cache implements Map<Identifier, CachedObject> {
 
     PriorityQueue<CachedObject> sortedList;
 
+    /**
+     * The oldest entry in this cache or null if the cache is empty. Aging policies use this to decide
+     * if they need to look at the cache at all.
+     *
+     * @return
+     */
+    public CachedObject getOldest() {
+        return getSortedList().peek();
+    }
+
     public TreeMap<Identifier, CachedObject> getTheRealCache() {
         if (theRealCache == null) {
             theRealCache = new TreeMap<Identifier, CachedObject>();
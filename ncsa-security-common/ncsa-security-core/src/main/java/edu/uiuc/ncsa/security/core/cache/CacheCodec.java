@@ -0,0 +1,11 @@
+package edu.uiuc.ncsa.security.core.cache;
+
+/**
+ * Turns values into bytes and back, for caches that do not keep values as objects, such as
+ * the {@link OffHeapCache}.
+ */
+public interface CacheCodec<V> {
+    byte[] encode(V value);
+
+    V decode(byte[] bytes);
+}
@@ -0,0 +1,39 @@
+package edu.uiuc.ncsa.security.core.cache;
+
+import edu.uiuc.ncsa.security.core.Identifier;
+
+/**
+ * Listener for changes to a {@link ConcurrentCache}. These are invoked while the cache is locked, so
+ * implementations must be quick and must not call back into the cache.
+ */
+public interface CacheListener {
+    /**
+     * Invoked when an entry is added or when an existing entry is added again (and so has a new timestamp).
+     *
+     * @param key
+     * @param cachedObject
+     */
+    public void added(Identifier key, CachedObject cachedObject);
+
+    /**
+     * Invoked when an entry is removed, other than by {@link ConcurrentCache#expire(Object)}.
+     *
+     * @param key
+     * @param cachedObject
+     */
+    public void removed(Identifier key, CachedObject cachedObject);
+
+    /**
+     * Invoked when an entry is removed because it expired, i.e., it is no longer valid rather than just
+     * not wanted in the cache right now.
+     *
+     * @param key
+     * @param cachedObject
+     */
+    public void expired(Identifier key, CachedObject cachedObject);
+
+    /**
+     * Invoked when the cache is cleared. {@link #removed(Identifier, CachedObject)} is not called for the entries.
+     */
+    public void cleared();
+}
@@ -0,0 +1,134 @@
+package edu.uiuc.ncsa.security.core.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for how a cache is doing. A {@link CachedMapFacade} records every lookup (as a hit or a miss) and
+ * every load from its store, with how long the load took. A {@link Cleanup} records the entries it removes if
+ * it has been given these stats with {@link Cleanup#setStats(CacheStats)}.
+ * <p>All counters are {@link LongAdder}s, so updating them from many threads is cheap. Reading them
+ * is not a consistent snapshot, but is close enough to size caches and cleanup intervals.
+ */
+public class CacheStats {
+    LongAdder hits = new LongAdder();
+    LongAdder misses = new LongAdder();
+    LongAdder loadSuccesses = new LongAdder();
+    LongAdder loadFailures = new LongAdder();
+    LongAdder evictions = new LongAdder();
+    LongAdder rejections = new LongAdder();
+    LatencyHistogram loadLatency = new LatencyHistogram();
+
+    public void recordHit() {
+        hits.increment();
+    }
+
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    /**
+     * A load from the store that worked. Not finding anything in the store counts as success too.
+     *
+     * @param nanos
+     */
+    public void recordLoadSuccess(long nanos) {
+        loadSuccesses.increment();
+        loadLatency.record(nanos);
+    }
+
+    public void recordLoadFailure(long nanos) {
+        loadFailures.increment();
+        loadLatency.record(nanos);
+    }
+
+    /**
+     * A miss that was answered without going to the store, since the key was known not to be there.
+     */
+    public void recordRejection() {
+        rejections.increment();
+    }
+
+    public void recordEvictions(long count) {
+        evictions.add(count);
+    }
+
+    public long getRequestCount() {
+        return getHitCount() + getMissCount();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getLoadSuccessCount() {
+        return loadSuccesses.sum();
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailures.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    /**
+     * The fraction of requests that were found in the cache, or 1 if there have been no requests.
+     *
+     * @return
+     */
+    public double getHitRate() {
+        long requests = getRequestCount();
+        return requests == 0 ? 1.0 : ((double) getHitCount()) / requests;
+    }
+
+    public LatencyHistogram getLoadLatency() {
+        return loadLatency;
+    }
+
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        loadSuccesses.reset();
+        loadFailures.reset();
+        evictions.reset();
+        rejections.reset();
+        loadLatency.reset();
+    }
+
+    /**
+     * The current values, by name, in a fixed order. This is what the CLI prints.
+     *
+     * @return
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("requests", getRequestCount());
+        map.put("hits", getHitCount());
+        map.put("misses", getMissCount());
+        map.put("hit rate", String.format("%.4f", getHitRate()));
+        map.put("load successes", getLoadSuccessCount());
+        map.put("load failures", getLoadFailureCount());
+        map.put("evictions", getEvictionCount());
+        map.put("rejected misses", getRejectionCount());
+        map.put("mean load time (ms)", String.format("%.3f", getLoadLatency().getMeanMillis()));
+        map.put("p50 load time (ms)", getLoadLatency().getPercentileMillis(50));
+        map.put("p99 load time (ms)", getLoadLatency().getPercentileMillis(99));
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + toMap();
+    }
+}
@@ -4,11 +4,13 @@ package edu.uiuc.ncsa.security.core.cache;
 
 import edu.uiuc.ncsa.security.core.Identifier;
 import edu.uiuc.ncsa.security.core.Store;
+import edu.uiuc.ncsa.security.core.exceptions.GeneralException;
 
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.*;
 
 /**
  * A Facade for a map that is backed by a cache. Since all stores are logically
@@ -22,6 +24,31 @@ import java.util.Set;
  * then set the backing store to be your real store and use this class everyplace you would
  * normally have your store.<br><br>
  * This will remove from the store immediately as well.
+ * <h2>Write-behind</h2>
+ * If a {@link WriteBehindQueue} is set, then writes to the store are queued and done in batches on a background
+ * thread instead, with repeated writes of the same entry done only once. Reads through this facade always get the
+ * latest version, since entries are found in the cache or the queue before the store is checked. Removes are still done
+ * immediately. Call {@link #flush()} to write everything now and {@link WriteBehindQueue#shutdown()} when done.
+ * <h2>Loading</h2>
+ * If {@link #isSingleFlight()} is true, then threads that miss on the same key at the same time share a single load
+ * from the store rather than each going to the store. This keeps a burst of requests for something popular
+ * (e.g. right after a restart) from turning into a burst of identical queries.
+ * <p>If {@link #getRefreshAfter()} is positive, then an entry that has been cached longer than that
+ * is reloaded from the store in the background the next time it is requested. The current value is returned in the
+ * meantime, so nothing waits on the reload. Set this to less than the maximum age of the cache so that popular
+ * entries are refreshed before they are aged out. Only use this if the store may be changed by something other than
+ * this facade, since the refreshed value replaces the cached instance.
+ * <p>If a {@link NegativeCache} is set, then keys that were not found in the store are remembered for a short time
+ * and further lookups for them return null without going to the store.
+ * <h2>Second level</h2>
+ * An {@link OffHeapCache} may be set as a second level under the cache. Entries pushed out of the cache (e.g. by a
+ * {@link Cleanup} or an {@link AdmissionPolicy}) go there and are moved back into the cache when requested. An entry
+ * is in one level or the other, never both. This needs the cache to be a {@link ConcurrentCache}.
+ * <p>Values in the second level are serialized, so what comes back from it is a copy, not the instance that was
+ * cached. Subclasses that keep their own references to cached values should turn this off
+ * (see {@link #isSpillable()}). An entry that can't be read back is dropped and loaded from the store instead.
+ * Entries removed with {@link #remove(Object)} or expired by a {@link Cleanup} are not put there. Entries are
+ * moved back into the cache only if the {@link AdmissionPolicy} admits them.
  * <p>Created by Jeff Gaynor<br>
  * on Nov 12, 2010 at  11:31:47 AM
  */
@@ -35,9 +62,14 @@ public abstract class CachedMapFacade<V extends Cacheable> implements Store<V> {
         super();
     }
 
+    /**
+     * The cache for this facade. Unless one has been set, this is a {@link ConcurrentCache}.
+     *
+     * @return
+     */
     public Cache getCache() {
         if (cache == null) {
-            cache = new Cache();
+            cache = new ConcurrentCache();
         }
         return cache;
     }
@@ -48,6 +80,25 @@ public abstract class CachedMapFacade<V extends Cacheable> implements Store<V> {
 
     Cache cache;
 
+    /**
+     * Statistics about how well this cache works, such as the hit rate and how long it takes to load things
+     * from the store.
+     *
+     * @return
+     */
+    public CacheStats getStats() {
+        if (stats == null) {
+            stats = new CacheStats();
+        }
+        return stats;
+    }
+
+    public void setStats(CacheStats stats) {
+        this.stats = stats;
+    }
+
+    CacheStats stats;
+
     public Store<V> getTheStore() {
         return theStore;
     }
@@ -58,12 +109,264 @@ public abstract class CachedMapFacade<V extends Cacheable> implements Store<V> {
 
     Store<V> theStore;
 
+    /**
+     * If set, this is told about every lookup and decides if values loaded from the store are cached.
+     * It is not used if there is no store, since then the cache is the only copy of the values.
+     *
+     * @return
+     */
+    public AdmissionPolicy getAdmissionPolicy() {
+        return admissionPolicy;
+    }
+
+    public void setAdmissionPolicy(AdmissionPolicy admissionPolicy) {
+        this.admissionPolicy = admissionPolicy;
+    }
+
+    AdmissionPolicy admissionPolicy;
+
+    /**
+     * If set, writes to the store are queued and done later. See {@link WriteBehindQueue}.
+     *
+     * @return
+     */
+    public WriteBehindQueue<V> getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+
+    public void setWriteBehindQueue(WriteBehindQueue<V> writeBehindQueue) {
+        this.writeBehindQueue = writeBehindQueue;
+    }
+
+    WriteBehindQueue<V> writeBehindQueue;
+
+    public boolean isWriteBehind() {
+        return writeBehindQueue != null;
+    }
+
+    /**
+     * If this is in write-behind mode, queue the value to be saved and return true. Otherwise, return false and
+     * the caller should write it to the store.
+     *
+     * @param value
+     * @return
+     */
+    protected boolean queueWrite(V value) {
+        if (!isWriteBehind()) {
+            return false;
+        }
+        writeBehindQueue.enqueue(value);
+        return true;
+    }
+
+    /**
+     * Write anything waiting in the {@link WriteBehindQueue} to the store now.
+     */
+    public void flush() {
+        if (isWriteBehind()) {
+            writeBehindQueue.flush();
+        }
+    }
+
+    protected boolean admit(Identifier key, V value) {
+        return admissionPolicy == null || !hasStore() || admissionPolicy.admit(key, value);
+    }
+
+    /**
+     * If true, concurrent misses for the same key share one load from the store.
+     *
+     * @return
+     */
+    public boolean isSingleFlight() {
+        return singleFlight;
+    }
+
+    public void setSingleFlight(boolean singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
+    boolean singleFlight = false;
+
+    /**
+     * How long, in milliseconds, an entry is cached before a request for it reloads it in the background.
+     * If this is not positive (the default), entries are never refreshed.
+     *
+     * @return
+     */
+    public long getRefreshAfter() {
+        return refreshAfter;
+    }
+
+    public void setRefreshAfter(long refreshAfter) {
+        this.refreshAfter = refreshAfter;
+    }
+
+    long refreshAfter = -1L;
+
+    /**
+     * The executor that does refreshes. By default this has two daemon threads that stop when idle.
+     *
+     * @return
+     */
+    public Executor getRefreshExecutor() {
+        if (refreshExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "cache-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            refreshExecutor = executor;
+        }
+        return refreshExecutor;
+    }
+
+    public void setRefreshExecutor(Executor refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    Executor refreshExecutor;
+
+    /**
+     * If set, keys that are not in the store are remembered here for a while, so looking them up again does not go
+     * to the store.
+     *
+     * @return
+     */
+    public NegativeCache getNegativeCache() {
+        return negativeCache;
+    }
+
+    public void setNegativeCache(NegativeCache negativeCache) {
+        this.negativeCache = negativeCache;
+    }
+
+    NegativeCache negativeCache;
+
+    /**
+     * Call this whenever the key is written, so it is no longer reported missing.
+     *
+     * @param key
+     */
+    protected void invalidateMissing(Object key) {
+        if (negativeCache != null) {
+            negativeCache.invalidate(key);
+        }
+    }
+
+    /**
+     * An optional, larger, off heap cache for entries that do not fit in the cache.
+     *
+     * @return
+     */
+    public OffHeapCache<V> getSecondLevel() {
+        return secondLevel;
+    }
+
+    public void setSecondLevel(OffHeapCache<V> secondLevel) {
+        if (!(getCache() instanceof ConcurrentCache)) {
+            throw new GeneralException("Error: a second level needs the cache to be a ConcurrentCache");
+        }
+        ConcurrentCache concurrentCache = (ConcurrentCache) getCache();
+        if (secondLevelListener != null) {
+            concurrentCache.removeCacheListener(secondLevelListener);
+            secondLevelListener = null;
+        }
+        this.secondLevel = secondLevel;
+        if (secondLevel != null) {
+            secondLevelListener = new CacheListener() {
+                @Override
+                public void added(Identifier key, CachedObject cachedObject) {
+                    // it's in the cache now, so any other copy is out of date.
+                    getSecondLevel().remove(key);
+                }
+
+                @Override
+                public void removed(Identifier key, CachedObject cachedObject) {
+                    if (removing.get() == null) {
+                        demote(key, (V) cachedObject.getValue());
+                    }
+                }
+
+                @Override
+                public void expired(Identifier key, CachedObject cachedObject) {
+                    // no longer valid, so not kept anywhere.
+                }
+
+                @Override
+                public void cleared() {
+                }
+            };
+            concurrentCache.addCacheListener(secondLevelListener);
+        }
+    }
+
+    OffHeapCache<V> secondLevel;
+    CacheListener secondLevelListener;
+    // Set while remove() takes the entry out of the cache, so it isn't moved to the second level on the way out.
+    ThreadLocal<Boolean> removing = new ThreadLocal<Boolean>();
+
+    /**
+     * Whether entries pushed out of the cache may be moved to the second level. A value read back from there is a
+     * new copy, so a subclass that holds on to cached values itself (e.g. in indices) should return false. Otherwise
+     * it would end up with two different instances for the same entry and spilling would free no memory anyway.
+     *
+     * @return
+     */
+    protected boolean isSpillable() {
+        return true;
+    }
+
+    protected void demote(Identifier key, V value) {
+        if (secondLevel == null || value == null || !isSpillable()) {
+            return;
+        }
+        try {
+            secondLevel.put(key, value);
+        } catch (RuntimeException x) {
+            // can't be serialized, so it just isn't kept.
+            secondLevel.remove(key);
+        }
+    }
+
+    /**
+     * Get the value from the second level. If it can't be decoded, it is dropped and null is returned, so the
+     * caller goes on to the store.
+     *
+     * @param key
+     * @return
+     */
+    protected V getFromSecondLevel(Object key) {
+        try {
+            return secondLevel.get(key);
+        } catch (RuntimeException x) {
+            secondLevel.remove(key);
+            return null;
+        }
+    }
+
+    // Loads and refreshes that are going on now, by key.
+    ConcurrentHashMap<Object, FutureTask<V>> inFlight = new ConcurrentHashMap<Object, FutureTask<V>>();
+
     public boolean hasStore() {
         return theStore != null;
     }
 
     public void clear() {
         getCache().clear();
+        if (negativeCache != null) {
+            negativeCache.clear();
+        }
+        if (secondLevel != null) {
+            secondLevel.clear();
+        }
+        if (isWriteBehind()) {
+            writeBehindQueue.clear();
+        }
         if (hasStore()) {
             getTheStore().clear();
         }
@@ -71,6 +374,9 @@ public abstract class CachedMapFacade<V extends Cacheable> implements Store<V> {
 
 
     public boolean isEmpty() {
+        if (isWriteBehind() && 0 < writeBehindQueue.size()) {
+            return false;
+        }
         if (hasStore()) {
             return getTheStore().size() == 0;
         }
@@ -79,6 +385,7 @@ public abstract class CachedMapFacade<V extends Cacheable> implements Store<V> {
 
     public boolean containsKey(Object key) {
         if (getCache().containsKey(key)) return true;
+        if (isWriteBehind() && writeBehindQueue.isPending(key)) return true;
         if (hasStore()) {
             return getTheStore().containsKey(key);
         }
@@ -96,39 +403,217 @@ public abstract class CachedMapFacade<V extends Cacheable> implements Store<V> {
 
     public V get(Object key) {
         // key is a string or URI for most cases
-        if (getCache().containsKey(key)) {
-            return (V) getCache().get(key).getValue();
+        if (admissionPolicy != null) {
+            admissionPolicy.recordAccess(key);
+        }
+        // Only one lookup, since the entry might be removed by another thread between two of them.
+        CachedObject co = getCache().get(key);
+        if (co != null) {
+            getStats().recordHit();
+            if (needsRefresh(co)) {
+                refresh(key);
+            }
+            return (V) co.getValue();
         }
         V it = null;
-        if (hasStore()) {
-            it = (V) getTheStore().get(key);
+        if (secondLevel != null) {
+            it = getFromSecondLevel(key);
+            if (it != null) {
+                getStats().recordHit();
+                if (admit(it.getIdentifier(), it)) {
+                    // otherwise it just stays in the second level.
+                    getCache().add(it);
+                }
+                return it;
+            }
+        }
+        getStats().recordMiss();
+        if (isWriteBehind()) {
+            // Not written yet, so the store has an old version, if any.
+            it = writeBehindQueue.getPending(key);
             if (it != null) {
-                // only add it if it exists.
                 getCache().add(it);
+                return it;
             }
         }
+        if (negativeCache != null && negativeCache.isMissing(key)) {
+            getStats().recordRejection();
+            return null;
+        }
+        if (hasStore()) {
+            it = isSingleFlight() ? loadOnce(key) : loadAndCache(key);
+        }
         return it;
     }
 
+    /**
+     * Load the value from the store and cache it if it is admitted.
+     *
+     * @param key
+     * @return
+     */
+    protected V loadAndCache(Object key) {
+        V it = loadFromStore(key);
+        if (it == null) {
+            if (negativeCache != null) {
+                negativeCache.recordMissing(key);
+            }
+        } else if (admit(it.getIdentifier(), it)) {
+            // only add it if it exists.
+            getCache().add(it);
+        } else {
+            demote(it.getIdentifier(), it);
+        }
+        return it;
+    }
+
+    /**
+     * Load the value, unless another thread is already loading it, in which case wait for that
+     * load and return its result.
+     *
+     * @param key
+     * @return
+     */
+    protected V loadOnce(final Object key) {
+        FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                return loadAndCache(key);
+            }
+        });
+        FutureTask<V> current = inFlight.putIfAbsent(key, task);
+        if (current == null) {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+            current = task;
+        }
+        try {
+            return current.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeneralException("Error: interrupted while loading \"" + key + "\"", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new GeneralException("Error: could not load \"" + key + "\"", cause);
+        }
+    }
+
+    protected boolean needsRefresh(CachedObject co) {
+        return 0 < getRefreshAfter() && hasStore() && getRefreshAfter() < System.currentTimeMillis() - co.getTimestamp().getTime();
+    }
+
+    /**
+     * Reload the value in the background, unless it is already being loaded. The cached value is replaced
+     * if it is still cached when the load finishes.
+     *
+     * @param key
+     */
+    protected void refresh(final Object key) {
+        final FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                if (isWriteBehind() && writeBehindQueue.isPending(key)) {
+                    // the store is behind what's cached.
+                    return null;
+                }
+                V it = loadFromStore(key);
+                if (it != null && getCache().containsKey(key)) {
+                    getCache().add(it);
+                }
+                return it;
+            }
+        });
+        if (inFlight.putIfAbsent(key, task) != null) {
+            return;
+        }
+        try {
+            getRefreshExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run(); // failures are in the load stats. The old value stays cached.
+                    } finally {
+                        inFlight.remove(key, task);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException x) {
+            inFlight.remove(key, task);
+        }
+    }
+
+    /**
+     * Get the value from the store, keeping track of how long it took.
+     *
+     * @param key
+     * @return
+     */
+    protected V loadFromStore(Object key) {
+        long start = System.nanoTime();
+        try {
+            V it = (V) getTheStore().get(key);
+            getStats().recordLoadSuccess(System.nanoTime() - start);
+            return it;
+        } catch (RuntimeException x) {
+            getStats().recordLoadFailure(System.nanoTime() - start);
+            throw x;
+        }
+    }
+
     public V put(Identifier key, V cacheable) {
       //  String keyString = cacheable.getIdentifierString();
+        invalidateMissing(key);
         V it = null;
-        if (getCache().containsKey(key)) {
-            it = (V) getCache().get(key).getValue();
+        CachedObject co = getCache().get(key);
+        if (co != null) {
+            it = (V) co.getValue();
         }
         if (it == null && hasStore()) {
             it = (V) getTheStore().get(key);
         }
-        getCache().add(cacheable);
+        // Something already cached is always updated so the cache never has a stale copy.
+        if (co != null || admit(key, cacheable)) {
+            getCache().add(cacheable);
+        } else if (secondLevel != null && secondLevel.containsKey(key)) {
+            demote(key, cacheable); // don't leave an old copy there.
+        }
         return it;
     }
 
     public V remove(Object key) {
         V it = null;
-        CachedObject co = getCache().remove(key);
+        CachedObject co;
+        removing.set(Boolean.TRUE);
+        try {
+            co = getCache().remove(key);
+        } finally {
+            removing.remove();
+        }
         if (co != null) {
             it = (V) co.getValue();
         }
+        if (secondLevel != null) {
+            if (it == null) {
+                it = getFromSecondLevel(key);
+            }
+            secondLevel.remove(key);
+        }
+        if (isWriteBehind()) {
+            // Do this before the store, or the queued version could be written back after it is removed.
+            V pending = writeBehindQueue.cancel(key);
+            if (it == null) {
+                it = pending;
+            }
+        }
         if (it == null && hasStore()) {
             it = (V) getTheStore().get(key);
         }
@@ -140,8 +625,15 @@ public abstract class CachedMapFacade<V extends Cacheable> implements Store<V> {
 
     public void putAll(Map<? extends Identifier, ? extends V> m) {
         for (Map.Entry e : m.entrySet()) {
+            invalidateMissing(e.getKey());
             getCache().add((Cacheable) e.getValue());
         }
+        if (isWriteBehind()) {
+            for (V value : m.values()) {
+                writeBehindQueue.enqueue(value);
+            }
+            return;
+        }
         if (hasStore()) {
             getTheStore().putAll(m);
         }
@@ -149,6 +641,7 @@ public abstract class CachedMapFacade<V extends Cacheable> implements Store<V> {
 
 
     public Set<Map.Entry<Identifier, V>> entrySet() {
+        flush();
         if (hasStore()) {
             return getTheStore().entrySet();
         }
@@ -164,6 +657,7 @@ public abstract class CachedMapFacade<V extends Cacheable> implements Store<V> {
     }
 
     public Set<Identifier> keySet() {
+        flush();
         if (hasStore()) {
             return getTheStore().keySet();
         }
@@ -171,6 +665,7 @@ public abstract class CachedMapFacade<V extends Cacheable> implements Store<V> {
     }
 
     public Collection<V> values() {
+        flush();
         if (hasStore()) {
             return getTheStore().values();
         }
@@ -65,4 +65,11 @@ public class CachedObject implements Comparable {
     public void setTimestamp(Date timestamp) {
         this.timestamp = timestamp;
     }
+
+    /*
+    Links for the intrusive list kept by a ConcurrentCache. These are managed entirely by that cache
+    and are null for objects that are not in one.
+     */
+    CachedObject before;
+    CachedObject after;
 }
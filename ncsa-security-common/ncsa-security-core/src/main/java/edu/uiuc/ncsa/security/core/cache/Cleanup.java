@@ -1,6 +1,8 @@
 package edu.uiuc.ncsa.security.core.cache;
 
 
+import edu.uiuc.ncsa.security.core.Identifier;
+import edu.uiuc.ncsa.security.core.util.MaintenanceScheduler;
 import edu.uiuc.ncsa.security.core.util.MyLoggingFacade;
 
 import java.util.*;
@@ -21,6 +23,16 @@ import java.util.*;
  * YOu can also kill the thread directly but generally that can do bad things if the thread is in the middle
  * of, say, updating you store. Most web servers will wait until all threads exit of their own accord before finishing
  * a shutdown, incidentally.
+ * <p>Rather than start a thread for each cleanup, it is better to {@link #schedule(MaintenanceScheduler)} it, so that
+ * every cleanup shares the same few threads.
+ * <h3>Expiration</h3>
+ * Checking every entry on every pass gets expensive for large maps. If the map is a {@link ConcurrentCache},
+ * entries are filed by expiration time as they are added using any {@link ExpiringRetentionPolicy}
+ * (such as {@link MaxAgePolicy} or {@link ValidTimestampPolicy}) and each pass only looks at the entries that
+ * are due. See {@link #isExpiryScheduled()}. Other policies, such as {@link MaxCacheSizePolicy}, still check
+ * entries one at a time, but only when they apply.
+ * <p>If the map is a {@link BulkRetentionStore} (such as an SQL store), then any {@link BulkRetentionPolicy} it
+ * supports is handed to it, so the store can remove everything at once, e.g. with a single <code>DELETE</code>.
  * <p>Created by Jeff Gaynor<br>
  * on 7/12/11 at  11:39 AM
  */
@@ -31,25 +43,63 @@ public class Cleanup<K, V> extends Thread {
 
     /**
      * Clean out old entries by aging the elements, i.e., apply the retention policies.
-     * Returns a list of the entries removed
+     * Returns a list of the entries removed. If expiry is scheduled (see {@link #isExpiryScheduled()}),
+     * {@link ExpiringRetentionPolicy}s only look at the entries that are due and the map is
+     * only scanned if one of the other policies applies.
      */
 
     public List<V> age() {
+        lastBulkRemovedCount = 0;
+        List<V> removed = doAge();
+        if (getStats() != null) {
+            getStats().recordEvictions(removed.size() + getLastBulkRemovedCount());
+        }
+        return removed;
+    }
+
+    protected List<V> doAge() {
         LinkedList<V> linkedList = new LinkedList<V>();
         if (getMap().size() == 0) {
             return linkedList;
         }
-
+        List<RetentionPolicy> scannedPolicies = new LinkedList<RetentionPolicy>();
+        if (isExpiryScheduled()) {
+            expireScheduled(linkedList);
+        }
+        for (RetentionPolicy rp : getRetentionPolicies()) {
+            if (isExpiryScheduled() && rp instanceof ExpiringRetentionPolicy) {
+                continue; // done
+            }
+            if (rp instanceof BulkRetentionPolicy && getMap() instanceof BulkRetentionStore) {
+                BulkRetentionStore store = (BulkRetentionStore) getMap();
+                if (store.supports((BulkRetentionPolicy) rp)) {
+                    lastBulkRemovedCount = lastBulkRemovedCount + store.applyRetention((BulkRetentionPolicy) rp);
+                    continue;
+                }
+            }
+            scannedPolicies.add(rp);
+        }
+        if (scannedPolicies.isEmpty()) {
+            return linkedList;
+        }
 
         // copy the object's sorted list or we will get a concurrent modification exception
         for (K key : getSortedKeys()) {
-            V co = getMap().get(key);
-            for (RetentionPolicy rp : getRetentionPolicies()) {
+            V co = lookup(key);
+            if (co == null) {
+                continue; // removed by someone else in the meantime
+            }
+            for (RetentionPolicy rp : scannedPolicies) {
                 // see if we should bother in the first place...
                 if (rp.applies()) {
                     if (!rp.retain(key, co)) {
-                        getMap().remove(key);
+                        if (rp instanceof ExpiringRetentionPolicy) {
+                            expire(key);
+                        } else {
+                            getMap().remove(key);
+                        }
                         linkedList.add(co);
+                        break;
                     }
                 }
             }
@@ -57,19 +107,224 @@ public class Cleanup<K, V> extends Thread {
         return linkedList;
     }
 
+    /**
+     * The number of entries that the map removed itself during the last call to {@link #age()}, because
+     * it is a {@link BulkRetentionStore}. These are not in the list that {@link #age()} returns.
+     *
+     * @return
+     */
+    public int getLastBulkRemovedCount() {
+        return lastBulkRemovedCount;
+    }
+
+    int lastBulkRemovedCount = 0;
+
+    /**
+     * If set, every entry this removes is counted as an eviction in these.
+     *
+     * @return
+     */
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    public void setStats(CacheStats stats) {
+        this.stats = stats;
+    }
+
+    CacheStats stats;
+
+    /**
+     * Remove the entries whose scheduled expiration has passed. Each is checked against the
+     * {@link ExpiringRetentionPolicy}s first and rescheduled if it should still be kept.
+     *
+     * @param removed
+     */
+    protected void expireScheduled(List<V> removed) {
+        if (rescheduleAll) {
+            // Done once when the map or the policies change, to pick up what is already there.
+            rescheduleAll = false;
+            getTimerWheel().clear();
+            for (K key : new ArrayList<K>(getMap().keySet())) {
+                V value = lookup(key);
+                if (value != null) {
+                    schedule(key, value);
+                }
+            }
+        }
+        for (K key : getTimerWheel().advance(System.currentTimeMillis())) {
+            V value = lookup(key);
+            if (value == null) {
+                continue;
+            }
+            boolean retain = true;
+            for (RetentionPolicy rp : getRetentionPolicies()) {
+                if (rp instanceof ExpiringRetentionPolicy && !rp.retain(key, value)) {
+                    retain = false;
+                    break;
+                }
+            }
+            if (retain) {
+                schedule(key, value);
+            } else {
+                expire(key);
+                removed.add(value);
+            }
+        }
+    }
+
+    /**
+     * File the entry by the earliest time any {@link ExpiringRetentionPolicy} will stop retaining it.
+     * This is done automatically for a {@link ConcurrentCache}. For other maps, turn on
+     * {@link #setExpiryScheduled(boolean)} and call this whenever an entry is added or changed.
+     *
+     * @param key
+     * @param value
+     */
+    public void schedule(K key, V value) {
+        long expiration = Long.MAX_VALUE;
+        for (RetentionPolicy rp : getRetentionPolicies()) {
+            if (rp instanceof ExpiringRetentionPolicy) {
+                expiration = Math.min(expiration, ((ExpiringRetentionPolicy) rp).getExpiration(key, value));
+            }
+        }
+        if (expiration == Long.MAX_VALUE) {
+            getTimerWheel().cancel(key);
+        } else {
+            getTimerWheel().schedule(key, expiration);
+        }
+    }
+
+    /**
+     * Remove an entry that an {@link ExpiringRetentionPolicy} no longer retains. For a {@link ConcurrentCache}
+     * this uses {@link ConcurrentCache#expire(Object)}, so e.g. a {@link CachedMapFacade} does not move it to its
+     * second level.
+     *
+     * @param key
+     */
+    protected void expire(K key) {
+        if (getMap() instanceof ConcurrentCache) {
+            ((ConcurrentCache) getMap()).expire(key);
+        } else {
+            getMap().remove(key);
+        }
+    }
+
+    /**
+     * Call this when an entry is removed from the map other than by this cleanup. Again, this is done
+     * automatically for a {@link ConcurrentCache}.
+     *
+     * @param key
+     */
+    public void unschedule(K key) {
+        getTimerWheel().cancel(key);
+    }
+
+    /**
+     * If true, then expiration is tracked by the {@link #getTimerWheel()}, so aging costs
+     * time proportional to what expires rather than to the size of the map. This is set
+     * when the map is a {@link ConcurrentCache}, since it tells this cleanup about every change.
+     *
+     * @return
+     */
+    public boolean isExpiryScheduled() {
+        return expiryScheduled;
+    }
+
+    public void setExpiryScheduled(boolean expiryScheduled) {
+        this.expiryScheduled = expiryScheduled;
+        rescheduleAll = true;
+    }
+
+    boolean expiryScheduled = false;
+    volatile boolean rescheduleAll = true;
+
+    public TimerWheel<K> getTimerWheel() {
+        if (timerWheel == null) {
+            timerWheel = new TimerWheel<K>(getExpiryResolution());
+        }
+        return timerWheel;
+    }
+
+    volatile TimerWheel<K> timerWheel;
+
+    /**
+     * How precisely, in milliseconds, expiration times are tracked. Entries are never removed
+     * early, but may be kept up to this long (plus the {@link #getCleanupInterval()}) past their expiration.
+     *
+     * @return
+     */
+    public long getExpiryResolution() {
+        return expiryResolution;
+    }
+
+    public void setExpiryResolution(long expiryResolution) {
+        this.expiryResolution = expiryResolution;
+        timerWheel = null;
+        rescheduleAll = true;
+    }
+
+    long expiryResolution = 1000L;
+
+    /**
+     * Get the value without affecting its state. For a {@link ConcurrentCache} in access order
+     * a normal get would count as a use of the entry.
+     *
+     * @param key
+     * @return
+     */
+    protected V lookup(K key) {
+        if (getMap() instanceof ConcurrentCache) {
+            return (V) ((ConcurrentCache) getMap()).peek(key);
+        }
+        return getMap().get(key);
+    }
 
     /**
      * Return all the keys for the map, sorted into a some order, usually by timestamp.
-     * The default assumes that the keys are comparable and orders them. Override as needed.
+     * The default assumes that the keys are comparable and orders them. A {@link ConcurrentCache}
+     * already has its keys in order of age, so those are used. Override as needed.
      *
      * @return
      */
     public Set<K> getSortedKeys() {
+        if (getMap() instanceof ConcurrentCache) {
+            return new LinkedHashSet<K>((List<K>) ((ConcurrentCache) getMap()).getKeysByAge());
+        }
         TreeSet<K> sortedList = new TreeSet<K>();
         sortedList.addAll(getMap().keySet());
         return sortedList;
     }
 
+    CacheListener getCacheListener() {
+        if (cacheListener == null) {
+            cacheListener = new CacheListener() {
+                @Override
+                public void added(Identifier key, CachedObject cachedObject) {
+                    schedule((K) key, (V) cachedObject);
+                }
+
+                @Override
+                public void removed(Identifier key, CachedObject cachedObject) {
+                    unschedule((K) key);
+                }
+
+                @Override
+                public void expired(Identifier key, CachedObject cachedObject) {
+                    unschedule((K) key);
+                }
+
+                @Override
+                public void cleared() {
+                    getTimerWheel().clear();
+                }
+            };
+        }
+        return cacheListener;
+    }
+
+    CacheListener cacheListener;
+
 
     MyLoggingFacade logger;
     public long cleanupInterval = 60000L;
@@ -92,7 +347,16 @@ public class Cleanup<K, V> extends Thread {
     }
 
     public void setMap(Map<K, V> map) {
+        if (this.map instanceof ConcurrentCache) {
+            ((ConcurrentCache) this.map).removeCacheListener(getCacheListener());
+        }
         this.map = map;
+        if (map instanceof ConcurrentCache) {
+            ((ConcurrentCache) map).addCacheListener(getCacheListener());
+            setExpiryScheduled(true);
+        } else {
+            setExpiryScheduled(false);
+        }
     }
 
     Map<K, V> map;
@@ -119,10 +383,12 @@ public class Cleanup<K, V> extends Thread {
 
     public void addRetentionPolicy(RetentionPolicy retentionPolicy) {
         getRetentionPolicies().add(retentionPolicy);
+        rescheduleAll = true;
     }
 
     public void removeRetentionPolicy(RetentionPolicy retentionPolicy) {
         getRetentionPolicies().remove(retentionPolicy);
+        rescheduleAll = true;
     }
 
     public List<RetentionPolicy> getRetentionPolicies() {
@@ -134,6 +400,7 @@ public class Cleanup<K, V> extends Thread {
 
     public void setRetentionPolicies(LinkedList<RetentionPolicy> retentionPolicies) {
         this.retentionPolicies = retentionPolicies;
+        rescheduleAll = true;
     }
 
     LinkedList<RetentionPolicy> retentionPolicies;
@@ -154,6 +421,38 @@ public class Cleanup<K, V> extends Thread {
         log("removed:" + removed.size() + ", remaining:" + getMap().size());
     }
 
+    /**
+     * Run this every {@link #getCleanupInterval()} milliseconds on the scheduler, instead of starting this thread.
+     * Cancel the returned task to stop it.
+     *
+     * @param scheduler
+     * @return
+     */
+    public MaintenanceScheduler.Task schedule(MaintenanceScheduler scheduler) {
+        return scheduler.schedule("cleanup for " + getMap(), new Runnable() {
+            @Override
+            public void run() {
+                cleanup();
+            }
+        }, getCleanupInterval());
+    }
+
+    /**
+     * Age the map once and log what happened.
+     */
+    public void cleanup() {
+        if (getMap() == null) {
+            return;
+        }
+        List<V> removed = age();
+        if (!removed.isEmpty()) {
+            log(removed);
+        }
+        if (0 < getLastBulkRemovedCount()) {
+            log("removed in bulk:" + getLastBulkRemovedCount());
+        }
+    }
+
     @Override
     public void run() {
         log("starting cleanup thread for " + getMap());
@@ -163,11 +462,7 @@ public class Cleanup<K, V> extends Thread {
 
                 if (getMap() != null) {
                     try {
-                        List<V> removed = age();
-                        if (!removed.isEmpty()) {
-                            log(removed);
-                        }
-
+                        cleanup();
                     } catch (Throwable throwable) {
                         // nix to do, really if this fails.
                         // mostly just print out something someplace so there is a record of the failure.
@@ -185,7 +480,6 @@ public class Cleanup<K, V> extends Thread {
                             logger.warn("Error in cleanup:\"" + msg + "\" Processing will continue.");
 
                         }
-                        return;
                     }
                 }
             } catch (InterruptedException e) {
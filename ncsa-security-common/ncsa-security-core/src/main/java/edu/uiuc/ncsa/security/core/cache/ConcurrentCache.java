@@ -0,0 +1,335 @@
+package edu.uiuc.ncsa.security.core.cache;
+
+import edu.uiuc.ncsa.security.core.Identifier;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread safe {@link Cache} with constant time get, put and remove.
+ * <p>Entries are held in a hash index plus a doubly linked list that runs through the
+ * {@link CachedObject}s themselves, oldest first. Reads go straight to the index and never lock.
+ * Writes take a single lock, but only long enough to update the index and relink one or two entries,
+ * so there is no scanning of the cache at any point (the {@link Cache} has to search its priority
+ * queue on every removal).
+ * <h3>Ordering</h3>
+ * By default the list is in insertion order. Since a cached object is timestamped when it is made, this
+ * is the same as timestamp order and {@link #getOldest()} is always the next candidate for aging.
+ * Re-adding an existing key refreshes its timestamp and moves it to the end of the list. If the cache is
+ * created with access ordering, then a get does the same, so aging policies then evict entries that
+ * have not been used rather than entries that are simply old. Moving an entry on a get is done
+ * only if the lock is free, so reads still never wait.
+ * <h3>Differences from {@link Cache}</h3>
+ * <ul>
+ *     <li>{@link #keySet()}, {@link #values()} and {@link #entrySet()} are read only and are not sorted by key.
+ *     Remove entries with {@link #remove(Object)} so the ordering is kept up to date.</li>
+ *     <li>{@link #getSortedList()} and {@link #getTheRealCache()} return copies.</li>
+ *     <li>A cached object can be in at most one of these caches at a time.</li>
+ * </ul>
+ */
+public class ConcurrentCache extends Cache {
+    public ConcurrentCache() {
+        this(false);
+    }
+
+    /**
+     * @param accessOrder if true, retrieving an entry makes it the newest entry in the cache.
+     */
+    public ConcurrentCache(boolean accessOrder) {
+        this.accessOrder = accessOrder;
+    }
+
+    boolean accessOrder = false;
+
+    public boolean isAccessOrder() {
+        return accessOrder;
+    }
+
+    List<CacheListener> listeners = new CopyOnWriteArrayList<CacheListener>();
+
+    public void addCacheListener(CacheListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeCacheListener(CacheListener listener) {
+        listeners.remove(listener);
+    }
+
+    ConcurrentHashMap<Identifier, CachedObject> index = new ConcurrentHashMap<Identifier, CachedObject>();
+    final ReentrantLock lock = new ReentrantLock();
+
+    /*
+    Head is the oldest entry, tail the newest. Only ever changed while holding the lock.
+     */
+    volatile CachedObject head;
+    CachedObject tail;
+
+    @Override
+    public CachedObject add(Cacheable cacheable) {
+        Identifier key = cacheable.getIdentifier();
+        lock.lock();
+        try {
+            CachedObject co = index.get(key);
+            if (co == null) {
+                co = new CachedObject();
+                co.setKey(key.toString());
+                index.put(key, co);
+                linkLast(co);
+            } else {
+                co.setTimestamp(new Date());
+                moveToEnd(co);
+            }
+            co.setValue(cacheable);
+            fireAdded(key, co);
+            return co;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public CachedObject put(Identifier key, CachedObject value) {
+        lock.lock();
+        try {
+            CachedObject oldCO = index.get(key);
+            if (oldCO == null) {
+                index.put(key, value);
+                linkLast(value);
+            } else {
+                // Same contract as the Cache: keep the existing entry but take the new timestamp.
+                oldCO.setTimestamp(value.getTimestamp());
+                moveToEnd(oldCO);
+            }
+            fireAdded(key, oldCO == null ? value : oldCO);
+            return oldCO;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public CachedObject get(Object key) {
+        CachedObject co = index.get(key);
+        if (co != null && accessOrder && lock.tryLock()) {
+            try {
+                // it might have been removed after we looked it up.
+                if (index.get(key) == co) {
+                    co.setTimestamp(new Date());
+                    moveToEnd(co);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return co;
+    }
+
+    /**
+     * Get the entry without changing its position, even if this cache is in access order. Use this
+     * for housekeeping, such as aging, where looking at an entry should not count as using it.
+     *
+     * @param key
+     * @return
+     */
+    public CachedObject peek(Object key) {
+        return index.get(key);
+    }
+
+    @Override
+    public CachedObject remove(Object key) {
+        return remove(key, false);
+    }
+
+    /**
+     * Remove the entry because it is no longer valid, e.g. it is too old. This is the same as {@link #remove(Object)}
+     * except that listeners are told it {@link CacheListener#expired(Identifier, CachedObject)}, so they
+     * won't try to keep it elsewhere.
+     *
+     * @param key
+     * @return
+     */
+    public CachedObject expire(Object key) {
+        return remove(key, true);
+    }
+
+    protected CachedObject remove(Object key, boolean expired) {
+        lock.lock();
+        try {
+            CachedObject co = index.remove(key);
+            if (co != null) {
+                unlink(co);
+                for (CacheListener listener : listeners) {
+                    if (expired) {
+                        listener.expired((Identifier) key, co);
+                    } else {
+                        listener.removed((Identifier) key, co);
+                    }
+                }
+            }
+            return co;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends Identifier, ? extends CachedObject> m) {
+        for (Entry<? extends Identifier, ? extends CachedObject> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            CachedObject co = head;
+            while (co != null) {
+                CachedObject next = co.after;
+                co.before = null;
+                co.after = null;
+                co = next;
+            }
+            head = null;
+            tail = null;
+            index.clear();
+            for (CacheListener listener : listeners) {
+                listener.cleared();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public CachedObject getOldest() {
+        return head;
+    }
+
+    /**
+     * The keys in this cache, oldest first. This is a copy, so the cache may be changed while
+     * iterating over it.
+     *
+     * @return
+     */
+    public List<Identifier> getKeysByAge() {
+        lock.lock();
+        try {
+            IdentityHashMap<CachedObject, Identifier> keysByEntry = new IdentityHashMap<CachedObject, Identifier>(index.size());
+            for (Map.Entry<Identifier, CachedObject> e : index.entrySet()) {
+                keysByEntry.put(e.getValue(), e.getKey());
+            }
+            ArrayList<Identifier> keys = new ArrayList<Identifier>(keysByEntry.size());
+            for (CachedObject co = head; co != null; co = co.after) {
+                keys.add(keysByEntry.get(co));
+            }
+            return keys;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A copy of the cached objects, ordered by timestamp.
+     *
+     * @return
+     */
+    @Override
+    public PriorityQueue<CachedObject> getSortedList() {
+        return new PriorityQueue<CachedObject>(index.values());
+    }
+
+    /**
+     * A copy of the entries in this cache, sorted by key.
+     *
+     * @return
+     */
+    @Override
+    public TreeMap<Identifier, CachedObject> getTheRealCache() {
+        return new TreeMap<Identifier, CachedObject>(index);
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public boolean containsObject(Cacheable cacheable) {
+        return index.containsKey(cacheable.getIdentifier());
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return index.containsValue(value);
+    }
+
+    @Override
+    public Set<Identifier> keySet() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    @Override
+    public Collection<CachedObject> values() {
+        return Collections.unmodifiableCollection(index.values());
+    }
+
+    @Override
+    public Set<Entry<Identifier, CachedObject>> entrySet() {
+        return Collections.unmodifiableSet(index.entrySet());
+    }
+
+    // All of these must be called while holding the lock.
+    void fireAdded(Identifier key, CachedObject co) {
+        for (CacheListener listener : listeners) {
+            listener.added(key, co);
+        }
+    }
+
+    void linkLast(CachedObject co) {
+        co.after = null;
+        co.before = tail;
+        if (tail == null) {
+            head = co;
+        } else {
+            tail.after = co;
+        }
+        tail = co;
+    }
+
+    void unlink(CachedObject co) {
+        CachedObject b = co.before;
+        CachedObject a = co.after;
+        if (b == null) {
+            head = a;
+        } else {
+            b.after = a;
+        }
+        if (a == null) {
+            tail = b;
+        } else {
+            a.before = b;
+        }
+        co.before = null;
+        co.after = null;
+    }
+
+    void moveToEnd(CachedObject co) {
+        if (tail != co) {
+            unlink(co);
+            linkLast(co);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package edu.uiuc.ncsa.security.core.cache;
+
+/**
+ * A {@link RetentionPolicy} that can say ahead of time when an entry will stop being retained.
+ * A {@link Cleanup} uses this to file entries by their expiration as they are added, so that aging only
+ * has to look at entries that are actually due rather than at every entry in the map.
+ */
+public interface ExpiringRetentionPolicy<K, V> extends RetentionPolicy<K, V> {
+    /**
+     * The time, in milliseconds, at which this policy will no longer retain the entry. Return a value in the
+     * past (such as 0) if the entry should go right away. Note that {@link #retain(Object, Object)} is
+     * always checked again before an entry is removed, so if the entry has changed in the meantime
+     * (e.g. a cached object was refreshed) it will be kept and rescheduled.
+     *
+     * @param key
+     * @param value
+     * @return
+     */
+    public long getExpiration(K key, V value);
+}
@@ -0,0 +1,91 @@
+package edu.uiuc.ncsa.security.core.cache;
+
+/**
+ * A compact, approximate count of how often keys have been seen recently. This is a count-min sketch
+ * with four 4-bit counters per key, so counts top out at 15. After a number of increments proportional to the
+ * size of the sketch every count is halved, so what was popular a long time ago fades away.
+ * <p>The answer for a key is never less than its true count (since the last halving), but collisions may make it
+ * larger. Updates are not synchronized, since this is on the path of every cache read. Concurrent increments
+ * may occasionally be lost, which only makes the estimate a bit low.
+ */
+public class FrequencySketch {
+    static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    static final long RESET_MASK = 0x7777777777777777L;
+    public static final int MAX_FREQUENCY = 15;
+
+    /**
+     * @param expectedEntries About how many distinct keys should be tracked, usually the number of entries
+     *                        the cache can hold.
+     */
+    public FrequencySketch(int expectedEntries) {
+        int size = 16;
+        while (size < expectedEntries && size < (1 << 30)) {
+            size = size << 1;
+        }
+        table = new long[size];
+        tableMask = size - 1;
+        sampleSize = 10 * size;
+    }
+
+    long[] table;
+    int tableMask;
+    int sampleSize;
+    int additions = 0;
+
+    /**
+     * The estimated number of times the key has been seen, from 0 to {@link #MAX_FREQUENCY}.
+     *
+     * @param key
+     * @return
+     */
+    public int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0; i < 4; i++) {
+            int offset = (start + i) << 2;
+            int count = (int) ((table[indexOf(hash, i)] >>> offset) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    public void increment(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int offset = (start + i) << 2;
+            if (((table[index] >>> offset) & 0xfL) != 0xfL) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Halve every count.
+     */
+    protected void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions = additions >>> 1;
+    }
+
+    int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,110 @@
+package edu.uiuc.ncsa.security.core.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of how long something took. Bucket i counts the times that took less than 2<sup>i</sup>
+ * microseconds (and at least half that), so this covers everything from a microsecond up to about half an hour
+ * in {@link #BUCKETS} buckets. Percentiles are therefore only accurate to within a factor of 2, which is
+ * fine for telling a cache hit from a network round trip. Recording is cheap and does not lock.
+ */
+public class LatencyHistogram {
+    public static final int BUCKETS = 32;
+
+    LongAdder[] buckets = new LongAdder[BUCKETS];
+    LongAdder count = new LongAdder();
+    LongAdder totalNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record an elapsed time in nanoseconds.
+     *
+     * @param nanos
+     */
+    public void record(long nanos) {
+        nanos = Math.max(nanos, 0L);
+        long micros = nanos / 1000L;
+        int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+        buckets[Math.min(bucket, BUCKETS - 1)].increment();
+        count.increment();
+        totalNanos.add(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * Average time in milliseconds, or 0 if nothing has been recorded.
+     *
+     * @return
+     */
+    public double getMeanMillis() {
+        long n = getCount();
+        return n == 0 ? 0.0 : getTotalNanos() / (n * 1000000.0);
+    }
+
+    /**
+     * A copy of the counts in each bucket.
+     *
+     * @return
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * The upper bound, in milliseconds, of the bucket that the given percentile (from 0 to 100) falls in.
+     *
+     * @param percentile
+     * @return
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] counts = getBucketCounts();
+        long total = 0L;
+        for (long c : counts) {
+            total = total + c;
+        }
+        if (total == 0L) {
+            return 0.0;
+        }
+        long target = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen = seen + counts[i];
+            if (target <= seen) {
+                return (1L << i) / 1000.0;
+            }
+        }
+        return (1L << (BUCKETS - 1)) / 1000.0;
+    }
+
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        count.reset();
+        totalNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[count=" + getCount() +
+                ", mean=" + String.format("%.3f", getMeanMillis()) + " ms." +
+                ", p50<=" + getPercentileMillis(50) + " ms." +
+                ", p99<=" + getPercentileMillis(99) + " ms.]";
+    }
+}
@@ -7,7 +7,7 @@ import edu.uiuc.ncsa.security.core.Identifier;
  * <p>Created by Jeff Gaynor<br>
  * on Nov 12, 2010 at  10:21:04 AM
  */
-public class MaxAgePolicy implements RetentionPolicy<Identifier, CachedObject> {
+public class MaxAgePolicy implements ExpiringRetentionPolicy<Identifier, CachedObject> {
     public MaxAgePolicy(Cache cache, long maximumAge) {
         setMap(cache);
         setMaximumAge(maximumAge);
@@ -37,13 +37,18 @@ public class MaxAgePolicy implements RetentionPolicy<Identifier, CachedObject> {
         return timeOk(cachedObject.getTime());
     }
 
+    public long getExpiration(Identifier key, CachedObject cachedObject) {
+        // retained up to and including the maximum age.
+        return cachedObject.getTime() + getMaximumAge() + 1;
+    }
+
     boolean timeOk(long currentTime) {
         return (System.currentTimeMillis() - currentTime) <= getMaximumAge();
     }
 
     public boolean applies() {
         if (getMap().isEmpty()) return false;
-        CachedObject first = getMap().getSortedList().peek();
-        return !timeOk(first.getTime());
+        CachedObject first = getMap().getOldest();
+        return first != null && !timeOk(first.getTime());
     }
 }
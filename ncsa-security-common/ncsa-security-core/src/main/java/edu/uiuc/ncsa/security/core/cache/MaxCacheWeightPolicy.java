@@ -0,0 +1,224 @@
+package edu.uiuc.ncsa.security.core.cache;
+
+import edu.uiuc.ncsa.security.core.Identifier;
+import edu.uiuc.ncsa.security.core.util.BasicIdentifier;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the total weight of a {@link ConcurrentCache} rather than the number of entries in it. The
+ * {@link Weigher} decides how much each entry weighs, e.g. its approximate size in bytes. By default every
+ * entry weighs 1, so this acts like a {@link MaxCacheSizePolicy}.
+ * <h3>Use</h3>
+ * As a {@link RetentionPolicy} this works with a {@link Cleanup} like any other. It is also an {@link AdmissionPolicy},
+ * so set it in a {@link CachedMapFacade} and the facade will keep the cache under the maximum weight as it loads
+ * entries. In that case it keeps a {@link FrequencySketch} of recent lookups. When the cache is full, something
+ * loaded from the store only goes in the cache if it has been looked up more often than the oldest entry, which is
+ * the first one it would push out. This is decided before anything is pushed out, so a rejected entry costs the
+ * cache nothing. So entries that are used all the time stay even when there are a lot of one-time lookups.
+ * Since the entries pushed out are the oldest ones, the cache should be in access order
+ * (see {@link ConcurrentCache#ConcurrentCache(boolean)}), so that these are the least recently used.
+ */
+public class MaxCacheWeightPolicy implements RetentionPolicy<Identifier, CachedObject>, AdmissionPolicy, CacheListener {
+    public MaxCacheWeightPolicy(ConcurrentCache cache, long maximumWeight) {
+        this(cache, maximumWeight, null);
+    }
+
+    public MaxCacheWeightPolicy(ConcurrentCache cache, long maximumWeight, Weigher weigher) {
+        this(cache, maximumWeight, weigher, 1024);
+    }
+
+    /**
+     * @param cache
+     * @param maximumWeight
+     * @param weigher         If null, each entry weighs 1.
+     * @param expectedEntries About how many entries the cache will hold. This sizes the {@link FrequencySketch}.
+     */
+    public MaxCacheWeightPolicy(ConcurrentCache cache, long maximumWeight, Weigher weigher, int expectedEntries) {
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        this.frequencySketch = new FrequencySketch(expectedEntries);
+        setMap(cache);
+    }
+
+    ConcurrentCache map;
+
+    public ConcurrentCache getMap() {
+        return map;
+    }
+
+    public void setMap(ConcurrentCache map) {
+        if (this.map != null) {
+            this.map.removeCacheListener(this);
+        }
+        this.map = map;
+        cleared();
+        if (map != null) {
+            map.addCacheListener(this);
+            // pick up anything already in it.
+            for (Identifier key : map.keySet()) {
+                CachedObject co = map.peek(key);
+                if (co != null) {
+                    added(key, co);
+                }
+            }
+        }
+    }
+
+    long maximumWeight;
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public void setMaximumWeight(long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+    }
+
+    Weigher weigher;
+
+    public Weigher getWeigher() {
+        if (weigher == null) {
+            weigher = new Weigher() {
+                @Override
+                public long weigh(Identifier key, Object value) {
+                    return 1L;
+                }
+            };
+        }
+        return weigher;
+    }
+
+    FrequencySketch frequencySketch;
+
+    public FrequencySketch getFrequencySketch() {
+        return frequencySketch;
+    }
+
+    /**
+     * If false, then everything loaded is admitted and the oldest entries are evicted to make room.
+     *
+     * @return
+     */
+    public boolean isAdmissionFiltered() {
+        return admissionFiltered;
+    }
+
+    public void setAdmissionFiltered(boolean admissionFiltered) {
+        this.admissionFiltered = admissionFiltered;
+    }
+
+    boolean admissionFiltered = true;
+
+    ConcurrentHashMap<Identifier, Long> weights = new ConcurrentHashMap<Identifier, Long>();
+    AtomicLong totalWeight = new AtomicLong(0L);
+
+    /**
+     * The current total weight of everything in the cache.
+     *
+     * @return
+     */
+    public long getTotalWeight() {
+        return totalWeight.get();
+    }
+
+    AtomicLong evictionCount = new AtomicLong(0L);
+
+    /**
+     * How many entries this has removed from the cache to make room for others.
+     *
+     * @return
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    AtomicLong rejectionCount = new AtomicLong(0L);
+
+    /**
+     * How many entries this has refused to admit.
+     *
+     * @return
+     */
+    public long getRejectionCount() {
+        return rejectionCount.get();
+    }
+
+    protected boolean weightOk() {
+        return getTotalWeight() <= getMaximumWeight();
+    }
+
+    @Override
+    public boolean retain(Identifier key, CachedObject value) {
+        return weightOk();
+    }
+
+    @Override
+    public boolean applies() {
+        return !weightOk();
+    }
+
+    @Override
+    public void recordAccess(Object key) {
+        frequencySketch.increment(key.toString());
+    }
+
+    @Override
+    public boolean admit(Identifier key, Cacheable value) {
+        long weight = getWeigher().weigh(key, value);
+        if (getMaximumWeight() < weight) {
+            rejectionCount.incrementAndGet();
+            return false;
+        }
+        Long current = weights.get(key);
+        long needed = weight - (current == null ? 0L : current);
+        if (isAdmissionFiltered() && getMaximumWeight() < getTotalWeight() + needed) {
+            // Decide before anything is evicted, by comparing with the first entry that would go, as TinyLFU does.
+            CachedObject victim = getMap().getOldest();
+            if (victim != null && !victim.getKey().equals(key.toString())
+                    && frequencySketch.frequency(key.toString()) <= frequencySketch.frequency(victim.getKey())) {
+                rejectionCount.incrementAndGet();
+                return false;
+            }
+        }
+        while (getMaximumWeight() < getTotalWeight() + needed) {
+            CachedObject victim = getMap().getOldest();
+            if (victim == null || victim.getKey().equals(key.toString())) {
+                break;
+            }
+            if (getMap().remove(BasicIdentifier.newID(victim.getKey())) == null) {
+                // Can't find it by its key, so leave it for a cleanup to deal with.
+                break;
+            }
+            evictionCount.incrementAndGet();
+        }
+        return true;
+    }
+
+    @Override
+    public void added(Identifier key, CachedObject cachedObject) {
+        long weight = getWeigher().weigh(key, cachedObject.getValue());
+        Long old = weights.put(key, weight);
+        totalWeight.addAndGet(weight - (old == null ? 0L : old));
+    }
+
+    @Override
+    public void removed(Identifier key, CachedObject cachedObject) {
+        Long old = weights.remove(key);
+        if (old != null) {
+            totalWeight.addAndGet(-old);
+        }
+    }
+
+    @Override
+    public void expired(Identifier key, CachedObject cachedObject) {
+        removed(key, cachedObject);
+    }
+
+    @Override
+    public void cleared() {
+        weights.clear();
+        totalWeight.set(0L);
+    }
+}
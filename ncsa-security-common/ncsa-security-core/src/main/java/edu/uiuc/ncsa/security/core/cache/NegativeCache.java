@@ -0,0 +1,94 @@
+package edu.uiuc.ncsa.security.core.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers, for a short time, keys that were looked up and not found. A {@link CachedMapFacade} with one of these
+ * does not go to its store again for a key that was just missing. This stops repeated lookups of bad keys, e.g.
+ * expired or made up tokens, from reaching the store every time.
+ * <p>Entries expire after {@link #getTtl()} milliseconds. Keep this short: if something else adds the key to the
+ * store, it will not be found through the facade until then. Keys written through the facade are taken out at once.
+ * At most {@link #getMaxSize()} keys are kept. Past that, expired ones are dropped and if that is not enough, everything is.
+ */
+public class NegativeCache {
+    public NegativeCache() {
+        this(5000L, 10000);
+    }
+
+    public NegativeCache(long ttl, int maxSize) {
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+    }
+
+    long ttl;
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    int maxSize;
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    // key -> time it expires.
+    ConcurrentHashMap<Object, Long> misses = new ConcurrentHashMap<Object, Long>();
+
+    /**
+     * True if the key was recorded as missing and that has not expired.
+     *
+     * @param key
+     * @return
+     */
+    public boolean isMissing(Object key) {
+        Long expires = misses.get(key);
+        if (expires == null) {
+            return false;
+        }
+        if (expires < System.currentTimeMillis()) {
+            misses.remove(key, expires);
+            return false;
+        }
+        return true;
+    }
+
+    public void recordMissing(Object key) {
+        if (getMaxSize() <= misses.size()) {
+            prune();
+        }
+        misses.put(key, System.currentTimeMillis() + getTtl());
+    }
+
+    /**
+     * Forget the key, e.g. because it has just been added.
+     *
+     * @param key
+     */
+    public void invalidate(Object key) {
+        misses.remove(key);
+    }
+
+    public void clear() {
+        misses.clear();
+    }
+
+    public int size() {
+        return misses.size();
+    }
+
+    protected void prune() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Object, Long>> iterator = misses.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue() < now) {
+                iterator.remove();
+            }
+        }
+        if (getMaxSize() <= misses.size()) {
+            misses.clear();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package edu.uiuc.ncsa.security.core.cache;
+
+import edu.uiuc.ncsa.security.core.exceptions.GeneralException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache that keeps its values serialized in direct {@link ByteBuffer}s, outside of the Java heap. This can hold far
+ * more than the heap comfortably can, without adding to garbage collection. Only a small index of where each entry is
+ * stays on the heap.
+ * <h3>Storage</h3>
+ * Memory is allocated as {@link #getSlabCount()} slabs of {@link #getSlabSize()} bytes each. Entries are appended to
+ * the current slab. When all of them are full, the oldest slab is emptied and reused, dropping everything in it.
+ * So the eviction policy is first in, first out by slab. Replacing an entry writes a new copy and the old one is
+ * just left until its slab is reused. An entry bigger than a slab is not cached.
+ * <h3>Use</h3>
+ * Set this as the second level of a {@link CachedMapFacade} (see {@link CachedMapFacade#setSecondLevel(OffHeapCache)}).
+ * Entries pushed out of the facade's cache are put here and are moved back to it when they are requested again.
+ * Values are converted to bytes with the {@link CacheCodec}. By default this is Java serialization, which works for any
+ * {@link edu.uiuc.ncsa.security.core.Identifiable}. Set a different codec if there is a more compact form. Every
+ * get makes a new copy of the value, so changing it does not change what is stored here.
+ * <p>This is thread safe.
+ */
+public class OffHeapCache<V> {
+    /**
+     * @param slabSize  The size of each slab, in bytes.
+     * @param slabCount How many slabs. The total memory used is slabSize &times; slabCount.
+     */
+    public OffHeapCache(int slabSize, int slabCount) {
+        this(slabSize, slabCount, null);
+    }
+
+    public OffHeapCache(int slabSize, int slabCount, CacheCodec<V> codec) {
+        if (slabSize <= 0 || slabCount < 2) {
+            throw new IllegalArgumentException("Error: the slab size must be positive and there must be at least 2 slabs.");
+        }
+        this.slabSize = slabSize;
+        this.codec = codec;
+        slabs = new ByteBuffer[slabCount];
+        slabKeys = new List[slabCount];
+        for (int i = 0; i < slabCount; i++) {
+            slabKeys[i] = new ArrayList<Object>();
+        }
+    }
+
+    int slabSize;
+
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    public int getSlabCount() {
+        return slabs.length;
+    }
+
+    CacheCodec<V> codec;
+
+    public CacheCodec<V> getCodec() {
+        if (codec == null) {
+            codec = new CacheCodec<V>() {
+                @Override
+                public byte[] encode(V value) {
+                    try {
+                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                        ObjectOutputStream oos = new ObjectOutputStream(baos);
+                        oos.writeObject(value);
+                        oos.close();
+                        return baos.toByteArray();
+                    } catch (IOException e) {
+                        throw new GeneralException("Error: could not serialize the value", e);
+                    }
+                }
+
+                @Override
+                public V decode(byte[] bytes) {
+                    try {
+                        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                        return (V) ois.readObject();
+                    } catch (IOException | ClassNotFoundException e) {
+                        throw new GeneralException("Error: could not deserialize the value", e);
+                    }
+                }
+            };
+        }
+        return codec;
+    }
+
+    /*
+    Where an entry is. Slabs are allocated when first needed, so an unused cache takes no memory.
+     */
+    static class Location {
+        Location(int slab, int offset, int length) {
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        int slab;
+        int offset;
+        int length;
+    }
+
+    ByteBuffer[] slabs;
+    List<Object>[] slabKeys; // the keys written to each slab, so they can be dropped when it is reused.
+    HashMap<Object, Location> index = new HashMap<Object, Location>();
+    int currentSlab = 0;
+    int position = 0;
+
+    AtomicLong hits = new AtomicLong(0L);
+    AtomicLong misses = new AtomicLong(0L);
+    AtomicLong evictions = new AtomicLong(0L);
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * How many entries have been dropped because their slab was reused.
+     *
+     * @return
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Store the value. Returns false if it is too big to fit in a slab.
+     *
+     * @param key
+     * @param value
+     * @return
+     */
+    public boolean put(Object key, V value) {
+        byte[] bytes = getCodec().encode(value);
+        if (slabSize < bytes.length) {
+            remove(key);
+            return false;
+        }
+        synchronized (this) {
+            if (slabSize - position < bytes.length) {
+                nextSlab();
+            }
+            ByteBuffer slab = getSlab(currentSlab);
+            slab.position(position);
+            slab.put(bytes);
+            index.put(key, new Location(currentSlab, position, bytes.length));
+            slabKeys[currentSlab].add(key);
+            position = position + bytes.length;
+        }
+        return true;
+    }
+
+    public V get(Object key) {
+        byte[] bytes;
+        synchronized (this) {
+            Location location = index.get(key);
+            if (location == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            bytes = new byte[location.length];
+            ByteBuffer slab = slabs[location.slab];
+            slab.position(location.offset);
+            slab.get(bytes);
+        }
+        hits.incrementAndGet();
+        // decoding can be slow, so don't hold the lock for it.
+        return getCodec().decode(bytes);
+    }
+
+    public synchronized boolean containsKey(Object key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * Remove the entry. Its space is reclaimed when its slab is reused.
+     *
+     * @param key
+     * @return true if there was an entry.
+     */
+    public synchronized boolean remove(Object key) {
+        return index.remove(key) != null;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized void clear() {
+        index.clear();
+        for (List<Object> keys : slabKeys) {
+            keys.clear();
+        }
+        currentSlab = 0;
+        position = 0;
+    }
+
+    /**
+     * Total bytes allocated off the heap so far.
+     *
+     * @return
+     */
+    public synchronized long getAllocatedBytes() {
+        long total = 0L;
+        for (ByteBuffer slab : slabs) {
+            if (slab != null) {
+                total = total + slab.capacity();
+            }
+        }
+        return total;
+    }
+
+    ByteBuffer getSlab(int i) {
+        if (slabs[i] == null) {
+            slabs[i] = ByteBuffer.allocateDirect(slabSize);
+        }
+        return slabs[i];
+    }
+
+    /**
+     * Move to the next slab, emptying it if it is in use. Since slabs are used in turn, this is always the oldest one.
+     */
+    void nextSlab() {
+        currentSlab = (currentSlab + 1) % slabs.length;
+        position = 0;
+        for (Object key : slabKeys[currentSlab]) {
+            Location location = index.get(key);
+            // it might have been rewritten to a newer slab since.
+            if (location != null && location.slab == currentSlab) {
+                index.remove(key);
+                evictions.incrementAndGet();
+            }
+        }
+        slabKeys[currentSlab].clear();
+    }
+}
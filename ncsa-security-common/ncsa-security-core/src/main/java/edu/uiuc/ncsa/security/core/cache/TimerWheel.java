@@ -0,0 +1,224 @@
+package edu.uiuc.ncsa.security.core.cache;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel that keeps keys by the time they expire. This lets a {@link Cleanup}
+ * find what has expired without looking at everything in its map.
+ * <p>Time is measured in ticks of {@link #getTickLength()} milliseconds. There are {@link #LEVELS} wheels
+ * of {@link #SLOTS} slots each. The first wheel holds the keys due in the next {@link #SLOTS} ticks, one slot per tick.
+ * Each wheel after that covers {@link #SLOTS} times the span of the one before it and when the wheel below it has
+ * made a full turn, the keys in its next slot are moved down. So scheduling and cancelling a key is constant
+ * time and {@link #advance(long)} only touches keys that are due or are being moved closer to being due.
+ * Anything further in the future than the wheels can hold is parked in the last slot of the top wheel and
+ * placed properly as time catches up with it.
+ * <p>A key can be scheduled once. Scheduling it again replaces its deadline. This is thread safe.
+ */
+public class TimerWheel<K> {
+    public static final int SLOT_BITS = 6;
+    public static final int SLOTS = 1 << SLOT_BITS;
+    public static final int LEVELS = 4;
+    static final int SLOT_MASK = SLOTS - 1;
+    static final long MAX_SPAN = 1L << (SLOT_BITS * LEVELS);
+
+    public TimerWheel() {
+        this(1000L);
+    }
+
+    /**
+     * @param tickLength The resolution of this wheel, in milliseconds.
+     */
+    public TimerWheel(long tickLength) {
+        this(tickLength, System.currentTimeMillis());
+    }
+
+    public TimerWheel(long tickLength, long now) {
+        if (tickLength <= 0) {
+            throw new IllegalArgumentException("Error: the tick length must be positive.");
+        }
+        this.tickLength = tickLength;
+        currentTick = now / tickLength;
+        wheels = new Node[LEVELS][SLOTS];
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                Node<K> sentinel = new Node<K>(null, 0L);
+                sentinel.before = sentinel;
+                sentinel.after = sentinel;
+                wheels[level][slot] = sentinel;
+            }
+        }
+    }
+
+    long tickLength;
+
+    public long getTickLength() {
+        return tickLength;
+    }
+
+    static class Node<K> {
+        Node(K key, long deadlineTick) {
+            this.key = key;
+            this.deadlineTick = deadlineTick;
+        }
+
+        K key;
+        long deadlineTick;
+        Node<K> before;
+        Node<K> after;
+    }
+
+    Node<K>[][] wheels;
+    HashMap<K, Node<K>> nodes = new HashMap<K, Node<K>>();
+    long currentTick;
+
+    /**
+     * Schedule the key to expire at the given time, in milliseconds. If it is already scheduled its old
+     * deadline is dropped.
+     *
+     * @param key
+     * @param deadline
+     */
+    public synchronized void schedule(K key, long deadline) {
+        Node<K> node = nodes.get(key);
+        if (node == null) {
+            node = new Node<K>(key, 0L);
+            nodes.put(key, node);
+        } else {
+            unlink(node);
+        }
+        // round up, so nothing is returned before its deadline.
+        node.deadlineTick = deadline / tickLength + (deadline % tickLength == 0 ? 0 : 1);
+        place(node);
+    }
+
+    /**
+     * Removes the key from this wheel. Returns true if it was scheduled.
+     *
+     * @param key
+     * @return
+     */
+    public synchronized boolean cancel(K key) {
+        Node<K> node = nodes.remove(key);
+        if (node == null) {
+            return false;
+        }
+        unlink(node);
+        return true;
+    }
+
+    public synchronized boolean contains(K key) {
+        return nodes.containsKey(key);
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    public synchronized void clear() {
+        for (Node<K> node : nodes.values()) {
+            node.before = null;
+            node.after = null;
+        }
+        nodes.clear();
+        for (Node<K>[] wheel : wheels) {
+            for (Node<K> sentinel : wheel) {
+                sentinel.before = sentinel;
+                sentinel.after = sentinel;
+            }
+        }
+    }
+
+    /**
+     * Move the wheel forward to the given time and return every key whose deadline is at or before it.
+     * Returned keys are no longer scheduled.
+     *
+     * @param now
+     * @return
+     */
+    public synchronized List<K> advance(long now) {
+        LinkedList<K> due = new LinkedList<K>();
+        long targetTick = now / tickLength;
+        if (nodes.isEmpty()) {
+            // nothing to do, so don't bother turning the wheels.
+            currentTick = Math.max(currentTick, targetTick);
+            return due;
+        }
+        while (currentTick <= targetTick) {
+            Node<K> sentinel = wheels[0][(int) (currentTick & SLOT_MASK)];
+            Node<K> node = sentinel.after;
+            while (node != sentinel) {
+                Node<K> next = node.after;
+                unlink(node);
+                if (node.deadlineTick <= currentTick) {
+                    nodes.remove(node.key);
+                    due.add(node.key);
+                } else {
+                    // was parked since its deadline was too far out.
+                    place(node);
+                }
+                node = next;
+            }
+            if (currentTick == targetTick) {
+                break;
+            }
+            currentTick++;
+            cascade();
+        }
+        return due;
+    }
+
+    /**
+     * After each tick, if a wheel has come full circle then move the next slot of the wheel above it down.
+     */
+    void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                return;
+            }
+            int slot = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+            Node<K> sentinel = wheels[level][slot];
+            Node<K> node = sentinel.after;
+            while (node != sentinel) {
+                Node<K> next = node.after;
+                unlink(node);
+                place(node);
+                node = next;
+            }
+        }
+    }
+
+    void place(Node<K> node) {
+        long tick = Math.max(node.deadlineTick, currentTick);
+        long delta = tick - currentTick;
+        if (MAX_SPAN <= delta) {
+            // park it as far out as possible.
+            tick = currentTick + MAX_SPAN - 1;
+            delta = MAX_SPAN - 1;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && (1L << (SLOT_BITS * (level + 1))) <= delta) {
+            level++;
+        }
+        int slot = (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        Node<K> sentinel = wheels[level][slot];
+        node.after = sentinel;
+        node.before = sentinel.before;
+        sentinel.before.after = node;
+        sentinel.before = node;
+    }
+
+    void unlink(Node<K> node) {
+        if (node.before != null) {
+            node.before.after = node.after;
+            node.after.before = node.before;
+        }
+        node.before = null;
+        node.after = null;
+    }
+}
@@ -0,0 +1,74 @@
+package edu.uiuc.ncsa.security.core.cache;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * A {@link BulkRetentionPolicy} that removes entries whose timestamp is older than a maximum age. Since the
+ * store does the work if it can, you need only supply how to get the timestamp from an entry in
+ * {@link #getTimestamp(Object, Object)} for stores that cannot. Entries with no timestamp are retained.
+ */
+public abstract class TimestampRetentionPolicy<K, V> implements BulkRetentionPolicy<K, V> {
+    /**
+     * @param map
+     * @param timestampKey The name of the property or column with the timestamp.
+     * @param maximumAge   The maximum age in milliseconds
+     */
+    public TimestampRetentionPolicy(Map<K, V> map, String timestampKey, long maximumAge) {
+        this.map = map;
+        this.timestampKey = timestampKey;
+        this.maximumAge = maximumAge;
+    }
+
+    Map<K, V> map;
+
+    public Map<K, V> getMap() {
+        return map;
+    }
+
+    public void setMap(Map<K, V> map) {
+        this.map = map;
+    }
+
+    String timestampKey;
+
+    public String getTimestampKey() {
+        return timestampKey;
+    }
+
+    public void setTimestampKey(String timestampKey) {
+        this.timestampKey = timestampKey;
+    }
+
+    long maximumAge;
+
+    public long getMaximumAge() {
+        return maximumAge;
+    }
+
+    public void setMaximumAge(long maximumAge) {
+        this.maximumAge = maximumAge;
+    }
+
+    public Date getCutoff() {
+        return new Date(System.currentTimeMillis() - getMaximumAge());
+    }
+
+    /**
+     * Get the timestamp for the entry, or null if there is none.
+     *
+     * @param key
+     * @param value
+     * @return
+     */
+    public abstract Date getTimestamp(K key, V value);
+
+    public boolean retain(K key, V value) {
+        Date timestamp = getTimestamp(key, value);
+        return timestamp == null || !timestamp.before(getCutoff());
+    }
+
+    public boolean applies() {
+        return true;
+    }
+}
@@ -10,7 +10,7 @@ import edu.uiuc.ncsa.security.core.util.DateUtils;
  * <p>Created by Jeff Gaynor<br>
  * on 7/12/11 at  12:26 PM
  */
-public class ValidTimestampPolicy implements RetentionPolicy {
+public class ValidTimestampPolicy implements ExpiringRetentionPolicy {
     protected long maxTimeout = -1L;
 
     public ValidTimestampPolicy(long maxTimeout) {
@@ -39,6 +39,15 @@ public class ValidTimestampPolicy implements RetentionPolicy {
         }
     }
 
+    public long getExpiration(Object key, Object value) {
+        try {
+            return DateUtils.getDate(key.toString()).getTime() + (maxTimeout <= 0 ? DateUtils.MAX_TIMEOUT : maxTimeout);
+        } catch (Throwable t) {
+            // If the key can't be parsed, then retain will reject it too, so it is due now.
+            return 0L;
+        }
+    }
+
     /**
      * This returns null, since the retention decision requires only the key of the entry,
      * not the entire store (cf. MaxSizePolicy which does have to think about the store size.)
@@ -0,0 +1,19 @@
+package edu.uiuc.ncsa.security.core.cache;
+
+import edu.uiuc.ncsa.security.core.Identifier;
+
+/**
+ * Estimates how much room an entry takes up in a cache, e.g., its approximate size in bytes. This is used
+ * by {@link MaxCacheWeightPolicy}. It should be cheap to compute and must return the same weight for the
+ * same value each time it is called.
+ */
+public interface Weigher {
+    /**
+     * The weight of the value. This must not be negative.
+     *
+     * @param key
+     * @param value the cached value, i.e. {@link CachedObject#getValue()}.
+     * @return
+     */
+    public long weigh(Identifier key, Object value);
+}
@@ -0,0 +1,331 @@
+package edu.uiuc.ncsa.security.core.cache;
+
+import edu.uiuc.ncsa.security.core.Identifiable;
+import edu.uiuc.ncsa.security.core.Identifier;
+import edu.uiuc.ncsa.security.core.Store;
+import edu.uiuc.ncsa.security.core.util.MyLoggingFacade;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds writes to a {@link Store} and does them later on a background thread. Entries are queued by
+ * identifier, so if an entry is queued several times before it is written, only the last version is saved.
+ * <h3>Use</h3>
+ * Set one of these in a {@link CachedMapFacade} (see {@link CachedMapFacade#setWriteBehindQueue(WriteBehindQueue)}).
+ * Queued entries are written at least every {@link #getMaxDelay()} milliseconds, or sooner if there are
+ * {@link #getBatchSize()} of them waiting. Writes are done with {@link Store#save(Identifiable)}, oldest first.
+ * If a write fails, that entry and everything after it are put back in the queue and tried again next time.
+ * <p>Call {@link #shutdown()} when finished to write anything left. If the JVM exits first, a shutdown hook does
+ * this. Note that anything queued is lost if the JVM is killed outright, so only use this when
+ * losing the last few updates is acceptable.
+ */
+public class WriteBehindQueue<V extends Identifiable> {
+    public WriteBehindQueue(Store<V> store, MyLoggingFacade logger) {
+        this(store, logger, 1000L, 100);
+    }
+
+    /**
+     * @param store
+     * @param logger
+     * @param maxDelay  The longest an entry waits to be written, in milliseconds.
+     * @param batchSize Write as soon as this many entries are waiting.
+     */
+    public WriteBehindQueue(Store<V> store, MyLoggingFacade logger, long maxDelay, int batchSize) {
+        if (maxDelay <= 0) {
+            throw new IllegalArgumentException("Error: the maximum delay must be positive.");
+        }
+        this.store = store;
+        this.logger = logger;
+        this.maxDelay = maxDelay;
+        this.batchSize = batchSize;
+    }
+
+    Store<V> store;
+
+    public Store<V> getStore() {
+        return store;
+    }
+
+    MyLoggingFacade logger;
+
+    long maxDelay;
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    int batchSize;
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    // Guarded by itself. Ordered by when each key was first queued.
+    LinkedHashMap<Identifier, V> pending = new LinkedHashMap<Identifier, V>();
+    // Held while writing to the store, so a cancelled entry is never written afterwards.
+    final Object flushLock = new Object();
+
+    AtomicLong writeCount = new AtomicLong(0L);
+    AtomicLong coalescedCount = new AtomicLong(0L);
+    AtomicLong failureCount = new AtomicLong(0L);
+
+    /**
+     * How many entries have been written to the store.
+     *
+     * @return
+     */
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    /**
+     * How many writes were saved because a newer version of the entry was queued before the older one was written.
+     *
+     * @return
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Queue the value to be saved. This starts the background thread if needed.
+     *
+     * @param value
+     */
+    public void enqueue(V value) {
+        if (isShutdown()) {
+            throw new IllegalStateException("Error: this queue has been shut down.");
+        }
+        boolean full;
+        synchronized (pending) {
+            if (pending.put(value.getIdentifier(), value) != null) {
+                coalescedCount.incrementAndGet();
+            }
+            full = getBatchSize() <= pending.size();
+        }
+        start();
+        if (full) {
+            requestFlush();
+        }
+    }
+
+    /**
+     * The version of the entry waiting to be written, or null if there is none.
+     *
+     * @param key
+     * @return
+     */
+    public V getPending(Object key) {
+        synchronized (pending) {
+            return pending.get(key);
+        }
+    }
+
+    public boolean isPending(Object key) {
+        synchronized (pending) {
+            return pending.containsKey(key);
+        }
+    }
+
+    public int size() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Drop any waiting write for this key. Once this returns the entry will not be written unless it
+     * is queued again, so it is then safe to remove it from the store.
+     *
+     * @param key
+     * @return
+     */
+    public V cancel(Object key) {
+        synchronized (flushLock) {
+            synchronized (pending) {
+                return pending.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Drop every waiting write.
+     */
+    public void clear() {
+        synchronized (flushLock) {
+            synchronized (pending) {
+                pending.clear();
+            }
+        }
+    }
+
+    /**
+     * Write everything that is waiting now, in the current thread. Returns the number of entries written.
+     *
+     * @return
+     */
+    public int flush() {
+        int written = 0;
+        synchronized (flushLock) {
+            // Only write what is here now, so constant updates can't keep this going forever.
+            int remaining = size();
+            while (0 < remaining) {
+                List<V> batch = nextBatch(Math.min(remaining, Math.max(getBatchSize(), 1)));
+                if (batch.isEmpty()) {
+                    break;
+                }
+                remaining = remaining - batch.size();
+                for (int i = 0; i < batch.size(); i++) {
+                    try {
+                        getStore().save(batch.get(i));
+                        written++;
+                        writeCount.incrementAndGet();
+                    } catch (Throwable t) {
+                        failureCount.incrementAndGet();
+                        requeue(batch.subList(i, batch.size()));
+                        if (logger != null) {
+                            logger.warn("Error writing \"" + batch.get(i).getIdentifierString() + "\" to the store, " + (batch.size() - i) + " entries will be retried", t);
+                        }
+                        return written;
+                    }
+                }
+            }
+        }
+        return written;
+    }
+
+    List<V> nextBatch(int max) {
+        ArrayList<V> batch = new ArrayList<V>(max);
+        synchronized (pending) {
+            Iterator<Map.Entry<Identifier, V>> iterator = pending.entrySet().iterator();
+            while (iterator.hasNext() && batch.size() < max) {
+                batch.add(iterator.next().getValue());
+                iterator.remove();
+            }
+        }
+        return batch;
+    }
+
+    void requeue(List<V> values) {
+        synchronized (pending) {
+            for (V value : values) {
+                // anything queued since is newer, so keep that.
+                if (!pending.containsKey(value.getIdentifier())) {
+                    pending.put(value.getIdentifier(), value);
+                }
+            }
+        }
+    }
+
+    ScheduledExecutorService executor;
+    Thread shutdownHook;
+    AtomicBoolean flushRequested = new AtomicBoolean(false);
+    volatile boolean shutdown = false;
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public synchronized boolean isStarted() {
+        return executor != null;
+    }
+
+    Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushRequested.set(false);
+            try {
+                flush();
+            } catch (Throwable t) {
+                // Never let this escape, or the executor stops running it.
+                if (logger != null) {
+                    logger.warn("Error flushing writes", t);
+                }
+            }
+        }
+    };
+
+    /**
+     * Start the background thread. This is done automatically when something is queued.
+     */
+    public synchronized void start() {
+        if (executor != null || shutdown) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "write-behind-" + getStore().getClass().getSimpleName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(flushTask, getMaxDelay(), getMaxDelay(), TimeUnit.MILLISECONDS);
+        shutdownHook = new Thread() {
+            @Override
+            public void run() {
+                shutdown();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    void requestFlush() {
+        ScheduledExecutorService e;
+        synchronized (this) {
+            e = executor;
+        }
+        if (e != null && flushRequested.compareAndSet(false, true)) {
+            try {
+                e.execute(flushTask);
+            } catch (RejectedExecutionException x) {
+                // shutting down, which flushes anyway.
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    /**
+     * Stop the background thread and write everything still waiting. Returns the number of entries
+     * that could not be written.
+     *
+     * @return
+     */
+    public int shutdown() {
+        ScheduledExecutorService e;
+        synchronized (this) {
+            shutdown = true;
+            e = executor;
+            executor = null;
+            if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                } catch (IllegalStateException x) {
+                    // JVM is already shutting down, so the hook is running or has run.
+                }
+            }
+            shutdownHook = null;
+        }
+        if (e != null) {
+            e.shutdown();
+            try {
+                e.awaitTermination(getMaxDelay(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+        return size();
+    }
+}
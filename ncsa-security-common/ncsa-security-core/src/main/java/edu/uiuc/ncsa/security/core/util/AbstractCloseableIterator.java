@@ -0,0 +1,59 @@
+package edu.uiuc.ncsa.security.core.util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A {@link CloseableIterator} that reads ahead one element. Implement {@link #advance()} to get the next element.
+ */
+public abstract class AbstractCloseableIterator<V> implements CloseableIterator<V> {
+    V nextValue;
+    boolean ready = false;
+    boolean closed = false;
+
+    /**
+     * Get the next element, or null if there are no more.
+     *
+     * @return
+     */
+    protected abstract V advance();
+
+    @Override
+    public boolean hasNext() {
+        if (ready) {
+            return true;
+        }
+        if (closed) {
+            return false;
+        }
+        nextValue = advance();
+        if (nextValue == null) {
+            close();
+            return false;
+        }
+        ready = true;
+        return true;
+    }
+
+    @Override
+    public V next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ready = false;
+        V v = nextValue;
+        nextValue = null;
+        return v;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Override to release resources, calling super first.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
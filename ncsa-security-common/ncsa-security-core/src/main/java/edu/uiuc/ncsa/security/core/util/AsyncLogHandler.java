@@ -0,0 +1,291 @@
+package edu.uiuc.ncsa.security.core.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * A {@link Handler} that hands each record to a background thread, which passes it on to the real handlers (e.g. a
+ * file or console handler). The calling thread only puts the record in a queue, so it does not wait for any I/O.
+ * <h3>Use</h3>
+ * Either create one with the handlers to write to and add it to a logger, or call {@link #install(Logger)} to wrap
+ * whatever handlers the logger (or its nearest parent with handlers) has now.
+ * {@link MyLoggingFacade#setAsync(boolean)} and {@link DebugUtil#setAsync(boolean)} do this for you.
+ * Note that loggers normally have no handlers of their own, so this usually wraps the root logger's handlers and
+ * every logger in the JVM then goes through the one background thread, not just the one it was installed for.
+ * <p>If the queue is full, the record is written on the calling thread, so nothing is lost, just slower.
+ * {@link #getOverflowCount()} says how often that happened. {@link #flush()} waits until everything queued so far
+ * has been written. A shutdown hook writes whatever is still queued when the JVM exits, unless the handler has
+ * been closed before then.
+ */
+public class AsyncLogHandler extends Handler {
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    public AsyncLogHandler(Handler... targets) {
+        this(DEFAULT_CAPACITY, targets);
+    }
+
+    public AsyncLogHandler(int capacity, Handler... targets) {
+        this.targets = new ArrayList<Handler>(Arrays.asList(targets));
+        queue = new ArrayBlockingQueue<LogRecord>(capacity);
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeAll();
+            }
+        }, "async-log");
+        writer.setDaemon(true);
+        writer.start();
+        shutdownHook = new Thread() {
+            @Override
+            public void run() {
+                stop();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    Thread shutdownHook;
+
+    List<Handler> targets;
+    BlockingQueue<LogRecord> queue;
+    Thread writer;
+    volatile boolean closed = false;
+    AtomicLong overflows = new AtomicLong(0L);
+
+    public List<Handler> getTargets() {
+        return targets;
+    }
+
+    /**
+     * Whether to find the class and method that logged each record before it is queued. Formatters that print these
+     * need this, since the record can no longer work it out on the writer thread. This walks the stack, so turn it off
+     * if nothing prints them. Default is true.
+     *
+     * @return
+     */
+    public boolean isInferCaller() {
+        return inferCaller;
+    }
+
+    public void setInferCaller(boolean inferCaller) {
+        this.inferCaller = inferCaller;
+    }
+
+    boolean inferCaller = true;
+
+    /**
+     * How many records were written on the calling thread because the queue was full.
+     *
+     * @return
+     */
+    public long getOverflowCount() {
+        return overflows.get();
+    }
+
+    /**
+     * The number of records waiting to be written.
+     *
+     * @return
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (record == null || !isLoggable(record)) {
+            return;
+        }
+        if (inferCaller) {
+            record.getSourceClassName();
+        }
+        if (closed || !writer.isAlive()) {
+            // nothing will take it off the queue, so write it here after anything still waiting.
+            drain();
+            write(record);
+            return;
+        }
+        if (!queue.offer(record)) {
+            overflows.incrementAndGet();
+            write(record);
+        }
+    }
+
+    void write(LogRecord record) {
+        for (Handler target : targets) {
+            try {
+                target.publish(record);
+            } catch (RuntimeException x) {
+                reportError(null, x, java.util.logging.ErrorManager.WRITE_FAILURE);
+            }
+        }
+    }
+
+    void writeAll() {
+        while (true) {
+            LogRecord record;
+            try {
+                record = queue.take();
+            } catch (InterruptedException e) {
+                // Only stop() should end this thread. A handler that leaves the interrupt set must not.
+                if (closed) {
+                    return;
+                }
+                continue;
+            }
+            if (record instanceof Marker) {
+                flushTargets();
+                ((Marker) record).latch.countDown();
+                if (closed) {
+                    return;
+                }
+            } else {
+                write(record);
+            }
+        }
+    }
+
+    /**
+     * Put in the queue to find out when everything before it has been written.
+     */
+    static class Marker extends LogRecord {
+        Marker() {
+            super(Level.OFF, null);
+        }
+
+        CountDownLatch latch = new CountDownLatch(1);
+    }
+
+    void flushTargets() {
+        for (Handler target : targets) {
+            target.flush();
+        }
+    }
+
+    /**
+     * Wait, up to a second, for everything queued so far to be written, then flush the handlers.
+     */
+    @Override
+    public void flush() {
+        if (!writer.isAlive()) {
+            flushTargets();
+            return;
+        }
+        Marker marker = new Marker();
+        try {
+            if (queue.offer(marker, 1, TimeUnit.SECONDS)) {
+                marker.latch.await(1, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write what is queued, stop the background thread and close the handlers.
+     */
+    @Override
+    public void close() {
+        stop();
+        for (Handler target : targets) {
+            target.close();
+        }
+    }
+
+    void stop() {
+        synchronized (this) {
+            if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                } catch (IllegalStateException x) {
+                    // JVM is already shutting down, so the hook is running or has run.
+                }
+            }
+            shutdownHook = null;
+        }
+        closed = true;
+        flush();
+        writer.interrupt();
+        // anything that arrived in the meantime.
+        drain();
+        flushTargets();
+    }
+
+    void drain() {
+        LogRecord record;
+        while ((record = queue.poll()) != null) {
+            if (record instanceof Marker) {
+                ((Marker) record).latch.countDown();
+            } else {
+                write(record);
+            }
+        }
+    }
+
+    /**
+     * Replace the handlers that the logger's messages go to with an {@link AsyncLogHandler} that writes to them.
+     * If the logger has no handlers of its own, the handlers of the nearest parent that has some are wrapped, which
+     * is normally the root logger, so this then applies to every logger in the JVM. Calling this again does nothing.
+     *
+     * @param logger
+     * @return the handler now in use.
+     */
+    public static AsyncLogHandler install(Logger logger) {
+        Logger target = logger;
+        while (target.getHandlers().length == 0 && target.getUseParentHandlers() && target.getParent() != null) {
+            target = target.getParent();
+        }
+        synchronized (target) {
+            Handler[] handlers = target.getHandlers();
+            for (Handler handler : handlers) {
+                if (handler instanceof AsyncLogHandler) {
+                    return (AsyncLogHandler) handler;
+                }
+            }
+            AsyncLogHandler asyncLogHandler = new AsyncLogHandler(handlers);
+            for (Handler handler : handlers) {
+                target.removeHandler(handler);
+            }
+            target.addHandler(asyncLogHandler);
+            return asyncLogHandler;
+        }
+    }
+
+    /**
+     * Undo {@link #install(Logger)}: put the original handlers back and close this one.
+     *
+     * @param logger
+     */
+    public static void uninstall(Logger logger) {
+        Logger target = logger;
+        while (target != null) {
+            synchronized (target) {
+                for (Handler handler : target.getHandlers()) {
+                    if (handler instanceof AsyncLogHandler) {
+                        AsyncLogHandler asyncLogHandler = (AsyncLogHandler) handler;
+                        target.removeHandler(asyncLogHandler);
+                        for (Handler h : asyncLogHandler.getTargets()) {
+                            target.addHandler(h);
+                        }
+                        asyncLogHandler.stop();
+                        return;
+                    }
+                }
+            }
+            if (0 < target.getHandlers().length || !target.getUseParentHandlers()) {
+                return;
+            }
+            target = target.getParent();
+        }
+    }
+}
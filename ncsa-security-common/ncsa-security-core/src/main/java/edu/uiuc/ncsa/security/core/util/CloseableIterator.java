@@ -0,0 +1,17 @@
+package edu.uiuc.ncsa.security.core.util;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * An iterator that holds a resource, such as a database connection, until it is closed. It closes itself once
+ * it has returned its last element, but if you stop early you must close it, so use it in a try-with-resources
+ * block or a finally clause.
+ */
+public interface CloseableIterator<V> extends Iterator<V>, Closeable {
+    /**
+     * Release whatever this holds. This may be called more than once.
+     */
+    @Override
+    public void close();
+}
@@ -0,0 +1,953 @@
+package edu.uiuc.ncsa.security.core.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link Pool} that does not lock. Idle items are kept in a concurrent deque and items that are checked out are
+ * tracked by identity, so checking an item in is constant time no matter how big the pool is.
+ * <h3>Capacity</h3>
+ * At most {@link #getMaxSize()} items exist at once, counting idle ones and ones being created, so that is also the
+ * most that can be checked out. When that many are out, {@link #pop()} waits up to
+ * {@link #getWaitTimeout()} milliseconds for one to be checked in before throwing a {@link PoolException}. Threads
+ * that wait get items in the order they started waiting. Use {@link #pop(long)} to give a different timeout.
+ * At most {@link #getMaxIdle()} items are kept idle (by default the same as the max size) and anything checked in
+ * past that is destroyed. {@link #ensureMinIdle()} creates items until there are {@link #getMinIdle()} idle ones,
+ * or the pool is full.
+ * <p>No lock is held while an item is created, so a slow create (such as opening a connection) only holds up the
+ * caller that needs the new item.
+ * <h3>Warming up</h3>
+ * Call {@link #prefill()} at startup to create {@link #getInitialSize()} (or {@link #getMinIdle()} if that is more)
+ * items in parallel, on up to {@link #getCreateThreads()} threads, so the first requests do not each have to wait
+ * for one. After that, whenever a checkout leaves fewer than the minimum idle, more are created in the background.
+ * <p>Subclasses implement {@link #create()}, {@link #destroy(Object)} and {@link #isValid(Object)} as with any pool.
+ * Note that {@link #setMaxSize(int)} must be called before the pool is used.
+ * <h3>Validation</h3>
+ * Checking that an item is valid can be expensive (e.g. a round trip to a database), so by default it is only done
+ * when an item is checked out after sitting idle for more than {@link #getValidateAfterIdle()} milliseconds.
+ * Set {@link #setTestOnBorrow(boolean)} or {@link #setTestOnReturn(boolean)} to check every time instead.
+ * Items older than {@link #getMaxLifetime()} are destroyed rather than reused.
+ * <p>{@link #evict()} does the rest in the background: it destroys items that have been idle longer than
+ * {@link #getIdleTimeout()} or have reached their maximum lifetime, checks idle items that are due for it (which
+ * also keeps connections from being dropped by the server) and then tops up to the minimum idle count. Run it with
+ * {@link #schedule(MaintenanceScheduler, long)}.
+ * <h3>Monitoring</h3>
+ * {@link #getInUse()}, {@link #getIdle()} and {@link #getWaiting()} give the current state of the pool and
+ * {@link #getStats()} records how long callers wait for items and how long they hold them. {@link #getStatsMap()}
+ * has all of these for reporting. To find items that are checked out and never checked in (such as connections
+ * not released on an error path), set a {@link #setLeakThreshold(long) leak threshold}. Each checkout then records
+ * the stack trace of the caller and {@link #findLeaks()} lists every item held longer than the threshold, with where it
+ * was checked out. {@link #evict()} logs these.
+ */
+public abstract class ConcurrentPool<T> extends Pool<T> {
+    ConcurrentLinkedDeque<Pooled<T>> idle = new ConcurrentLinkedDeque<Pooled<T>>();
+    AtomicInteger idleCount = new AtomicInteger(0);
+    ConcurrentHashMap<Ref<T>, Pooled<T>> checkedOut = new ConcurrentHashMap<Ref<T>, Pooled<T>>();
+    Semaphore permits;
+    // Every item: idle, checked out or being created. Room for an item is reserved here before it is created.
+    AtomicInteger total = new AtomicInteger(0);
+    // Idle items being created in the background, guarded by reserveLock.
+    int pendingIdle = 0;
+    final Object reserveLock = new Object();
+    /*
+    Callers that have a permit but find nothing idle and no room to create an item wait on this until an item is
+    checked in or made, or room is freed. The lock is fair, so they are served in the order they started waiting.
+    Only taken if someone is waiting.
+     */
+    final ReentrantLock availableLock = new ReentrantLock(true);
+    final Condition available = availableLock.newCondition();
+    AtomicInteger availableWaiters = new AtomicInteger(0);
+
+    /**
+     * An item and when things happened to it.
+     */
+    static class Pooled<T> {
+        Pooled(T item, long created) {
+            this.item = item;
+            this.created = created;
+            lastUsed = created;
+            lastValidated = created;
+        }
+
+        T item;
+        long created;
+        volatile long lastUsed;
+        volatile long lastValidated;
+        // set when checked out
+        volatile long borrowed;
+        volatile Throwable borrowStack;
+        volatile boolean leakReported;
+    }
+
+    /**
+     * An item that has been checked out for longer than the leak threshold.
+     */
+    public static class Leak<T> {
+        Leak(T item, long heldFor, Throwable borrowStack) {
+            this.item = item;
+            this.heldFor = heldFor;
+            this.borrowStack = borrowStack;
+        }
+
+        T item;
+        long heldFor;
+        Throwable borrowStack;
+
+        public T getItem() {
+            return item;
+        }
+
+        /**
+         * How long, in milliseconds, the item has been checked out.
+         *
+         * @return
+         */
+        public long getHeldFor() {
+            return heldFor;
+        }
+
+        /**
+         * Where the item was checked out. The message has the name of the thread.
+         *
+         * @return
+         */
+        public Throwable getBorrowStack() {
+            return borrowStack;
+        }
+
+        @Override
+        public String toString() {
+            return "Leak[item=" + item + ", heldFor=" + heldFor + " ms, " + borrowStack.getMessage() + "]";
+        }
+    }
+
+    /**
+     * Wraps an item so it is compared by identity. Items such as connections may override equals.
+     */
+    static class Ref<T> {
+        Ref(T item) {
+            this.item = item;
+        }
+
+        T item;
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(item);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Ref && ((Ref) obj).item == item;
+        }
+    }
+
+    @Override
+    public void setMaxSize(int c) {
+        super.setMaxSize(c);
+        permits = c == INFINITE ? null : new Semaphore(c, true);
+    }
+
+    /**
+     * How long, in milliseconds, {@link #pop()} waits for an item when the pool is at capacity. Zero means
+     * fail at once, as the {@link Pool} does.
+     *
+     * @return
+     */
+    public long getWaitTimeout() {
+        return waitTimeout;
+    }
+
+    public void setWaitTimeout(long waitTimeout) {
+        this.waitTimeout = waitTimeout;
+    }
+
+    long waitTimeout = 1000L;
+
+    public int getMaxIdle() {
+        return maxIdle == INFINITE ? getMaxSize() : maxIdle;
+    }
+
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    int maxIdle = INFINITE;
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    int minIdle = 0;
+
+    /**
+     * How many items {@link #prefill()} creates. Default is 0.
+     *
+     * @return
+     */
+    public int getInitialSize() {
+        return initialSize;
+    }
+
+    public void setInitialSize(int initialSize) {
+        this.initialSize = initialSize;
+    }
+
+    int initialSize = 0;
+
+    /**
+     * How many items may be created at once when prefilling or topping up the pool in the background. Default is 4.
+     *
+     * @return
+     */
+    public int getCreateThreads() {
+        return createThreads;
+    }
+
+    public void setCreateThreads(int createThreads) {
+        this.createThreads = createThreads;
+    }
+
+    int createThreads = 4;
+
+    /**
+     * Runs background creates. By default this has up to {@link #getCreateThreads()} daemon threads that
+     * go away when not in use.
+     *
+     * @return
+     */
+    public Executor getCreateExecutor() {
+        if (createExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(createThreads, createThreads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "pool-create");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            createExecutor = executor;
+        }
+        return createExecutor;
+    }
+
+    public void setCreateExecutor(Executor createExecutor) {
+        this.createExecutor = createExecutor;
+    }
+
+    Executor createExecutor;
+    AtomicBoolean replenishing = new AtomicBoolean(false);
+
+    /**
+     * If true, every item is checked when it is checked out. Default is false.
+     *
+     * @return
+     */
+    public boolean isTestOnBorrow() {
+        return testOnBorrow;
+    }
+
+    public void setTestOnBorrow(boolean testOnBorrow) {
+        this.testOnBorrow = testOnBorrow;
+    }
+
+    boolean testOnBorrow = false;
+
+    /**
+     * If true, every item is checked when it is checked in. Default is false.
+     *
+     * @return
+     */
+    public boolean isTestOnReturn() {
+        return testOnReturn;
+    }
+
+    public void setTestOnReturn(boolean testOnReturn) {
+        this.testOnReturn = testOnReturn;
+    }
+
+    boolean testOnReturn = false;
+
+    /**
+     * Items idle for longer than this many milliseconds are checked before they are used. Zero means always
+     * check, {@link #INFINITE} means never. Default is 5 seconds.
+     *
+     * @return
+     */
+    public long getValidateAfterIdle() {
+        return validateAfterIdle;
+    }
+
+    public void setValidateAfterIdle(long validateAfterIdle) {
+        this.validateAfterIdle = validateAfterIdle;
+    }
+
+    long validateAfterIdle = 5000L;
+
+    /**
+     * Items older than this many milliseconds are destroyed instead of being reused. Default is {@link #INFINITE}.
+     *
+     * @return
+     */
+    public long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    public void setMaxLifetime(long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+
+    long maxLifetime = INFINITE;
+
+    /**
+     * {@link #evict()} destroys items that have been idle longer than this many milliseconds, leaving at least
+     * {@link #getMinIdle()}. Default is {@link #INFINITE}.
+     *
+     * @return
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    long idleTimeout = INFINITE;
+
+    /**
+     * Items checked out for longer than this many milliseconds are reported as possible leaks. Default is
+     * {@link #INFINITE}, which turns off leak detection. Recording where each item was checked out is not free,
+     * so only set this when looking for a leak or if checkouts are not too frequent.
+     *
+     * @return
+     */
+    public long getLeakThreshold() {
+        return leakThreshold;
+    }
+
+    public void setLeakThreshold(long leakThreshold) {
+        this.leakThreshold = leakThreshold;
+    }
+
+    long leakThreshold = INFINITE;
+
+    public PoolStats getStats() {
+        if (stats == null) {
+            stats = new PoolStats();
+        }
+        return stats;
+    }
+
+    PoolStats stats;
+
+    protected MyLoggingFacade getLogger() {
+        if (logger == null) {
+            logger = new MyLoggingFacade(getClass().getName(), false);
+        }
+        return logger;
+    }
+
+    public void setLogger(MyLoggingFacade logger) {
+        this.logger = logger;
+    }
+
+    MyLoggingFacade logger;
+
+    /**
+     * The current time in milliseconds, which all of the idle, lifetime and leak checks use. Override this
+     * to control the time, e.g. in a test.
+     *
+     * @return
+     */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    boolean isExpired(Pooled<T> pooled, long now) {
+        return maxLifetime != INFINITE && maxLifetime <= now - pooled.created;
+    }
+
+    boolean needsValidation(Pooled<T> pooled, long now) {
+        return validateAfterIdle != INFINITE && validateAfterIdle <= now - Math.max(pooled.lastUsed, pooled.lastValidated);
+    }
+
+    /**
+     * The number of items checked out now.
+     *
+     * @return
+     */
+    public int getInUse() {
+        return checkedOut.size();
+    }
+
+    /**
+     * The number of idle items.
+     *
+     * @return
+     */
+    public int getIdle() {
+        return idleCount.get();
+    }
+
+    /**
+     * The number of threads waiting for an item because the pool is at capacity.
+     *
+     * @return
+     */
+    public int getWaiting() {
+        return permits == null ? 0 : permits.getQueueLength();
+    }
+
+    /**
+     * The current state of the pool and its {@link #getStats() statistics}, for reporting.
+     *
+     * @return
+     */
+    public Map<String, Object> getStatsMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("active", getInUse());
+        map.put("idle", getIdle());
+        map.put("waiting", getWaiting());
+        map.put("max size", getMaxSize());
+        map.putAll(getStats().toMap());
+        return map;
+    }
+
+    @Override
+    public T pop() throws PoolException {
+        return pop(getWaitTimeout());
+    }
+
+    /**
+     * Check out an item, waiting up to the timeout (in milliseconds) if the pool is at capacity.
+     *
+     * @param timeout
+     * @return
+     * @throws PoolException
+     */
+    public T pop(long timeout) throws PoolException {
+        long start = System.nanoTime();
+        if (permits != null) {
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(Math.max(timeout, 0L), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PoolException("interrupted while waiting for the pool", e);
+            }
+            if (!acquired) {
+                getStats().recordTimeout();
+                throw new PoolException("pool at capacity: " + getInUse() + " item(s) checked out, waited " + timeout + " ms.");
+            }
+        }
+        try {
+            Pooled<T> pooled = pollIdle();
+            while (pooled != null && !isUsable(pooled)) {
+                destroyQuietly(pooled.item);
+                pooled = pollIdle();
+            }
+            if (idleCount.get() < minIdle) {
+                replenish();
+            }
+            while (pooled == null) {
+                if (reserve()) {
+                    pooled = createPooled();
+                } else {
+                    // The pool is full, but since this has a permit some of the items are idle or being created
+                    // in the background, so wait for one of those.
+                    pooled = awaitAvailable(start + TimeUnit.MILLISECONDS.toNanos(timeout), timeout);
+                    while (pooled != null && !isUsable(pooled)) {
+                        destroyQuietly(pooled.item);
+                        pooled = pollIdle();
+                    }
+                }
+            }
+            pooled.lastUsed = now();
+            pooled.borrowed = pooled.lastUsed;
+            pooled.leakReported = false;
+            if (leakThreshold != INFINITE) {
+                pooled.borrowStack = new Throwable("checked out by thread \"" + Thread.currentThread().getName() + "\"");
+            }
+            checkedOut.put(new Ref<T>(pooled.item), pooled);
+            getStats().getAcquireWait().record(System.nanoTime() - start);
+            return pooled.item;
+        } catch (RuntimeException x) {
+            if (permits != null) {
+                permits.release();
+            }
+            throw x;
+        }
+    }
+
+    /**
+     * Wait until there is an idle item, which is returned, or room to create one, in which case this returns null.
+     *
+     * @param deadline as {@link System#nanoTime()}
+     * @param timeout  for the message
+     * @return
+     * @throws PoolException if the deadline passes first.
+     */
+    Pooled<T> awaitAvailable(long deadline, long timeout) throws PoolException {
+        // Count this as waiting before looking, so anything made available after the look signals it.
+        availableWaiters.incrementAndGet();
+        availableLock.lock();
+        try {
+            while (true) {
+                Pooled<T> pooled = pollIdle();
+                if (pooled != null || total.get() < getMaxSize()) {
+                    return pooled;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0L) {
+                    getStats().recordTimeout();
+                    throw new PoolException("pool at capacity: " + total.get() + " item(s), waited " + timeout + " ms.");
+                }
+                available.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PoolException("interrupted while waiting for the pool", e);
+        } finally {
+            availableLock.unlock();
+            availableWaiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Wake up any callers waiting in {@link #awaitAvailable(long, long)}. Call this after an item is made idle or
+     * room for one is freed.
+     */
+    void signalAvailable() {
+        if (availableWaiters.get() == 0) {
+            return;
+        }
+        availableLock.lock();
+        try {
+            available.signalAll();
+        } finally {
+            availableLock.unlock();
+        }
+    }
+
+    /**
+     * An item is gone, so there is room for another.
+     */
+    void freed() {
+        total.decrementAndGet();
+        signalAvailable();
+    }
+
+    boolean isUsable(Pooled<T> pooled) {
+        long now = now();
+        if (isExpired(pooled, now)) {
+            return false;
+        }
+        if (testOnBorrow || needsValidation(pooled, now)) {
+            pooled.lastValidated = now;
+            return checkValid(pooled.item);
+        }
+        return true;
+    }
+
+    @Override
+    public T doCreate() throws PoolException {
+        return pop();
+    }
+
+    /**
+     * Check the item back in. Throws an exception if it is not checked out from this pool.
+     *
+     * @param object the object
+     * @throws PoolException
+     */
+    @Override
+    public void push(T object) throws PoolException {
+        Pooled<T> pooled = checkedOut.remove(new Ref<T>(object));
+        if (pooled == null) {
+            throw new PoolException("can't check in object more than once: " + object);
+        }
+        try {
+            long now = now();
+            returned(pooled, now);
+            if (getMaxIdle() != INFINITE && getMaxIdle() <= idleCount.get() || isExpired(pooled, now) || (testOnReturn && !checkValid(object))) {
+                freed();
+                destroy(object);
+                getStats().recordDestroyed();
+            } else {
+                offerIdle(pooled);
+            }
+        } finally {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Destroy the item. If it is checked out, it no longer counts against the pool.
+     *
+     * @param item the item
+     * @throws PoolException
+     */
+    @Override
+    public void doDestroy(T item) throws PoolException {
+        Pooled<T> pooled = checkedOut.remove(new Ref<T>(item));
+        boolean wasCheckedOut = pooled != null;
+        if (wasCheckedOut) {
+            freed();
+            returned(pooled, now());
+        }
+        try {
+            destroy(item);
+            getStats().recordDestroyed();
+        } finally {
+            if (wasCheckedOut && permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    void returned(Pooled<T> pooled, long now) {
+        pooled.lastUsed = now;
+        getStats().getHoldTime().record((now - pooled.borrowed) * 1000000L);
+        pooled.borrowStack = null;
+    }
+
+    /**
+     * Every item that has been checked out for longer than the {@link #getLeakThreshold() leak threshold}, longest
+     * first. This is empty if leak detection is off.
+     *
+     * @return
+     */
+    public List<Leak<T>> findLeaks() {
+        List<Leak<T>> leaks = new ArrayList<Leak<T>>();
+        if (leakThreshold == INFINITE) {
+            return leaks;
+        }
+        long now = now();
+        for (Pooled<T> pooled : checkedOut.values()) {
+            Throwable borrowStack = pooled.borrowStack;
+            if (borrowStack != null && leakThreshold <= now - pooled.borrowed) {
+                leaks.add(new Leak<T>(pooled.item, now - pooled.borrowed, borrowStack));
+            }
+        }
+        Collections.sort(leaks, new Comparator<Leak<T>>() {
+            @Override
+            public int compare(Leak<T> o1, Leak<T> o2) {
+                return Long.compare(o2.heldFor, o1.heldFor);
+            }
+        });
+        return leaks;
+    }
+
+    /**
+     * Log a warning, with where it was checked out, for each item newly found to be held longer than the leak
+     * threshold. Each checkout is reported once. Returns the number reported.
+     *
+     * @return
+     */
+    public int reportLeaks() {
+        int count = 0;
+        if (leakThreshold == INFINITE) {
+            return count;
+        }
+        long now = now();
+        for (Pooled<T> pooled : checkedOut.values()) {
+            Throwable borrowStack = pooled.borrowStack;
+            if (borrowStack == null || pooled.leakReported || now - pooled.borrowed < leakThreshold) {
+                continue;
+            }
+            pooled.leakReported = true;
+            getStats().recordLeak();
+            count++;
+            getLogger().warn("Possible leak in " + getClass().getSimpleName() + ": " + pooled.item + " has been checked out for " +
+                    (now - pooled.borrowed) + " ms, " + borrowStack.getMessage(), borrowStack);
+        }
+        return count;
+    }
+
+    /**
+     * Create idle items until there are at least {@link #getMinIdle()}.
+     */
+    public void ensureMinIdle() throws PoolException {
+        while (reserveIdle(getMinIdle())) {
+            createIdle();
+        }
+    }
+
+    /**
+     * Reserve room for one more item, unless there are already {@link #getMaxSize()}. If this returns true, the
+     * caller must create the item or give the room back.
+     *
+     * @return
+     */
+    boolean reserve() {
+        if (getMaxSize() == INFINITE) {
+            total.incrementAndGet();
+            return true;
+        }
+        while (true) {
+            int current = total.get();
+            if (getMaxSize() <= current) {
+                return false;
+            }
+            if (total.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reserve room for one more idle item if there are fewer than the target idle, counting ones already being
+     * created, and the pool is not full. Call {@link #createIdle()} after this returns true. Checking and reserving
+     * are done together, so callers running at the same time (e.g. {@link #replenish()} and {@link #evict()}) do not
+     * both create the last item.
+     *
+     * @param target
+     * @return
+     */
+    boolean reserveIdle(int target) {
+        synchronized (reserveLock) {
+            if (target <= idleCount.get() + pendingIdle || !reserve()) {
+                return false;
+            }
+            pendingIdle++;
+            return true;
+        }
+    }
+
+    void createIdle() throws PoolException {
+        try {
+            offerIdle(createPooled());
+        } finally {
+            synchronized (reserveLock) {
+                pendingIdle--;
+            }
+        }
+    }
+
+    /**
+     * Create an item in the room that the caller has {@link #reserve() reserved}, which is given back if this fails.
+     *
+     * @return
+     * @throws PoolException
+     */
+    Pooled<T> createPooled() throws PoolException {
+        try {
+            Pooled<T> pooled = new Pooled<T>(create(), now());
+            getStats().recordCreated();
+            return pooled;
+        } catch (RuntimeException x) {
+            freed();
+            throw x;
+        }
+    }
+
+    /**
+     * The number of idle items to aim for: the larger of the initial size and the minimum idle count, but no more than
+     * the pool allows.
+     *
+     * @return
+     */
+    int getTargetIdle() {
+        int target = Math.max(getInitialSize(), getMinIdle());
+        if (getMaxSize() != INFINITE) {
+            target = Math.min(target, getMaxSize());
+        }
+        if (getMaxIdle() != INFINITE) {
+            target = Math.min(target, getMaxIdle());
+        }
+        return target;
+    }
+
+    /**
+     * Create idle items in parallel until there are {@link #getInitialSize()} (or {@link #getMinIdle()} if that is more).
+     * This waits for them to be made. Items that cannot be created are logged and skipped, so the pool is still usable
+     * if, e.g., the database is not up yet. Returns how many were created.
+     *
+     * @return
+     */
+    public int prefill() {
+        int target = getTargetIdle();
+        List<FutureTask<Boolean>> tasks = new ArrayList<FutureTask<Boolean>>();
+        // Bounded, since a failed create gives its room back and would otherwise be retried here forever.
+        for (int i = 0; i < target && reserveIdle(target); i++) {
+            FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    createIdle();
+                    return Boolean.TRUE;
+                }
+            });
+            tasks.add(task);
+            try {
+                getCreateExecutor().execute(task);
+            } catch (RejectedExecutionException x) {
+                task.run();
+            }
+        }
+        int created = 0;
+        for (FutureTask<Boolean> task : tasks) {
+            try {
+                task.get();
+                created++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                getLogger().warn("Could not create an item while prefilling " + getClass().getSimpleName(), e.getCause());
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Top up to the minimum idle count in the background. Does nothing if this is already being done.
+     */
+    public void replenish() {
+        if (!replenishing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            getCreateExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ensureMinIdle();
+                    } catch (Throwable t) {
+                        getLogger().warn("Could not replenish " + ConcurrentPool.this.getClass().getSimpleName(), t);
+                    } finally {
+                        replenishing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException x) {
+            replenishing.set(false);
+        }
+    }
+
+    /**
+     * Destroy idle items that have timed out or are too old, check idle items that are due for it and
+     * then create items up to the minimum idle count. Possible leaks are {@link #reportLeaks() reported}.
+     * Returns the number of items destroyed.
+     *
+     * @return
+     */
+    public int evict() throws PoolException {
+        int destroyed = 0;
+        long now = now();
+        Iterator<Pooled<T>> iterator = idle.iterator();
+        while (iterator.hasNext()) {
+            Pooled<T> pooled = iterator.next();
+            boolean timedOut = idleTimeout != INFINITE && idleTimeout <= now - pooled.lastUsed && getMinIdle() < idleCount.get();
+            boolean check = !timedOut && !isExpired(pooled, now) && needsValidation(pooled, now);
+            if (!(timedOut || isExpired(pooled, now) || check)) {
+                continue;
+            }
+            // take it out so nobody checks it out while this looks at it.
+            if (!idle.removeFirstOccurrence(pooled)) {
+                continue; // just checked out
+            }
+            idleCount.decrementAndGet();
+            if (check) {
+                pooled.lastValidated = now;
+                if (checkValid(pooled.item)) {
+                    // least recently used goes last.
+                    idle.offerLast(pooled);
+                    idleCount.incrementAndGet();
+                    signalAvailable();
+                    continue;
+                }
+            }
+            destroyQuietly(pooled.item);
+            destroyed++;
+        }
+        reportLeaks();
+        ensureMinIdle();
+        return destroyed;
+    }
+
+    /**
+     * Run {@link #evict()} every interval milliseconds.
+     *
+     * @param scheduler
+     * @param interval
+     * @return
+     */
+    public MaintenanceScheduler.Task schedule(MaintenanceScheduler scheduler, long interval) {
+        return scheduler.schedule("evictor for " + getClass().getSimpleName(), new Runnable() {
+            @Override
+            public void run() {
+                evict();
+            }
+        }, interval);
+    }
+
+    @Override
+    public boolean destroyAll() {
+        boolean success = true;
+        Pooled<T> pooled = pollIdle();
+        while (pooled != null) {
+            freed();
+            try {
+                destroy(pooled.item);
+                getStats().recordDestroyed();
+            } catch (PoolException x) {
+                success = false;
+            }
+            pooled = pollIdle();
+        }
+        return success;
+    }
+
+    Pooled<T> pollIdle() {
+        Pooled<T> pooled = idle.pollFirst();
+        if (pooled != null) {
+            idleCount.decrementAndGet();
+        }
+        return pooled;
+    }
+
+    void offerIdle(Pooled<T> pooled) {
+        // most recently used first, since it is the most likely to still be good.
+        idle.offerFirst(pooled);
+        idleCount.incrementAndGet();
+        signalAvailable();
+    }
+
+    boolean checkValid(T item) {
+        try {
+            return isValid(item);
+        } catch (PoolException x) {
+            return false;
+        }
+    }
+
+    // Only for items from the idle list or that were about to be checked out, which count towards the total.
+    void destroyQuietly(T item) {
+        freed();
+        try {
+            destroy(item);
+            getStats().recordDestroyed();
+        } catch (PoolException x) {
+            // it's bad anyway.
+        }
+    }
+}
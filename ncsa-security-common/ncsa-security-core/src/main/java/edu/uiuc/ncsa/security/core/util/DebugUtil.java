@@ -2,7 +2,12 @@ package edu.uiuc.ncsa.security.core.util;
 
 import edu.uiuc.ncsa.security.core.exceptions.NFWException;
 
-import java.util.Date;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.function.Supplier;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
 
 /**
  * Utilities for centralizing some common debugging commands. The debug level is set globally for all calls to this.
@@ -11,6 +16,10 @@ import java.util.Date;
  * logging on purpose, but can be collected and viewed separately.
  * <p>Optionally if this is being run on a server, you may specify a host to be printed with each message. If
  * this is not set, that is fine.</p>
+ * <p>Messages built by concatenation are built even if debugging is off. In code that runs often, pass a pattern and
+ * its arguments instead, e.g. <code>DebugUtil.info(this, "raw ID token={}", idToken)</code>, or a {@link Supplier}
+ * for anything expensive to compute, or check {@link #isLevelEnabled(int)} first. Then a disabled call costs next to
+ * nothing. {@link #setAsync(boolean)} moves the printing itself to a background thread.</p>
  * <p>Created by Jeff Gaynor<br>
  * on 7/27/16 at  2:55 PM
  */
@@ -112,6 +121,77 @@ public class DebugUtil {
         return getDebugLevel() != DEBUG_LEVEL_OFF;
     }
 
+    /**
+     * Whether a message at this level would be printed.
+     *
+     * @param level
+     * @return
+     */
+    public static boolean isLevelEnabled(int level) {
+        return level <= getDebugLevel();
+    }
+
+    public static boolean isSevereEnabled() {
+        return isLevelEnabled(DEBUG_LEVEL_SEVERE);
+    }
+
+    public static boolean isErrorEnabled() {
+        return isLevelEnabled(DEBUG_LEVEL_ERROR);
+    }
+
+    public static boolean isWarnEnabled() {
+        return isLevelEnabled(DEBUG_LEVEL_WARN);
+    }
+
+    public static boolean isInfoEnabled() {
+        return isLevelEnabled(DEBUG_LEVEL_INFO);
+    }
+
+    public static boolean isTraceEnabled() {
+        return isLevelEnabled(DEBUG_LEVEL_TRACE);
+    }
+
+    /**
+     * If true, messages are put in a queue and printed to stderr by a background thread, so the caller
+     * does not wait for the output. Messages are still printed in order. Default is false.
+     *
+     * @return
+     */
+    public static boolean isAsync() {
+        return asyncHandler != null;
+    }
+
+    public static synchronized void setAsync(boolean async) {
+        if (async == isAsync()) {
+            return;
+        }
+        if (async) {
+            AsyncLogHandler handler = new AsyncLogHandler(new Handler() {
+                @Override
+                public void publish(LogRecord record) {
+                    System.err.println(record.getMessage());
+                }
+
+                @Override
+                public void flush() {
+                    System.err.flush();
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+            handler.setInferCaller(false);
+            asyncHandler = handler;
+        } else {
+            AsyncLogHandler handler = asyncHandler;
+            asyncHandler = null;
+            handler.close();
+        }
+    }
+
+    static volatile AsyncLogHandler asyncHandler;
+
     public static void setIsEnabled(boolean isEnabled) {
         if (isEnabled) {
             setDebugLevel(DEBUG_LEVEL_INFO); //default
@@ -139,17 +219,52 @@ public class DebugUtil {
 
     public static void printIt(int level, Class callingClass, String message) {
         // Standard logging format is date host service: message
-        if (level <= getDebugLevel()) {
-            if(host == null || host.isEmpty()) {
-                printIt(Iso8601.date2String(new Date()) + " " + callingClass.getSimpleName() + " " + toLabel(level) + ": " + message);
-            }else{
-                printIt(Iso8601.date2String(new Date()) + " " + host + " " + callingClass.getSimpleName() + " " + toLabel(level) + ": " + message);
-                //printIt(callingClass.getSimpleName() + " (" + (new Date()) + ") " + host + " " +  toLabel(level) + ": " + message);
+        if (isLevelEnabled(level)) {
+            StringBuilder sb = new StringBuilder(64 + (message == null ? 4 : message.length()));
+            sb.append(Iso8601.date2String(System.currentTimeMillis())).append(" ");
+            if (host != null && !host.isEmpty()) {
+                sb.append(host).append(" ");
             }
+            sb.append(callingClass.getSimpleName()).append(" ").append(toLabel(level)).append(": ").append(message);
+            printIt(sb.toString());
+        }
+    }
+
+    /**
+     * Print the message only if the level is enabled. The message is not computed otherwise.
+     *
+     * @param level
+     * @param callingClass
+     * @param message
+     */
+    public static void printIt(int level, Class callingClass, Supplier<String> message) {
+        if (isLevelEnabled(level)) {
+            printIt(level, callingClass, message.get());
+        }
+    }
+
+    /**
+     * Print the pattern with its {} replaced by the arguments, see {@link MessageFormatter}, only if the level is
+     * enabled.
+     *
+     * @param level
+     * @param callingClass
+     * @param pattern
+     * @param args
+     */
+    public static void printPattern(int level, Class callingClass, String pattern, Object... args) {
+        if (isLevelEnabled(level)) {
+            printIt(level, callingClass, MessageFormatter.format(pattern, args));
         }
     }
+
     protected static void printIt(String message) {
-        System.err.println(message);
+        AsyncLogHandler handler = asyncHandler;
+        if (handler == null) {
+            System.err.println(message);
+        } else {
+            handler.publish(new LogRecord(Level.INFO, message));
+        }
     }
 
     /** This only prints if the requested level is at least error AND the current utility supports it.
@@ -170,6 +285,11 @@ public class DebugUtil {
         if (level <= DEBUG_LEVEL_ERROR && level <= getDebugLevel()) {
             if (throwable == null) {
                 printIt("     =====>> (NO STACKTRACE AVAILABLE)");
+            } else if (isAsync()) {
+                // so it stays in order with the other messages.
+                StringWriter stackTrace = new StringWriter();
+                throwable.printStackTrace(new PrintWriter(stackTrace));
+                printIt(stackTrace.toString());
             } else {
                 throwable.printStackTrace();
             }
@@ -242,6 +362,86 @@ public class DebugUtil {
         trace(obj.getClass(), message);
     }
 
+    public static void info(Class callingClass, Supplier<String> message) {
+        printIt(DEBUG_LEVEL_INFO, callingClass, message);
+    }
+
+    public static void info(Object obj, Supplier<String> message) {
+        printIt(DEBUG_LEVEL_INFO, obj.getClass(), message);
+    }
+
+    public static void info(Class callingClass, String pattern, Object... args) {
+        printPattern(DEBUG_LEVEL_INFO, callingClass, pattern, args);
+    }
+
+    public static void info(Object obj, String pattern, Object... args) {
+        printPattern(DEBUG_LEVEL_INFO, obj.getClass(), pattern, args);
+    }
+
+    public static void warn(Class callingClass, Supplier<String> message) {
+        printIt(DEBUG_LEVEL_WARN, callingClass, message);
+    }
+
+    public static void warn(Object obj, Supplier<String> message) {
+        printIt(DEBUG_LEVEL_WARN, obj.getClass(), message);
+    }
+
+    public static void warn(Class callingClass, String pattern, Object... args) {
+        printPattern(DEBUG_LEVEL_WARN, callingClass, pattern, args);
+    }
+
+    public static void warn(Object obj, String pattern, Object... args) {
+        printPattern(DEBUG_LEVEL_WARN, obj.getClass(), pattern, args);
+    }
+
+    public static void error(Class callingClass, Supplier<String> message) {
+        printIt(DEBUG_LEVEL_ERROR, callingClass, message);
+    }
+
+    public static void error(Object obj, Supplier<String> message) {
+        printIt(DEBUG_LEVEL_ERROR, obj.getClass(), message);
+    }
+
+    public static void error(Class callingClass, String pattern, Object... args) {
+        printPattern(DEBUG_LEVEL_ERROR, callingClass, pattern, args);
+    }
+
+    public static void error(Object obj, String pattern, Object... args) {
+        printPattern(DEBUG_LEVEL_ERROR, obj.getClass(), pattern, args);
+    }
+
+    public static void severe(Class callingClass, Supplier<String> message) {
+        printIt(DEBUG_LEVEL_SEVERE, callingClass, message);
+    }
+
+    public static void severe(Object obj, Supplier<String> message) {
+        printIt(DEBUG_LEVEL_SEVERE, obj.getClass(), message);
+    }
+
+    public static void severe(Class callingClass, String pattern, Object... args) {
+        printPattern(DEBUG_LEVEL_SEVERE, callingClass, pattern, args);
+    }
+
+    public static void severe(Object obj, String pattern, Object... args) {
+        printPattern(DEBUG_LEVEL_SEVERE, obj.getClass(), pattern, args);
+    }
+
+    public static void trace(Class callingClass, Supplier<String> message) {
+        printIt(DEBUG_LEVEL_TRACE, callingClass, message);
+    }
+
+    public static void trace(Object obj, Supplier<String> message) {
+        printIt(DEBUG_LEVEL_TRACE, obj.getClass(), message);
+    }
+
+    public static void trace(Class callingClass, String pattern, Object... args) {
+        printPattern(DEBUG_LEVEL_TRACE, callingClass, pattern, args);
+    }
+
+    public static void trace(Object obj, String pattern, Object... args) {
+        printPattern(DEBUG_LEVEL_TRACE, obj.getClass(), pattern, args);
+    }
+
     /**
      * This will print out a message from a class that includes the class name and current timestamp.
      *
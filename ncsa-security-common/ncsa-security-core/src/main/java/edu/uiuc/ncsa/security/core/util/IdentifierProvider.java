@@ -6,7 +6,6 @@ import edu.uiuc.ncsa.security.core.exceptions.GeneralException;
 import javax.inject.Provider;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Date;
 
 /**
  * Creates Identifiers for use by {@link edu.uiuc.ncsa.security.core.Identifiable} objects.
@@ -124,19 +123,33 @@ public abstract class IdentifierProvider<V extends Identifier> implements Provid
      * @return
      */
     protected URI uniqueIdentifier() {
-        String h = "";
-        if (component != null) {
-            h = component.startsWith("/") ? "" : "/" + component;
-            h = h + (component.endsWith("/") ? "" : "/");
-        }
-        String t = "";
+        StringBuilder sb = new StringBuilder(96);
+        sb.append(getHead()).append(Identifiers.getHexString());
         if (useTimestamps) {
-            t = "/" + Long.toString(new Date().getTime());
+            sb.append('/').append(System.currentTimeMillis());
+        }
+        return URI.create(sb.toString());
+    }
+
+    /**
+     * The caput and component, i.e., everything before the random part of an identifier.
+     *
+     * @return
+     */
+    protected String getHead() {
+        if (head == null) {
+            String h = "";
+            if (component != null) {
+                h = component.startsWith("/") ? "" : "/" + component;
+                h = h + (component.endsWith("/") ? "" : "/");
+            }
+            head = getCaput() + h;
         }
-        return Identifiers.uniqueIdentifier(getCaput() + h, t);
-        //return URI.create(getCaput() + h + getHexString() + t);
+        return head;
     }
 
+    String head;
+
     protected boolean useTimestamps;
     protected String component;
 
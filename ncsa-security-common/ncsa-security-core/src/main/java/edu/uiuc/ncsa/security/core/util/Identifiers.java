@@ -1,11 +1,15 @@
 package edu.uiuc.ncsa.security.core.util;
 
-import java.math.BigInteger;
 import java.net.URI;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 /**
  * Utilities for Identifiers, such as creating unique identifiers.
+ * <p>Random bytes come from a {@link SecureRandom} per thread, read a buffer at a time, so making identifiers
+ * does not lock. Each thread's generator is a DRBG if there is one (Java 9+), otherwise SHA1PRNG seeded from
+ * the system's generator.
  * <p>Created by Jeff Gaynor<br>
  * on 4/10/12 at  11:56 AM
  */
@@ -13,7 +17,15 @@ public class Identifiers {
 
     public static int BYTE_COUNT = 16;
 
-    protected static SecureRandom getRandom() {
+    /**
+     * How many random bytes each thread reads at once.
+     */
+    static final int BUFFER_SIZE = 512;
+
+    static final char[] HEX = "0123456789abcdef".toCharArray();
+    static final char[] BASE64URL = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    protected static synchronized SecureRandom getRandom() {
         if (random == null) {
             random = new SecureRandom();
         }
@@ -22,24 +34,127 @@ public class Identifiers {
 
     static SecureRandom random;
 
-    public static synchronized String getHexString() {
+    /**
+     * A thread's random number generator and its unused bytes.
+     */
+    static class RandomBuffer {
+        RandomBuffer() {
+            SecureRandom r;
+            try {
+                r = SecureRandom.getInstance("DRBG");
+            } catch (NoSuchAlgorithmException e) {
+                try {
+                    r = SecureRandom.getInstance("SHA1PRNG");
+                    // Seed it now, since left to itself it may read from /dev/random and block.
+                    byte[] seed = new byte[32];
+                    getRandom().nextBytes(seed);
+                    r.setSeed(seed);
+                } catch (NoSuchAlgorithmException e1) {
+                    r = new SecureRandom();
+                }
+            }
+            secureRandom = r;
+        }
+
+        SecureRandom secureRandom;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int position = BUFFER_SIZE;
+
+        void nextBytes(byte[] bytes) {
+            if (BUFFER_SIZE < bytes.length) {
+                secureRandom.nextBytes(bytes);
+                return;
+            }
+            if (BUFFER_SIZE - position < bytes.length) {
+                secureRandom.nextBytes(buffer);
+                position = 0;
+            }
+            System.arraycopy(buffer, position, bytes, 0, bytes.length);
+            // don't leave handed-out bytes lying around.
+            Arrays.fill(buffer, position, position + bytes.length, (byte) 0);
+            position = position + bytes.length;
+        }
+    }
+
+    static final ThreadLocal<RandomBuffer> randomBuffer = new ThreadLocal<RandomBuffer>() {
+        @Override
+        protected RandomBuffer initialValue() {
+            return new RandomBuffer();
+        }
+    };
+
+    /**
+     * Fill the array with random bytes from this thread's generator.
+     *
+     * @param bytes
+     */
+    public static void nextBytes(byte[] bytes) {
+        randomBuffer.get().nextBytes(bytes);
+    }
+
+    /**
+     * {@link #BYTE_COUNT} random bytes as lower case hex, so twice that many characters.
+     *
+     * @return
+     */
+    public static String getHexString() {
         byte[] bytes = new byte[BYTE_COUNT];
-        getRandom().nextBytes(bytes);
-        BigInteger bi = new BigInteger(bytes);
-        bi = bi.abs(); //make it always positive?? Doesn't that violate contract of secure random?
-        return bi.toString(16); // 16 refers to the base.
+        nextBytes(bytes);
+        return toHex(bytes);
     }
 
-    public static URI uniqueIdentifier(String caput, String tail) {
-        String h = "";
-        if (caput != null) {
-            h = caput.startsWith("/") ? "" : "/" + caput;
-            h = h + (caput.endsWith("/") ? "" : "/");
+    /**
+     * {@link #BYTE_COUNT} random bytes as unpadded base 64 URL encoding. This is shorter than
+     * {@link #getHexString()} and safe to use in URLs.
+     *
+     * @return
+     */
+    public static String getBase64URLString() {
+        byte[] bytes = new byte[BYTE_COUNT];
+        nextBytes(bytes);
+        return toBase64URL(bytes);
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
         }
-        if (tail!= null && 0 < tail.length() && !tail.startsWith("/")) {
-            tail = "/" + tail;
+        return new String(chars);
+    }
+
+    public static String toBase64URL(byte[] bytes) {
+        char[] chars = new char[(4 * bytes.length + 2) / 3];
+        int j = 0;
+        int i = 0;
+        for (; i + 2 < bytes.length; i = i + 3) {
+            int x = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+            chars[j++] = BASE64URL[(x >> 18) & 0x3F];
+            chars[j++] = BASE64URL[(x >> 12) & 0x3F];
+            chars[j++] = BASE64URL[(x >> 6) & 0x3F];
+            chars[j++] = BASE64URL[x & 0x3F];
+        }
+        int left = bytes.length - i;
+        if (left == 1) {
+            int x = (bytes[i] & 0xFF) << 16;
+            chars[j++] = BASE64URL[(x >> 18) & 0x3F];
+            chars[j++] = BASE64URL[(x >> 12) & 0x3F];
+        } else if (left == 2) {
+            int x = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8;
+            chars[j++] = BASE64URL[(x >> 18) & 0x3F];
+            chars[j++] = BASE64URL[(x >> 12) & 0x3F];
+            chars[j++] = BASE64URL[(x >> 6) & 0x3F];
         }
+        return new String(chars);
+    }
 
-        return URI.create(caput + getHexString() + tail);
+    public static URI uniqueIdentifier(String caput, String tail) {
+        if (tail != null && 0 < tail.length() && !tail.startsWith("/")) {
+            tail = "/" + tail;
+        }
+        StringBuilder sb = new StringBuilder(96);
+        sb.append(caput).append(getHexString()).append(tail);
+        return URI.create(sb.toString());
     }
 }
@@ -67,6 +67,10 @@ import java.util.TimeZone;
  * <b>Important technical note:</b> There is a "feature" in java's SimpleDateFormat class. In particular,
  * fractions of seconds are handled in an unintiutive way so that errors were being consistently introduced. The method
  * <code>fixSeconds</code> fixes this and there are regression tests to catch this now as well.
+ * <H3>Performance</H3>
+ * Dates from 1583 to 9999 are formatted and parsed directly from the characters, with no locks, date formats or
+ * calendars, so this is safe and cheap to call from any thread. Anything else, such as a date that only a
+ * lenient {@link SimpleDateFormat} would accept, is handled the old way, so the results are the same.
  *
  * @author Joe Futrelle
  */
@@ -80,9 +84,28 @@ public class Iso8601 {
      * @return the string representation of the date
      */
     public static String date2String(long d) {
-        Calendar c = Calendar.getInstance();
-        c.setTimeInMillis(d);
-        return date2String(c);
+        if (d < MIN_FAST_MILLIS || MAX_FAST_MILLIS <= d) {
+            return getUTCDateFormat().format(new Date(d));
+        }
+        long days = Math.floorDiv(d, MILLIS_PER_DAY);
+        int millisOfDay = (int) (d - days * MILLIS_PER_DAY);
+        int[] ymd = civilFromDays(days);
+        char[] c = new char[24];
+        put(c, 0, ymd[0], 4);
+        c[4] = '-';
+        put(c, 5, ymd[1], 2);
+        c[7] = '-';
+        put(c, 8, ymd[2], 2);
+        c[10] = 'T';
+        put(c, 11, millisOfDay / 3600000, 2);
+        c[13] = ':';
+        put(c, 14, (millisOfDay / 60000) % 60, 2);
+        c[16] = ':';
+        put(c, 17, (millisOfDay / 1000) % 60, 2);
+        c[19] = '.';
+        put(c, 20, millisOfDay % 1000, 3);
+        c[23] = 'Z';
+        return new String(c);
     }
 
     /**
@@ -94,9 +117,7 @@ public class Iso8601 {
      * @return the string representation of the date
      */
     public static String date2String(Date d) {
-        Calendar c = Calendar.getInstance();
-        c.setTime(d);
-        return date2String(c);
+        return date2String(d.getTime());
     }
 
     /**
@@ -108,7 +129,7 @@ public class Iso8601 {
      * @return the string representation of the date
      */
     public static String date2String(Calendar c) {
-        return getUTCDateFormat().format(c.getTime());
+        return date2String(c.getTimeInMillis());
     }
 
     /**
@@ -165,7 +186,7 @@ public class Iso8601 {
     static int dateIndex = 0;
     static int timezoneIndex = 1;
 
-    synchronized public static String[] splitDate(String rawDate) throws ParseException {
+    public static String[] splitDate(String rawDate) throws ParseException {
         try {
             String[] result = new String[2];
             if (rawDate.endsWith("Z")) {
@@ -196,12 +217,156 @@ public class Iso8601 {
      * @throws ParseException
      */
     public static Calendar string2Date(String s) throws ParseException {
-        String[] date = splitDate(s);
         Calendar c = mintCalendar();
-        c.setTime(getDateFormat().parse(date[dateIndex] + date[timezoneIndex]));
+        c.setTimeInMillis(string2Millis(s));
         return c;
     }
 
+    /**
+     * Parse a date as per {@link #string2Date(String)}, returning the time in milliseconds. This makes no objects
+     * for well-formed dates.
+     *
+     * @param s
+     * @return
+     * @throws ParseException
+     */
+    public static long string2Millis(CharSequence s) throws ParseException {
+        long millis = parseFast(s);
+        if (millis != NOT_PARSED) {
+            return millis;
+        }
+        // Old way, for anything unusual.
+        String[] date = splitDate(s.toString());
+        return getDateFormat().parse(date[dateIndex] + date[timezoneIndex]).getTime();
+    }
+
+    static final long MILLIS_PER_DAY = 86400000L;
+    static final long MIN_FAST_MILLIS = daysFromCivil(1583, 1, 1) * MILLIS_PER_DAY;
+    static final long MAX_FAST_MILLIS = daysFromCivil(10000, 1, 1) * MILLIS_PER_DAY;
+    static final long NOT_PARSED = Long.MIN_VALUE;
+
+    /**
+     * Parse yyyy-MM-ddTHH:mm:ss[.S*](Z|[+-]hh[:]mm) with every field in range. Returns {@link #NOT_PARSED} if it is
+     * anything else.
+     */
+    static long parseFast(CharSequence s) {
+        int length = s.length();
+        if (length < 20 || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T' || s.charAt(13) != ':' || s.charAt(16) != ':') {
+            return NOT_PARSED;
+        }
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        int second = digits(s, 17, 2);
+        if (year < 1583 || month < 1 || 12 < month || day < 1 || daysInMonth(year, month) < day ||
+                hour < 0 || 23 < hour || minute < 0 || 59 < minute || second < 0 || 59 < second) {
+            return NOT_PARSED;
+        }
+        int i = 19;
+        int millis = 0;
+        if (s.charAt(i) == '.') {
+            i++;
+            int scale = 100;
+            while (i < length && '0' <= s.charAt(i) && s.charAt(i) <= '9') {
+                // only milliseconds are kept, further digits are dropped
+                millis = millis + scale * (s.charAt(i) - '0');
+                scale = scale / 10;
+                i++;
+            }
+        }
+        if (i == length) {
+            return NOT_PARSED;
+        }
+        int offset; // in minutes
+        char sign = s.charAt(i);
+        if (sign == 'Z' && i + 1 == length) {
+            offset = 0;
+        } else if (sign == '+' || sign == '-') {
+            int offsetHours = digits(s, i + 1, 2);
+            int m = i + 3;
+            if (m < length && s.charAt(m) == ':') {
+                m++;
+            }
+            if (m + 2 != length) {
+                return NOT_PARSED;
+            }
+            int offsetMinutes = digits(s, m, 2);
+            if (offsetHours < 0 || 23 < offsetHours || offsetMinutes < 0 || 59 < offsetMinutes) {
+                return NOT_PARSED;
+            }
+            offset = 60 * offsetHours + offsetMinutes;
+            if (sign == '-') {
+                offset = -offset;
+            }
+        } else {
+            return NOT_PARSED;
+        }
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY +
+                ((hour * 60L + minute - offset) * 60L + second) * 1000L + millis;
+    }
+
+    /**
+     * The number given by count decimal digits starting at start, or -1 if they are not all digits.
+     */
+    static int digits(CharSequence s, int start, int count) {
+        if (s.length() < start + count) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || '9' < c) {
+                return -1;
+            }
+            value = 10 * value + (c - '0');
+        }
+        return value;
+    }
+
+    static void put(char[] c, int start, int value, int count) {
+        for (int i = start + count - 1; start <= i; i--) {
+            c[i] = (char) ('0' + value % 10);
+            value = value / 10;
+        }
+    }
+
+    static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        }
+        return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+    }
+
+    /**
+     * Days since 1970-01-01 in the (proleptic) Gregorian calendar.
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400L);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (2 < month ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * The year, month and day for a number of days since 1970-01-01.
+     */
+    static int[] civilFromDays(long days) {
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097L);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+        return new int[]{year, month, day};
+    }
+
     protected static Calendar mintCalendar() {
         Calendar c = Calendar.getInstance();
         c.setTimeZone(TimeZone.getTimeZone("UTC"));
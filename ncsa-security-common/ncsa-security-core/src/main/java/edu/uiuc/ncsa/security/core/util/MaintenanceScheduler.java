@@ -0,0 +1,307 @@
+package edu.uiuc.ncsa.security.core.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs periodic background work, such as cache cleanups ({@link edu.uiuc.ncsa.security.core.cache.Cleanup}) and
+ * queue populators ({@link QueuePopulationThread}), on a small shared pool of threads instead of one sleeping thread
+ * each.
+ * <h3>Use</h3>
+ * Register each job with {@link #schedule(String, Runnable, long)}. Most code should just use the shared
+ * {@link #getInstance() instance}. Each job runs every interval milliseconds, give or take a random
+ * {@link #getJitter() jitter}, so jobs registered at the same time do not all run at once. A job is never run again
+ * while it is still running, even if it takes longer than its interval. If a job throws an exception, it is logged
+ * and the job is run again at its next time. The returned {@link Task} tells how the job is doing and cancels it.
+ * {@link #isHealthy()} is a quick check that no job is failing or stuck.
+ * <p>The threads are daemon threads, so they do not keep the JVM running.
+ */
+public class MaintenanceScheduler {
+    public MaintenanceScheduler() {
+        this(2, null);
+    }
+
+    /**
+     * @param threadCount   The most jobs that can run at once.
+     * @param threadFactory Makes the threads. If null, these are daemon threads named "maintenance-n".
+     */
+    public MaintenanceScheduler(int threadCount, ThreadFactory threadFactory) {
+        if (threadFactory == null) {
+            threadFactory = new ThreadFactory() {
+                AtomicInteger count = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "maintenance-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+        }
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threadCount, threadFactory);
+        executor.setRemoveOnCancelPolicy(true);
+        this.executor = executor;
+    }
+
+    static MaintenanceScheduler instance;
+
+    /**
+     * The scheduler shared by everything in this JVM.
+     *
+     * @return
+     */
+    public static synchronized MaintenanceScheduler getInstance() {
+        if (instance == null) {
+            instance = new MaintenanceScheduler();
+        }
+        return instance;
+    }
+
+    ScheduledExecutorService executor;
+
+    protected MyLoggingFacade getLogger() {
+        if (logger == null) {
+            logger = new MyLoggingFacade(getClass().getName(), false);
+        }
+        return logger;
+    }
+
+    public void setLogger(MyLoggingFacade logger) {
+        this.logger = logger;
+    }
+
+    MyLoggingFacade logger;
+
+    /**
+     * The fraction of its interval that a job's start time may be moved, earlier or later, at random. The default is 0.1,
+     * so a job that runs every minute runs between 54 and 66 seconds after it last finished.
+     *
+     * @return
+     */
+    public double getJitter() {
+        return jitter;
+    }
+
+    public void setJitter(double jitter) {
+        this.jitter = jitter;
+    }
+
+    double jitter = 0.1;
+
+    List<Task> tasks = new CopyOnWriteArrayList<Task>();
+
+    public List<Task> getTasks() {
+        return Collections.unmodifiableList(tasks);
+    }
+
+    /**
+     * A job registered with this scheduler.
+     */
+    public class Task implements Runnable {
+        Task(String name, Runnable job, long interval) {
+            this.name = name;
+            this.job = job;
+            this.interval = interval;
+        }
+
+        String name;
+        Runnable job;
+        long interval;
+        volatile boolean cancelled = false;
+        volatile ScheduledFuture<?> future;
+        AtomicBoolean running = new AtomicBoolean(false);
+        AtomicLong runCount = new AtomicLong(0L);
+        AtomicLong failureCount = new AtomicLong(0L);
+        volatile int consecutiveFailures = 0;
+        volatile long lastStart = 0L;
+        volatile long lastFinish = 0L;
+        volatile Throwable lastError;
+
+        public String getName() {
+            return name;
+        }
+
+        public long getInterval() {
+            return interval;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isRunning() {
+            return running.get();
+        }
+
+        public long getRunCount() {
+            return runCount.get();
+        }
+
+        public long getFailureCount() {
+            return failureCount.get();
+        }
+
+        /**
+         * How many times in a row the job has failed. This is zero once it succeeds again.
+         *
+         * @return
+         */
+        public int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        /**
+         * When the job last finished, in milliseconds, or 0 if it has not run yet.
+         *
+         * @return
+         */
+        public long getLastFinish() {
+            return lastFinish;
+        }
+
+        public Throwable getLastError() {
+            return lastError;
+        }
+
+        /**
+         * A task is healthy unless its last run failed or it has been running for more than twice its interval.
+         *
+         * @return
+         */
+        public boolean isHealthy() {
+            if (0 < consecutiveFailures) {
+                return false;
+            }
+            return !(isRunning() && 2 * interval < System.currentTimeMillis() - lastStart);
+        }
+
+        /**
+         * Stop running this job. If it is running now, it finishes.
+         */
+        public void cancel() {
+            cancelled = true;
+            ScheduledFuture<?> f = future;
+            if (f != null) {
+                f.cancel(false);
+            }
+            tasks.remove(this);
+        }
+
+        @Override
+        public void run() {
+            if (cancelled || !running.compareAndSet(false, true)) {
+                return;
+            }
+            lastStart = System.currentTimeMillis();
+            try {
+                job.run();
+                consecutiveFailures = 0;
+            } catch (Throwable t) {
+                failureCount.incrementAndGet();
+                consecutiveFailures++;
+                lastError = t;
+                getLogger().warn("Error in maintenance task \"" + name + "\", it will be run again as scheduled", t);
+            } finally {
+                runCount.incrementAndGet();
+                lastFinish = System.currentTimeMillis();
+                running.set(false);
+                reschedule();
+            }
+        }
+
+        void reschedule() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                future = executor.schedule(this, nextDelay(interval), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException x) {
+                // shut down.
+                cancelled = true;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Task[name=" + name + ", interval=" + interval + ", runs=" + getRunCount() +
+                    ", failures=" + getFailureCount() + ", healthy=" + isHealthy() + "]";
+        }
+    }
+
+    long nextDelay(long interval) {
+        if (jitter <= 0.0) {
+            return interval;
+        }
+        double offset = (ThreadLocalRandom.current().nextDouble() * 2.0 - 1.0) * jitter * interval;
+        return Math.max(1L, interval + (long) offset);
+    }
+
+    /**
+     * Run the job every interval milliseconds, until the returned task is cancelled. The first run is after
+     * a random part of the interval, to spread out jobs that are all registered at startup.
+     *
+     * @param name     Used in logging and health reports.
+     * @param job
+     * @param interval
+     * @return
+     */
+    public Task schedule(String name, Runnable job, long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Error: the interval must be positive.");
+        }
+        Task task = new Task(name, job, interval);
+        tasks.add(task);
+        long firstDelay = 0.0 < jitter ? ThreadLocalRandom.current().nextLong(interval) + 1 : interval;
+        task.future = executor.schedule(task, firstDelay, TimeUnit.MILLISECONDS);
+        return task;
+    }
+
+    /**
+     * True if every task is healthy.
+     *
+     * @return
+     */
+    public boolean isHealthy() {
+        for (Task task : tasks) {
+            if (!task.isHealthy()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The state of each task, by name, for reporting.
+     *
+     * @return
+     */
+    public Map<String, String> getHealth() {
+        Map<String, String> health = new LinkedHashMap<String, String>();
+        for (Task task : tasks) {
+            String status = task.isHealthy() ? "ok" : "failing";
+            if (task.getLastError() != null && !task.isHealthy()) {
+                status = status + ": " + task.getLastError().getMessage();
+            }
+            health.put(task.getName(), status + " (" + task.getRunCount() + " runs, " + task.getFailureCount() + " failures)");
+        }
+        return health;
+    }
+
+    /**
+     * Cancel every task and stop the threads. Running tasks are allowed to finish.
+     */
+    public void shutdown() {
+        for (Task task : tasks) {
+            task.cancel();
+        }
+        executor.shutdown();
+        synchronized (MaintenanceScheduler.class) {
+            if (instance == this) {
+                instance = null;
+            }
+        }
+    }
+}
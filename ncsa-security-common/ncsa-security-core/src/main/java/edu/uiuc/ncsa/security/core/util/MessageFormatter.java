@@ -0,0 +1,41 @@
+package edu.uiuc.ncsa.security.core.util;
+
+import java.util.Arrays;
+
+/**
+ * Fills in messages of the form <code>"token {} for client {}"</code>, replacing each <code>{}</code> with the next
+ * argument. The logging calls that take a pattern and arguments, e.g.
+ * {@link DebugUtil#info(Class, String, Object...)} or {@link MyLoggingFacade#debug(String, Object...)}, only call
+ * this if the message will actually be printed, so a disabled call never turns its arguments into strings.
+ * <p>Missing arguments leave the <code>{}</code> as is and extra arguments are ignored.
+ */
+public class MessageFormatter {
+    public static final String PLACEHOLDER = "{}";
+
+    public static String format(String pattern, Object... args) {
+        if (pattern == null || args == null || args.length == 0) {
+            return pattern;
+        }
+        StringBuilder sb = new StringBuilder(pattern.length() + 16 * args.length);
+        int start = 0;
+        for (Object arg : args) {
+            int index = pattern.indexOf(PLACEHOLDER, start);
+            if (index < 0) {
+                break;
+            }
+            sb.append(pattern, start, index);
+            append(sb, arg);
+            start = index + PLACEHOLDER.length();
+        }
+        sb.append(pattern, start, pattern.length());
+        return sb.toString();
+    }
+
+    static void append(StringBuilder sb, Object arg) {
+        if (arg instanceof Object[]) {
+            sb.append(Arrays.deepToString((Object[]) arg));
+        } else {
+            sb.append(arg);
+        }
+    }
+}
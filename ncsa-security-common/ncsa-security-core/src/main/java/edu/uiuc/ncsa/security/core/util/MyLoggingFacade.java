@@ -3,11 +3,18 @@ package edu.uiuc.ncsa.security.core.util;
 import edu.uiuc.ncsa.security.core.Logable;
 
 import java.util.Date;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * A simple front for logging. Mostly this just centralizes various useful idioms in one place.
+ * <h3>Cheap logging</h3>
+ * A message built by concatenation is built whether or not it is logged. In code that runs often, either pass a
+ * pattern and its arguments, e.g. <code>debug("token {} for {}", token, client)</code>, or a {@link Supplier}
+ * for anything expensive to compute. Either way nothing is formatted unless the message is written.
+ * {@link #isDebugOn()}, {@link #isInfoEnabled()} and {@link #isWarnEnabled()} may also be checked first.
+ * To keep the actual writing off the calling thread, see {@link #setAsync(boolean)}.
  * <p>Created by Jeff Gaynor<br>
  * on Nov 9, 2010 at  10:59:40 AM
  */
@@ -51,7 +58,8 @@ public class MyLoggingFacade implements Logable {
      * In debug mode, calls to the {@link #debug(String)} method will print out a detailed message. This allows
      * you to turn on or off debug prints very easily. Note though that while we can control what is printed,
      * we cannot control Java's evaluation of the string to be printed. If the string is very expensive to
-     * compute then it will still be computed, it just won't get printed.
+     * compute then it will still be computed, it just won't get printed. Use {@link #debug(String, Object...)} or
+     * {@link #debug(Supplier)} to put that off until it is known to be printed.
      *
      * @return
      */
@@ -74,6 +82,34 @@ public class MyLoggingFacade implements Logable {
     }
 
 
+    /**
+     * Send everything this logger writes through an {@link AsyncLogHandler}, so the calling thread does not wait on
+     * the log file. This changes the handlers of the underlying logger (or the parent whose handlers it uses,
+     * normally the root logger), so it affects every logger that shares them, which is usually every logger in the
+     * JVM. Anything still queued is written when the JVM exits.
+     *
+     * @param async
+     */
+    public void setAsync(boolean async) {
+        if (async) {
+            AsyncLogHandler.install(getLogger());
+        } else {
+            AsyncLogHandler.uninstall(getLogger());
+        }
+    }
+
+    public boolean isInfoEnabled() {
+        return getLogger().isLoggable(Level.INFO);
+    }
+
+    public boolean isWarnEnabled() {
+        return getLogger().isLoggable(Level.WARNING);
+    }
+
+    protected String decorate(String x) {
+        return getClassName() + "(" + (new Date()) + "): " + x;
+    }
+
     /**
      * If debug is set on, print the string with the classname and date. Otherwise, do not print debug
      * messages. This allows you to switch debug prints on and off throughout your code via configuration.
@@ -81,14 +117,50 @@ public class MyLoggingFacade implements Logable {
      * @param x
      */
     public void debug(String x) {
-        if (isDebugOn()) {
-            String out = getClassName() + "(" + (new Date()) + "): " + x;
-            getLogger().info(out);
+        if (isDebugOn() && isInfoEnabled()) {
+            getLogger().info(decorate(x));
+        }
+    }
+
+    /**
+     * Debug message whose {} are replaced by the arguments, but only if debug is on.
+     *
+     * @param pattern
+     * @param args
+     */
+    public void debug(String pattern, Object... args) {
+        if (isDebugOn() && isInfoEnabled()) {
+            getLogger().info(decorate(MessageFormatter.format(pattern, args)));
+        }
+    }
+
+    /**
+     * Debug message that is only computed if debug is on.
+     *
+     * @param message
+     */
+    public void debug(Supplier<String> message) {
+        if (isDebugOn() && isInfoEnabled()) {
+            getLogger().info(decorate(message.get()));
         }
     }
 
     public void info(String x) {
-        getLogger().info(getClassName() + "(" + (new Date()) + "): " + x);
+        if (isInfoEnabled()) {
+            getLogger().info(decorate(x));
+        }
+    }
+
+    public void info(String pattern, Object... args) {
+        if (isInfoEnabled()) {
+            getLogger().info(decorate(MessageFormatter.format(pattern, args)));
+        }
+    }
+
+    public void info(Supplier<String> message) {
+        if (isInfoEnabled()) {
+            getLogger().info(decorate(message.get()));
+        }
     }
 
     public void warn(String x, Throwable t) {
@@ -101,7 +173,21 @@ public class MyLoggingFacade implements Logable {
     }
 
     public void warn(String x) {
-        getLogger().warning(getClassName() + "(" + (new Date()) + "): " + x);
+        if (isWarnEnabled()) {
+            getLogger().warning(decorate(x));
+        }
+    }
+
+    public void warn(String pattern, Object... args) {
+        if (isWarnEnabled()) {
+            getLogger().warning(decorate(MessageFormatter.format(pattern, args)));
+        }
+    }
+
+    public void warn(Supplier<String> message) {
+        if (isWarnEnabled()) {
+            getLogger().warning(decorate(message.get()));
+        }
     }
 
     public void error(String x, Throwable t) {
@@ -118,7 +204,19 @@ public class MyLoggingFacade implements Logable {
     }
 
     public void error(String x) {
-        getLogger().severe(getClassName() + "(" + (new Date()) + "): " + x);
+        getLogger().severe(decorate(x));
+    }
+
+    public void error(String pattern, Object... args) {
+        if (getLogger().isLoggable(Level.SEVERE)) {
+            getLogger().severe(decorate(MessageFormatter.format(pattern, args)));
+        }
+    }
+
+    public void error(Supplier<String> message) {
+        if (getLogger().isLoggable(Level.SEVERE)) {
+            getLogger().severe(decorate(message.get()));
+        }
     }
 
 
@@ -0,0 +1,105 @@
+package edu.uiuc.ncsa.security.core.util;
+
+import edu.uiuc.ncsa.security.core.cache.LatencyHistogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timings for a {@link ConcurrentPool}: how long callers waited to check an item out, how long they
+ * held it and how often items were created, destroyed, timed out or leaked. The current number of active,
+ * idle and waiting callers is read from the pool itself, see {@link ConcurrentPool#getStatsMap()}.
+ */
+public class PoolStats {
+    LatencyHistogram acquireWait = new LatencyHistogram();
+    LatencyHistogram holdTime = new LatencyHistogram();
+    LongAdder created = new LongAdder();
+    LongAdder destroyed = new LongAdder();
+    LongAdder timeouts = new LongAdder();
+    LongAdder leaks = new LongAdder();
+
+    /**
+     * How long each successful checkout waited, including creating a new item if one was needed.
+     *
+     * @return
+     */
+    public LatencyHistogram getAcquireWait() {
+        return acquireWait;
+    }
+
+    /**
+     * How long items were checked out.
+     *
+     * @return
+     */
+    public LatencyHistogram getHoldTime() {
+        return holdTime;
+    }
+
+    public void recordCreated() {
+        created.increment();
+    }
+
+    public void recordDestroyed() {
+        destroyed.increment();
+    }
+
+    public void recordTimeout() {
+        timeouts.increment();
+    }
+
+    public void recordLeak() {
+        leaks.increment();
+    }
+
+    public long getCreatedCount() {
+        return created.sum();
+    }
+
+    public long getDestroyedCount() {
+        return destroyed.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    /**
+     * How many times an item was found to be held longer than the leak threshold. An item is counted once each time
+     * it is checked out.
+     *
+     * @return
+     */
+    public long getLeakCount() {
+        return leaks.sum();
+    }
+
+    public void reset() {
+        acquireWait.reset();
+        holdTime.reset();
+        created.reset();
+        destroyed.reset();
+        timeouts.reset();
+        leaks.reset();
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("created", getCreatedCount());
+        map.put("destroyed", getDestroyedCount());
+        map.put("timeouts", getTimeoutCount());
+        map.put("leaks", getLeakCount());
+        map.put("acquires", acquireWait.getCount());
+        map.put("mean acquire wait (ms)", String.format("%.3f", acquireWait.getMeanMillis()));
+        map.put("p99 acquire wait (ms)", acquireWait.getPercentileMillis(99));
+        map.put("mean hold time (ms)", String.format("%.3f", holdTime.getMeanMillis()));
+        map.put("p99 hold time (ms)", holdTime.getPercentileMillis(99));
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + toMap();
+    }
+}
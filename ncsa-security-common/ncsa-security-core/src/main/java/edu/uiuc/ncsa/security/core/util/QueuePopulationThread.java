@@ -7,6 +7,8 @@ package edu.uiuc.ncsa.security.core.util;
  * but should demand outstrip supply, the last element in the queue will be returned until
  * new elements can be created. This allows for generating expensive items (such
  * as key pairs) without creating a bottleneck in the system.
+ * <p>Rather than start this as a thread, it may be {@link #schedule(MaintenanceScheduler) scheduled} to share
+ * threads with other background jobs.
  * <p>Created by Jeff Gaynor<br>
  * on 2/20/12 at  11:03 AM
  */
@@ -59,14 +61,43 @@ public abstract class QueuePopulationThread<E> extends Thread {
         getLogger().info(x);
     }
 
+    /**
+     * Add a new element if the queue is not full.
+     */
+    public void populate() {
+        if (q.isEmpty() || q.size() < maxQueueSize) {
+            q.push(createNew());
+        }
+    }
+
+    /**
+     * Run {@link #populate()} at the sleep interval on the scheduler, instead of starting this thread.
+     * Cancel the returned task to stop it.
+     *
+     * @param scheduler
+     * @return
+     */
+    public MaintenanceScheduler.Task schedule(MaintenanceScheduler scheduler) {
+        return scheduler.schedule(getClass().getSimpleName(), new Runnable() {
+            @Override
+            public void run() {
+                populate();
+            }
+        }, sleepInterval);
+    }
+
     @Override
     public void run() {
         log("starting queue populator");
         while (!isStopThread()) {
             try {
                 sleep(sleepInterval);
-                if (q.isEmpty() || q.size() < maxQueueSize) {
-                    q.push(createNew());
+                try {
+                    populate();
+                } catch (Throwable throwable) {
+                    // Keep going, since the next one may work. Just leave a record of the failure.
+                    String msg = throwable.getMessage() == null ? "(no message available)" : throwable.getMessage();
+                    getLogger().warn("Error populating queue:\"" + msg + "\" Processing will continue.", throwable);
                 }
             } catch (InterruptedException e) {
                 setStopThread(true); // just in case.
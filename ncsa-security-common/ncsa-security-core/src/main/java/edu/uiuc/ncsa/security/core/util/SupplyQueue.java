@@ -0,0 +1,303 @@
+package edu.uiuc.ncsa.security.core.util;
+
+import edu.uiuc.ncsa.security.core.cache.LatencyHistogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a supply of items that are expensive to make, such as key pairs, ready ahead of demand. Unlike
+ * the {@link QueueWithSpare}, each item is handed out exactly once and this is safe to use from any number of threads.
+ * <h3>Use</h3>
+ * Implement {@link #createNew()}, call {@link #start()} and then get items with {@link #pop()}. Up to
+ * {@link #getCapacity()} items are kept ready. Whenever a pop leaves {@link #getLowWatermark()} or fewer, workers
+ * (one per core by default) make more in parallel until the queue is full again. Nothing runs while the queue is full.
+ * If the queue is empty, pop waits up to {@link #getWaitTimeout()} milliseconds for a worker to finish one, then
+ * makes one itself.
+ * <p>{@link #getStatsMap()} has the queue depth, how fast items are being made and how often callers had to make their
+ * own.
+ */
+public abstract class SupplyQueue<E> {
+    public SupplyQueue() {
+        this(10, 3, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param capacity     How many items to keep ready.
+     * @param lowWatermark Make more when this many or fewer are left.
+     * @param threadCount  How many items may be made at once.
+     */
+    public SupplyQueue(int capacity, int lowWatermark, int threadCount) {
+        if (capacity <= 0 || lowWatermark < 0 || capacity <= lowWatermark || threadCount <= 0) {
+            throw new IllegalArgumentException("Error: the capacity must be positive and more than the low watermark and there must be at least one thread.");
+        }
+        this.capacity = capacity;
+        this.lowWatermark = lowWatermark;
+        this.threadCount = threadCount;
+        queue = new ArrayBlockingQueue<E>(capacity);
+    }
+
+    /**
+     * Make a new item. This is called on the worker threads and, if the queue is empty, by {@link #pop()}.
+     *
+     * @return
+     */
+    abstract protected E createNew();
+
+    int capacity;
+    int lowWatermark;
+    int threadCount;
+    BlockingQueue<E> queue;
+    AtomicInteger inProgress = new AtomicInteger(0);
+    volatile boolean stopped = false;
+    long startTime = System.currentTimeMillis();
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * How long, in milliseconds, {@link #pop()} waits for an item when the queue is empty before making one itself.
+     * Default is 0, i.e., don't wait.
+     *
+     * @return
+     */
+    public long getWaitTimeout() {
+        return waitTimeout;
+    }
+
+    public void setWaitTimeout(long waitTimeout) {
+        this.waitTimeout = waitTimeout;
+    }
+
+    long waitTimeout = 0L;
+
+    protected MyLoggingFacade getLogger() {
+        if (logger == null) {
+            logger = new MyLoggingFacade(getClass().getName(), false);
+        }
+        return logger;
+    }
+
+    public void setLogger(MyLoggingFacade logger) {
+        this.logger = logger;
+    }
+
+    MyLoggingFacade logger;
+
+    public synchronized ExecutorService getWorkers() {
+        if (workers == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                AtomicInteger count = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, SupplyQueue.this.getClass().getSimpleName() + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.NORM_PRIORITY - 1); // requests come first.
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            workers = executor;
+        }
+        return workers;
+    }
+
+    ExecutorService workers;
+
+    AtomicLong created = new AtomicLong(0L);
+    AtomicLong failures = new AtomicLong(0L);
+    AtomicLong popped = new AtomicLong(0L);
+    AtomicLong inline = new AtomicLong(0L);
+    LatencyHistogram createTime = new LatencyHistogram();
+
+    /**
+     * Fill the queue.
+     */
+    public void start() {
+        stopped = false;
+        startTime = System.currentTimeMillis();
+        refill();
+    }
+
+    /**
+     * Stop making items. Items already in the queue can still be popped.
+     */
+    public synchronized void shutdown() {
+        stopped = true;
+        if (workers != null) {
+            workers.shutdownNow();
+            workers = null;
+        }
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Get an item. It is never given to anyone else.
+     *
+     * @return
+     */
+    public E pop() {
+        E item = queue.poll();
+        if (item == null && 0 < waitTimeout) {
+            refill(); // so there is something to wait for.
+            try {
+                item = queue.poll(waitTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Checked after any wait, since the item waited for may have been the one that would have started the refill.
+        if (queue.size() <= lowWatermark) {
+            refill();
+        }
+        if (item == null) {
+            inline.incrementAndGet();
+            item = make();
+        }
+        popped.incrementAndGet();
+        return item;
+    }
+
+    /**
+     * Start enough workers to fill the queue. Items already being made count towards this.
+     */
+    public void refill() {
+        while (!stopped) {
+            int current = inProgress.get();
+            if (capacity <= queue.size() + current) {
+                return;
+            }
+            if (!inProgress.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            try {
+                getWorkers().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean ok = false;
+                        try {
+                            if (!stopped) {
+                                ok = queue.offer(make());
+                            }
+                        } catch (Throwable t) {
+                            // the next pop tries again.
+                            getLogger().warn("Could not create a new item for " + SupplyQueue.this.getClass().getSimpleName(), t);
+                        } finally {
+                            inProgress.decrementAndGet();
+                        }
+                        if (ok) {
+                            // anything popped while this was running still needs replacing.
+                            refill();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException x) {
+                inProgress.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    E make() {
+        long start = System.nanoTime();
+        try {
+            E item = createNew();
+            created.incrementAndGet();
+            return item;
+        } catch (RuntimeException x) {
+            failures.incrementAndGet();
+            throw x;
+        } finally {
+            createTime.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * The number of items ready now.
+     *
+     * @return
+     */
+    public int getDepth() {
+        return queue.size();
+    }
+
+    /**
+     * The number of items being made now.
+     *
+     * @return
+     */
+    public int getInProgress() {
+        return inProgress.get();
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public long getPopCount() {
+        return popped.get();
+    }
+
+    /**
+     * How many pops found the queue empty and made their own item.
+     *
+     * @return
+     */
+    public long getInlineCount() {
+        return inline.get();
+    }
+
+    /**
+     * How long each item took to make.
+     *
+     * @return
+     */
+    public LatencyHistogram getCreateTime() {
+        return createTime;
+    }
+
+    /**
+     * Items made per second since this was started.
+     *
+     * @return
+     */
+    public double getCreateRate() {
+        long elapsed = Math.max(1L, System.currentTimeMillis() - startTime);
+        return getCreatedCount() * 1000.0 / elapsed;
+    }
+
+    public Map<String, Object> getStatsMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("depth", getDepth());
+        map.put("capacity", getCapacity());
+        map.put("in progress", getInProgress());
+        map.put("created", getCreatedCount());
+        map.put("failures", getFailureCount());
+        map.put("popped", getPopCount());
+        map.put("made inline", getInlineCount());
+        map.put("created per second", String.format("%.2f", getCreateRate()));
+        map.put("mean create time (ms)", String.format("%.3f", createTime.getMeanMillis()));
+        return map;
+    }
+}
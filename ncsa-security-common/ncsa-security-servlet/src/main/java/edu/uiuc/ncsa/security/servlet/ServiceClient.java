@@ -1,6 +1,7 @@
 package edu.uiuc.ncsa.security.servlet;
 
 import edu.uiuc.ncsa.security.core.exceptions.GeneralException;
+import edu.uiuc.ncsa.security.core.util.ConcurrentPool;
 import edu.uiuc.ncsa.security.core.util.MyLoggingFacade;
 import edu.uiuc.ncsa.security.core.util.Pool;
 import edu.uiuc.ncsa.security.util.ssl.SSLConfiguration;
@@ -65,7 +66,29 @@ public class ServiceClient {
     }
 
 
-    protected Pool<HttpClient> clientPool = new Pool<HttpClient>() {
+    /**
+     * The default for the most clients a service client checks out at once.
+     */
+    public static int DEFAULT_MAX_CLIENTS = 100;
+
+    /**
+     * The most clients this checks out at once. Requests past that wait, in order, for a client to be checked in.
+     * Set this before the service client is used.
+     *
+     * @return
+     */
+    public int getMaxClients() {
+        return clientPool.getMaxSize();
+    }
+
+    public void setMaxClients(int maxClients) {
+        clientPool.setMaxSize(maxClients);
+    }
+
+    protected Pool<HttpClient> clientPool = new ConcurrentPool<HttpClient>() {
+        {
+            setMaxSize(DEFAULT_MAX_CLIENTS);
+        }
 
         VerifyingHTTPClientFactory f;
 
@@ -166,6 +189,7 @@ public class ServiceClient {
 
                response = client.execute(httpRequestBase);
            }catch(Throwable t){
+               clientPool.doDestroy(client);
                ServletDebugUtil.error(this, "Error invoking execute() for client", t);
                if(ServletDebugUtil.isEnabled()){
                    t.printStackTrace();
@@ -175,7 +199,7 @@ public class ServiceClient {
            try {
 
                if(response.getEntity() != null && response.getEntity().getContentType()!=null) {
-                   ServletDebugUtil.info(this, "Raw response, content type: \"" + response.getEntity().getContentType() + "\"");
+                   ServletDebugUtil.info(this, "Raw response, content type: \"{}\"", response.getEntity().getContentType());
                }else{
                    ServletDebugUtil.info(this, "No response entity or no content type.");
 
@@ -194,12 +218,13 @@ public class ServiceClient {
                    ServiceClientHTTPException xx = new ServiceClientHTTPException("Error contacting server with code of  " + response.getStatusLine().getStatusCode());
                    xx.setContent(x);
                    xx.setStatus(response.getStatusLine().getStatusCode());
-                   clientPool.destroy(client);
+                   clientPool.doDestroy(client);
                    throw xx;
                }
                clientPool.push(client);
                return x;
            } catch (IOException e) {
+               clientPool.doDestroy(client);
                throw new GeneralException("Error invoking http client", e);
            }
 
@@ -1,18 +1,25 @@
 package edu.uiuc.ncsa.security.storage;
 
+import edu.uiuc.ncsa.security.core.BatchStore;
 import edu.uiuc.ncsa.security.core.Identifiable;
 import edu.uiuc.ncsa.security.core.IdentifiableProvider;
 import edu.uiuc.ncsa.security.core.Identifier;
+import edu.uiuc.ncsa.security.core.IterableStore;
+import edu.uiuc.ncsa.security.core.PageableStore;
 import edu.uiuc.ncsa.security.core.XMLConverter;
 import edu.uiuc.ncsa.security.core.cache.SimpleEntryImpl;
 import edu.uiuc.ncsa.security.core.exceptions.FilePermissionsException;
 import edu.uiuc.ncsa.security.core.exceptions.GeneralException;
 import edu.uiuc.ncsa.security.core.exceptions.MyConfigurationException;
 import edu.uiuc.ncsa.security.core.exceptions.UnregisteredObjectException;
+import edu.uiuc.ncsa.security.core.util.AbstractCloseableIterator;
+import edu.uiuc.ncsa.security.core.util.CloseableIterator;
 import edu.uiuc.ncsa.security.core.util.DebugUtil;
 import edu.uiuc.ncsa.security.storage.data.MapConverter;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
 import java.util.*;
 import java.util.regex.Pattern;
 
@@ -41,10 +48,16 @@ import java.util.regex.Pattern;
  * {@link #removeIndexEntry(String)}.</li>
  * </ul>
  * A store that uses a file system.
+ * <p>The batch operations check the directory permissions once for the whole batch rather than for every file.
+ * <p>Getting the first page for a sort key reads every file to make a {@link SortedIndex}, after that each page
+ * only reads its own files. Saving or removing anything through this store updates the indices. If anything else,
+ * such as another server, adds or removes files, the directory changes and the next page lists it and reads only
+ * the new files. A file that something else rewrites in place keeps its old place in the indices (though the page
+ * has its current contents) until this store saves it or the store is made again.
  * <p>Created by Jeff Gaynor<br>
  * on 11/3/11 at  1:54 PM
  */
-public abstract class FileStore<V extends Identifiable> extends IndexedStreamStore<V> {
+public abstract class FileStore<V extends Identifiable> extends IndexedStreamStore<V> implements BatchStore<V>, IterableStore<V>, PageableStore<V> {
 
     /**
      * Since administrators can and have inadvertently changed directory or file permissions while
@@ -53,6 +66,9 @@ public abstract class FileStore<V extends Identifiable> extends IndexedStreamSto
      */
 
     protected void checkPermissions() {
+        if (inBatch.get() != null) {
+            return;
+        }
         if (this.storageDirectory == null) {
             throw new MyConfigurationException("Error: There is no storage directory specified for this file store.");
         }
@@ -80,6 +96,9 @@ public abstract class FileStore<V extends Identifiable> extends IndexedStreamSto
         }
     }
 
+    // Set while this thread is writing a batch, whose permissions have been checked already.
+    ThreadLocal<Boolean> inBatch = new ThreadLocal<Boolean>();
+
     protected FileStore(File storeDirectory, File indexDirectory, IdentifiableProvider<V> identifiableProvider, MapConverter<V> converter) {
         initializer = new FSInitializer(storeDirectory, indexDirectory);
         if (!initializer.isCreated()) {
@@ -140,13 +159,14 @@ public abstract class FileStore<V extends Identifiable> extends IndexedStreamSto
         getCreatedItems().remove(t.getIdentifierString());
         try {
 
-            fos = new FileOutputStream(f);
             if (converter != null) {
                 XMLMap map = new XMLMap();
                 converter.toMap(t, map);
-                map.toXML(fos);
-                fos.flush();
-                fos.close();
+                fos = new FileOutputStream(f);
+                OutputStream out = new BufferedOutputStream(fos);
+                map.toXML(out);
+                out.flush();
+                out.close();
             } else {
                 throw new IllegalStateException("Error: no converter");
             }
@@ -159,6 +179,7 @@ public abstract class FileStore<V extends Identifiable> extends IndexedStreamSto
         } catch (IOException e) {
             throw new GeneralException("Error serializing store entry " + t + "to file \"" + f, e);
         }
+        updateSortedIndices(f.getName(), t);
     }
 
 
@@ -223,10 +244,10 @@ public abstract class FileStore<V extends Identifiable> extends IndexedStreamSto
         if(f.length() == 0){
             if(removeEmptyFiles){
                f.delete();
-                DebugUtil.info(this, "Deleting empty file:" + f);
+                DebugUtil.info(this, "Deleting empty file:{}", f);
                 return null;
             }else {
-                DebugUtil.info(this, "Skipping file of length zero:" + f);
+                DebugUtil.info(this, "Skipping file of length zero:{}", f);
                 return null;
             }
         }
@@ -277,6 +298,12 @@ public abstract class FileStore<V extends Identifiable> extends IndexedStreamSto
      * Required by the map interface
      */
     public void clear() {
+        synchronized (sortedIndices) {
+            sortedIndices.clear();
+            for (FileIndex index : buildingIndices) {
+                index.cleared = true;
+            }
+        }
         initializer.init();
     }
 
@@ -286,6 +313,47 @@ public abstract class FileStore<V extends Identifiable> extends IndexedStreamSto
         realSave(false, t);
     }
 
+    @Override
+    public void registerAll(Collection<? extends V> values) {
+        saveAll(values);
+    }
+
+    @Override
+    public void saveAll(Collection<? extends V> values) {
+        checkPermissions();
+        inBatch.set(Boolean.TRUE);
+        try {
+            for (V t : values) {
+                realSave(false, t);
+            }
+        } finally {
+            inBatch.remove();
+        }
+    }
+
+    @Override
+    public int removeAll(Collection<? extends Identifier> identifiers) {
+        checkPermissions();
+        inBatch.set(Boolean.TRUE);
+        int count = 0;
+        try {
+            for (Identifier identifier : identifiers) {
+                File f = getItemFile(identifier.toString());
+                if (!f.exists()) {
+                    continue;
+                }
+                V t = loadFile(f);
+                if (t != null) {
+                    realRemove(t);
+                    count++;
+                }
+            }
+        } finally {
+            inBatch.remove();
+        }
+        return count;
+    }
+
     public Set<Identifier> keySet() {
         checkPermissions();
         HashSet<Identifier> ids = new HashSet<Identifier>(); // have to work with a copy or get concurrent modification exceptions
@@ -375,12 +443,87 @@ public abstract class FileStore<V extends Identifiable> extends IndexedStreamSto
     @Override
     public List<V> getAll() {
         LinkedList<V> allEntries = new LinkedList<>();
-        for (Identifier d : keySet()) {
-            allEntries.add(get(d));
+        CloseableIterator<V> iterator = iterateAll();
+        while (iterator.hasNext()) {
+            allEntries.add(iterator.next());
         }
         return allEntries;
     }
 
+    /**
+     * Lists the directory but only reads each file when it is asked for, so this never holds more than one object
+     * in memory. Files that cannot be read are skipped, as in {@link #values()}.
+     *
+     * @return
+     */
+    @Override
+    public CloseableIterator<V> iterateAll() {
+        checkPermissions();
+        final File[] files = storageDirectory.listFiles();
+        return new AbstractCloseableIterator<V>() {
+            int index = 0;
+
+            @Override
+            protected V advance() {
+                while (index < files.length) {
+                    V t = loadFile(files[index++]);
+                    if (t != null) {
+                        return t;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public CloseableIterator<V> iterateSearch(final String key, final String condition, boolean isRegEx) {
+        final CloseableIterator<V> iterator = iterateAll();
+        final Pattern pattern = isRegEx ? Pattern.compile(condition) : null;
+        return new AbstractCloseableIterator<V>() {
+            @Override
+            protected V advance() {
+                while (iterator.hasNext()) {
+                    V v = iterator.next();
+                    if (matches(v, key, condition, pattern)) {
+                        return v;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public void close() {
+                super.close();
+                iterator.close();
+            }
+        };
+    }
+
+    /**
+     * Whether the value of the key for this object is the condition or, if the pattern is not null, matches it.
+     *
+     * @param v
+     * @param key
+     * @param condition
+     * @param pattern
+     * @return
+     */
+    protected boolean matches(V v, String key, String condition, Pattern pattern) {
+        XMLMap map = new XMLMap();
+        getXMLConverter().toMap(v, map);
+        Object value = map.get(key);
+        if (value == null) {
+            // nothing to match.
+            return false;
+        }
+        String targetValue = value.toString();
+        if (pattern != null) {
+            return pattern.matcher(targetValue).matches();
+        }
+        return targetValue.equals(condition);
+    }
+
     public boolean delete(String identifier) {
         V t = loadByIdentifier(identifier);
         try {
@@ -403,6 +546,7 @@ public abstract class FileStore<V extends Identifiable> extends IndexedStreamSto
         if (f.exists() && !f.isDirectory()) {
             f.delete();
         }
+        updateSortedIndices(f.getName(), null);
         if (oldItem.getIdentifierString() != null) {
             removeIndexEntry(oldItem.getIdentifierString()); // The main index
         }
@@ -427,9 +571,7 @@ public abstract class FileStore<V extends Identifiable> extends IndexedStreamSto
     }
 
     public void putAll(Map m) {
-        for (Object e : m.entrySet()) {
-            put((V) ((Map.Entry) e).getValue());
-        }
+        saveAll(m.values());
     }
 
     /**
@@ -471,34 +613,303 @@ public abstract class FileStore<V extends Identifiable> extends IndexedStreamSto
     public List<V> search(String key, String condition, boolean isRegEx) {
         /*
         This can be a very expensive way to do this, but it does allow for searching through an
-        entire file store for things.
+        entire file store for things. Use iterateSearch to avoid loading every match at once.
         MemoryStore has this code boilerplated into it...
          */
         ArrayList<V> results = new ArrayList();
-        Collection<V> values = values();
-        Iterator iterator = values.iterator();
-        Pattern pattern = null;
-        if(isRegEx) {
-            pattern = Pattern.compile(condition);
-        }
+        CloseableIterator<V> iterator = iterateSearch(key, condition, isRegEx);
         while (iterator.hasNext()) {
-            V v = (V) iterator.next();
-            XMLMap map = new XMLMap();
-
-            getXMLConverter().toMap(v, map);
-            String targetValue = map.get(key).toString();
-            if (isRegEx) {
-                if (pattern.matcher(targetValue).matches()) {
-                    results.add(v);
-                }
+            results.add(iterator.next());
+        }
+        return results;
+    }
+
+    /**
+     * A {@link SortedIndex} that also knows which file each entry came from and how the directory was
+     * when it last looked, so it can catch up with changes made by anything else.
+     */
+    protected static class FileIndex extends SortedIndex {
+        public FileIndex(String sortKey) {
+            this.sortKey = sortKey;
+        }
+
+        String sortKey;
+        // The storage directory's modification time when it was last listed, or null to list it again next time.
+        FileTime modified;
+        // The file name of every entry and its identifier.
+        Map<String, Identifier> files = new HashMap<String, Identifier>();
+        // Files that could not be read, e.g. because they were still being written. These are tried on every page.
+        Set<String> unread = new HashSet<String>();
+        // Set while a thread reads files for this index. Only one thread does at a time.
+        boolean reading = false;
+        // Files this store wrote while files were being read, which what was read must not overwrite.
+        Set<String> changed = new HashSet<String>();
+        boolean cleared = false;
+
+        public void put(String filename, String value, Identifier identifier) {
+            put(value, identifier);
+            files.put(filename, identifier);
+            unread.remove(filename);
+        }
+
+        public void removeFile(String filename) {
+            Identifier identifier = files.remove(filename);
+            if (identifier != null) {
+                remove(identifier);
+            }
+            unread.remove(filename);
+        }
+    }
+
+    /**
+     * What was read from one file for an index. Files are read without holding the lock and these are then
+     * added to the index with it.
+     */
+    protected static class FileEntry {
+        public FileEntry(String filename) {
+            this.filename = filename;
+        }
+
+        String filename;
+        boolean exists = false;
+        String value;
+        // null if the file could not be read.
+        Identifier identifier;
+    }
+
+    // The indices by sort key and the ones being made. Both are guarded by synchronizing on sortedIndices.
+    Map<String, FileIndex> sortedIndices = new HashMap<String, FileIndex>();
+    Set<FileIndex> buildingIndices = new HashSet<FileIndex>();
+
+    /**
+     * The index for this sort key. This reads every file the first time. After that, it lists the directory and
+     * reads any new files only if the directory has changed. Files are read without holding the lock, so
+     * saves and removes do not wait for them. If the index can't be made, it is not kept and the next call starts over.
+     *
+     * @param sortKey
+     * @return
+     */
+    protected SortedIndex getSortedIndex(String sortKey) {
+        FileIndex index;
+        boolean building;
+        synchronized (sortedIndices) {
+            index = sortedIndices.get(sortKey);
+            building = index == null;
+            if (building) {
+                index = new FileIndex(sortKey);
+                buildingIndices.add(index);
+            } else if (index.reading) {
+                // Another thread is bringing it up to date, so use it as it is.
+                return index;
+            }
+            index.reading = true;
+        }
+        boolean done = false;
+        try {
+            if (building) {
+                buildIndex(index);
             } else {
-                if (targetValue.equals(condition)) {
-                    results.add(v);
+                catchUp(index);
+            }
+            done = true;
+        } finally {
+            synchronized (sortedIndices) {
+                index.reading = false;
+                index.changed.clear();
+                if (building) {
+                    buildingIndices.remove(index);
+                    if (done && !index.cleared) {
+                        sortedIndices.put(sortKey, index);
+                    }
+                } else if (!done) {
+                    // list everything again next time.
+                    index.modified = null;
                 }
             }
+        }
+        return index;
+    }
 
+    /**
+     * Read every file into a new index. Files this store writes in the meantime are read again at the end,
+     * so it does not miss any.
+     *
+     * @param index
+     */
+    protected void buildIndex(FileIndex index) {
+        FileTime modified = getModified();
+        readIntoIndex(index, Arrays.asList(listStorageDirectory()));
+        Set<String> changed = takeChanged(index);
+        while (!changed.isEmpty()) {
+            readIntoIndex(index, changed);
+            changed = takeChanged(index);
         }
-        return results;
+        index.modified = modified;
+    }
+
+    protected Set<String> takeChanged(FileIndex index) {
+        synchronized (sortedIndices) {
+            Set<String> changed = new HashSet<String>(index.changed);
+            index.changed.clear();
+            return changed;
+        }
+    }
+
+    protected String[] listStorageDirectory() {
+        String[] filenames = storageDirectory.list();
+        if (filenames == null) {
+            throw new GeneralException("Error: could not list the storage directory \"" + storageDirectory + "\"");
+        }
+        return filenames;
+    }
+
+    /**
+     * The modification time of the storage directory, which changes when files are added or removed.
+     * If it changed very recently, this returns null, since another change made in the same clock tick
+     * would leave it the same.
+     *
+     * @return
+     */
+    protected FileTime getModified() {
+        try {
+            FileTime modified = Files.getLastModifiedTime(storageDirectory.toPath());
+            return modified.toMillis() < System.currentTimeMillis() - 1000 ? modified : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Bring the index up to date with changes that something else has made to the directory. Changes made by this
+     * store are already in it.
+     *
+     * @param index
+     */
+    protected void catchUp(FileIndex index) {
+        FileTime modified = getModified();
+        List<String> toRead;
+        boolean relist;
+        synchronized (sortedIndices) {
+            relist = index.modified == null || !index.modified.equals(modified);
+            toRead = new ArrayList<String>(index.unread);
+        }
+        if (relist) {
+            Set<String> filenames = new HashSet<String>(Arrays.asList(listStorageDirectory()));
+            synchronized (sortedIndices) {
+                for (String filename : new ArrayList<String>(index.files.keySet())) {
+                    if (!filenames.contains(filename) && !index.changed.contains(filename)) {
+                        index.removeFile(filename);
+                    }
+                }
+                for (String filename : filenames) {
+                    if (!index.files.containsKey(filename) && !index.unread.contains(filename)) {
+                        toRead.add(filename);
+                    }
+                }
+            }
+        }
+        readIntoIndex(index, toRead);
+        if (relist) {
+            synchronized (sortedIndices) {
+                index.modified = modified;
+            }
+        }
+    }
+
+    /**
+     * Read the files, then add what was read to the index. Files that this store changed while they were being
+     * read are skipped, since the index has, or will get, a newer version.
+     *
+     * @param index
+     * @param filenames
+     */
+    protected void readIntoIndex(FileIndex index, Collection<String> filenames) {
+        List<FileEntry> entries = new ArrayList<FileEntry>(filenames.size());
+        for (String filename : filenames) {
+            entries.add(readEntry(filename, index.sortKey));
+        }
+        synchronized (sortedIndices) {
+            for (FileEntry entry : entries) {
+                if (index.changed.contains(entry.filename)) {
+                    continue;
+                }
+                if (!entry.exists) {
+                    index.removeFile(entry.filename);
+                } else if (entry.identifier == null) {
+                    index.unread.add(entry.filename);
+                } else {
+                    index.put(entry.filename, entry.value, entry.identifier);
+                }
+            }
+        }
+    }
+
+    protected FileEntry readEntry(String filename, String sortKey) {
+        FileEntry entry = new FileEntry(filename);
+        File f = new File(storageDirectory, filename);
+        if (!f.exists()) {
+            return entry;
+        }
+        entry.exists = true;
+        V v = loadFile(f);
+        if (v != null) {
+            entry.value = sortValue(v, sortKey);
+            entry.identifier = v.getIdentifier();
+        }
+        return entry;
     }
 
+    /**
+     * Update the indices after this store has written or removed a file.
+     *
+     * @param filename
+     * @param v        what was written, or null if it was removed.
+     */
+    protected void updateSortedIndices(String filename, V v) {
+        synchronized (sortedIndices) {
+            for (FileIndex index : sortedIndices.values()) {
+                if (v == null) {
+                    index.removeFile(filename);
+                } else {
+                    index.put(filename, sortValue(v, index.sortKey), v.getIdentifier());
+                }
+                if (index.reading) {
+                    index.changed.add(filename);
+                }
+            }
+            for (FileIndex index : buildingIndices) {
+                index.changed.add(filename);
+            }
+        }
+    }
+
+    protected String sortValue(V v, String sortKey) {
+        if (sortKey == null) {
+            return v.getIdentifierString();
+        }
+        XMLMap map = new XMLMap();
+        getXMLConverter().toMap(v, map);
+        Object value = map.get(sortKey);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public List<V> getPage(String sortKey, V after, int pageSize) {
+        SortedIndex index = getSortedIndex(sortKey);
+        String afterValue = after == null ? null : sortValue(after, sortKey);
+        List<Identifier> identifiers;
+        synchronized (sortedIndices) {
+            identifiers = after == null ?
+                    index.page(null, null, pageSize) :
+                    index.page(afterValue, after.getIdentifierString(), pageSize);
+        }
+        List<V> page = new ArrayList<V>(identifiers.size());
+        for (Identifier identifier : identifiers) {
+            V v = get(identifier);
+            if (v != null) {
+                page.add(v);
+            }
+        }
+        return page;
+    }
 }
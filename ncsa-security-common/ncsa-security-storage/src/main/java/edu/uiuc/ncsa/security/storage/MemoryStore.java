@@ -2,8 +2,12 @@ package edu.uiuc.ncsa.security.storage;
 
 import edu.uiuc.ncsa.security.core.*;
 import edu.uiuc.ncsa.security.core.exceptions.UnregisteredObjectException;
+import edu.uiuc.ncsa.security.core.util.AbstractCloseableIterator;
+import edu.uiuc.ncsa.security.core.util.CloseableIterator;
 
 import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 
 /**
@@ -14,10 +18,13 @@ import java.util.regex.Pattern;
  * <li>create - returns the correct actual object.</li>
  * </ul>
  * And have the key and value types specified to concrete classes.
+ * <p>The batch operations check every value before changing the store.
+ * <p>Pages come from a {@link SortedIndex} for their sort key, which is made on first use and then kept up to date
+ * as entries are put in or removed, however that is done (including through the views, such as {@link #keySet()}).
  * <p>Created by Jeff Gaynor<br>
  * on 11/3/11 at  1:14 PM
  */
-public abstract class MemoryStore<V extends Identifiable> extends HashMap<Identifier, V> implements Store<V> {
+public abstract class MemoryStore<V extends Identifiable> extends HashMap<Identifier, V> implements BatchStore<V>, IterableStore<V>, PageableStore<V> {
     public MemoryStore(IdentifiableProvider<V> identifiableProvider) {
         super();
         this.identifiableProvider = identifiableProvider;
@@ -102,6 +109,43 @@ public abstract class MemoryStore<V extends Identifiable> extends HashMap<Identi
         realSave(value);
     }
 
+    @Override
+    public void registerAll(Collection<? extends V> values) {
+        realSaveAll(values);
+    }
+
+    @Override
+    public void saveAll(Collection<? extends V> values) {
+        realSaveAll(values);
+    }
+
+    /**
+     * Checks every value before adding any, so a bad value does not leave part of the batch in the store.
+     *
+     * @param values
+     */
+    protected void realSaveAll(Collection<? extends V> values) {
+        for (V value : values) {
+            if (value.getIdentifier() == null) {
+                throw new UnsupportedOperationException("Error: null identifiers are not allowed");
+            }
+        }
+        for (V value : values) {
+            put(value.getIdentifier(), value);
+        }
+    }
+
+    @Override
+    public int removeAll(Collection<? extends Identifier> identifiers) {
+        int count = 0;
+        for (Identifier identifier : identifiers) {
+            if (remove(identifier) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     @Override
     public List<V> getAll() {
         LinkedList<V> allEntries = new LinkedList<>();
@@ -119,29 +163,370 @@ public abstract class MemoryStore<V extends Identifiable> extends HashMap<Identi
         It may lag if FileStore gets updates....
          */
         ArrayList<V> results = new ArrayList();
-        Collection<V> values = values();
-        Iterator iterator = values.iterator();
-        Pattern pattern = null;
-        if(isRegEx) {
-            pattern = Pattern.compile(condition);
-        }
+        CloseableIterator<V> iterator = iterateSearch(key, condition, isRegEx);
         while (iterator.hasNext()) {
-            V v = (V) iterator.next();
-            XMLMap map = new XMLMap();
-
-            getXMLConverter().toMap(v, map);
-            String targetValue = map.get(key).toString();
-            if (isRegEx) {
-                if (pattern.matcher(targetValue).matches()) {
-                    results.add(v);
+            results.add(iterator.next());
+        }
+        return results;
+    }
+
+    /**
+     * Iterates over a copy of the values, so the store may be changed while this is in use.
+     *
+     * @return
+     */
+    @Override
+    public CloseableIterator<V> iterateAll() {
+        final Iterator<V> iterator = new ArrayList<V>(values()).iterator();
+        return new AbstractCloseableIterator<V>() {
+            @Override
+            protected V advance() {
+                return iterator.hasNext() ? iterator.next() : null;
+            }
+        };
+    }
+
+    @Override
+    public CloseableIterator<V> iterateSearch(final String key, final String condition, boolean isRegEx) {
+        final Iterator<V> iterator = new ArrayList<V>(values()).iterator();
+        final Pattern pattern = isRegEx ? Pattern.compile(condition) : null;
+        return new AbstractCloseableIterator<V>() {
+            @Override
+            protected V advance() {
+                while (iterator.hasNext()) {
+                    V v = iterator.next();
+                    if (matches(v, key, condition, pattern)) {
+                        return v;
+                    }
                 }
+                return null;
+            }
+        };
+    }
+
+    protected boolean matches(V v, String key, String condition, Pattern pattern) {
+        XMLMap map = new XMLMap();
+        getXMLConverter().toMap(v, map);
+        Object value = map.get(key);
+        if (value == null) {
+            // nothing to match.
+            return false;
+        }
+        String targetValue = value.toString();
+        if (pattern != null) {
+            return pattern.matcher(targetValue).matches();
+        }
+        return targetValue.equals(condition);
+    }
+
+    Map<String, SortedIndex> sortedIndices = new HashMap<String, SortedIndex>();
+
+    /**
+     * The index for this sort key, made from the current contents of the store if need be.
+     *
+     * @param sortKey
+     * @return
+     */
+    protected SortedIndex getSortedIndex(String sortKey) {
+        SortedIndex index = sortedIndices.get(sortKey);
+        if (index == null) {
+            index = new SortedIndex();
+            for (Entry<Identifier, V> entry : entrySet()) {
+                index.put(sortValue(entry.getValue(), sortKey), entry.getKey());
+            }
+            sortedIndices.put(sortKey, index);
+        }
+        return index;
+    }
+
+    protected String sortValue(V v, String sortKey) {
+        if (sortKey == null) {
+            return v.getIdentifierString();
+        }
+        XMLMap map = new XMLMap();
+        getXMLConverter().toMap(v, map);
+        Object value = map.get(sortKey);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public List<V> getPage(String sortKey, V after, int pageSize) {
+        SortedIndex index = getSortedIndex(sortKey);
+        List<Identifier> identifiers = after == null ?
+                index.page(null, null, pageSize) :
+                index.page(sortValue(after, sortKey), after.getIdentifierString(), pageSize);
+        List<V> page = new ArrayList<V>(identifiers.size());
+        for (Identifier identifier : identifiers) {
+            page.add(get(identifier));
+        }
+        return page;
+    }
+
+    /*
+    Everything that changes the map is overridden below to keep the indices up to date. HashMap does not implement
+    its other methods with these, so e.g. putIfAbsent, compute and the views are overridden as well.
+     */
+    @Override
+    public V put(Identifier key, V value) {
+        V old = super.put(key, value);
+        for (Map.Entry<String, SortedIndex> entry : sortedIndices.entrySet()) {
+            entry.getValue().put(sortValue(value, entry.getKey()), key);
+        }
+        return old;
+    }
+
+    @Override
+    public void putAll(Map<? extends Identifier, ? extends V> m) {
+        // HashMap's putAll does not call put.
+        for (Map.Entry<? extends Identifier, ? extends V> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        V old = super.remove(key);
+        if (old != null) {
+            for (SortedIndex index : sortedIndices.values()) {
+                index.remove(old.getIdentifier());
+            }
+        }
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        sortedIndices.clear();
+        super.clear();
+    }
+
+    /**
+     * Update the indices for the key after the map was changed some other way than with put or remove.
+     *
+     * @param key
+     */
+    protected void reindex(Object key) {
+        if (sortedIndices.isEmpty() || !(key instanceof Identifier)) {
+            return;
+        }
+        V value = get(key);
+        for (Map.Entry<String, SortedIndex> entry : sortedIndices.entrySet()) {
+            if (value == null) {
+                entry.getValue().remove((Identifier) key);
             } else {
-                if (targetValue.equals(condition)) {
-                    results.add(v);
-                }
+                entry.getValue().put(sortValue(value, entry.getKey()), (Identifier) key);
             }
+        }
+    }
+
+    @Override
+    public V putIfAbsent(Identifier key, V value) {
+        V old = super.putIfAbsent(key, value);
+        reindex(key);
+        return old;
+    }
 
+    @Override
+    public boolean remove(Object key, Object value) {
+        boolean removed = super.remove(key, value);
+        if (removed) {
+            reindex(key);
         }
-        return results;
+        return removed;
+    }
+
+    @Override
+    public boolean replace(Identifier key, V oldValue, V newValue) {
+        boolean replaced = super.replace(key, oldValue, newValue);
+        if (replaced) {
+            reindex(key);
+        }
+        return replaced;
+    }
+
+    @Override
+    public V replace(Identifier key, V value) {
+        V old = super.replace(key, value);
+        reindex(key);
+        return old;
+    }
+
+    @Override
+    public V computeIfAbsent(Identifier key, Function<? super Identifier, ? extends V> mappingFunction) {
+        V value = super.computeIfAbsent(key, mappingFunction);
+        reindex(key);
+        return value;
+    }
+
+    @Override
+    public V computeIfPresent(Identifier key, BiFunction<? super Identifier, ? super V, ? extends V> remappingFunction) {
+        V value = super.computeIfPresent(key, remappingFunction);
+        reindex(key);
+        return value;
+    }
+
+    @Override
+    public V compute(Identifier key, BiFunction<? super Identifier, ? super V, ? extends V> remappingFunction) {
+        V value = super.compute(key, remappingFunction);
+        reindex(key);
+        return value;
+    }
+
+    @Override
+    public V merge(Identifier key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        V merged = super.merge(key, value, remappingFunction);
+        reindex(key);
+        return merged;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super Identifier, ? super V, ? extends V> function) {
+        super.replaceAll(function);
+        // any of them may have changed, so make the indices again when they are next used.
+        sortedIndices.clear();
+    }
+
+    /**
+     * Iterates over the map's entries, but removing through it also removes the entry from the indices.
+     */
+    protected abstract class IndexedIterator<T> implements Iterator<T> {
+        Iterator<Entry<Identifier, V>> iterator = MemoryStore.super.entrySet().iterator();
+        Entry<Identifier, V> current;
+
+        protected abstract T get(Entry<Identifier, V> entry);
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public T next() {
+            current = iterator.next();
+            return get(current);
+        }
+
+        @Override
+        public void remove() {
+            iterator.remove();
+            reindex(current.getKey());
+        }
+    }
+
+    @Override
+    public Set<Identifier> keySet() {
+        return new AbstractSet<Identifier>() {
+            @Override
+            public Iterator<Identifier> iterator() {
+                return new IndexedIterator<Identifier>() {
+                    @Override
+                    protected Identifier get(Entry<Identifier, V> entry) {
+                        return entry.getKey();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return MemoryStore.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                if (!containsKey(o)) {
+                    return false;
+                }
+                MemoryStore.this.remove(o);
+                return true;
+            }
+
+            @Override
+            public void clear() {
+                MemoryStore.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new IndexedIterator<V>() {
+                    @Override
+                    protected V get(Entry<Identifier, V> entry) {
+                        return entry.getValue();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return MemoryStore.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsValue(o);
+            }
+
+            @Override
+            public void clear() {
+                MemoryStore.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<Identifier, V>> entrySet() {
+        return new AbstractSet<Entry<Identifier, V>>() {
+            @Override
+            public Iterator<Entry<Identifier, V>> iterator() {
+                return new IndexedIterator<Entry<Identifier, V>>() {
+                    @Override
+                    protected Entry<Identifier, V> get(final Entry<Identifier, V> entry) {
+                        // so setting the value updates the indices too.
+                        return new SimpleEntry<Identifier, V>(entry) {
+                            @Override
+                            public V setValue(V value) {
+                                V old = entry.setValue(value);
+                                super.setValue(value);
+                                reindex(entry.getKey());
+                                return old;
+                            }
+                        };
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return MemoryStore.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return MemoryStore.super.entrySet().contains(o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                if (!contains(o)) {
+                    return false;
+                }
+                MemoryStore.this.remove(((Entry) o).getKey());
+                return true;
+            }
+
+            @Override
+            public void clear() {
+                MemoryStore.this.clear();
+            }
+        };
     }
 }
@@ -0,0 +1,105 @@
+package edu.uiuc.ncsa.security.storage;
+
+import edu.uiuc.ncsa.security.core.Identifier;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * The identifiers of the elements of a store, sorted by the value of one key and then by identifier. Values
+ * are compared as strings and a null value, for an element that has no value for the key, comes first.
+ * {@link MemoryStore} and {@link FileStore} use these to get pages, so they only build the
+ * index once, keep it up to date as they change and then only load the elements on each page.
+ * <p>This is not thread safe, so a store that may be used by several threads must synchronize access to it.
+ */
+public class SortedIndex {
+    public static class Key implements Comparable<Key> {
+        public Key(String value, String identifier) {
+            this.value = value;
+            this.identifier = identifier;
+        }
+
+        String value;
+        String identifier;
+
+        @Override
+        public int compareTo(Key other) {
+            int c = compare(value, other.value);
+            if (c == 0) {
+                c = compare(identifier, other.identifier);
+            }
+            return c;
+        }
+
+        // nulls sort first.
+        protected int compare(String a, String b) {
+            if (a == null) {
+                return b == null ? 0 : -1;
+            }
+            if (b == null) {
+                return 1;
+            }
+            return a.compareTo(b);
+        }
+
+        @Override
+        public String toString() {
+            return "Key[value=" + value + ", identifier=" + identifier + "]";
+        }
+    }
+
+    TreeMap<Key, Identifier> entries = new TreeMap<Key, Identifier>();
+    // The key of each identifier, so it can be found when the value changes or the element is removed.
+    HashMap<String, Key> keys = new HashMap<String, Key>();
+
+    /**
+     * Add the element with this identifier, replacing any entry it already has.
+     *
+     * @param value      the value of the sort key, which may be null.
+     * @param identifier
+     */
+    public void put(String value, Identifier identifier) {
+        remove(identifier);
+        Key key = new Key(value, identifier.toString());
+        entries.put(key, identifier);
+        keys.put(key.identifier, key);
+    }
+
+    /**
+     * Remove the entry for the element with this identifier, if there is one.
+     *
+     * @param identifier
+     */
+    public void remove(Identifier identifier) {
+        Key key = keys.remove(identifier.toString());
+        if (key != null) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * The identifiers of up to pageSize entries that come after the given value and identifier. If the
+     * identifier is null, this is the first page.
+     *
+     * @param afterValue
+     * @param afterIdentifier
+     * @param pageSize
+     * @return
+     */
+    public List<Identifier> page(String afterValue, String afterIdentifier, int pageSize) {
+        List<Identifier> page = new ArrayList<Identifier>();
+        for (Identifier identifier : entries.tailMap(new Key(afterValue, afterIdentifier), false).values()) {
+            if (pageSize <= page.size()) {
+                break;
+            }
+            page.add(identifier);
+        }
+        return page;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
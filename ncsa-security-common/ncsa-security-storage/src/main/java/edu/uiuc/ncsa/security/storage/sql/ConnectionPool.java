@@ -1,19 +1,29 @@
 package edu.uiuc.ncsa.security.storage.sql;
 
+import edu.uiuc.ncsa.security.core.util.ConcurrentPool;
 import edu.uiuc.ncsa.security.core.util.DebugUtil;
-import edu.uiuc.ncsa.security.core.util.Pool;
 import edu.uiuc.ncsa.security.core.util.PoolException;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A pool for jdbc connections. All this needs is configuration for the right jdbc url to use.
+ * If a maximum size is set, requests for a connection wait a short time for one to be released
+ * rather than failing as soon as the pool is at capacity. Connections are opened without holding any lock
+ * and can be opened ahead of time with {@link #prefill()}.
+ * <p>Each connection has a {@link StatementCache} of up to {@link #getStatementCacheSize()} prepared statements,
+ * see {@link #prepareStatement(Connection, String)}. These are closed when the connection is destroyed.
+ * <p>The {@link #getDialect() dialect} is the vendor specific SQL for the database, which by default comes from the
+ * connection parameters.
  * <p>Created by Jeff Gaynor<br>
  * on Mar 12, 2010 at  4:06:15 PM
  */
-public class ConnectionPool extends Pool<Connection> {
+public class ConnectionPool extends ConcurrentPool<Connection> {
     public ConnectionParameters getConnectionParameters() {
         return connectionParameters;
     }
@@ -24,6 +34,23 @@ public class ConnectionPool extends Pool<Connection> {
         this.connectionParameters = connectionParameters;
     }
 
+    public SQLDialect getDialect() {
+        if (dialect == null) {
+            if (getConnectionParameters() instanceof SQLConnectionImpl) {
+                dialect = ((SQLConnectionImpl) getConnectionParameters()).getDialect();
+            } else {
+                dialect = new SQLDialect();
+            }
+        }
+        return dialect;
+    }
+
+    public void setDialect(SQLDialect dialect) {
+        this.dialect = dialect;
+    }
+
+    SQLDialect dialect;
+
 
     public Connection create() throws PoolException {
         try {
@@ -37,6 +64,10 @@ public class ConnectionPool extends Pool<Connection> {
     }
 
     public void destroy(Connection c) throws PoolException {
+        StatementCache statementCache = statementCaches.remove(c);
+        if (statementCache != null) {
+            statementCache.close();
+        }
         try {
             if (!c.isClosed()) {
                 c.close();
@@ -54,4 +85,75 @@ public class ConnectionPool extends Pool<Connection> {
             throw new PoolException("Invalid object", e);
         }
     }
+
+    /**
+     * The most prepared statements kept for each connection. Zero or less turns off caching.
+     *
+     * @return
+     */
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    int statementCacheSize = 32;
+
+    Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<Connection, StatementCache>();
+
+    protected StatementCache getStatementCache(Connection c) {
+        StatementCache statementCache = statementCaches.get(c);
+        if (statementCache == null) {
+            // Only the thread holding the connection gets here, so there is no race.
+            statementCache = new StatementCache(c, getStatementCacheSize());
+            statementCaches.put(c, statementCache);
+        }
+        return statementCache;
+    }
+
+    /**
+     * Get a prepared statement for this connection, reusing one if this SQL has been prepared on it before.
+     * Hand it back with {@link #releaseStatement(Connection, PreparedStatement)} rather than closing it.
+     *
+     * @param c
+     * @param sql
+     * @return
+     * @throws SQLException
+     */
+    public PreparedStatement prepareStatement(Connection c, String sql) throws SQLException {
+        if (getStatementCacheSize() <= 0) {
+            return c.prepareStatement(sql);
+        }
+        return getStatementCache(c).prepare(sql);
+    }
+
+    public void releaseStatement(Connection c, PreparedStatement stmt) throws SQLException {
+        StatementCache statementCache = statementCaches.get(c);
+        if (statementCache == null) {
+            stmt.close();
+        } else {
+            statementCache.release(stmt);
+        }
+    }
+
+    /**
+     * Adds the statement cache hits and misses for the current connections.
+     *
+     * @return
+     */
+    @Override
+    public Map<String, Object> getStatsMap() {
+        Map<String, Object> map = super.getStatsMap();
+        long hits = 0L;
+        long misses = 0L;
+        for (StatementCache statementCache : statementCaches.values()) {
+            hits = hits + statementCache.getHits();
+            misses = misses + statementCache.getMisses();
+        }
+        map.put("statement cache hits", hits);
+        map.put("statement cache misses", misses);
+        return map;
+    }
 }
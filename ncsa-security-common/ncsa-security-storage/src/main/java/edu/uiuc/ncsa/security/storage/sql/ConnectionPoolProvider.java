@@ -2,6 +2,7 @@ package edu.uiuc.ncsa.security.storage.sql;
 
 import edu.uiuc.ncsa.security.core.configuration.provider.HierarchicalConfigProvider;
 import edu.uiuc.ncsa.security.core.exceptions.MyConfigurationException;
+import edu.uiuc.ncsa.security.core.util.MaintenanceScheduler;
 
 /**
  * Creates a {@link ConnectionPool} from a configuration.
@@ -26,6 +27,19 @@ public abstract class ConnectionPoolProvider<T extends ConnectionPool> extends H
     public static final String DATABASE = "database";
     public static final String PARAMETERS = "parameters";
     public static final String SCHEMA = SQLStoreProvider.SCHEMA; // since this is shared, really.
+    // Pool settings. All times are in milliseconds. See ConcurrentPool.
+    public static final String MAX_CONNECTIONS = "maxConnections";
+    public static final String MAX_WAIT = "maxWait";
+    public static final String MIN_IDLE = "minIdle";
+    public static final String TEST_ON_BORROW = "testOnBorrow";
+    public static final String VALIDATE_AFTER_IDLE = "validateAfterIdle";
+    public static final String MAX_LIFETIME = "maxLifetime";
+    public static final String IDLE_TIMEOUT = "idleTimeout";
+    public static final String EVICTION_INTERVAL = "evictionInterval";
+    public static final String LEAK_THRESHOLD = "leakThreshold";
+    public static final String INITIAL_SIZE = "initialSize";
+    public static final String CREATE_THREADS = "createThreads";
+    public static final String STATEMENT_CACHE_SIZE = "statementCacheSize";
 
 
     protected ConnectionPoolProvider(String database, String schema, String host, int port, String driver, boolean useSSL) {
@@ -73,6 +87,41 @@ public abstract class ConnectionPoolProvider<T extends ConnectionPool> extends H
         return defaultValue;
     }
 
+    protected long checkValue(String key, long defaultValue) {
+        String x = getAttribute(key);
+        if (x != null) return Long.parseLong(x);
+        return defaultValue;
+    }
+
+    /**
+     * Set the pool options from the configuration. Anything not configured keeps the pool's default.
+     * If an eviction interval is given, the pool's evictor is run that often on the shared
+     * {@link MaintenanceScheduler}. If there is an initial size or minimum idle count, that many connections are
+     * opened in parallel before this returns.
+     *
+     * @param pool
+     * @return
+     */
+    protected T configurePool(T pool) {
+        pool.setMaxSize((int) checkValue(MAX_CONNECTIONS, (long) pool.getMaxSize()));
+        pool.setWaitTimeout(checkValue(MAX_WAIT, pool.getWaitTimeout()));
+        pool.setMinIdle((int) checkValue(MIN_IDLE, (long) pool.getMinIdle()));
+        pool.setTestOnBorrow(checkValue(TEST_ON_BORROW, pool.isTestOnBorrow()));
+        pool.setValidateAfterIdle(checkValue(VALIDATE_AFTER_IDLE, pool.getValidateAfterIdle()));
+        pool.setMaxLifetime(checkValue(MAX_LIFETIME, pool.getMaxLifetime()));
+        pool.setIdleTimeout(checkValue(IDLE_TIMEOUT, pool.getIdleTimeout()));
+        pool.setLeakThreshold(checkValue(LEAK_THRESHOLD, pool.getLeakThreshold()));
+        pool.setInitialSize((int) checkValue(INITIAL_SIZE, (long) pool.getInitialSize()));
+        pool.setCreateThreads((int) checkValue(CREATE_THREADS, (long) pool.getCreateThreads()));
+        pool.setStatementCacheSize((int) checkValue(STATEMENT_CACHE_SIZE, (long) pool.getStatementCacheSize()));
+        long evictionInterval = checkValue(EVICTION_INTERVAL, -1L);
+        if (0 < evictionInterval) {
+            pool.schedule(MaintenanceScheduler.getInstance(), evictionInterval);
+        }
+        pool.prefill();
+        return pool;
+    }
+
     /**
      * Check the value associated with this key. If the value is missing, throw an exception.
      *
@@ -62,6 +62,15 @@ abstract public class SQLConnectionImpl implements ConnectionParameters {
         return jdbcURL;
     }
 
+    /**
+     * The SQL this vendor has beyond the standard. Vendors override this to return their own dialect.
+     *
+     * @return
+     */
+    public SQLDialect getDialect() {
+        return new SQLDialect();
+    }
+
     public String getParameters() {
         return parameters;
     }
@@ -3,6 +3,8 @@ package edu.uiuc.ncsa.security.storage.sql;
 import edu.uiuc.ncsa.security.core.util.PoolException;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 
 /**
  * /**
@@ -42,6 +44,24 @@ public class SQLDatabase {
             throw new PoolException("pool failed to destroy connection",x);
         }
     }
+
+    /**
+     * Get a prepared statement for the connection from the pool's statement cache. Release it with
+     * {@link #releaseStatement(Connection, PreparedStatement)} before releasing the connection.
+     *
+     * @param c
+     * @param sql
+     * @return
+     * @throws SQLException
+     */
+    protected PreparedStatement prepareStatement(Connection c, String sql) throws SQLException {
+        return getConnectionPool().prepareStatement(c, sql);
+    }
+
+    protected void releaseStatement(Connection c, PreparedStatement stmt) throws SQLException {
+        getConnectionPool().releaseStatement(c, stmt);
+    }
+
     public void setConnectionPool(ConnectionPool connectionPool) {
         this.connectionPool = connectionPool;
     }
@@ -0,0 +1,125 @@
+package edu.uiuc.ncsa.security.storage.sql;
+
+import edu.uiuc.ncsa.security.storage.sql.internals.ColumnDescriptorEntry;
+import edu.uiuc.ncsa.security.storage.sql.internals.Table;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The vendor specific SQL that is not in SQL 2003. This version is for a database we know nothing about, so
+ * it has none of it and {@link SQLStore} uses only standard statements. Each vendor package has its own
+ * subclass, which the {@link SQLConnectionImpl} for that vendor returns.
+ * <p>The main thing here is an upsert, i.e. a single statement that inserts a row or, if there is
+ * already one with that primary key, updates it. This lets {@link SQLStore#save(edu.uiuc.ncsa.security.core.Identifiable)}
+ * be a single round trip rather than a select followed by an insert or update.
+ * <p>The dialect also sets up a statement so that its results are read from a cursor a few rows at a time rather
+ * than all at once, see {@link #setFetchSize(Connection, Statement, int)}.
+ */
+public class SQLDialect {
+    /**
+     * Whether this database has an upsert. If not, {@link #createUpsertStatement(Table)} returns null.
+     *
+     * @return
+     */
+    public boolean supportsUpsert() {
+        return false;
+    }
+
+    /**
+     * The upsert statement for this table or null if there is none. The parameters are the values of the columns
+     * returned by {@link #getUpsertColumns(Table)}, in that order.
+     *
+     * @param table
+     * @return
+     */
+    public String createUpsertStatement(Table table) {
+        return null;
+    }
+
+    /**
+     * The columns whose values are the parameters of the upsert statement, in order. This is normally every column
+     * in the table, which is the order of the parameters in an insert statement.
+     *
+     * @param table
+     * @return
+     */
+    public List<ColumnDescriptorEntry> getUpsertColumns(Table table) {
+        return new ArrayList<ColumnDescriptorEntry>(table.getColumnDescriptor());
+    }
+
+    /**
+     * Set up a query so that the driver reads its results from the database a few rows at a time. Call this before
+     * executing it. Many drivers read the whole result set into memory unless told otherwise. If this turns off
+     * auto commit, the caller should commit and turn it back on when done with the results.
+     *
+     * @param c
+     * @param stmt
+     * @param fetchSize
+     * @throws SQLException
+     */
+    public void setFetchSize(Connection c, Statement stmt, int fetchSize) throws SQLException {
+        stmt.setFetchSize(fetchSize);
+    }
+
+    /**
+     * Limit a select statement to its first rows. This is the SQL 2008 <code>FETCH FIRST</code> clause, which
+     * most databases have.
+     *
+     * @param query
+     * @param count
+     * @return
+     */
+    public String limit(String query, int count) {
+        return query + " FETCH FIRST " + count + " ROWS ONLY";
+    }
+
+    /**
+     * An <code>ORDER BY</code> term that sorts the column ascending with nulls before every other value.
+     * This is the SQL 2003 <code>NULLS FIRST</code>, since databases differ about where nulls go otherwise.
+     *
+     * @param column
+     * @return
+     */
+    public String nullsFirst(String column) {
+        return column + " NULLS FIRST";
+    }
+
+    /**
+     * The parameter markers for an insert with every column of the table, i.e. <code>?, ?, ...?</code>.
+     *
+     * @param table
+     * @return
+     */
+    protected String parameters(Table table) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < table.getColumnDescriptor().size(); i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Every column but the primary key.
+     *
+     * @param table
+     * @return
+     */
+    protected List<ColumnDescriptorEntry> nonKeyColumns(Table table) {
+        List<ColumnDescriptorEntry> columns = new ArrayList<ColumnDescriptorEntry>();
+        for (ColumnDescriptorEntry cde : table.getColumnDescriptor()) {
+            if (!cde.isPrimaryKey()) {
+                columns.add(cde);
+            }
+        }
+        return columns;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+}
@@ -1,14 +1,20 @@
 package edu.uiuc.ncsa.security.storage.sql;
 
+import edu.uiuc.ncsa.security.core.BatchStore;
 import edu.uiuc.ncsa.security.core.Identifiable;
 import edu.uiuc.ncsa.security.core.Identifier;
-import edu.uiuc.ncsa.security.core.Store;
+import edu.uiuc.ncsa.security.core.IterableStore;
+import edu.uiuc.ncsa.security.core.PageableStore;
 import edu.uiuc.ncsa.security.core.XMLConverter;
+import edu.uiuc.ncsa.security.core.cache.BulkRetentionPolicy;
+import edu.uiuc.ncsa.security.core.cache.BulkRetentionStore;
 import edu.uiuc.ncsa.security.core.cache.SimpleEntryImpl;
 import edu.uiuc.ncsa.security.core.exceptions.GeneralException;
 import edu.uiuc.ncsa.security.core.exceptions.NFWException;
 import edu.uiuc.ncsa.security.core.exceptions.UnregisteredObjectException;
+import edu.uiuc.ncsa.security.core.util.AbstractCloseableIterator;
 import edu.uiuc.ncsa.security.core.util.BasicIdentifier;
+import edu.uiuc.ncsa.security.core.util.CloseableIterator;
 import edu.uiuc.ncsa.security.storage.data.MapConverter;
 import edu.uiuc.ncsa.security.storage.sql.internals.ColumnDescriptorEntry;
 import edu.uiuc.ncsa.security.storage.sql.internals.ColumnDescriptors;
@@ -29,10 +35,24 @@ import java.util.Date;
  * a map -- then you should be in business for using an SQL backend.
  * All of these statements are SQL 2003 compliant and should work without change for all major vendors.
  * This class also maintains a  {@link ConnectionPool}to a database.
+ * Statements come from the pool's per connection {@link StatementCache}, so the SQL for each operation is
+ * prepared once per connection rather than once per call.
+ * <p>If the database's {@link SQLDialect} has an upsert, {@link #save(Identifiable)} uses it, so saving is a
+ * single statement. Otherwise it checks if the entry exists then updates or registers it. The upsert does not call
+ * {@link #register(Identifiable)} or {@link #update(Identifiable)}, so a subclass that overrides either of them
+ * must return false from {@link #isUpsertSafe()}. Subclasses that need to check or track what is written should use {@link #checkWrite(Identifiable)}
+ * and {@link #written(Identifiable)} instead, which every write calls.
+ * <p>The {@link BatchStore} operations send their statements in JDBC batches of {@link #getBatchSize()}, all in
+ * one transaction.
+ * <p>{@link #iterateAll()} and {@link #iterateSearch(String, String, boolean)} read rows from a cursor,
+ * {@link #getFetchSize()} at a time, and make each object as it is asked for. {@link #getAll()}, {@link #values()},
+ * {@link #entrySet()} and {@link #search(String, String, boolean)} use these.
+ * <p>{@link #getPage(String, Identifiable, int)} has the database sort and limit the rows, starting after the last
+ * row of the previous page, so with an index on the sort column each page costs about the same.
  * <p>Created by Jeff Gaynor<br>
  * on Mar 12, 2010 at  12:58:14 PM
  */
-public abstract class SQLStore<V extends Identifiable> extends SQLDatabase implements Store<V> {
+public abstract class SQLStore<V extends Identifiable> extends SQLDatabase implements BatchStore<V>, IterableStore<V>, PageableStore<V>, BulkRetentionStore {
     protected SQLStore(ConnectionPool connectionPool,
                        Table table,
                        Provider<V> identifiableProvider,
@@ -63,26 +83,13 @@ public abstract class SQLStore<V extends Identifiable> extends SQLDatabase imple
      */
     public List<V> getAll() {
         LinkedList<V> allEntries = new LinkedList<>();
-        Connection c = getConnection();
-        V t = null;
+        CloseableIterator<V> iterator = iterateAll();
         try {
-            PreparedStatement stmt = c.prepareStatement(getTable().createSelectAllStatement());
-            stmt.executeQuery();
-            ResultSet rs = stmt.getResultSet();
-            // Now we have to pull in all the values.
-            while (rs.next()) {
-                ColumnMap map = rsToMap(rs);
-                t = create();
-                populate(map, t);
-                allEntries.add(t);
+            while (iterator.hasNext()) {
+                allEntries.add(iterator.next());
             }
-
-            rs.close();
-            stmt.close();
-            releaseConnection(c);
-        } catch (SQLException e) {
-            destroyConnection(c);
-            throw new GeneralException("Error getting all entries.", e);
+        } finally {
+            iterator.close();
         }
         return allEntries;
     }
@@ -94,42 +101,95 @@ public abstract class SQLStore<V extends Identifiable> extends SQLDatabase imple
      * @param value
      */
     public void update(V value) {
-
-        if (!containsValue(value)) {
-            throw new UnregisteredObjectException("Error: cannot update non-existent entry for\"" +
-                    value.getIdentifierString() + "\". Register it first or call save.");
-        }
+        checkWrite(value);
         Connection c = getConnection();
+        int count;
         try {
 
-            PreparedStatement stmt = c.prepareStatement(getTable().createUpdateStatement());
-            ColumnMap map = depopulate(value);
-            int i = 1;
-            for (ColumnDescriptorEntry cde : getTable().getColumnDescriptor()) {
-                // now we loop through the table and set each and every one of these
-                if (!cde.isPrimaryKey()) {
-                    Object obj = map.get(cde.getName());
-                    // Dates confuse setObject, so turn it into an SQL Timestamp object.
-                    if (obj instanceof Date) {
-                        obj = new Timestamp(((Date) obj).getTime());
-                    }
-                    if (obj instanceof BasicIdentifier) {
-                        stmt.setString(i++, obj.toString());
-                    } else {
-                        stmt.setObject(i++, obj);
-                    }
-                }
-            }
-
-            // now set the primary key
-            stmt.setString(i++, value.getIdentifierString());
-            stmt.executeUpdate();
-            stmt.close();
+            PreparedStatement stmt = prepareStatement(c, getTable().createUpdateStatement());
+            setUpdateParameters(stmt, value);
+            count = stmt.executeUpdate();
+            releaseStatement(c, stmt);
             releaseConnection(c);
         } catch (SQLException e) {
             destroyConnection(c);
             throw new GeneralException("Error updating approval with identifier = \"" + value.getIdentifierString(), e);
         }
+        // No row was updated, so there was nothing to update. This saves selecting the row first.
+        if (count == 0) {
+            throw new UnregisteredObjectException("Error: cannot update non-existent entry for\"" +
+                    value.getIdentifierString() + "\". Register it first or call save.");
+        }
+        written(value);
+    }
+
+    /**
+     * Called with each value before it is written by {@link #register(Identifiable)}, {@link #update(Identifiable)},
+     * {@link #upsert(Identifiable)} or any of the batch operations. Throw an exception to stop the write. Since saving
+     * may be done with an upsert or a batch, override this rather than register or update to check values.
+     *
+     * @param value
+     */
+    protected void checkWrite(V value) {
+    }
+
+    /**
+     * Called with each value after it has been written. For the batch operations, this is after they commit.
+     *
+     * @param value
+     */
+    protected void written(V value) {
+    }
+
+    /**
+     * Whether values may be written without calling {@link #register(Identifiable)} or {@link #update(Identifiable)},
+     * i.e., with the dialect's upsert or in JDBC batches. A subclass that overrides either of those to do more than
+     * {@link #checkWrite(Identifiable)} and {@link #written(Identifiable)} can do should return false. Then
+     * {@link #save(Identifiable)} calls them and the batch operations write each value in turn with them.
+     *
+     * @return
+     */
+    protected boolean isUpsertSafe() {
+        return true;
+    }
+
+    /**
+     * Whether {@link #save(Identifiable)} and {@link #saveAll(Collection)} use the dialect's upsert.
+     *
+     * @return
+     */
+    protected boolean canUpsert() {
+        return isUseUpsert() && getDialect().supportsUpsert() && isUpsertSafe();
+    }
+
+    /**
+     * Set the parameters of the {@link Table#createUpdateStatement()} to the value's.
+     *
+     * @param stmt
+     * @param value
+     * @throws SQLException
+     */
+    protected void setUpdateParameters(PreparedStatement stmt, V value) throws SQLException {
+        ColumnMap map = depopulate(value);
+        int i = 1;
+        for (ColumnDescriptorEntry cde : getTable().getColumnDescriptor()) {
+            // now we loop through the table and set each and every one of these
+            if (!cde.isPrimaryKey()) {
+                Object obj = map.get(cde.getName());
+                // Dates confuse setObject, so turn it into an SQL Timestamp object.
+                if (obj instanceof Date) {
+                    obj = new Timestamp(((Date) obj).getTime());
+                }
+                if (obj instanceof BasicIdentifier) {
+                    stmt.setString(i++, obj.toString());
+                } else {
+                    stmt.setObject(i++, obj);
+                }
+            }
+        }
+
+        // now set the primary key
+        stmt.setString(i++, value.getIdentifierString());
     }
 
 
@@ -163,6 +223,10 @@ public abstract class SQLStore<V extends Identifiable> extends SQLDatabase imple
 
 
     public void save(V value) {
+        if (canUpsert()) {
+            upsert(value);
+            return;
+        }
         if (containsKey(value.getIdentifier())) {
             update(value);
         } else {
@@ -170,38 +234,412 @@ public abstract class SQLStore<V extends Identifiable> extends SQLDatabase imple
         }
     }
 
+    /**
+     * Insert the value or, if there is already an entry with its identifier, update that. This is a single
+     * statement, so it needs a {@link SQLDialect} that has an upsert.
+     *
+     * @param value
+     */
+    public void upsert(V value) {
+        SQLDialect dialect = getDialect();
+        String upsert = getTable().createUpsertStatement(dialect);
+        if (upsert == null) {
+            throw new GeneralException("Error: the dialect " + dialect + " has no upsert statement");
+        }
+        checkWrite(value);
+        Connection c = getConnection();
+        try {
+            PreparedStatement stmt = prepareStatement(c, upsert);
+            setUpsertParameters(stmt, dialect, value);
+            stmt.executeUpdate();
+            releaseStatement(c, stmt);
+            releaseConnection(c);
+        } catch (SQLException e) {
+            destroyConnection(c);
+            throw new GeneralException("Error: could not save object with id \"" + value.getIdentifierString() + "\" (" + e.getMessage() + ")", e);
+        }
+        written(value);
+    }
+
+    protected void setUpsertParameters(PreparedStatement stmt, SQLDialect dialect, V value) throws SQLException {
+        ColumnMap map = depopulate(value);
+        int i = 1;
+        for (ColumnDescriptorEntry cde : dialect.getUpsertColumns(getTable())) {
+            setColumn(stmt, i++, cde, map.get(cde.getName()));
+        }
+    }
+
+    /**
+     * Set a parameter to the value of a column. Dates become SQL timestamps and identifiers become strings.
+     *
+     * @param stmt
+     * @param i
+     * @param cde
+     * @param obj
+     * @throws SQLException
+     */
+    protected void setColumn(PreparedStatement stmt, int i, ColumnDescriptorEntry cde, Object obj) throws SQLException {
+        if (obj instanceof Date) {
+            obj = new Timestamp(((Date) obj).getTime());
+        }
+        if (obj instanceof Identifier) {
+            obj = obj.toString();
+        }
+        // See the OAUTH-148 note in register.
+        if (cde.getType() == Types.LONGVARCHAR) {
+            stmt.setString(i, obj == null ? null : obj.toString());
+        } else {
+            stmt.setObject(i, obj, cde.getType());
+        }
+    }
+
+    public SQLDialect getDialect() {
+        return getConnectionPool().getDialect();
+    }
+
+    /**
+     * Whether {@link #save(Identifiable)} should use the dialect's upsert, if it has one. The default is true.
+     *
+     * @return
+     */
+    public boolean isUseUpsert() {
+        return useUpsert;
+    }
+
+    public void setUseUpsert(boolean useUpsert) {
+        this.useUpsert = useUpsert;
+    }
+
+    boolean useUpsert = true;
+
+    // Once the table is found, there is no need to look for it on every insert.
+    volatile boolean tableFound = false;
+
+    /**
+     * Whether the table is in the database. Once it has been found, this does not look again.
+     *
+     * @param c
+     * @return
+     * @throws SQLException
+     */
+    protected boolean hasTable(Connection c) throws SQLException {
+        if (!tableFound) {
+            ResultSet res = c.getMetaData().getTables(null, null, getTable().getTablename(), new String[]{"TABLE"});
+            tableFound = res.next();
+            res.close();
+        }
+        return tableFound;
+    }
+
     public void register(V value) {
+        checkWrite(value);
         Connection c = getConnection();
 
         try {
-            String table = getTable().getTablename();
-            ResultSet res = c.getMetaData().getTables(null, null, table, new String[] {"TABLE"});
-            if (res.next() == false)    {
-                throw new GeneralException("Cannot find table "+table);
+            if (!hasTable(c)) {
+                releaseConnection(c);
+                throw new GeneralException("Cannot find table " + getTable().getTablename());
             }
 
-            PreparedStatement stmt = c.prepareStatement(getTable().createInsertStatement());
-            Map<String, Object> map = depopulate(value);
-            int i = 1;
-            for (ColumnDescriptorEntry cde : getTable().getColumnDescriptor()) {
-                // now we loop through the table and set each and every one of these
-                // OAUTH-148 fix: MariaDB driver does not accept longvarchar as a type in setObject (known bug for
-                // them. Workaround is to explicitly test for this and carry out a setString call instead.
-                if (cde.getType() == Types.LONGVARCHAR) {
-                    Object obj = map.get(cde.getName());
-                    stmt.setString(i++, obj == null ? null : obj.toString());
-                } else {
-                    stmt.setObject(i++, map.get(cde.getName()), cde.getType());
-                }
-            }
+            PreparedStatement stmt = prepareStatement(c, getTable().createInsertStatement());
+            setRegisterParameters(stmt, value);
             stmt.execute();// just execute() since executeQuery(x) would throw an exception regardless of content of x as per JDBC spec.
-            stmt.close();
+            releaseStatement(c, stmt);
             releaseConnection(c);
         } catch (SQLException e) {
             destroyConnection(c);
             throw new GeneralException("Error: could not register object with id \"" + value.getIdentifierString() + "\" ("+e.getMessage()+")", e);
         } finally {
         }
+        written(value);
+    }
+
+    /**
+     * Set the parameters of the {@link Table#createInsertStatement()} to the value's.
+     *
+     * @param stmt
+     * @param value
+     * @throws SQLException
+     */
+    protected void setRegisterParameters(PreparedStatement stmt, V value) throws SQLException {
+        Map<String, Object> map = depopulate(value);
+        int i = 1;
+        for (ColumnDescriptorEntry cde : getTable().getColumnDescriptor()) {
+            // now we loop through the table and set each and every one of these
+            // OAUTH-148 fix: MariaDB driver does not accept longvarchar as a type in setObject (known bug for
+            // them. Workaround is to explicitly test for this and carry out a setString call instead.
+            if (cde.getType() == Types.LONGVARCHAR) {
+                Object obj = map.get(cde.getName());
+                stmt.setString(i++, obj == null ? null : obj.toString());
+            } else {
+                stmt.setObject(i++, map.get(cde.getName()), cde.getType());
+            }
+        }
+    }
+
+    /**
+     * The most statements sent to the database in one JDBC batch by {@link #registerAll(Collection)},
+     * {@link #saveAll(Collection)} and {@link #removeAll(Collection)}. The default is 1000.
+     *
+     * @return
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    int batchSize = 1000;
+
+    /**
+     * Inserts every value in JDBC batches in a single transaction. If any insert fails, none are made.
+     * If {@link #isUpsertSafe()} is false, then each value is registered in turn with {@link #register(Identifiable)}
+     * instead, so this is not a single transaction.
+     *
+     * @param values
+     */
+    @Override
+    public void registerAll(Collection<? extends V> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+        if (!isUpsertSafe()) {
+            for (V value : values) {
+                register(value);
+            }
+            return;
+        }
+        for (V value : values) {
+            checkWrite(value);
+        }
+        Connection c = getConnection();
+        boolean found;
+        try {
+            found = hasTable(c);
+            if (found) {
+                c.setAutoCommit(false);
+                registerAll(c, values);
+                commit(c);
+            }
+        } catch (SQLException e) {
+            abort(c);
+            throw new GeneralException("Error: could not register " + values.size() + " objects (" + e.getMessage() + ")", e);
+        } catch (RuntimeException e) {
+            abort(c);
+            throw e;
+        }
+        releaseConnection(c);
+        if (!found) {
+            throw new GeneralException("Cannot find table " + getTable().getTablename());
+        }
+        for (V value : values) {
+            written(value);
+        }
+    }
+
+    protected void registerAll(Connection c, Collection<? extends V> values) throws SQLException {
+        PreparedStatement stmt = prepareStatement(c, getTable().createInsertStatement());
+        int n = 0;
+        for (V value : values) {
+            setRegisterParameters(stmt, value);
+            stmt.addBatch();
+            if (++n == getBatchSize()) {
+                stmt.executeBatch();
+                n = 0;
+            }
+        }
+        if (0 < n) {
+            stmt.executeBatch();
+        }
+        releaseStatement(c, stmt);
+    }
+
+    /**
+     * Saves every value in JDBC batches in a single transaction. If the dialect has an upsert, that is used.
+     * Otherwise the values are updated and the ones that were not there are then inserted. If {@link #isUpsertSafe()}
+     * is false, then each value is just saved in turn with {@link #save(Identifiable)} instead, so this is not a single
+     * transaction.
+     *
+     * @param values
+     */
+    @Override
+    public void saveAll(Collection<? extends V> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+        if (!isUpsertSafe()) {
+            for (V value : values) {
+                save(value);
+            }
+            return;
+        }
+        for (V value : values) {
+            checkWrite(value);
+        }
+        Connection c = getConnection();
+        try {
+            c.setAutoCommit(false);
+            if (canUpsert()) {
+                upsertAll(c, values);
+            } else {
+                List<V> missing = updateAll(c, values);
+                if (!missing.isEmpty()) {
+                    registerAll(c, missing);
+                }
+            }
+            commit(c);
+        } catch (SQLException e) {
+            abort(c);
+            throw new GeneralException("Error: could not save " + values.size() + " objects (" + e.getMessage() + ")", e);
+        } catch (RuntimeException e) {
+            abort(c);
+            throw e;
+        }
+        releaseConnection(c);
+        for (V value : values) {
+            written(value);
+        }
+    }
+
+    protected void upsertAll(Connection c, Collection<? extends V> values) throws SQLException {
+        SQLDialect dialect = getDialect();
+        PreparedStatement stmt = prepareStatement(c, getTable().createUpsertStatement(dialect));
+        int n = 0;
+        for (V value : values) {
+            setUpsertParameters(stmt, dialect, value);
+            stmt.addBatch();
+            if (++n == getBatchSize()) {
+                stmt.executeBatch();
+                n = 0;
+            }
+        }
+        if (0 < n) {
+            stmt.executeBatch();
+        }
+        releaseStatement(c, stmt);
+    }
+
+    /**
+     * Update the values in batches.
+     *
+     * @param c
+     * @param values
+     * @return the values that are not in the store, so were not updated.
+     * @throws SQLException
+     */
+    protected List<V> updateAll(Connection c, Collection<? extends V> values) throws SQLException {
+        List<V> missing = new ArrayList<V>();
+        List<V> batch = new ArrayList<V>();
+        PreparedStatement stmt = prepareStatement(c, getTable().createUpdateStatement());
+        for (V value : values) {
+            setUpdateParameters(stmt, value);
+            stmt.addBatch();
+            batch.add(value);
+            if (batch.size() == getBatchSize()) {
+                findMissing(c, stmt.executeBatch(), batch, missing);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            findMissing(c, stmt.executeBatch(), batch, missing);
+        }
+        releaseStatement(c, stmt);
+        return missing;
+    }
+
+    protected void findMissing(Connection c, int[] counts, List<V> batch, List<V> missing) throws SQLException {
+        for (int i = 0; i < counts.length; i++) {
+            // Some drivers do not report the count for each statement, so look.
+            if (counts[i] == 0 || (counts[i] == Statement.SUCCESS_NO_INFO && !containsKey(c, batch.get(i).getIdentifierString()))) {
+                missing.add(batch.get(i));
+            }
+        }
+    }
+
+    protected boolean containsKey(Connection c, String identifier) throws SQLException {
+        PreparedStatement stmt = prepareStatement(c, getTable().createSelectStatement());
+        stmt.setString(1, identifier);
+        ResultSet rs = stmt.executeQuery();
+        boolean rc = rs.next();
+        rs.close();
+        releaseStatement(c, stmt);
+        return rc;
+    }
+
+    /**
+     * Deletes the rows in JDBC batches in a single transaction.
+     *
+     * @param identifiers
+     * @return
+     */
+    @Override
+    public int removeAll(Collection<? extends Identifier> identifiers) {
+        if (identifiers.isEmpty()) {
+            return 0;
+        }
+        int count = 0;
+        Connection c = getConnection();
+        try {
+            c.setAutoCommit(false);
+            PreparedStatement stmt = prepareStatement(c, getTable().createDeleteStatement());
+            int n = 0;
+            for (Identifier identifier : identifiers) {
+                stmt.setString(1, identifier.toString());
+                stmt.addBatch();
+                if (++n == getBatchSize()) {
+                    count = count + sum(stmt.executeBatch());
+                    n = 0;
+                }
+            }
+            if (0 < n) {
+                count = count + sum(stmt.executeBatch());
+            }
+            releaseStatement(c, stmt);
+            commit(c);
+        } catch (SQLException e) {
+            abort(c);
+            throw new GeneralException("Error: could not remove " + identifiers.size() + " objects (" + e.getMessage() + ")", e);
+        } catch (RuntimeException e) {
+            abort(c);
+            throw e;
+        }
+        releaseConnection(c);
+        return count;
+    }
+
+    protected int sum(int[] counts) {
+        int count = 0;
+        for (int updated : counts) {
+            // Some drivers do not report the count for each statement.
+            count = count + (updated == Statement.SUCCESS_NO_INFO ? 1 : Math.max(updated, 0));
+        }
+        return count;
+    }
+
+    protected void commit(Connection c) throws SQLException {
+        c.commit();
+        c.setAutoCommit(true);
+    }
+
+    protected void rollback(Connection c) {
+        try {
+            c.rollback();
+        } catch (SQLException x) {
+            // Nothing more to do, the connection is destroyed next.
+        }
+    }
+
+    /**
+     * Roll back a failed transaction and destroy the connection, so it is not returned to the pool still in the
+     * transaction and holding its locks.
+     *
+     * @param c
+     */
+    protected void abort(Connection c) {
+        rollback(c);
+        destroyConnection(c);
     }
 
     /**
@@ -229,21 +667,21 @@ public abstract class SQLStore<V extends Identifiable> extends SQLDatabase imple
         Connection c = getConnection();
         V t = null;
         try {
-            PreparedStatement stmt = c.prepareStatement(getTable().createSelectStatement());
+            PreparedStatement stmt = prepareStatement(c, getTable().createSelectStatement());
             stmt.setString(1, key.toString());
             stmt.executeQuery();
             ResultSet rs = stmt.getResultSet();
             // Now we have to pull in all the values.
             if (!rs.next()) {
                 rs.close();
-                stmt.close();
+                releaseStatement(c, stmt);
                 releaseConnection(c);
                 return null;   // returning a null fulfills contract for this being a map.
             }
 
             ColumnMap map = rsToMap(rs);
             rs.close();
-            stmt.close();
+            releaseStatement(c, stmt);
             t = create();
             populate(map, t);
             releaseConnection(c);
@@ -256,32 +694,167 @@ public abstract class SQLStore<V extends Identifiable> extends SQLDatabase imple
 
 
     public List<V> search(String key, String condition, boolean isRegEx) {
-        String searchString = "select * from " + getTable().getFQTablename() + " where " + key + " " +  (isRegEx?"regexp":"=") + " ?";
-          List<V>  values = new ArrayList<>();
-          Connection c = getConnection();
-          V t = null;
-          try {
-              PreparedStatement stmt = c.prepareStatement(searchString);
-              stmt.setString(1, condition);
-              stmt.executeQuery();
-              ResultSet rs = stmt.getResultSet();
-              // Now we have to pull in all the values.
-              while(rs.next()){
-                  ColumnMap map = rsToMap(rs);
-                  t = create();
-                  populate(map, t);
-                  values.add(t);
-              }
-
-              rs.close();
-              stmt.close();
-              releaseConnection(c);
-          } catch (SQLException e) {
-              destroyConnection(c);
-              throw new GeneralException("Error getting object with identifier \"" + key + "\"", e);
-          }
-          return values;
-      }
+        List<V> values = new ArrayList<>();
+        CloseableIterator<V> iterator = iterateSearch(key, condition, isRegEx);
+        try {
+            while (iterator.hasNext()) {
+                values.add(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+        return values;
+    }
+
+    protected String createSearchStatement(String key, boolean isRegEx) {
+        return "select * from " + getTable().getFQTablename() + " where " + key + " " + (isRegEx ? "regexp" : "=") + " ?";
+    }
+
+    @Override
+    public List<V> getPage(String sortKey, V after, int pageSize) {
+        ColumnDescriptorEntry sortColumn = null;
+        if (sortKey != null) {
+            // This is put in the SQL, so only allow the table's own columns.
+            for (ColumnDescriptorEntry cde : getTable().getColumnDescriptor()) {
+                if (cde.getName().equals(sortKey)) {
+                    sortColumn = cde;
+                }
+            }
+            if (sortColumn == null) {
+                throw new GeneralException("Error: there is no column named \"" + sortKey + "\" in " + getTable().getFQTablename());
+            }
+            if (sortColumn.isPrimaryKey()) {
+                sortColumn = null;
+            }
+        }
+        List<V> page = new ArrayList<V>(pageSize);
+        Connection c = getConnection();
+        try {
+            Object afterValue = after == null || sortColumn == null ? null : depopulate(after).get(sortColumn.getName());
+            String query = getTable().createPageStatement(sortColumn == null ? null : sortColumn.getName(), after == null,
+                    afterValue == null, pageSize, getDialect());
+            PreparedStatement stmt = prepareStatement(c, query);
+            if (after != null) {
+                int i = 1;
+                if (afterValue != null) {
+                    setColumn(stmt, i++, sortColumn, afterValue);
+                    setColumn(stmt, i++, sortColumn, afterValue);
+                }
+                stmt.setString(i, after.getIdentifierString());
+            }
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                V t = create();
+                populate(rsToMap(rs), t);
+                page.add(t);
+            }
+            rs.close();
+            releaseStatement(c, stmt);
+            releaseConnection(c);
+        } catch (SQLException e) {
+            destroyConnection(c);
+            throw new GeneralException("Error: could not get a page from " + getTable().getFQTablename(), e);
+        }
+        return page;
+    }
+
+    @Override
+    public CloseableIterator<V> iterateAll() {
+        return iterate(getTable().createSelectAllStatement(), null);
+    }
+
+    @Override
+    public CloseableIterator<V> iterateSearch(String key, String condition, boolean isRegEx) {
+        return iterate(createSearchStatement(key, isRegEx), condition);
+    }
+
+    /**
+     * Run the query and return an iterator over its rows. This holds a connection until it is closed.
+     *
+     * @param query
+     * @param parameter if not null, the value of the query's one parameter.
+     * @return
+     */
+    protected CloseableIterator<V> iterate(String query, String parameter) {
+        Connection c = getConnection();
+        try {
+            // Not from the statement cache, since this is held open and has its own settings.
+            PreparedStatement stmt = c.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            getDialect().setFetchSize(c, stmt, getFetchSize());
+            if (parameter != null) {
+                stmt.setString(1, parameter);
+            }
+            return new ResultSetIterator(c, stmt, stmt.executeQuery());
+        } catch (SQLException e) {
+            destroyConnection(c);
+            throw new GeneralException("Error: could not run query \"" + query + "\"", e);
+        }
+    }
+
+    /**
+     * The number of rows the iterators ask the database for at a time. The default is 100.
+     *
+     * @return
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    int fetchSize = 100;
+
+    /**
+     * Makes an object from each row as it is read. Closing this closes the result set and releases the connection.
+     */
+    protected class ResultSetIterator extends AbstractCloseableIterator<V> {
+        public ResultSetIterator(Connection connection, PreparedStatement stmt, ResultSet rs) {
+            this.connection = connection;
+            this.stmt = stmt;
+            this.rs = rs;
+        }
+
+        Connection connection;
+        PreparedStatement stmt;
+        ResultSet rs;
+
+        @Override
+        protected V advance() {
+            try {
+                if (!rs.next()) {
+                    return null;
+                }
+                V t = create();
+                populate(rsToMap(rs), t);
+                return t;
+            } catch (SQLException e) {
+                super.close();
+                destroyConnection(connection);
+                throw new GeneralException("Error reading from " + getTable().getFQTablename(), e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (isClosed()) {
+                return;
+            }
+            super.close();
+            try {
+                rs.close();
+                stmt.close();
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                    connection.setAutoCommit(true);
+                }
+                releaseConnection(connection);
+            } catch (SQLException e) {
+                destroyConnection(connection);
+            }
+        }
+    }
 
 
     /**
@@ -329,14 +902,14 @@ public abstract class SQLStore<V extends Identifiable> extends SQLDatabase imple
         int rowCount = 0; // default size
 
         try {
-            PreparedStatement stmt = c.prepareStatement(query);
+            PreparedStatement stmt = prepareStatement(c, query);
             stmt.executeQuery();
             ResultSet rs = stmt.getResultSet();
             if (rs.next()) {
                 rowCount = rs.getInt(1); // *trick* to get the row count
             }
             rs.close();
-            stmt.close();
+            releaseStatement(c, stmt);
             releaseConnection(c);
         } catch (SQLException e) {
             destroyConnection(c);
@@ -360,13 +933,13 @@ public abstract class SQLStore<V extends Identifiable> extends SQLDatabase imple
         Connection c = getConnection();
         boolean rc = false;
         try {
-            PreparedStatement stmt = c.prepareStatement(getTable().createSelectStatement());
+            PreparedStatement stmt = prepareStatement(c, getTable().createSelectStatement());
             stmt.setString(1, identifier.toString());
             stmt.execute();// just execute() since executeQuery(x) would throw an exception regardless of content of x as per JDBC spec.
             ResultSet rs = stmt.getResultSet();
             rc = rs.next();
             rs.close();
-            stmt.close();
+            releaseStatement(c, stmt);
             releaseConnection(c);
         } catch (SQLException e) {
             destroyConnection(c);
@@ -403,13 +976,13 @@ public abstract class SQLStore<V extends Identifiable> extends SQLDatabase imple
         } catch (GeneralException x) {
             // fine. Return null. All we care about is whether the next operations work.
         }
-        String query = "DELETE FROM " + getTable().getFQTablename() + " WHERE " + getTable().getPrimaryKeyColumnName() + "=?";
+        String query = getTable().createDeleteStatement();
         Connection c = getConnection();
         try {
-            PreparedStatement stmt = c.prepareStatement(query);
+            PreparedStatement stmt = prepareStatement(c, query);
             stmt.setString(1, key.toString());
             stmt.execute();
-            stmt.close();
+            releaseStatement(c, stmt);
             releaseConnection(c);
         } catch (SQLException e) {
             destroyConnection(c);
@@ -419,15 +992,14 @@ public abstract class SQLStore<V extends Identifiable> extends SQLDatabase imple
     }
 
     /**
-     * A terrifically inefficient way to add these since it loops. If you need this to work better, override and optimize.
+     * Registers all the values, see {@link #registerAll(Collection)}. Like that, this calls
+     * {@link #register(Identifiable)} for each value if {@link #isUpsertSafe()} is false.
      *
      * @param m
      */
     @Override
     public void putAll(Map<? extends Identifier, ? extends V> m) {
-        for (Map.Entry e : m.entrySet()) {
-            register((V) e.getValue());
-        }
+        registerAll(m.values());
     }
 
 
@@ -435,9 +1007,9 @@ public abstract class SQLStore<V extends Identifiable> extends SQLDatabase imple
         String query = "DELETE FROM " + getTable().getFQTablename();
         Connection c = getConnection();
         try {
-            PreparedStatement stmt = c.prepareStatement(query);
+            PreparedStatement stmt = prepareStatement(c, query);
             stmt.execute();
-            stmt.close();
+            releaseStatement(c, stmt);
             releaseConnection(c);
         } catch (SQLException e) {
             destroyConnection(c);
@@ -452,7 +1024,7 @@ public abstract class SQLStore<V extends Identifiable> extends SQLDatabase imple
         String query = "Select " + getTable().getPrimaryKeyColumnName() + " from " + getTable().getFQTablename();
         Connection c = getConnection();
         try {
-            PreparedStatement stmt = c.prepareStatement(query);
+            PreparedStatement stmt = prepareStatement(c, query);
             stmt.execute();
             ResultSet rs = stmt.getResultSet();
             // Figure out the type of argument. Can't do this in java without annoying reflection
@@ -460,7 +1032,7 @@ public abstract class SQLStore<V extends Identifiable> extends SQLDatabase imple
                 keys.add(new BasicIdentifier(rs.getString(1)));
             }
             rs.close();
-            stmt.close();
+            releaseStatement(c, stmt);
             releaseConnection(c);
 
         } catch (SQLException e) {
@@ -479,48 +1051,27 @@ public abstract class SQLStore<V extends Identifiable> extends SQLDatabase imple
      */
     public Collection<V> values() {
         Collection<V> allOfThem = new ArrayList<V>();
-        Connection c = getConnection();
+        CloseableIterator<V> iterator = iterateAll();
         try {
-            PreparedStatement stmt = c.prepareStatement("select * from " + getTable().getFQTablename());
-            stmt.execute();// just execute() since executeQuery(x) would throw an exception regardless of content per JDBC spec.
-
-            ResultSet rs = stmt.getResultSet();
-            while (rs.next()) {
-                V newOne = create();
-                ColumnMap map = rsToMap(rs);
-                populate(map, newOne);
-                allOfThem.add(newOne);
+            while (iterator.hasNext()) {
+                allOfThem.add(iterator.next());
             }
-            rs.close();
-            stmt.close();
-            releaseConnection(c);
-        } catch (SQLException e) {
-            destroyConnection(c);
-            throw new GeneralException("Error: could not get database object", e);
+        } finally {
+            iterator.close();
         }
         return allOfThem;
     }
 
     public Set<Entry<Identifier, V>> entrySet() {
         Set<Entry<Identifier, V>> entries = new HashSet<Entry<Identifier, V>>();
-        Connection c = getConnection();
+        CloseableIterator<V> iterator = iterateAll();
         try {
-            PreparedStatement stmt = c.prepareStatement("select * from " + getTable().getFQTablename());
-            stmt.execute();// just execute() since executeQuery(x) would throw an exception regardless of content per JDBC spec.
-
-            ResultSet rs = stmt.getResultSet();
-            while (rs.next()) {
-                V newOne = create();
-                ColumnMap map = rsToMap(rs);
-                populate(map, newOne);
+            while (iterator.hasNext()) {
+                V newOne = iterator.next();
                 entries.add(new SimpleEntryImpl<Identifier, V>(newOne.getIdentifier(), newOne));
             }
-            rs.close();
-            stmt.close();
-            releaseConnection(c);
-        } catch (SQLException e) {
-            destroyConnection(c);
-            throw new GeneralException("Error: could not get database object", e);
+        } finally {
+            iterator.close();
         }
         return entries;
     }
@@ -612,6 +1163,104 @@ public abstract class SQLStore<V extends Identifiable> extends SQLDatabase imple
             System.err.println("failed to create " + getTable().getTablename() + " msg=" + x.getMessage());
         }
     }
+
+    /**
+     * The table must have a column with the policy's timestamp key.
+     *
+     * @param policy
+     * @return
+     */
+    @Override
+    public boolean supports(BulkRetentionPolicy policy) {
+        return policy.getTimestampKey() != null && getTable().getColumnDescriptor().get(policy.getTimestampKey()) != null;
+    }
+
+    /**
+     * Deletes every row whose timestamp column is before the policy's cutoff. If the {@link #getRetentionBatchSize()}
+     * is positive, this is done in batches of at most that many rows, so that no single statement
+     * holds locks on a huge part of the table. Otherwise it is done with one statement.
+     *
+     * @param policy
+     * @return
+     */
+    @Override
+    public int applyRetention(BulkRetentionPolicy policy) {
+        if (!supports(policy)) {
+            throw new GeneralException("Error: the table " + getTable().getFQTablename() + " has no column \"" + policy.getTimestampKey() + "\"");
+        }
+        ColumnDescriptorEntry cde = getTable().getColumnDescriptor().get(policy.getTimestampKey());
+        long cutoff = policy.getCutoff().getTime();
+        int count = 0;
+        Connection c = getConnection();
+        try {
+            if (getRetentionBatchSize() <= 0) {
+                PreparedStatement stmt = prepareStatement(c, getTable().createDeleteBeforeStatement(cde.getName()));
+                setCutoff(stmt, cde, cutoff);
+                count = stmt.executeUpdate();
+                releaseStatement(c, stmt);
+            } else {
+                PreparedStatement select = prepareStatement(c, getTable().createSelectKeysBeforeStatement(cde.getName()));
+                select.setMaxRows(getRetentionBatchSize());
+                PreparedStatement delete = prepareStatement(c, getTable().createDeleteStatement());
+                int found = getRetentionBatchSize();
+                while (found == getRetentionBatchSize()) {
+                    setCutoff(select, cde, cutoff);
+                    ResultSet rs = select.executeQuery();
+                    found = 0;
+                    while (rs.next()) {
+                        delete.setString(1, rs.getString(1));
+                        delete.addBatch();
+                        found++;
+                    }
+                    rs.close();
+                    if (found == 0) {
+                        break;
+                    }
+                    int deleted = sum(delete.executeBatch());
+                    if (deleted == 0) {
+                        // Nothing selected could be deleted, so the next select would find the same rows.
+                        break;
+                    }
+                    count = count + deleted;
+                }
+                releaseStatement(c, select);
+                releaseStatement(c, delete);
+            }
+            releaseConnection(c);
+        } catch (SQLException e) {
+            destroyConnection(c);
+            throw new GeneralException("Error applying retention policy to " + getTable().getFQTablename(), e);
+        }
+        return count;
+    }
+
+    /**
+     * Timestamps may be stored as SQL timestamps or as milliseconds.
+     */
+    protected void setCutoff(PreparedStatement stmt, ColumnDescriptorEntry cde, long cutoff) throws SQLException {
+        if (cde.getType() == Types.BIGINT || cde.getType() == Types.INTEGER || cde.getType() == Types.NUMERIC) {
+            stmt.setLong(1, cutoff);
+        } else {
+            stmt.setTimestamp(1, new Timestamp(cutoff));
+        }
+    }
+
+    /**
+     * The maximum number of rows removed per round trip in {@link #applyRetention(BulkRetentionPolicy)}.
+     * Zero or less means that everything is removed with a single statement.
+     *
+     * @return
+     */
+    public int getRetentionBatchSize() {
+        return retentionBatchSize;
+    }
+
+    public void setRetentionBatchSize(int retentionBatchSize) {
+        this.retentionBatchSize = retentionBatchSize;
+    }
+
+    int retentionBatchSize = 1000;
+
     public XMLConverter<V> getXMLConverter(){
         return converter;
     }
@@ -0,0 +1,141 @@
+package edu.uiuc.ncsa.security.storage.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The prepared statements of a single connection, keyed by their SQL. Preparing a statement is a round trip
+ * to the database for many drivers, so the stores reuse them rather than preparing the same SQL on every call.
+ * At most {@link #getMaxSize()} statements are kept, the least recently used one is closed when a new one is added.
+ * <p>Get a statement with {@link #prepare(String)} and hand it back with {@link #release(PreparedStatement)}
+ * rather than closing it. If the statement for some SQL is already in use (e.g. a nested query), a new one
+ * is made that is closed on release. Like its connection, a cache is only used by one thread at a time.
+ * {@link ConnectionPool} makes these and closes them when it destroys the connection.
+ */
+public class StatementCache {
+    public StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+    }
+
+    Connection connection;
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    int maxSize;
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    AtomicLong hits = new AtomicLong(0L);
+    AtomicLong misses = new AtomicLong(0L);
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    // Every cached statement, so release can tell them from ones to close.
+    Map<PreparedStatement, String> cached = new IdentityHashMap<PreparedStatement, String>();
+    Map<PreparedStatement, Boolean> inUse = new IdentityHashMap<PreparedStatement, Boolean>();
+
+    Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= getMaxSize()) {
+                return false;
+            }
+            cached.remove(eldest.getValue());
+            // If it is in use, it is closed when it is released.
+            if (!inUse.containsKey(eldest.getValue())) {
+                closeQuietly(eldest.getValue());
+            }
+            return true;
+        }
+    };
+
+    /**
+     * The statement for this SQL, prepared if need be.
+     *
+     * @param sql
+     * @return
+     * @throws SQLException
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt != null && stmt.isClosed()) {
+            statements.remove(sql);
+            cached.remove(stmt);
+            stmt = null;
+        }
+        if (stmt != null && !inUse.containsKey(stmt)) {
+            hits.incrementAndGet();
+            inUse.put(stmt, Boolean.TRUE);
+            return stmt;
+        }
+        misses.incrementAndGet();
+        PreparedStatement newStmt = getConnection().prepareStatement(sql);
+        if (stmt == null && 0 < getMaxSize()) {
+            cached.put(newStmt, sql);
+            inUse.put(newStmt, Boolean.TRUE);
+            statements.put(sql, newStmt);
+        }
+        return newStmt;
+    }
+
+    /**
+     * Hand back a statement from {@link #prepare(String)}. Cached statements have their parameters cleared, any
+     * others are closed. Close its result sets first.
+     *
+     * @param stmt
+     * @throws SQLException
+     */
+    public void release(PreparedStatement stmt) throws SQLException {
+        inUse.remove(stmt);
+        if (cached.containsKey(stmt)) {
+            stmt.clearParameters();
+        } else {
+            stmt.close();
+        }
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    /**
+     * Close every statement. This does not close the connection.
+     */
+    public void close() {
+        for (PreparedStatement stmt : statements.values()) {
+            closeQuietly(stmt);
+        }
+        statements.clear();
+        cached.clear();
+        inUse.clear();
+    }
+
+    protected void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException x) {
+            // Nothing to do. The connection is usually on its way out too.
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[size=" + size() + ", max=" + getMaxSize() + ", hits=" + getHits() + ", misses=" + getMisses() + "]";
+    }
+}
@@ -1,6 +1,7 @@
 package edu.uiuc.ncsa.security.storage.sql.derby;
 
 import edu.uiuc.ncsa.security.storage.sql.SQLConnectionImpl;
+import edu.uiuc.ncsa.security.storage.sql.SQLDialect;
 
 /**
  * NOTE that the database name is the complete file path to the directory, e.g. "~/test"
@@ -38,4 +39,8 @@ public class DerbyConnectionParameters extends SQLConnectionImpl {
 
     protected boolean inMemory = false;
 
+    @Override
+    public SQLDialect getDialect() {
+        return new DerbyDialect();
+    }
 }
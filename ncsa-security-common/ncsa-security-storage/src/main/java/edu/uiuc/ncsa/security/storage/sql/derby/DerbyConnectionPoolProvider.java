@@ -43,20 +43,25 @@ public class DerbyConnectionPoolProvider extends ConnectionPoolProvider<Connecti
     }
 
 
+    ConnectionPool pool;
+
     @Override
     public ConnectionPool get() {
-        DerbyConnectionParameters x = new DerbyConnectionParameters(
-                checkValue(USERNAME),
-                checkValue(PASSWORD),
-                checkValue(DATABASE, database),
-                checkValue(SCHEMA, schema),
-                checkValue(HOST, host),
-                checkValue(PORT, port),
-                checkValue(DRIVER, driver),
-                checkValue(USE_SSL, useSSL),
-                checkValue("inMemory", inMemory),
-                checkValue(PARAMETERS, "")
-        );
-        return new ConnectionPool(x);
+        if (pool == null) {
+            DerbyConnectionParameters x = new DerbyConnectionParameters(
+                    checkValue(USERNAME),
+                    checkValue(PASSWORD),
+                    checkValue(DATABASE, database),
+                    checkValue(SCHEMA, schema),
+                    checkValue(HOST, host),
+                    checkValue(PORT, port),
+                    checkValue(DRIVER, driver),
+                    checkValue(USE_SSL, useSSL),
+                    checkValue("inMemory", inMemory),
+                    checkValue(PARAMETERS, "")
+            );
+            pool = configurePool(new ConnectionPool(x));
+        }
+        return pool;
     }
 }
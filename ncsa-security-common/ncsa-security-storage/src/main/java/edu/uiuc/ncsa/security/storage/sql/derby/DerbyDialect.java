@@ -0,0 +1,44 @@
+package edu.uiuc.ncsa.security.storage.sql.derby;
+
+import edu.uiuc.ncsa.security.storage.sql.SQLDialect;
+import edu.uiuc.ncsa.security.storage.sql.internals.ColumnDescriptorEntry;
+import edu.uiuc.ncsa.security.storage.sql.internals.Table;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Derby (10.11 and later) upserts with the SQL 2003 <code>MERGE</code> statement, using the one row
+ * <code>SYSIBM.SYSDUMMY1</code> table as the source. The primary key is a parameter of the match, then the other
+ * columns are parameters of the update and finally every column is a parameter of the insert.
+ */
+public class DerbyDialect extends SQLDialect {
+    @Override
+    public boolean supportsUpsert() {
+        return true;
+    }
+
+    @Override
+    public String createUpsertStatement(Table table) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("MERGE INTO ").append(table.getFQTablename()).append(" USING SYSIBM.SYSDUMMY1 ON ")
+                .append(table.getPrimaryKeyColumnName()).append("=?");
+        boolean isFirst = true;
+        for (ColumnDescriptorEntry cde : nonKeyColumns(table)) {
+            sb.append(isFirst ? " WHEN MATCHED THEN UPDATE SET " : ", ").append(cde.getName()).append("=?");
+            isFirst = false;
+        }
+        sb.append(" WHEN NOT MATCHED THEN INSERT (").append(table.createRegisterStatement())
+                .append(") VALUES (").append(parameters(table)).append(")");
+        return sb.toString();
+    }
+
+    @Override
+    public List<ColumnDescriptorEntry> getUpsertColumns(Table table) {
+        List<ColumnDescriptorEntry> columns = new ArrayList<ColumnDescriptorEntry>();
+        columns.add(table.getColumnDescriptor().getPrimaryKey());
+        columns.addAll(nonKeyColumns(table));
+        columns.addAll(table.getColumnDescriptor());
+        return columns;
+    }
+}
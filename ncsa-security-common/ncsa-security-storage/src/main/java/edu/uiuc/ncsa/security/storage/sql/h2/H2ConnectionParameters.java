@@ -1,6 +1,7 @@
 package edu.uiuc.ncsa.security.storage.sql.h2;
 
 import edu.uiuc.ncsa.security.storage.sql.SQLConnectionImpl;
+import edu.uiuc.ncsa.security.storage.sql.SQLDialect;
 
 /**
  * NOTE that the database name is the complete file path to the directory, e.g. "~/test"
@@ -27,5 +28,8 @@ public class H2ConnectionParameters extends SQLConnectionImpl {
 
     }
 
-
+    @Override
+    public SQLDialect getDialect() {
+        return new H2Dialect();
+    }
 }
@@ -36,19 +36,24 @@ public class H2ConnectionPoolProvider extends ConnectionPoolProvider<ConnectionP
     }
 
 
+    ConnectionPool pool;
+
     @Override
     public ConnectionPool get() {
-        H2ConnectionParameters x = new H2ConnectionParameters(
-                checkValue(USERNAME),
-                checkValue(PASSWORD),
-                checkValue(DATABASE, database),
-                checkValue(SCHEMA, schema),
-                checkValue(HOST, host),
-                checkValue(PORT, port),
-                checkValue(DRIVER, driver),
-                checkValue(USE_SSL, useSSL),
-                checkValue(PARAMETERS, "")
-        );
-        return new ConnectionPool(x);
+        if (pool == null) {
+            H2ConnectionParameters x = new H2ConnectionParameters(
+                    checkValue(USERNAME),
+                    checkValue(PASSWORD),
+                    checkValue(DATABASE, database),
+                    checkValue(SCHEMA, schema),
+                    checkValue(HOST, host),
+                    checkValue(PORT, port),
+                    checkValue(DRIVER, driver),
+                    checkValue(USE_SSL, useSSL),
+                    checkValue(PARAMETERS, "")
+            );
+            pool = configurePool(new ConnectionPool(x));
+        }
+        return pool;
     }
 }
@@ -0,0 +1,20 @@
+package edu.uiuc.ncsa.security.storage.sql.h2;
+
+import edu.uiuc.ncsa.security.storage.sql.SQLDialect;
+import edu.uiuc.ncsa.security.storage.sql.internals.Table;
+
+/**
+ * H2 upserts with <code>MERGE INTO ... KEY (key) VALUES ...</code>.
+ */
+public class H2Dialect extends SQLDialect {
+    @Override
+    public boolean supportsUpsert() {
+        return true;
+    }
+
+    @Override
+    public String createUpsertStatement(Table table) {
+        return "MERGE INTO " + table.getFQTablename() + "(" + table.createRegisterStatement() + ") KEY (" +
+                table.getPrimaryKeyColumnName() + ") VALUES (" + parameters(table) + ")";
+    }
+}
@@ -77,7 +77,7 @@ public class ColumnMap extends HashMap<String, Object> implements ConversionMap<
         return (Date) get(key);
        }
         try {
-            return Iso8601.string2Date(obj.toString()).getTime();
+            return new Date(Iso8601.string2Millis(obj.toString()));
         } catch (ParseException e) {
             throw new GeneralException("Error: Could not parse date\"" + obj + "\"", e);
         }
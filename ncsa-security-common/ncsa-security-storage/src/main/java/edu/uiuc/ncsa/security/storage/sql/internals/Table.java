@@ -1,6 +1,7 @@
 package edu.uiuc.ncsa.security.storage.sql.internals;
 
 import edu.uiuc.ncsa.security.storage.data.SerializationKeys;
+import edu.uiuc.ncsa.security.storage.sql.SQLDialect;
 
 import static java.sql.Types.LONGVARCHAR;
 
@@ -12,6 +13,9 @@ import static java.sql.Types.LONGVARCHAR;
  * Normally you must only implement the {@link #createColumnDescriptors()}
  * method to get all creation (yes! management too!!),
  * inserts and updates automagically taken care of.
+ * <p>The statements are made the first time they are asked for and kept, since the stores ask for them on every
+ * call. Changing the name or prefix clears them. If a subclass changes anything else they depend on, such as
+ * the columns, it should call {@link #clearStatements()}.
  * <p>Created by Jeff Gaynor<br>
  * on Apr 13, 2010 at  2:04:54 PM
  */
@@ -19,7 +23,35 @@ public abstract class Table  {
     protected SerializationKeys keys;
 
     public String getFQTablename() {
-        return fqTablename(getTablename());
+        if (fqTablename == null) {
+            fqTablename = fqTablename(getTablename());
+        }
+        return fqTablename;
+    }
+
+    String fqTablename;
+    String selectStatement;
+    String selectAllStatement;
+    String deleteStatement;
+    String updateStatement;
+    String insertStatement;
+    String registerStatement;
+    String upsertStatement;
+    SQLDialect upsertDialect;
+
+    /**
+     * Forget the statements made so far, so they are made again the next time they are needed.
+     */
+    public void clearStatements() {
+        fqTablename = null;
+        selectStatement = null;
+        selectAllStatement = null;
+        deleteStatement = null;
+        updateStatement = null;
+        insertStatement = null;
+        registerStatement = null;
+        upsertStatement = null;
+        upsertDialect = null;
     }
 
     public String getTablename(){
@@ -28,6 +60,7 @@ public abstract class Table  {
 
     public void setTablename(String tablename) {
         this.tablename = tablename;
+        clearStatements();
     }
 
     protected String tablename;
@@ -108,7 +141,10 @@ public abstract class Table  {
      * @return
      */
     public String createSelectStatement(){
-        return "SELECT * from " + getFQTablename() + " where " + getPrimaryKeyColumnName() + " =?";
+        if (selectStatement == null) {
+            selectStatement = "SELECT * from " + getFQTablename() + " where " + getPrimaryKeyColumnName() + " =?";
+        }
+        return selectStatement;
     }
 
     /**
@@ -116,10 +152,46 @@ public abstract class Table  {
      * @return
      */
     public String createSelectAllStatement(){
-        return "SELECT * from " + getFQTablename();
+        if (selectAllStatement == null) {
+            selectAllStatement = "SELECT * from " + getFQTablename();
+        }
+        return selectAllStatement;
+    }
+
+    /**
+     * Returns the delete statement for this table with one parameter for the primary key.
+     * @return
+     */
+    public String createDeleteStatement(){
+        if (deleteStatement == null) {
+            deleteStatement = "DELETE FROM " + getFQTablename() + " WHERE " + getPrimaryKeyColumnName() + "=?";
+        }
+        return deleteStatement;
+    }
+
+    /**
+     * Returns a statement that deletes every row whose value in the given column is before its one parameter.
+     * @param timestampColumn
+     * @return
+     */
+    public String createDeleteBeforeStatement(String timestampColumn){
+        return "DELETE FROM " + getFQTablename() + " WHERE " + timestampColumn + " <?";
+    }
+
+    /**
+     * Returns a statement that selects the primary key of every row whose value in the given column
+     * is before its one parameter.
+     * @param timestampColumn
+     * @return
+     */
+    public String createSelectKeysBeforeStatement(String timestampColumn){
+        return "SELECT " + getPrimaryKeyColumnName() + " from " + getFQTablename() + " where " + timestampColumn + " <?";
     }
 
     public String createRegisterStatement() {
+        if (registerStatement != null) {
+            return registerStatement;
+        }
         String x = null;
         boolean isFirst = true;
         for (ColumnDescriptorEntry cde : getColumnDescriptor()) {
@@ -130,6 +202,7 @@ public abstract class Table  {
                 x = x + ", " + cde.getName();
             }
         }
+        registerStatement = x;
         return x;
     }
 
@@ -147,6 +220,7 @@ public abstract class Table  {
 
     public void setTablenamePrefix(String tablenamePrefix) {
         this.tablenamePrefix = tablenamePrefix;
+        clearStatements();
     }
 
 
@@ -172,6 +246,9 @@ public abstract class Table  {
      * @return
      */
     public String createUpdateStatement() {
+        if (updateStatement != null) {
+            return updateStatement;
+        }
         String out = "UPDATE " + getFQTablename() + " SET ";
         boolean isFirst = true;
         for (ColumnDescriptorEntry cde : getColumnDescriptor()) {
@@ -184,6 +261,7 @@ public abstract class Table  {
         }
         // finally, add in the primary key.
         out = out + " WHERE " + getPrimaryKeyColumnName() + "=?";
+        updateStatement = out;
         return out;
     }
 
@@ -193,15 +271,68 @@ public abstract class Table  {
      * @return
      */
     public String createInsertStatement() {
+        if (insertStatement != null) {
+            return insertStatement;
+        }
         String out = "insert into " + getFQTablename() + "(" + createRegisterStatement() + ") values (";
         String qmarks = "";
         for (int i = 0; i < getColumnDescriptor().size(); i++) {
             qmarks = qmarks + "?" + (i + 1 == getColumnDescriptor().size() ? "" : ", ");
         }
         out = out + qmarks + ")";
+        insertStatement = out;
         return out;
     }
 
+    /**
+     * Returns the dialect's upsert statement for this table, or null if it has none.
+     *
+     * @param dialect
+     * @return
+     */
+    public String createUpsertStatement(SQLDialect dialect) {
+        if (upsertStatement == null || upsertDialect != dialect) {
+            upsertStatement = dialect.createUpsertStatement(this);
+            upsertDialect = dialect;
+        }
+        return upsertStatement;
+    }
+
+    /**
+     * Returns a statement that selects a page of rows sorted by the given column, with nulls first, and then by
+     * primary key. If this is not the first page, the parameters are the column value (twice) and primary key
+     * of the last row of the previous page. If that value was null or the sort column is the primary key,
+     * the only parameter is the primary key.
+     *
+     * @param sortColumn  the column to sort on, or null for the primary key.
+     * @param isFirstPage
+     * @param afterNull   if the last row of the previous page has a null in the sort column.
+     * @param pageSize
+     * @param dialect
+     * @return
+     */
+    public String createPageStatement(String sortColumn, boolean isFirstPage, boolean afterNull, int pageSize, SQLDialect dialect) {
+        String pk = getPrimaryKeyColumnName();
+        String query = "SELECT * from " + getFQTablename();
+        if (sortColumn == null || sortColumn.equals(pk)) {
+            if (!isFirstPage) {
+                query = query + " where " + pk + " >?";
+            }
+            query = query + " ORDER BY " + pk;
+        } else {
+            if (!isFirstPage) {
+                if (afterNull) {
+                    query = query + " where (" + sortColumn + " IS NULL AND " + pk + " >?) OR " + sortColumn + " IS NOT NULL";
+                } else {
+                    // a comparison with null is never true, so this leaves out the nulls, which came before.
+                    query = query + " where " + sortColumn + " >? OR (" + sortColumn + " =? AND " + pk + " >?)";
+                }
+            }
+            query = query + " ORDER BY " + dialect.nullsFirst(sortColumn) + ", " + pk;
+        }
+        return dialect.limit(query, pageSize);
+    }
+
     public String createMassInsertStatement() {
         String out = "insert IGNORE into " + getFQTablename() + "(" + createRegisterStatement() + ") values (";
         String qmarks = "";
@@ -1,6 +1,7 @@
 package edu.uiuc.ncsa.security.storage.sql.mariadb;
 
 import edu.uiuc.ncsa.security.storage.sql.SQLConnectionImpl;
+import edu.uiuc.ncsa.security.storage.sql.SQLDialect;
 
 /**
  * <p>Created by Jeff Gaynor<br>
@@ -28,4 +29,8 @@ public class MariaDBConnectionParameters extends SQLConnectionImpl {
                 host, port, schema, username, password);
     }
 
+    @Override
+    public SQLDialect getDialect() {
+        return new MariaDBDialect();
+    }
 }
@@ -56,7 +56,7 @@ public class MariaDBConnectionPoolProvider extends ConnectionPoolProvider<MariaD
                     checkValue(USE_SSL, useSSL),
                     checkValue(PARAMETERS,"")
             );
-            pool = new MariaDBConnectionPool(x);
+            pool = configurePool(new MariaDBConnectionPool(x));
         }
         return pool;
     }
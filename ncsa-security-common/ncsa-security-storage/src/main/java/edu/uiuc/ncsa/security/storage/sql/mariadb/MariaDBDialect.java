@@ -0,0 +1,17 @@
+package edu.uiuc.ncsa.security.storage.sql.mariadb;
+
+import edu.uiuc.ncsa.security.storage.sql.mysql.MySQLDialect;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * MariaDB has the same upsert as MySQL. Its driver does use the fetch size.
+ */
+public class MariaDBDialect extends MySQLDialect {
+    @Override
+    public void setFetchSize(Connection c, Statement stmt, int fetchSize) throws SQLException {
+        stmt.setFetchSize(fetchSize);
+    }
+}
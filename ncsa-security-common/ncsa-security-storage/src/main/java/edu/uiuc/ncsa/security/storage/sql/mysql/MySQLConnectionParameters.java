@@ -1,6 +1,7 @@
 package edu.uiuc.ncsa.security.storage.sql.mysql;
 
 import edu.uiuc.ncsa.security.storage.sql.SQLConnectionImpl;
+import edu.uiuc.ncsa.security.storage.sql.SQLDialect;
 
 import java.util.TimeZone;
 
@@ -33,4 +34,8 @@ public class MySQLConnectionParameters extends SQLConnectionImpl {
                 host, port, schema, username, password);
     }
 
+    @Override
+    public SQLDialect getDialect() {
+        return new MySQLDialect();
+    }
 }
@@ -58,7 +58,7 @@ public class MySQLConnectionPoolProvider extends ConnectionPoolProvider<MySQLCon
                     checkValue(USE_SSL, useSSL),
                     checkValue(PARAMETERS,"")
             );
-            pool =  new MySQLConnectionPool(x);
+            pool = configurePool(new MySQLConnectionPool(x));
         }
         return pool;
     }
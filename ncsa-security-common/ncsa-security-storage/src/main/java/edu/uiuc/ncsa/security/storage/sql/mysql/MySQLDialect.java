@@ -0,0 +1,53 @@
+package edu.uiuc.ncsa.security.storage.sql.mysql;
+
+import edu.uiuc.ncsa.security.storage.sql.SQLDialect;
+import edu.uiuc.ncsa.security.storage.sql.internals.ColumnDescriptorEntry;
+import edu.uiuc.ncsa.security.storage.sql.internals.Table;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * MySQL upserts with <code>INSERT ... ON DUPLICATE KEY UPDATE</code>. Its driver ignores the fetch size unless
+ * the connection has <code>useCursorFetch=true</code>, so results are streamed a row at a time instead.
+ */
+public class MySQLDialect extends SQLDialect {
+    @Override
+    public boolean supportsUpsert() {
+        return true;
+    }
+
+    @Override
+    public void setFetchSize(Connection c, Statement stmt, int fetchSize) throws SQLException {
+        // Connector/J's way of asking for rows to be streamed.
+        stmt.setFetchSize(Integer.MIN_VALUE);
+    }
+
+    @Override
+    public String limit(String query, int count) {
+        return query + " LIMIT " + count;
+    }
+
+    // MySQL does not have NULLS FIRST, but puts nulls first in ascending order anyway.
+    @Override
+    public String nullsFirst(String column) {
+        return column;
+    }
+
+    @Override
+    public String createUpsertStatement(Table table) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(table.createInsertStatement()).append(" ON DUPLICATE KEY UPDATE ");
+        boolean isFirst = true;
+        for (ColumnDescriptorEntry cde : nonKeyColumns(table)) {
+            sb.append(isFirst ? "" : ", ").append(cde.getName()).append("=VALUES(").append(cde.getName()).append(")");
+            isFirst = false;
+        }
+        if (isFirst) {
+            // Only a primary key, so there is nothing to update.
+            sb.append(table.getPrimaryKeyColumnName()).append("=").append(table.getPrimaryKeyColumnName());
+        }
+        return sb.toString();
+    }
+}
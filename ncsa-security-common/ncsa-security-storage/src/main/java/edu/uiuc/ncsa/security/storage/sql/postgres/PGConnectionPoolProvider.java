@@ -45,7 +45,7 @@ public class PGConnectionPoolProvider extends ConnectionPoolProvider<ConnectionP
                     checkValue(DRIVER, driver),
                     checkValue(USE_SSL, useSSL),
                     checkValue(PARAMETERS,""));
-            cp = new ConnectionPool(x);
+            cp = configurePool(new ConnectionPool(x));
         }
         return cp;
     }
@@ -1,6 +1,7 @@
 package edu.uiuc.ncsa.security.storage.sql.postgres;
 
 import edu.uiuc.ncsa.security.storage.sql.AdminConnectionParameters;
+import edu.uiuc.ncsa.security.storage.sql.SQLDialect;
 
 /**
  * <p>Created by Jeff Gaynor<br>
@@ -35,4 +36,9 @@ public class PostgresAdminConnectionParameters extends AdminConnectionParameters
                 username,
                 password);
     }
+
+    @Override
+    public SQLDialect getDialect() {
+        return new PostgresDialect();
+    }
 }
@@ -1,6 +1,7 @@
 package edu.uiuc.ncsa.security.storage.sql.postgres;
 
 import edu.uiuc.ncsa.security.storage.sql.SQLConnectionImpl;
+import edu.uiuc.ncsa.security.storage.sql.SQLDialect;
 
 /**
  * <p>Created by Jeff Gaynor<br>
@@ -37,6 +38,8 @@ public class PostgresConnectionParameters extends SQLConnectionImpl {
         return String.format(jdbcURL,host, port, databaseName, username, password);
     }
 
-
-
+    @Override
+    public SQLDialect getDialect() {
+        return new PostgresDialect();
+    }
 }
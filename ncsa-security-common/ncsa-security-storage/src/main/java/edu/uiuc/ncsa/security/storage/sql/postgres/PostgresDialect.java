@@ -0,0 +1,41 @@
+package edu.uiuc.ncsa.security.storage.sql.postgres;
+
+import edu.uiuc.ncsa.security.storage.sql.SQLDialect;
+import edu.uiuc.ncsa.security.storage.sql.internals.ColumnDescriptorEntry;
+import edu.uiuc.ncsa.security.storage.sql.internals.Table;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * PostgreSQL (9.5 and later) upserts with <code>INSERT ... ON CONFLICT (key) DO UPDATE</code>.
+ * The driver only uses a cursor for a query inside a transaction.
+ */
+public class PostgresDialect extends SQLDialect {
+    @Override
+    public boolean supportsUpsert() {
+        return true;
+    }
+
+    @Override
+    public void setFetchSize(Connection c, Statement stmt, int fetchSize) throws SQLException {
+        c.setAutoCommit(false);
+        super.setFetchSize(c, stmt, fetchSize);
+    }
+
+    @Override
+    public String createUpsertStatement(Table table) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(table.createInsertStatement()).append(" ON CONFLICT (").append(table.getPrimaryKeyColumnName()).append(")");
+        boolean isFirst = true;
+        for (ColumnDescriptorEntry cde : nonKeyColumns(table)) {
+            sb.append(isFirst ? " DO UPDATE SET " : ", ").append(cde.getName()).append("=EXCLUDED.").append(cde.getName());
+            isFirst = false;
+        }
+        if (isFirst) {
+            sb.append(" DO NOTHING");
+        }
+        return sb.toString();
+    }
+}
@@ -2,12 +2,17 @@ package edu.uiuc.ncsa.security.util.cli;
 
 import edu.uiuc.ncsa.security.core.Identifiable;
 import edu.uiuc.ncsa.security.core.Identifier;
+import edu.uiuc.ncsa.security.core.PageableStore;
 import edu.uiuc.ncsa.security.core.Store;
+import edu.uiuc.ncsa.security.core.cache.CacheStats;
+import edu.uiuc.ncsa.security.core.cache.CachedMapFacade;
 import edu.uiuc.ncsa.security.core.util.BasicIdentifier;
 import edu.uiuc.ncsa.security.core.util.MyLoggingFacade;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This also has the machinery for parsing configurations since the user should be able
@@ -201,6 +206,9 @@ public abstract class StoreCommands extends CommonCommands {
 
 
     protected List<Identifiable> listAll(boolean useLongFormat, String otherFlags) {
+        if (isPageable()) {
+            return listPages(useLongFormat);
+        }
         loadAllEntries();
         if (allEntries.isEmpty()) {
             say("(no entries found)");
@@ -220,6 +228,86 @@ public abstract class StoreCommands extends CommonCommands {
         return allEntries;
     }
 
+    /**
+     * The number of entries the ls command shows before asking whether to go on. If this is 0 or the store is not
+     * a {@link PageableStore}, every entry is loaded and sorted at once. The default is 20.
+     *
+     * @return
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    int pageSize = 20;
+
+    /**
+     * The key the pages are sorted on. If null, the default, they are sorted on the identifier.
+     *
+     * @return
+     */
+    public String getSortKey() {
+        return sortKey;
+    }
+
+    public void setSortKey(String sortKey) {
+        this.sortKey = sortKey;
+    }
+
+    String sortKey = null;
+
+    /**
+     * Whether listing can get the entries from the store a page at a time. Since a {@link Sortable} needs all of
+     * the entries, this is only done with the default {@link BasicSorter}, which sorts on the identifier like
+     * the store does.
+     *
+     * @return
+     */
+    protected boolean isPageable() {
+        return 0 < getPageSize() && getStore() instanceof PageableStore && getSortable() instanceof BasicSorter;
+    }
+
+    /**
+     * Show the entries a page at a time, asking after each one whether to go on. Only the entries shown are kept
+     * for the numbered commands, such as rm. In batch mode, every page is shown without asking.
+     *
+     * @param useLongFormat
+     * @return
+     */
+    protected List<Identifiable> listPages(boolean useLongFormat) {
+        PageableStore<Identifiable> pageableStore = (PageableStore<Identifiable>) getStore();
+        allEntries = new ArrayList<Identifiable>();
+        List<Identifiable> page = pageableStore.getPage(getSortKey(), null, getPageSize());
+        if (page.isEmpty()) {
+            say("(no entries found)");
+            return allEntries;
+        }
+        while (true) {
+            for (Identifiable x : page) {
+                if (useLongFormat) {
+                    longFormat(x);
+                } else {
+                    say(allEntries.size() + ". " + format(x));
+                }
+                allEntries.add(x);
+            }
+            if (page.size() < getPageSize()) {
+                break;
+            }
+            if (!isBatchMode()) {
+                sayi2("more [y/n]?");
+                if (!isOk(readline())) {
+                    break;
+                }
+            }
+            page = pageableStore.getPage(getSortKey(), page.get(page.size() - 1), getPageSize());
+        }
+        return allEntries;
+    }
+
     protected void showCreateHelp() {
         say("Create a new entry in the currently active store.");
         say("Syntax is\n");
@@ -371,6 +459,7 @@ public abstract class StoreCommands extends CommonCommands {
         say("Synatx:\n");
         say("ls [number]\n");
         say("If no number is supplied, then a complete list of all elements with numbering will be displayed.");
+        say("If the store can be read in pages, they are shown " + getPageSize() + " at a time and you are asked whether to see more.");
         say("If a number has been supplied, a detailed report on that item is shown.");
     }
 
@@ -420,6 +509,33 @@ public abstract class StoreCommands extends CommonCommands {
         sayi("Current store has " + getStore().size() + " entries");
     }
 
+    protected void showStatsHelp() {
+        say("Prints out the cache statistics for the current store, if it is cached.");
+        say("Syntax:\n");
+        say("stats [-reset]\n");
+        say("Shows the number of requests, hits, misses, loads from the store and evictions along with how long loads took.");
+        say("If the -reset flag is used, the statistics are set back to zero after being shown.");
+    }
+
+    public void stats(InputLine inputLine) {
+        if (showHelp(inputLine)) {
+            showStatsHelp();
+            return;
+        }
+        if (!(getStore() instanceof CachedMapFacade)) {
+            say("No statistics available, since this store is not cached.");
+            return;
+        }
+        CacheStats stats = ((CachedMapFacade) getStore()).getStats();
+        for (Map.Entry<String, Object> entry : stats.toMap().entrySet()) {
+            sayi(entry.getKey() + ": " + entry.getValue());
+        }
+        if (inputLine.hasArg("-reset")) {
+            stats.reset();
+            say("statistics reset.");
+        }
+    }
+
 
 }
 
@@ -16,6 +16,7 @@ import sun.security.x509.X500Name;
 import java.io.*;
 import java.security.*;
 import java.security.cert.*;
+import java.security.interfaces.ECKey;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -262,7 +263,29 @@ public class CertUtil {
      */
     public static MyPKCS10CertRequest createCertRequest(KeyPair keypair, String dn) throws SignatureException,
             NoSuchProviderException, InvalidKeyException, NoSuchAlgorithmException, IOException {
-        return createCertRequest(keypair, DEFAULT_PKCS10_SIGNATURE_ALGORITHM, dn, DEFAULT_PKCS10_PROVIDER);
+        return createCertRequest(keypair, getSignatureAlgorithm(keypair.getPrivate()), dn, DEFAULT_PKCS10_PROVIDER);
+    }
+
+    /**
+     * The signature algorithm used for a cert request signed with this key. This is {@link #DEFAULT_PKCS10_SIGNATURE_ALGORITHM}
+     * for RSA keys, ECDSA with a matching hash for EC keys and Ed25519 for Ed25519 keys.
+     *
+     * @param privateKey
+     * @return
+     */
+    public static String getSignatureAlgorithm(PrivateKey privateKey) {
+        String algorithm = privateKey.getAlgorithm();
+        if (algorithm.equals("EC")) {
+            int size = ((ECKey) privateKey).getParams().getCurve().getField().getFieldSize();
+            if (384 < size) {
+                return "SHA512withECDSA";
+            }
+            return size <= 256 ? KeyAlgorithm.EC_P256.getSignatureAlgorithm() : KeyAlgorithm.EC_P384.getSignatureAlgorithm();
+        }
+        if (algorithm.equals("EdDSA") || algorithm.equals("Ed25519")) {
+            return KeyAlgorithm.ED25519.getSignatureAlgorithm();
+        }
+        return DEFAULT_PKCS10_SIGNATURE_ALGORITHM;
     }
 
     /**
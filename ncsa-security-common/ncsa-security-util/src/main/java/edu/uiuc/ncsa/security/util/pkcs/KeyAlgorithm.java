@@ -0,0 +1,127 @@
+package edu.uiuc.ncsa.security.util.pkcs;
+
+import edu.uiuc.ncsa.security.core.exceptions.GeneralException;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+
+/**
+ * The kind of key pair to make and how to sign with it. Pass one of these to {@link KeyUtil#generateKeyPair(KeyAlgorithm)},
+ * a {@link KeyPairQueue} or a {@link KeyPairSupply} to choose the algorithm for just that use, rather than
+ * changing the defaults in {@link KeyUtil}.
+ * <p>Elliptic curve keys are much faster to make than RSA keys of similar strength (a P-256 key pair takes well under
+ * a millisecond, a 2048 bit RSA key pair often takes 50 or more). {@link #ED25519} needs Java 15 or later, use
+ * {@link #isSupported()} to check.
+ */
+public class KeyAlgorithm {
+    public static final KeyAlgorithm RSA_2048 = new KeyAlgorithm("RSA", 2048, null, "SHA256withRSA");
+    public static final KeyAlgorithm RSA_4096 = new KeyAlgorithm("RSA", 4096, null, "SHA256withRSA");
+    public static final KeyAlgorithm EC_P256 = new KeyAlgorithm("EC", 256, "secp256r1", "SHA256withECDSA");
+    public static final KeyAlgorithm EC_P384 = new KeyAlgorithm("EC", 384, "secp384r1", "SHA384withECDSA");
+    public static final KeyAlgorithm ED25519 = new KeyAlgorithm("Ed25519", 255, null, "Ed25519");
+
+    /**
+     * @param name               The JCA name of the key algorithm, e.g. "RSA" or "EC".
+     * @param keySize            Size of the key in bits.
+     * @param curve              The name of the curve for EC keys, null otherwise.
+     * @param signatureAlgorithm The JCA name of the signature algorithm to use with these keys.
+     */
+    public KeyAlgorithm(String name, int keySize, String curve, String signatureAlgorithm) {
+        this.name = name;
+        this.keySize = keySize;
+        this.curve = curve;
+        this.signatureAlgorithm = signatureAlgorithm;
+    }
+
+    String name;
+    int keySize;
+    String curve;
+    String signatureAlgorithm;
+
+    public String getName() {
+        return name;
+    }
+
+    public int getKeySize() {
+        return keySize;
+    }
+
+    public String getCurve() {
+        return curve;
+    }
+
+    public String getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    /**
+     * A new generator for this algorithm. Generators are not shared, so this may be used from any thread.
+     *
+     * @return
+     * @throws GeneralSecurityException
+     */
+    public KeyPairGenerator getKeyPairGenerator() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(name);
+        if (curve != null) {
+            generator.initialize(new ECGenParameterSpec(curve));
+        } else if (!name.startsWith("Ed")) {
+            // EdDSA generators have the right size already.
+            generator.initialize(keySize);
+        }
+        return generator;
+    }
+
+    public KeyFactory getKeyFactory() throws GeneralSecurityException {
+        return KeyFactory.getInstance(name);
+    }
+
+    public KeyPair generateKeyPair() {
+        try {
+            return getKeyPairGenerator().generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new GeneralException("Error generating " + this + " key pair", e);
+        }
+    }
+
+    /**
+     * Whether this JVM can make these keys.
+     *
+     * @return
+     */
+    public boolean isSupported() {
+        try {
+            getKeyPairGenerator();
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Look up an algorithm by name. This is one of the constants here ("RSA", "RSA-4096", "EC", "P-256", "P-384",
+     * "Ed25519") or null if there is no such name.
+     *
+     * @param name
+     * @return
+     */
+    public static KeyAlgorithm get(String name) {
+        if (name == null) {
+            return null;
+        }
+        String x = name.trim().toUpperCase();
+        if (x.equals("RSA") || x.equals("RSA-2048")) return RSA_2048;
+        if (x.equals("RSA-4096")) return RSA_4096;
+        if (x.equals("EC") || x.equals("P-256") || x.equals("SECP256R1")) return EC_P256;
+        if (x.equals("P-384") || x.equals("SECP384R1")) return EC_P384;
+        if (x.equals("ED25519") || x.equals("EDDSA")) return ED25519;
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return curve == null ? name + "-" + keySize : name + "-" + curve;
+    }
+}
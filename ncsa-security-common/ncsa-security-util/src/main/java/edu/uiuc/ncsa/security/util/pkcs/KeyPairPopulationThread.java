@@ -7,7 +7,8 @@ import edu.uiuc.ncsa.security.core.util.QueueWithSpare;
 import java.security.KeyPair;
 
 /**
- * Worker thread that creates {@link KeyPair}s and puts them into a queue.
+ * Worker thread that creates {@link KeyPair}s and puts them into a queue. This makes one key pair each interval;
+ * if more are needed than that, use a {@link KeyPairSupply}.
  * <p>Created by Jeff Gaynor<br>
  * on 2/20/12 at  2:35 PM
  */
@@ -20,9 +21,27 @@ public class KeyPairPopulationThread extends QueuePopulationThread<KeyPair> {
         super(q);
     }
 
+    /**
+     * The kind of key pair to make. If this is not set, the defaults in {@link KeyUtil} are used.
+     *
+     * @return
+     */
+    public KeyAlgorithm getKeyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    public void setKeyAlgorithm(KeyAlgorithm keyAlgorithm) {
+        this.keyAlgorithm = keyAlgorithm;
+    }
+
+    KeyAlgorithm keyAlgorithm;
+
     @Override
     protected KeyPair createNew() {
         try {
+            if (keyAlgorithm != null) {
+                return keyAlgorithm.generateKeyPair();
+            }
             return KeyUtil.generateKeyPair();
         } catch (Exception e) {
             throw new GeneralException("Error generating keypair", e);
@@ -6,23 +6,75 @@ import edu.uiuc.ncsa.security.core.util.QueueWithSpare;
 import java.security.KeyPair;
 
 /**
+ * A queue of key pairs, filled by a {@link KeyPairPopulationThread}. Unlike other {@link QueueWithSpare}s, a key pair
+ * is never handed out twice: if the queue is empty, a new one is generated. This is thread safe.
+ * For high volumes, use a {@link KeyPairSupply} instead.
  * <p>Created by Jeff Gaynor<br>
  * on 9/11/14 at  12:14 PM
  */
 public class KeyPairQueue extends QueueWithSpare<KeyPair> {
-       @Override
-       public KeyPair pop() {
-           KeyPair x = super.pop();
-           if (x != null) {
-               return x;
-           }
-           try {
-               KeyPair keyPair = KeyUtil.generateKeyPair();
-               setSpare(keyPair);
-               return keyPair;
-           } catch (Exception e) {
-               throw new GeneralException("Error generating key pair", e);
-           }
-
-       }
-   }
+    public KeyPairQueue() {
+    }
+
+    public KeyPairQueue(KeyAlgorithm keyAlgorithm) {
+        this.keyAlgorithm = keyAlgorithm;
+    }
+
+    /**
+     * The kind of key pair to make. If this is not set, the defaults in {@link KeyUtil} are used.
+     *
+     * @return
+     */
+    public KeyAlgorithm getKeyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    public void setKeyAlgorithm(KeyAlgorithm keyAlgorithm) {
+        this.keyAlgorithm = keyAlgorithm;
+    }
+
+    KeyAlgorithm keyAlgorithm;
+
+    @Override
+    public synchronized boolean push(KeyPair keyPair) {
+        return super.push(keyPair);
+    }
+
+    @Override
+    public KeyPair pop() {
+        synchronized (this) {
+            if (0 < super.size()) {
+                return super.remove();
+            }
+        }
+        // don't hold the lock while generating.
+        try {
+            if (keyAlgorithm != null) {
+                return keyAlgorithm.generateKeyPair();
+            }
+            return KeyUtil.generateKeyPair();
+        } catch (Exception e) {
+            throw new GeneralException("Error generating key pair", e);
+        }
+    }
+
+    @Override
+    public synchronized KeyPair remove() {
+        return super.remove();
+    }
+
+    @Override
+    public synchronized int size() {
+        return super.size();
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return super.isEmpty();
+    }
+
+    @Override
+    public synchronized void clear() {
+        super.clear();
+    }
+}
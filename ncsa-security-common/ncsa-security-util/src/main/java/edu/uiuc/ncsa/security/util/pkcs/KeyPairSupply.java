@@ -0,0 +1,51 @@
+package edu.uiuc.ncsa.security.util.pkcs;
+
+import edu.uiuc.ncsa.security.core.exceptions.GeneralException;
+import edu.uiuc.ncsa.security.core.util.SupplyQueue;
+
+import java.security.KeyPair;
+
+/**
+ * Keeps {@link KeyPair}s ready, making them on a pool of worker threads as they are used. Use this in place of a
+ * {@link KeyPairQueue} and {@link KeyPairPopulationThread} when key pairs are needed faster than one thread makes them.
+ * Each key pair is handed out once.
+ */
+public class KeyPairSupply extends SupplyQueue<KeyPair> {
+    public KeyPairSupply() {
+    }
+
+    public KeyPairSupply(int capacity, int lowWatermark, int threadCount) {
+        super(capacity, lowWatermark, threadCount);
+    }
+
+    public KeyPairSupply(KeyAlgorithm keyAlgorithm) {
+        this.keyAlgorithm = keyAlgorithm;
+    }
+
+    /**
+     * The kind of key pair to make. If this is not set, the defaults in {@link KeyUtil} are used.
+     *
+     * @return
+     */
+    public KeyAlgorithm getKeyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    public void setKeyAlgorithm(KeyAlgorithm keyAlgorithm) {
+        this.keyAlgorithm = keyAlgorithm;
+    }
+
+    KeyAlgorithm keyAlgorithm;
+
+    @Override
+    protected KeyPair createNew() {
+        try {
+            if (keyAlgorithm != null) {
+                return keyAlgorithm.generateKeyPair();
+            }
+            return KeyUtil.generateKeyPair();
+        } catch (Exception e) {
+            throw new GeneralException("Error generating key pair", e);
+        }
+    }
+}
@@ -21,6 +21,9 @@ import java.security.spec.X509EncodedKeySpec;
  * far there is not much of a need for it. Java much prefers the newer and more secure PKCS 8 format which you should
  * use if possible.
  * <p>All methods are static and if you need something other than the defaults, set them before first use.
+ * To use a different kind of key for just one call, pass a {@link KeyAlgorithm}, e.g. {@link KeyAlgorithm#EC_P256}
+ * for elliptic curve keys, which are much faster to make than RSA ones. Reading PKCS 8 and X509 keys works
+ * for RSA, EC and (on Java 15 or later) Ed25519 keys no matter what the default algorithm is.
  * <p>Created by Jeff Gaynor<br>
  * on Jun 15, 2010 at  4:51:25 PM
  */
@@ -122,14 +125,44 @@ public class KeyUtil {
      *
      */
     public static PrivateKey fromPKCS8DER(byte[] encodedPrivate) {
+        PKCS8EncodedKeySpec encodedPrivatePKCS8 = new PKCS8EncodedKeySpec(encodedPrivate);
         try {
-            PKCS8EncodedKeySpec encodedPrivatePKCS8 = new PKCS8EncodedKeySpec(encodedPrivate);
             return getKeyFactory().generatePrivate(encodedPrivatePKCS8);
         } catch (Exception e) {
+            // Might be another kind of key.
+            for (String algorithm : OTHER_ALGORITHMS) {
+                try {
+                    if (!algorithm.equals(getKeyAlgorithm())) {
+                        return KeyFactory.getInstance(algorithm).generatePrivate(encodedPrivatePKCS8);
+                    }
+                } catch (Exception x) {
+                    // try the next one
+                }
+            }
             throw new GeneralException("Could not decode private key", e);
         }
     }
 
+    /**
+     * Decode a PKCS #8 encoded private key of the given algorithm.
+     *
+     * @param encodedPrivate
+     * @param algorithm
+     * @return
+     */
+    public static PrivateKey fromPKCS8DER(byte[] encodedPrivate, KeyAlgorithm algorithm) {
+        try {
+            return algorithm.getKeyFactory().generatePrivate(new PKCS8EncodedKeySpec(encodedPrivate));
+        } catch (Exception e) {
+            throw new GeneralException("Could not decode " + algorithm.getName() + " private key", e);
+        }
+    }
+
+    /**
+     * The key algorithms tried, in order, when a key is not of the default algorithm.
+     */
+    static final String[] OTHER_ALGORITHMS = new String[]{"RSA", "EC", "Ed25519"};
+
 
     public static String toPKCS8PEM(PrivateKey privateKey) {
         return PEMFormatUtil.delimitBody(privateKey.getEncoded(), BEGIN_PRIVATE_KEY, END_PRIVATE_KEY);
@@ -174,10 +207,27 @@ public class KeyUtil {
         try {
             return getKeyFactory().generatePublic(x);
         } catch (Exception e) {
+            for (String algorithm : OTHER_ALGORITHMS) {
+                try {
+                    if (!algorithm.equals(getKeyAlgorithm())) {
+                        return KeyFactory.getInstance(algorithm).generatePublic(x);
+                    }
+                } catch (Exception xx) {
+                    // try the next one
+                }
+            }
             throw new GeneralException("Could not decode public key", e);
         }
     }
 
+    public static PublicKey fromX509DER(byte[] encodedPublic, KeyAlgorithm algorithm) {
+        try {
+            return algorithm.getKeyFactory().generatePublic(new X509EncodedKeySpec(encodedPublic));
+        } catch (Exception e) {
+            throw new GeneralException("Could not decode " + algorithm.getName() + " public key", e);
+        }
+    }
+
 
     public static int getKeyLength() {
         return keyLength;
@@ -209,6 +259,16 @@ public class KeyUtil {
         return getKeyPairGenerator().generateKeyPair();
     }
 
+    /**
+     * Generate a key pair of the given kind. This does not use or change the defaults.
+     *
+     * @param algorithm
+     * @return
+     */
+    public static KeyPair generateKeyPair(KeyAlgorithm algorithm) {
+        return algorithm.generateKeyPair();
+    }
+
     public static String getKeyAlgorithm() {
         return keyAlgorithm;
     }
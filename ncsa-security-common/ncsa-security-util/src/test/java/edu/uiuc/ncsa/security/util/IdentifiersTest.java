@@ -0,0 +1,63 @@
+package edu.uiuc.ncsa.security.util;
+
+import edu.uiuc.ncsa.security.core.Identifier;
+import edu.uiuc.ncsa.security.core.util.IdentifierProvider;
+import edu.uiuc.ncsa.security.core.util.Identifiers;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class IdentifiersTest extends TestBase {
+    @Test
+    public void testEncoding() throws Exception {
+        byte[] bytes = new byte[]{(byte) 0x00, (byte) 0x0f, (byte) 0xa5, (byte) 0xff};
+        assert Identifiers.toHex(bytes).equals("000fa5ff");
+        for (int i = 0; i < 40; i++) {
+            byte[] b = new byte[i];
+            Identifiers.nextBytes(b);
+            assert Identifiers.toBase64URL(b).equals(Base64.encodeBase64URLSafeString(b)) : "failed for length " + i;
+        }
+        String hex = Identifiers.getHexString();
+        assert hex.length() == 2 * Identifiers.BYTE_COUNT;
+        assert hex.matches("[0-9a-f]+");
+        assert Identifiers.getBase64URLString().length() == 22;
+    }
+
+    @Test
+    public void testUnique() throws Exception {
+        final Set<String> ids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        ids.add(Identifiers.getHexString());
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert ids.size() == 40000;
+    }
+
+    @Test
+    public void testIdentifierProvider() throws Exception {
+        IdentifierProvider<Identifier> provider = new IdentifierProvider<Identifier>("myproxy", "oa4mp,2012:", "client", true) {
+        };
+        Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < 100; i++) {
+            String id = provider.get().toString();
+            assert id.matches("myproxy:oa4mp,2012:/client/[0-9a-f]{32}/[0-9]+") : "bad id " + id;
+            ids.add(id);
+        }
+        assert ids.size() == 100;
+    }
+}
@@ -0,0 +1,71 @@
+package edu.uiuc.ncsa.security.util;
+
+import edu.uiuc.ncsa.security.core.util.Iso8601;
+import org.junit.Test;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.Random;
+
+public class Iso8601Test extends TestBase {
+    /**
+     * The old way of parsing, to compare against.
+     */
+    static long oldParse(String s) throws ParseException {
+        String[] date = Iso8601.splitDate(s);
+        return Iso8601.getDateFormat().parse(date[0] + date[1]).getTime();
+    }
+
+    @Test
+    public void testFormat() throws Exception {
+        DateFormat utc = Iso8601.getUTCDateFormat();
+        Random random = new Random(42L);
+        long[] special = new long[]{0L, -1L, 1L, 951782400000L /* 2000-02-29 */, 253402300799999L /* 9999-12-31T23:59:59.999 */,
+                -12219292800000L /* 1582-10-15 */, -62135596800000L /* year 1 */};
+        for (long d : special) {
+            assert Iso8601.date2String(d).equals(utc.format(new Date(d))) : "failed for " + d;
+        }
+        for (int i = 0; i < 10000; i++) {
+            long d = (long) ((random.nextDouble() - 0.5) * 2 * 253402300799999L);
+            assert Iso8601.date2String(d).equals(utc.format(new Date(d))) : "failed for " + d;
+            // Years BC lose their era when formatted, so they never round trip.
+            if (-62135596800000L <= d) {
+                assert Iso8601.string2Millis(Iso8601.date2String(d)) == d : "round trip failed for " + d;
+            }
+        }
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        String[] dates = new String[]{
+                "2012-03-04T05:06:07Z",
+                "2012-03-04T05:06:07.Z",
+                "2012-03-04T05:06:07.8Z",
+                "2012-03-04T05:06:07.89Z",
+                "2012-03-04T05:06:07.891Z",
+                "2012-03-04T05:06:07.891234Z",
+                "2012-03-04T05:06:07.891+0530",
+                "2012-03-04T05:06:07.891-05:30",
+                "2012-03-04T05:06:07-0800",
+                "2000-02-29T23:59:59.999+14:00",
+                // only a lenient parser takes these
+                "2012-02-30T05:06:07Z",
+                "2012-03-04T05:06:60.5Z",
+                "1500-03-04T05:06:07Z"
+        };
+        for (String date : dates) {
+            assert Iso8601.string2Millis(date) == oldParse(date) : "failed for " + date;
+            assert Iso8601.string2Date(date).getTimeInMillis() == oldParse(date) : "failed for " + date;
+        }
+        String[] bad = new String[]{"", "2012", "2012-03-04", "2012-03-04T05:06Z", "garbage string that is long"};
+        for (String date : bad) {
+            try {
+                Iso8601.string2Millis(date);
+                assert false : "parsed bad date " + date;
+            } catch (ParseException x) {
+                assert true;
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package edu.uiuc.ncsa.security.util;
+
+import edu.uiuc.ncsa.security.core.util.AsyncLogHandler;
+import edu.uiuc.ncsa.security.core.util.DebugUtil;
+import edu.uiuc.ncsa.security.core.util.MessageFormatter;
+import edu.uiuc.ncsa.security.core.util.MyLoggingFacade;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+public class LoggingTest extends TestBase {
+    @Test
+    public void testMessageFormatter() throws Exception {
+        assert MessageFormatter.format("no arguments").equals("no arguments");
+        assert MessageFormatter.format("a={}, b={}", "x", 2).equals("a=x, b=2");
+        assert MessageFormatter.format("{}{}", null, "y").equals("nully");
+        assert MessageFormatter.format("missing {} and {}", "one").equals("missing one and {}");
+        assert MessageFormatter.format("extra {}", "one", "two").equals("extra one");
+        assert MessageFormatter.format("array {}", (Object) new String[]{"a", "b"}).equals("array [a, b]");
+    }
+
+    /**
+     * A message supplier that counts how often it is asked for the message.
+     */
+    static class CountingSupplier implements Supplier<String> {
+        int count = 0;
+
+        @Override
+        public String get() {
+            count++;
+            return "message " + count;
+        }
+    }
+
+    /**
+     * An argument that counts how often it is turned into a string.
+     */
+    static class CountingArg {
+        int count = 0;
+
+        @Override
+        public String toString() {
+            count++;
+            return "arg";
+        }
+    }
+
+    @Test
+    public void testDebugUtilIsLazy() throws Exception {
+        int oldLevel = DebugUtil.getDebugLevel();
+        try {
+            DebugUtil.setDebugLevel(DebugUtil.DEBUG_LEVEL_WARN);
+            assert DebugUtil.isWarnEnabled();
+            assert !DebugUtil.isInfoEnabled();
+            assert !DebugUtil.isTraceEnabled();
+            CountingSupplier supplier = new CountingSupplier();
+            CountingArg arg = new CountingArg();
+            DebugUtil.info(this, supplier);
+            DebugUtil.trace(getClass(), supplier);
+            DebugUtil.info(this, "value={}", arg);
+            DebugUtil.trace(getClass(), "value={}, {}", arg, arg);
+            assert supplier.count == 0;
+            assert arg.count == 0;
+            DebugUtil.setDebugLevel(DebugUtil.DEBUG_LEVEL_OFF);
+            DebugUtil.severe(this, supplier);
+            DebugUtil.error(this, "value={}", arg);
+            assert supplier.count == 0;
+            assert arg.count == 0;
+        } finally {
+            DebugUtil.setDebugLevel(oldLevel);
+        }
+    }
+
+    @Test
+    public void testLoggingFacadeIsLazy() throws Exception {
+        MyLoggingFacade logger = new MyLoggingFacade(getClass().getName() + ".lazy");
+        List<LogRecord> records = Collections.synchronizedList(new ArrayList<LogRecord>());
+        logger.getLogger().setUseParentHandlers(false);
+        logger.getLogger().addHandler(new ListHandler(records));
+        CountingSupplier supplier = new CountingSupplier();
+        CountingArg arg = new CountingArg();
+        logger.setDebugOn(false);
+        logger.debug(supplier);
+        logger.debug("value={}", arg);
+        assert supplier.count == 0;
+        assert arg.count == 0;
+        assert records.isEmpty();
+
+        logger.getLogger().setLevel(Level.WARNING);
+        logger.setDebugOn(true);
+        logger.debug(supplier);
+        logger.info("value={}", arg);
+        assert supplier.count == 0;
+        assert arg.count == 0;
+        assert records.isEmpty();
+
+        logger.getLogger().setLevel(Level.ALL);
+        logger.debug(supplier);
+        logger.info("value={}", arg);
+        assert supplier.count == 1;
+        assert arg.count == 1;
+        assert records.size() == 2;
+        assert records.get(0).getMessage().endsWith("message 1");
+        assert records.get(1).getMessage().endsWith("value=arg");
+    }
+
+    static class ListHandler extends Handler {
+        ListHandler(List<LogRecord> records) {
+            this.records = records;
+        }
+
+        List<LogRecord> records;
+        volatile String thread;
+
+        @Override
+        public void publish(LogRecord record) {
+            thread = Thread.currentThread().getName();
+            records.add(record);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testAsyncLogHandler() throws Exception {
+        Logger logger = Logger.getLogger(getClass().getName() + ".async");
+        logger.setUseParentHandlers(false);
+        List<LogRecord> records = Collections.synchronizedList(new ArrayList<LogRecord>());
+        ListHandler target = new ListHandler(records);
+        logger.addHandler(target);
+        AsyncLogHandler asyncLogHandler = AsyncLogHandler.install(logger);
+        assert AsyncLogHandler.install(logger) == asyncLogHandler; // only once
+        assert logger.getHandlers().length == 1;
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            logger.info("message " + i);
+        }
+        asyncLogHandler.flush();
+        assert records.size() == count : "expected " + count + " records, got " + records.size();
+        for (int i = 0; i < count; i++) {
+            assert records.get(i).getMessage().equals("message " + i) : "out of order at " + i;
+        }
+        // caller is still found, even though the record was written on another thread
+        assert records.get(0).getSourceMethodName().equals("testAsyncLogHandler");
+        assert target.thread.equals("async-log");
+
+        AsyncLogHandler.uninstall(logger);
+        assert logger.getHandlers().length == 1;
+        assert logger.getHandlers()[0] == target;
+        logger.info("after");
+        assert records.size() == count + 1;
+        assert !target.thread.equals("async-log");
+    }
+
+    @Test
+    public void testAsyncLogHandlerInterrupted() throws Exception {
+        List<LogRecord> records = Collections.synchronizedList(new ArrayList<LogRecord>());
+        // a badly behaved handler that leaves the writer thread interrupted.
+        ListHandler target = new ListHandler(records) {
+            @Override
+            public void publish(LogRecord record) {
+                super.publish(record);
+                Thread.currentThread().interrupt();
+            }
+        };
+        AsyncLogHandler asyncLogHandler = new AsyncLogHandler(target);
+        try {
+            int count = 100;
+            for (int i = 0; i < count; i++) {
+                asyncLogHandler.publish(new LogRecord(Level.INFO, "message " + i));
+                if (i % 10 == 0) {
+                    Thread.sleep(1); // so the writer takes some before the next arrive.
+                }
+            }
+            asyncLogHandler.flush();
+            assert records.size() == count : "expected " + count + " records, got " + records.size();
+            assert target.thread.equals("async-log") : "writer thread stopped";
+            assert asyncLogHandler.getQueueSize() == 0;
+        } finally {
+            asyncLogHandler.close();
+        }
+    }
+
+    @Test
+    public void testDebugUtilAsync() throws Exception {
+        int oldLevel = DebugUtil.getDebugLevel();
+        try {
+            DebugUtil.setDebugLevel(DebugUtil.DEBUG_LEVEL_TRACE);
+            DebugUtil.setAsync(true);
+            assert DebugUtil.isAsync();
+            DebugUtil.trace(this, "async debug message {}", 1);
+            DebugUtil.setAsync(false);
+            assert !DebugUtil.isAsync();
+            DebugUtil.trace(this, "sync debug message {}", 2);
+        } finally {
+            DebugUtil.setAsync(false);
+            DebugUtil.setDebugLevel(oldLevel);
+        }
+    }
+}
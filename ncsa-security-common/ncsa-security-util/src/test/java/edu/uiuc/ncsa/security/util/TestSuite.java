@@ -1,6 +1,9 @@
 package edu.uiuc.ncsa.security.util;
 
 import edu.uiuc.ncsa.security.util.cache.CacheTest;
+import edu.uiuc.ncsa.security.util.pkcs.KeyUtilTest;
+import edu.uiuc.ncsa.security.util.pkcs.SupplyQueueTest;
+import edu.uiuc.ncsa.security.util.pool.PoolTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
@@ -17,6 +20,12 @@ import org.junit.runners.Suite;
         JFunctorTest.class,
         JSONPreprocessorTest.class,
         CacheTest.class,
+        PoolTest.class,
+        KeyUtilTest.class,
+        SupplyQueueTest.class,
+        IdentifiersTest.class,
+        Iso8601Test.class,
+        LoggingTest.class,
         EditorTest.class
 })
 public class TestSuite extends junit.framework.TestSuite {
@@ -0,0 +1,82 @@
+package edu.uiuc.ncsa.security.util.cache;
+
+import edu.uiuc.ncsa.security.core.Identifier;
+import edu.uiuc.ncsa.security.core.cache.Cache;
+import edu.uiuc.ncsa.security.core.cache.Cacheable;
+import edu.uiuc.ncsa.security.core.cache.ConcurrentCache;
+import edu.uiuc.ncsa.security.core.util.BasicIdentifier;
+import edu.uiuc.ncsa.security.core.util.IdentifiableImpl;
+
+import java.util.Random;
+
+/**
+ * Compares the {@link Cache} with the {@link ConcurrentCache} for large numbers of entries.
+ * This is not run as part of the tests, since it takes a while. Run it from the command line
+ * or your IDE, with the entry counts to test as arguments, e.g.
+ * <pre>
+ *     java ... CacheBenchmark 100000 1000000
+ * </pre>
+ * Each run fills the cache, does a lookup for every entry, then removes half of the entries at random.
+ */
+public class CacheBenchmark {
+    static class Entry extends IdentifiableImpl implements Cacheable {
+        Entry(Identifier identifier) {
+            super(identifier);
+        }
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = new int[]{100000, 1000000};
+        if (args.length != 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int size : sizes) {
+            Entry[] entries = new Entry[size];
+            for (int i = 0; i < size; i++) {
+                entries[i] = new Entry(BasicIdentifier.newID("urn:test:cache:" + i));
+            }
+            // Warm up both so the JIT has a chance first.
+            run(new Cache(), entries, Math.min(size, 10000), false);
+            run(new ConcurrentCache(), entries, Math.min(size, 10000), false);
+            run(new ConcurrentCache(), entries, size, true);
+            run(new Cache(), entries, size, true);
+        }
+    }
+
+    /**
+     * Removal from a {@link Cache} is linear, so only a fixed number of removes are done for it and the
+     * time is scaled up to the number of removes done for the other cache.
+     */
+    static void run(Cache cache, Entry[] entries, int size, boolean print) {
+        long start = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            cache.add(entries[i]);
+        }
+        long added = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            cache.get(entries[i].getIdentifier());
+        }
+        long read = System.nanoTime();
+        Random random = new Random(size);
+        int removes = size / 2;
+        int actualRemoves = cache instanceof ConcurrentCache ? removes : Math.min(removes, 2000);
+        for (int i = 0; i < actualRemoves; i++) {
+            cache.remove(entries[random.nextInt(size)].getIdentifier());
+        }
+        long removed = System.nanoTime();
+        if (print) {
+            System.out.println(cache.getClass().getSimpleName() + " with " + size + " entries: " +
+                    "add=" + ms(added - start) + " ms., " +
+                    "get=" + ms(read - added) + " ms., " +
+                    "remove(" + removes + ")=" + ms((removed - read) * removes / actualRemoves) + " ms." +
+                    (actualRemoves == removes ? "" : " (estimated from " + actualRemoves + ")"));
+        }
+    }
+
+    static long ms(long nanos) {
+        return nanos / 1000000L;
+    }
+}
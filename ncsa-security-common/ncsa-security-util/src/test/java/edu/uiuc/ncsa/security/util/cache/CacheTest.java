@@ -4,10 +4,18 @@ import edu.uiuc.ncsa.security.core.Identifier;
 import edu.uiuc.ncsa.security.core.cache.*;
 import edu.uiuc.ncsa.security.core.util.BasicIdentifier;
 import edu.uiuc.ncsa.security.core.util.IdentifiableImpl;
+import edu.uiuc.ncsa.security.core.util.MaintenanceScheduler;
 import edu.uiuc.ncsa.security.core.util.MyLoggingFacade;
 import edu.uiuc.ncsa.security.util.TestBase;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
 /**
  * <p>Created by Jeff Gaynor<br>
  * on Nov 12, 2010 at  10:20:05 AM
@@ -15,7 +23,7 @@ import org.junit.Test;
 public class CacheTest extends TestBase {
 
     // just to have something cacheable, for cache testing...
-    class StupidObject extends IdentifiableImpl implements Cacheable {
+    static class StupidObject extends IdentifiableImpl implements Cacheable {
         StupidObject(String identifier) {
             super(BasicIdentifier.newID(identifier));
         }
@@ -56,4 +64,427 @@ public class CacheTest extends TestBase {
         assert maxCacheSize == cache.size();
 
     }
+
+    @Test
+    public void testConcurrentCache() throws Exception {
+        int count = 15;
+        int maxCacheSize = count - 5;
+        ConcurrentCache cache = new ConcurrentCache();
+        StupidObject[] objects = new StupidObject[count];
+        for (int i = 0; i < count; i++) {
+            objects[i] = new StupidObject(TestBase.getRandomString());
+            cache.add(objects[i]);
+        }
+        assert cache.size() == count;
+        // keys come back in the order they were added
+        List<Identifier> keys = cache.getKeysByAge();
+        for (int i = 0; i < count; i++) {
+            assert keys.get(i).equals(objects[i].getIdentifier());
+        }
+        assert cache.getOldest() == cache.get(objects[0].getIdentifier());
+        // re-adding moves it to the end.
+        cache.add(objects[0]);
+        assert cache.getOldest() == cache.get(objects[1].getIdentifier());
+        assert cache.getKeysByAge().get(count - 1).equals(objects[0].getIdentifier());
+
+        cache.remove(objects[1].getIdentifier());
+        assert !cache.containsObject(objects[1]);
+        assert cache.getOldest() == cache.get(objects[2].getIdentifier());
+        cache.add(objects[1]);
+
+        Cleanup<Identifier, CachedObject> cacheAger = new Cleanup<Identifier, CachedObject>(new MyLoggingFacade("test cleanup", true));
+        cacheAger.setMap(cache);
+        cacheAger.addRetentionPolicy(new MaxCacheSizePolicy(cache, maxCacheSize));
+        cacheAger.age();
+        assert maxCacheSize == cache.size();
+        assert cache.getKeysByAge().size() == maxCacheSize;
+        cache.clear();
+        assert cache.isEmpty();
+        assert cache.getOldest() == null;
+    }
+
+    @Test
+    public void testConcurrentCacheThreads() throws Exception {
+        final ConcurrentCache cache = new ConcurrentCache(true);
+        final int threadCount = 8;
+        final int perThread = 1000;
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t * perThread;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        StupidObject so = new StupidObject("test:id/" + (offset + i));
+                        cache.add(so);
+                        cache.get(so.getIdentifier());
+                        if (i % 2 == 0) {
+                            cache.remove(so.getIdentifier());
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert cache.size() == threadCount * perThread / 2;
+        // the list and the index must agree
+        assert cache.getKeysByAge().size() == cache.size();
+    }
+
+    @Test
+    public void testTimerWheel() throws Exception {
+        long start = 1000000L;
+        TimerWheel<String> wheel = new TimerWheel<String>(10L, start);
+        wheel.schedule("a", start + 5);
+        wheel.schedule("b", start + 1000);
+        wheel.schedule("c", start + 100000); // needs a couple of cascades
+        wheel.schedule("d", start + 10L * TimerWheel.SLOTS * TimerWheel.SLOTS * TimerWheel.SLOTS * TimerWheel.SLOTS * 2); // parked
+        wheel.schedule("e", start + 500);
+        wheel.cancel("e");
+        assert wheel.size() == 4;
+        assert wheel.advance(start).isEmpty(); // nothing is returned early
+        List<String> due = wheel.advance(start + 10);
+        assert due.size() == 1 && due.contains("a");
+        assert wheel.advance(start + 999).isEmpty();
+        due = wheel.advance(start + 1000);
+        assert due.size() == 1 && due.contains("b");
+        // rescheduling replaces the deadline
+        wheel.schedule("c", start + 2000);
+        due = wheel.advance(start + 5000);
+        assert due.size() == 1 && due.contains("c");
+        assert wheel.advance(start + 10L * TimerWheel.SLOTS * TimerWheel.SLOTS * TimerWheel.SLOTS * TimerWheel.SLOTS).isEmpty();
+        due = wheel.advance(start + 10L * TimerWheel.SLOTS * TimerWheel.SLOTS * TimerWheel.SLOTS * TimerWheel.SLOTS * 2);
+        assert due.size() == 1 && due.contains("d");
+        assert wheel.isEmpty();
+    }
+
+    @Test
+    public void testScheduledExpiry() throws Exception {
+        int count = 15;
+        ConcurrentCache cache = new ConcurrentCache();
+        Cleanup<Identifier, CachedObject> cacheAger = new Cleanup<Identifier, CachedObject>(new MyLoggingFacade("test cleanup", true));
+        cacheAger.setExpiryResolution(1L);
+        cacheAger.setMap(cache);
+        cacheAger.addRetentionPolicy(new MaxAgePolicy(cache, 100L));
+        assert cacheAger.isExpiryScheduled();
+        StupidObject[] objects = new StupidObject[count];
+        for (int i = 0; i < count; i++) {
+            objects[i] = new StupidObject(TestBase.getRandomString());
+            cache.add(objects[i]);
+        }
+        assert cacheAger.age().isEmpty();
+        Thread.sleep(200L);
+        // refresh one of them, so it is kept.
+        cache.add(objects[0]);
+        cache.remove(objects[1].getIdentifier());
+        List<CachedObject> removed = cacheAger.age();
+        assert removed.size() == count - 2;
+        assert cache.size() == 1;
+        assert cache.containsObject(objects[0]);
+        assert cacheAger.getTimerWheel().size() == 1;
+    }
+
+    /**
+     * A map that can do its own retention, to check that {@link Cleanup} hands bulk policies off.
+     */
+    static class BulkMap extends HashMap<String, Date> implements BulkRetentionStore {
+        int bulkCalls = 0;
+
+        @Override
+        public boolean supports(BulkRetentionPolicy policy) {
+            return "timestamp".equals(policy.getTimestampKey());
+        }
+
+        @Override
+        public int applyRetention(BulkRetentionPolicy policy) {
+            bulkCalls++;
+            int count = 0;
+            for (String key : new ArrayList<String>(keySet())) {
+                if (get(key).before(policy.getCutoff())) {
+                    remove(key);
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    @Test
+    public void testBulkRetention() throws Exception {
+        long now = System.currentTimeMillis();
+        BulkMap map = new BulkMap();
+        for (int i = 0; i < 10; i++) {
+            map.put("key" + i, new Date(now - i * 10000L));
+        }
+        Cleanup<String, Date> cleanup = new Cleanup<String, Date>(new MyLoggingFacade("test cleanup", true));
+        cleanup.setMap(map);
+        TimestampRetentionPolicy<String, Date> policy = new TimestampRetentionPolicy<String, Date>(map, "timestamp", 45000L) {
+            @Override
+            public Date getTimestamp(String key, Date value) {
+                return value;
+            }
+        };
+        cleanup.addRetentionPolicy(policy);
+        assert cleanup.age().isEmpty();
+        assert map.bulkCalls == 1;
+        assert cleanup.getLastBulkRemovedCount() == 5;
+        assert map.size() == 5;
+
+        // Now one the store can't do, so it is done entry by entry.
+        policy.setTimestampKey("other");
+        policy.setMaximumAge(25000L);
+        assert cleanup.age().size() == 2;
+        assert map.bulkCalls == 1;
+        assert map.size() == 3;
+    }
+
+    /**
+     * Makes a trace of keys drawn from a Zipf distribution over the given number of keys, with a scan of
+     * one-off keys mixed in every so often.
+     */
+    protected int[] zipfTrace(int keyCount, int length, double exponent, int scanEvery, int scanLength, long seed) {
+        double[] cumulative = new double[keyCount];
+        double total = 0.0;
+        for (int i = 0; i < keyCount; i++) {
+            total = total + 1.0 / Math.pow(i + 1, exponent);
+            cumulative[i] = total;
+        }
+        Random random = new Random(seed);
+        int[] trace = new int[length];
+        int oneOff = keyCount;
+        int i = 0;
+        while (i < length) {
+            if (0 < scanEvery && i % scanEvery == 0) {
+                for (int j = 0; j < scanLength && i < length; j++) {
+                    trace[i++] = oneOff++;
+                }
+                continue;
+            }
+            double x = random.nextDouble() * total;
+            int index = Arrays.binarySearch(cumulative, x);
+            trace[i++] = index < 0 ? -index - 1 : index;
+        }
+        return trace;
+    }
+
+    /**
+     * Replays the trace against a cache fronting an imaginary store of every key and returns the hit ratio.
+     */
+    protected double hitRatio(int[] trace, int cacheSize, boolean filtered) {
+        ConcurrentCache cache = new ConcurrentCache(true);
+        MaxCacheWeightPolicy policy = new MaxCacheWeightPolicy(cache, cacheSize, null, cacheSize);
+        policy.setAdmissionFiltered(filtered);
+        int hits = 0;
+        for (int key : trace) {
+            Identifier id = BasicIdentifier.newID("test:zipf:" + key);
+            // This is what CachedMapFacade.get does.
+            policy.recordAccess(id);
+            if (cache.get(id) != null) {
+                hits++;
+            } else {
+                StupidObject so = new StupidObject(id.toString());
+                if (policy.admit(id, so)) {
+                    cache.add(so);
+                }
+            }
+            assert cache.size() <= cacheSize;
+        }
+        return ((double) hits) / trace.length;
+    }
+
+    @Test
+    public void testAdmissionHitRatio() throws Exception {
+        // plain zipf: filtering should be no worse than LRU
+        int[] trace = zipfTrace(10000, 100000, 0.9, 0, 0, 42L);
+        double lru = hitRatio(trace, 500, false);
+        double tinyLFU = hitRatio(trace, 500, true);
+        assert lru <= tinyLFU : "Admission made things worse: lru=" + lru + ", filtered=" + tinyLFU;
+
+        // Now with big scans of things that are never used again. These flush out an LRU cache.
+        trace = zipfTrace(10000, 100000, 0.9, 5000, 1000, 42L);
+        lru = hitRatio(trace, 500, false);
+        tinyLFU = hitRatio(trace, 500, true);
+        assert lru + 0.05 < tinyLFU : "Admission did not help with scans: lru=" + lru + ", filtered=" + tinyLFU;
+    }
+
+    @Test
+    public void testWeight() throws Exception {
+        ConcurrentCache cache = new ConcurrentCache();
+        MaxCacheWeightPolicy policy = new MaxCacheWeightPolicy(cache, 100L, new Weigher() {
+            @Override
+            public long weigh(Identifier key, Object value) {
+                return 10L * ((StupidObject) value).getIdentifierString().length();
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            cache.add(new StupidObject("a:" + i)); // each weighs 30
+        }
+        assert policy.getTotalWeight() == 300L;
+        Cleanup<Identifier, CachedObject> cacheAger = new Cleanup<Identifier, CachedObject>(new MyLoggingFacade("test cleanup", true));
+        cacheAger.setMap(cache);
+        cacheAger.addRetentionPolicy(policy);
+        cacheAger.age();
+        assert cache.size() == 3;
+        assert policy.getTotalWeight() == 90L;
+        // too big to ever be cached
+        assert !policy.admit(BasicIdentifier.newID("a:0123456789"), new StupidObject("a:0123456789"));
+        cache.clear();
+        assert policy.getTotalWeight() == 0L;
+    }
+
+    /**
+     * Whether something is admitted is decided before anything is evicted, so a rejection leaves the cache alone.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testAdmission() throws Exception {
+        ConcurrentCache cache = new ConcurrentCache(true);
+        MaxCacheWeightPolicy policy = new MaxCacheWeightPolicy(cache, 3L, new Weigher() {
+            @Override
+            public long weigh(Identifier key, Object value) {
+                return ((StupidObject) value).getIdentifierString().startsWith("big:") ? 2L : 1L;
+            }
+        });
+        for (int i = 0; i < 3; i++) {
+            cache.add(new StupidObject("a:" + i));
+        }
+        // a:0 is the oldest and is used more than the candidate, a:1 is used less.
+        for (int i = 0; i < 5; i++) {
+            policy.recordAccess(BasicIdentifier.newID("a:0"));
+        }
+        Identifier candidate = BasicIdentifier.newID("big:0");
+        policy.recordAccess(candidate);
+        policy.recordAccess(candidate);
+        assert !policy.admit(candidate, new StupidObject(candidate.toString()));
+        assert cache.size() == 3;
+        assert policy.getEvictionCount() == 0L;
+
+        // once a:0 is no longer the oldest, the candidate gets in and pushes out the two oldest.
+        cache.get(BasicIdentifier.newID("a:0"));
+        assert policy.admit(candidate, new StupidObject(candidate.toString()));
+        assert policy.getEvictionCount() == 2L;
+        assert cache.size() == 1 && cache.containsKey(BasicIdentifier.newID("a:0"));
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        CacheStats stats = new CacheStats();
+        assert stats.getHitRate() == 1.0;
+        stats.recordHit();
+        stats.recordHit();
+        stats.recordHit();
+        stats.recordMiss();
+        stats.recordLoadSuccess(1500000L); // 1.5 ms.
+        stats.recordLoadFailure(3000L);
+        assert stats.getRequestCount() == 4;
+        assert stats.getHitRate() == 0.75;
+        assert stats.getLoadLatency().getCount() == 2;
+        assert stats.getLoadLatency().getPercentileMillis(50) == 0.004;
+        assert stats.getLoadLatency().getPercentileMillis(100) == 2.048;
+
+        ConcurrentCache cache = new ConcurrentCache();
+        for (int i = 0; i < 10; i++) {
+            cache.add(new StupidObject("a:" + i));
+        }
+        Cleanup<Identifier, CachedObject> cacheAger = new Cleanup<Identifier, CachedObject>(new MyLoggingFacade("test cleanup", true));
+        cacheAger.setMap(cache);
+        cacheAger.addRetentionPolicy(new MaxCacheSizePolicy<Identifier, CachedObject>(cache, 4));
+        cacheAger.setStats(stats);
+        cacheAger.age();
+        assert stats.getEvictionCount() == 6;
+        stats.reset();
+        assert stats.getRequestCount() == 0 && stats.getEvictionCount() == 0 && stats.getLoadLatency().getCount() == 0;
+    }
+
+    @Test
+    public void testBloomFilter() throws Exception {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.put("token:" + i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            assert filter.mightContain("token:" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain("bogus:" + i)) {
+                falsePositives++;
+            }
+        }
+        assert falsePositives < 200 : "false positive rate too high: " + falsePositives + " of 10000";
+        filter.clear();
+        assert !filter.mightContain("token:0");
+
+        NegativeCache negativeCache = new NegativeCache(60000L, 2);
+        negativeCache.recordMissing("a");
+        assert negativeCache.isMissing("a");
+        negativeCache.invalidate("a");
+        assert !negativeCache.isMissing("a");
+        negativeCache.recordMissing("a");
+        negativeCache.recordMissing("b");
+        negativeCache.recordMissing("c"); // over the limit, so the others go.
+        assert negativeCache.size() == 1 && negativeCache.isMissing("c");
+    }
+
+    @Test
+    public void testOffHeapCache() throws Exception {
+        OffHeapCache<StupidObject> offHeapCache = new OffHeapCache<StupidObject>(4096, 4);
+        int count = 0;
+        // fill it past capacity so the oldest slabs get reused.
+        while (offHeapCache.getEvictionCount() == 0) {
+            StupidObject so = new StupidObject("a:" + count);
+            assert offHeapCache.put(so.getIdentifier(), so);
+            count++;
+        }
+        assert offHeapCache.getAllocatedBytes() == 4 * 4096;
+        assert offHeapCache.get(BasicIdentifier.newID("a:0")) == null;
+        StupidObject last = offHeapCache.get(BasicIdentifier.newID("a:" + (count - 1)));
+        assert last != null && last.getIdentifierString().equals("a:" + (count - 1));
+        assert offHeapCache.size() + offHeapCache.getEvictionCount() == count;
+        assert offHeapCache.remove(last.getIdentifier());
+        assert !offHeapCache.containsKey(last.getIdentifier());
+        // too big for a slab
+        assert !new OffHeapCache<StupidObject>(16, 2).put(last.getIdentifier(), last);
+        offHeapCache.clear();
+        assert offHeapCache.size() == 0;
+    }
+
+    @Test
+    public void testMaintenanceScheduler() throws Exception {
+        MaintenanceScheduler scheduler = new MaintenanceScheduler(1, null);
+        scheduler.setLogger(new MyLoggingFacade("test scheduler", false));
+        ConcurrentCache cache = new ConcurrentCache();
+        for (int i = 0; i < 10; i++) {
+            cache.add(new StupidObject("a:" + i));
+        }
+        Cleanup<Identifier, CachedObject> cacheAger = new Cleanup<Identifier, CachedObject>(new MyLoggingFacade("test cleanup", false));
+        cacheAger.setMap(cache);
+        cacheAger.addRetentionPolicy(new MaxCacheSizePolicy<Identifier, CachedObject>(cache, 4));
+        cacheAger.setCleanupInterval(10L);
+        MaintenanceScheduler.Task cleanupTask = cacheAger.schedule(scheduler);
+        MaintenanceScheduler.Task failingTask = scheduler.schedule("failing", new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("always fails");
+            }
+        }, 10L);
+        long timeout = System.currentTimeMillis() + 5000L;
+        while ((cache.size() != 4 || failingTask.getFailureCount() < 2) && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10L);
+        }
+        assert cache.size() == 4;
+        // still being run after it fails.
+        assert 2 <= failingTask.getFailureCount();
+        assert cleanupTask.isHealthy() && !failingTask.isHealthy();
+        assert !scheduler.isHealthy();
+        failingTask.cancel();
+        assert scheduler.isHealthy();
+        assert scheduler.getTasks().size() == 1;
+        scheduler.shutdown();
+        assert cleanupTask.isCancelled();
+    }
 }
@@ -0,0 +1,63 @@
+package edu.uiuc.ncsa.security.util.pkcs;
+
+import edu.uiuc.ncsa.security.util.TestBase;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Arrays;
+
+public class KeyUtilTest extends TestBase {
+    @Test
+    public void testRSA() throws Exception {
+        checkAlgorithm(KeyAlgorithm.RSA_2048);
+    }
+
+    @Test
+    public void testEC() throws Exception {
+        checkAlgorithm(KeyAlgorithm.EC_P256);
+        checkAlgorithm(KeyAlgorithm.EC_P384);
+    }
+
+    @Test
+    public void testEd25519() throws Exception {
+        if (!KeyAlgorithm.ED25519.isSupported()) {
+            return; // needs Java 15+
+        }
+        checkAlgorithm(KeyAlgorithm.ED25519);
+    }
+
+    @Test
+    public void testKeyPairQueue() throws Exception {
+        KeyPairQueue queue = new KeyPairQueue(KeyAlgorithm.EC_P256);
+        KeyPair keyPair = queue.pop();
+        assert keyPair.getPublic().getAlgorithm().equals("EC");
+        // never the same one twice
+        assert queue.pop() != keyPair;
+        assert KeyAlgorithm.get("p-384") == KeyAlgorithm.EC_P384;
+        assert KeyAlgorithm.get("foo") == null;
+    }
+
+    /**
+     * Generate a key pair, write and read back both keys as PEM and make a cert request.
+     *
+     * @param algorithm
+     * @throws Exception
+     */
+    protected void checkAlgorithm(KeyAlgorithm algorithm) throws Exception {
+        KeyPair keyPair = KeyUtil.generateKeyPair(algorithm);
+        // The default algorithm is RSA, so this has to figure out the kind of key.
+        PrivateKey privateKey = KeyUtil.fromPKCS8PEM(KeyUtil.toPKCS8PEM(keyPair.getPrivate()));
+        assert Arrays.equals(privateKey.getEncoded(), keyPair.getPrivate().getEncoded());
+        PublicKey publicKey = KeyUtil.fromX509PEM(KeyUtil.toX509PEM(keyPair.getPublic()));
+        assert publicKey.equals(keyPair.getPublic());
+        assert KeyUtil.fromX509DER(keyPair.getPublic().getEncoded(), algorithm).equals(keyPair.getPublic());
+
+        MyPKCS10CertRequest certRequest = CertUtil.createCertRequest(keyPair, "test");
+        // Parsing checks the signature.
+        MyPKCS10CertRequest parsed = CertUtil.fromStringToCertReq(CertUtil.fromCertReqToString(certRequest));
+        assert parsed.getPublicKey().equals(keyPair.getPublic());
+        assert parsed.getCN().equals("test");
+    }
+}
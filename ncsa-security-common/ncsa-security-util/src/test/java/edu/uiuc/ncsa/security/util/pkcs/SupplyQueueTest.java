@@ -0,0 +1,89 @@
+package edu.uiuc.ncsa.security.util.pkcs;
+
+import edu.uiuc.ncsa.security.core.util.SupplyQueue;
+import edu.uiuc.ncsa.security.util.TestBase;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SupplyQueueTest extends TestBase {
+    @Test
+    public void testSupplyQueue() throws Exception {
+        final AtomicInteger count = new AtomicInteger(0);
+        SupplyQueue<Integer> supply = new SupplyQueue<Integer>(6, 2, 3) {
+            @Override
+            protected Integer createNew() {
+                return count.incrementAndGet();
+            }
+        };
+        supply.setWaitTimeout(100L);
+        supply.start();
+        for (int i = 0; i < 500 && supply.getDepth() < 6; i++) {
+            Thread.sleep(10L);
+        }
+        assert supply.getDepth() == 6;
+        // no more are made while it is full
+        assert supply.getCreatedCount() == 6;
+
+        // many threads at once never get the same item.
+        final Set<Integer> seen = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        final AtomicInteger duplicates = new AtomicInteger(0);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100; j++) {
+                        if (!seen.add(supply.pop())) {
+                            duplicates.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert duplicates.get() == 0;
+        assert seen.size() == 800;
+        assert supply.getPopCount() == 800;
+        // once the workers are done it is above the low watermark, even if the last pops had to wait for their items.
+        for (int i = 0; i < 500 && 0 < supply.getInProgress(); i++) {
+            Thread.sleep(10L);
+        }
+        assert 2 < supply.getDepth() : "not refilled: " + supply.getStatsMap();
+        // nothing is made until it is down to the low watermark, then it refills itself.
+        while (3 < supply.getDepth()) {
+            supply.pop();
+        }
+        assert supply.getInProgress() == 0;
+        supply.pop();
+        for (int i = 0; i < 500 && supply.getDepth() < 6; i++) {
+            Thread.sleep(10L);
+        }
+        assert supply.getDepth() == 6;
+        assert supply.getStatsMap().get("depth").equals(6);
+        supply.shutdown();
+    }
+
+    @Test
+    public void testKeyPairSupply() throws Exception {
+        KeyPairSupply supply = new KeyPairSupply(4, 1, 2);
+        supply.setKeyAlgorithm(KeyAlgorithm.EC_P256);
+        supply.setWaitTimeout(10000L);
+        supply.start();
+        Set<KeyPair> seen = Collections.newSetFromMap(new ConcurrentHashMap<KeyPair, Boolean>());
+        for (int i = 0; i < 10; i++) {
+            KeyPair keyPair = supply.pop();
+            assert keyPair.getPublic().getAlgorithm().equals("EC");
+            assert seen.add(keyPair);
+        }
+        assert supply.getPopCount() == 10;
+        supply.shutdown();
+    }
+}
@@ -0,0 +1,342 @@
+package edu.uiuc.ncsa.security.util.pool;
+
+import edu.uiuc.ncsa.security.core.util.ConcurrentPool;
+import edu.uiuc.ncsa.security.core.util.PoolException;
+import edu.uiuc.ncsa.security.core.util.PoolStats;
+import edu.uiuc.ncsa.security.util.TestBase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PoolTest extends TestBase {
+    static class Item {
+        boolean valid = true;
+    }
+
+    static class TestPool extends ConcurrentPool<Item> {
+        AtomicInteger created = new AtomicInteger(0);
+        AtomicInteger destroyed = new AtomicInteger(0);
+        // The time this pool sees, so tests do not depend on how long things actually take.
+        volatile long time = 1000000L;
+
+        @Override
+        protected long now() {
+            return time;
+        }
+
+        @Override
+        public Item create() throws PoolException {
+            created.incrementAndGet();
+            return new Item();
+        }
+
+        @Override
+        public void destroy(Item object) throws PoolException {
+            destroyed.incrementAndGet();
+        }
+
+        @Override
+        public boolean isValid(Item object) throws PoolException {
+            return object.valid;
+        }
+    }
+
+    @Test
+    public void testConcurrentPool() throws Exception {
+        final TestPool pool = new TestPool();
+        pool.setMaxSize(2);
+        pool.setWaitTimeout(50L);
+        Item a = pool.pop();
+        Item b = pool.pop();
+        assert pool.getInUse() == 2;
+        try {
+            pool.pop();
+            assert false : "was able to get more than the max size";
+        } catch (PoolException x) {
+            assert true;
+        }
+        pool.push(a);
+        assert pool.getIdle() == 1;
+        try {
+            pool.push(a);
+            assert false : "was able to check in the same item twice";
+        } catch (PoolException x) {
+            assert true;
+        }
+        // reused, not created.
+        assert pool.pop() == a;
+        assert pool.created.get() == 2;
+
+        // a thread waiting for an item gets it once one is checked in.
+        final Item[] got = new Item[1];
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                got[0] = pool.pop(5000L);
+            }
+        };
+        waiter.start();
+        Thread.sleep(50L);
+        assert got[0] == null;
+        pool.push(b);
+        waiter.join();
+        assert got[0] == b;
+
+        // invalid items are destroyed, not reused.
+        pool.setTestOnReturn(true);
+        a.valid = false;
+        pool.push(a);
+        assert pool.destroyed.get() == 1 && pool.getIdle() == 0;
+        pool.doDestroy(got[0]);
+        assert pool.getInUse() == 0;
+
+        pool.setMinIdle(2);
+        pool.ensureMinIdle();
+        assert pool.getIdle() == 2;
+        assert pool.destroyAll();
+        assert pool.getIdle() == 0;
+    }
+
+    @Test
+    public void testMaxTotal() throws Exception {
+        TestPool pool = new TestPool();
+        pool.setMaxSize(3);
+        pool.setWaitTimeout(50L);
+        // background work is only done when this test runs it.
+        final List<Runnable> background = new ArrayList<Runnable>();
+        pool.setCreateExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                background.add(command);
+            }
+        });
+        pool.setMinIdle(2);
+        Item a = pool.pop();
+        Item b = pool.pop();
+        assert background.size() == 1;
+        // only room for one more, counting the two checked out.
+        pool.ensureMinIdle();
+        assert pool.getIdle() == 1;
+        background.get(0).run();
+        assert pool.evict() == 0;
+        assert pool.getIdle() == 1;
+        assert pool.created.get() == 3;
+        pool.pop();
+        try {
+            pool.pop();
+            assert false : "was able to get more than the max size";
+        } catch (PoolException x) {
+            assert true;
+        }
+        pool.push(a);
+        pool.push(b);
+        assert pool.created.get() == 3;
+
+        // creating at the same time does not go past the max either.
+        final TestPool slowPool = new TestPool() {
+            @Override
+            public Item create() throws PoolException {
+                Thread.yield();
+                return super.create();
+            }
+        };
+        slowPool.setMaxSize(4);
+        slowPool.setCreateExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+            }
+        });
+        slowPool.pop();
+        slowPool.pop();
+        slowPool.setMinIdle(4);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    slowPool.ensureMinIdle();
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert slowPool.created.get() == 4;
+        assert slowPool.getIdle() == 2;
+    }
+
+    @Test
+    public void testValidation() throws Exception {
+        TestPool pool = new TestPool();
+        pool.setMaxSize(4);
+        pool.setValidateAfterIdle(50L);
+        Item a = pool.pop();
+        pool.push(a);
+        a.valid = false;
+        // not idle long enough to check, so it is reused.
+        pool.time += 49L;
+        assert pool.pop() == a;
+        pool.push(a);
+        pool.time += 50L;
+        // now it's checked and replaced.
+        Item b = pool.pop();
+        assert b != a;
+        assert pool.destroyed.get() == 1;
+        pool.push(b);
+
+        // the evictor finds bad idle items and tops up to the minimum.
+        b.valid = false;
+        pool.setMinIdle(2);
+        pool.time += 50L;
+        assert pool.evict() == 1;
+        assert pool.getIdle() == 2;
+
+        // and gets rid of ones that are too old.
+        pool.setMaxLifetime(10L);
+        pool.time += 10L;
+        assert pool.evict() == 2;
+        assert pool.getIdle() == 2; // new ones
+        pool.setMaxLifetime(Long.MAX_VALUE);
+        pool.setMinIdle(0);
+        pool.setIdleTimeout(10L);
+        pool.time += 10L;
+        assert pool.evict() == 2;
+        assert pool.getIdle() == 0;
+    }
+
+    @Test
+    public void testLeakDetection() throws Exception {
+        TestPool pool = new TestPool();
+        pool.setMaxSize(2);
+        pool.setWaitTimeout(10L);
+        pool.setLeakThreshold(20L);
+        Item a = pool.pop();
+        Item b = pool.pop();
+        assert pool.getInUse() == 2;
+        assert pool.getIdle() == 0;
+        assert pool.getWaiting() == 0;
+        try {
+            pool.pop();
+            assert false : "was able to get more than the max size";
+        } catch (PoolException x) {
+            assert pool.getStats().getTimeoutCount() == 1;
+        }
+        pool.time += 19L;
+        pool.push(b);
+        assert pool.findLeaks().isEmpty();
+        pool.time += 11L;
+        List<ConcurrentPool.Leak<Item>> leaks = pool.findLeaks();
+        assert leaks.size() == 1;
+        assert leaks.get(0).getItem() == a;
+        assert leaks.get(0).getHeldFor() == 30L;
+        // it knows who checked it out.
+        boolean found = false;
+        for (StackTraceElement element : leaks.get(0).getBorrowStack().getStackTrace()) {
+            found = found || element.getMethodName().equals("testLeakDetection");
+        }
+        assert found;
+        // reported once per checkout
+        assert pool.reportLeaks() == 1;
+        assert pool.reportLeaks() == 0;
+        assert pool.getStats().getLeakCount() == 1;
+        pool.push(a);
+        assert pool.findLeaks().isEmpty();
+
+        PoolStats stats = pool.getStats();
+        assert stats.getCreatedCount() == 2;
+        assert stats.getAcquireWait().getCount() == 2;
+        assert stats.getHoldTime().getCount() == 2;
+        assert 20.0 <= stats.getHoldTime().getMeanMillis(); // a was held for 30 ms and b for 19 ms.
+        assert pool.getStatsMap().get("idle").equals(2);
+    }
+
+    @Test
+    public void testPrefill() throws Exception {
+        // Each create waits until all four have started, so they have to be made at the same time.
+        final CountDownLatch started = new CountDownLatch(4);
+        TestPool pool = new TestPool() {
+            @Override
+            public Item create() throws PoolException {
+                started.countDown();
+                try {
+                    if (!started.await(10L, TimeUnit.SECONDS)) {
+                        throw new PoolException("items were not created in parallel");
+                    }
+                } catch (InterruptedException e) {
+                    throw new PoolException(e);
+                }
+                return super.create();
+            }
+        };
+        pool.setMaxSize(10);
+        pool.setInitialSize(4);
+        pool.setCreateThreads(4);
+        assert pool.prefill() == 4;
+        assert pool.getIdle() == 4;
+        assert pool.prefill() == 0;
+
+        // checkouts that leave too few idle are made up in the background.
+        pool.setMinIdle(3);
+        pool.pop();
+        pool.pop();
+        for (int i = 0; i < 1000 && pool.getIdle() < 3; i++) {
+            Thread.sleep(10L);
+        }
+        assert pool.getIdle() == 3;
+        assert pool.created.get() == 5;
+    }
+
+    @Test
+    public void testWaitForCreate() throws Exception {
+        // The only item is being created in the background, so callers wait for it to be finished.
+        final CountDownLatch creating = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        TestPool pool = new TestPool() {
+            @Override
+            public Item create() throws PoolException {
+                creating.countDown();
+                try {
+                    if (!release.await(10L, TimeUnit.SECONDS)) {
+                        throw new PoolException("create was never released");
+                    }
+                } catch (InterruptedException e) {
+                    throw new PoolException(e);
+                }
+                return super.create();
+            }
+        };
+        pool.setMaxSize(1);
+        pool.setMinIdle(1);
+        pool.replenish();
+        assert creating.await(10L, TimeUnit.SECONDS);
+        try {
+            pool.pop(50L);
+            assert false : "got an item that was never made";
+        } catch (PoolException x) {
+            assert true;
+        }
+        Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50L);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                release.countDown();
+            }
+        };
+        releaser.start();
+        Item item = pool.pop(5000L);
+        assert item != null;
+        assert pool.created.get() == 1;
+        assert pool.getStats().getTimeoutCount() == 1;
+        releaser.join();
+    }
+}
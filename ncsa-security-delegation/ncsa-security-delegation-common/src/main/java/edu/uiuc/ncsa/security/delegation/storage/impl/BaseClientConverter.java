@@ -12,6 +12,7 @@ import edu.uiuc.ncsa.security.storage.data.SerializationKeys;
 import net.sf.json.JSONObject;
 
 import java.text.ParseException;
+import java.util.Date;
 
 /**
  * <p>Created by Jeff Gaynor<br>
@@ -65,7 +66,7 @@ public abstract class BaseClientConverter<V extends BaseClient> extends MapConve
         String rawDate = getJsonUtil().getJSONValueString(json, getBKK().creationTS());
         if (rawDate != null) {
             try {
-                v.setCreationTS(Iso8601.string2Date(rawDate).getTime());
+                v.setCreationTS(new Date(Iso8601.string2Millis(rawDate)));
             } catch (ParseException e) {
                 e.printStackTrace();
             }
@@ -36,15 +36,36 @@ abstract public class BasicTransactionTable extends Table {
     }
 
     public String getByTempCredStatement() {
-        return "SELECT * FROM " + getFQTablename() + " WHERE " + btk().tempCred() + "=?";
+        if (byTempCredStatement == null) {
+            byTempCredStatement = "SELECT * FROM " + getFQTablename() + " WHERE " + btk().tempCred() + "=?";
+        }
+        return byTempCredStatement;
     }
 
     public String getByAccessTokenStatement() {
-        return "SELECT * FROM " + getFQTablename() + " WHERE " + btk().accessToken() + "=?";
+        if (byAccessTokenStatement == null) {
+            byAccessTokenStatement = "SELECT * FROM " + getFQTablename() + " WHERE " + btk().accessToken() + "=?";
+        }
+        return byAccessTokenStatement;
     }
 
     public String getByVerifierStatement() {
-        return "SELECT * FROM " + getFQTablename() + " WHERE " + btk().verifier() + "=?";
+        if (byVerifierStatement == null) {
+            byVerifierStatement = "SELECT * FROM " + getFQTablename() + " WHERE " + btk().verifier() + "=?";
+        }
+        return byVerifierStatement;
+    }
+
+    String byTempCredStatement;
+    String byAccessTokenStatement;
+    String byVerifierStatement;
+
+    @Override
+    public void clearStatements() {
+        super.clearStatements();
+        byTempCredStatement = null;
+        byAccessTokenStatement = null;
+        byVerifierStatement = null;
     }
 
     @Override
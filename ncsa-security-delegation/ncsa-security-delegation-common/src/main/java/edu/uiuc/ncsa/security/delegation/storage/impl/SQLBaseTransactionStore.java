@@ -53,24 +53,25 @@ abstract public class SQLBaseTransactionStore<V extends BasicTransaction> extend
         Connection c = getConnection();
         V t = null;
         try {
-            PreparedStatement stmt = c.prepareStatement(statement);
+            PreparedStatement stmt = prepareStatement(c, statement);
             stmt.setString(1, identifier);
             stmt.executeQuery();
             ResultSet rs = stmt.getResultSet();
             if (!rs.next()) {
                 rs.close();
-                stmt.close();
+                releaseStatement(c, stmt);
                 releaseConnection(c);
                 throw new TransactionNotFoundException("No transaction found for identifier \"" + identifier + "\"");
             }
 
             ColumnMap map = rsToMap(rs);
             rs.close();
-            stmt.close();
+            releaseStatement(c, stmt);
             releaseConnection(c);
             t = create();
             populate(map, t);
         } catch (SQLException e) {
+            destroyConnection(c);
             throw new GeneralException("Error getting transaction with identifier \"" + identifier + "\"", e);
         }
         return t;
@@ -2,6 +2,7 @@ package edu.uiuc.ncsa.security.delegation.storage.impl;
 
 import edu.uiuc.ncsa.security.core.Identifier;
 import edu.uiuc.ncsa.security.core.XMLConverter;
+import edu.uiuc.ncsa.security.core.cache.BloomFilter;
 import edu.uiuc.ncsa.security.core.cache.CachedMapFacade;
 import edu.uiuc.ncsa.security.core.exceptions.DestroyedException;
 import edu.uiuc.ncsa.security.core.exceptions.GeneralException;
@@ -11,6 +12,7 @@ import edu.uiuc.ncsa.security.core.util.AbstractEnvironment;
 import edu.uiuc.ncsa.security.delegation.storage.TransactionStore;
 import edu.uiuc.ncsa.security.delegation.token.AccessToken;
 import edu.uiuc.ncsa.security.delegation.token.AuthorizationGrant;
+import edu.uiuc.ncsa.security.delegation.token.Token;
 import edu.uiuc.ncsa.security.delegation.token.Verifier;
 
 import java.net.URI;
@@ -23,6 +25,10 @@ import java.util.*;
  * To front a transaction store, write the store separately then instantiate an instance of this, passing
  * the frontend store as an argument. You may then use the store and all it's facilities (such as retention policies)
  * as you see fit.
+ * <h3>Bad tokens</h3>
+ * Looking up a token that is not cached goes to the backing store. To keep invalid tokens from doing that every time,
+ * set a {@link edu.uiuc.ncsa.security.core.cache.NegativeCache}, which remembers tokens that were not found for a short
+ * time, and/or a {@link #setTokenFilter(BloomFilter) token filter}, which rejects tokens that were never issued.
  * <p>Created by Jeff Gaynor<br>
  * on Apr 27, 2010 at  4:27:10 PM
  */
@@ -51,6 +57,17 @@ public class TransactionCache<V extends BasicTransaction> extends CachedMapFacad
 
     TransactionIndices transactionIndices;
 
+    /**
+     * The {@link TransactionIndices} hold every cached transaction, so moving one to a second level would not free
+     * anything and token lookups would return a different instance than lookups by identifier.
+     *
+     * @return
+     */
+    @Override
+    protected boolean isSpillable() {
+        return false;
+    }
+
     public AbstractEnvironment getEnvironment() {
         return environment;
     }
@@ -66,6 +83,78 @@ public class TransactionCache<V extends BasicTransaction> extends CachedMapFacad
         init();
     }
 
+    /**
+     * If set, this holds every token of every transaction in the store, so that a token not in it can be rejected
+     * without looking in the store. Tokens are added as transactions are saved here. Since a token that is not in
+     * the filter is never looked up, this must be loaded with what is already in the store first
+     * (see {@link #loadTokenFilter()}) and it must only be used if nothing else adds transactions to the store,
+     * e.g. another server sharing the same database.
+     *
+     * @return
+     */
+    public BloomFilter getTokenFilter() {
+        return tokenFilter;
+    }
+
+    public void setTokenFilter(BloomFilter tokenFilter) {
+        this.tokenFilter = tokenFilter;
+    }
+
+    BloomFilter tokenFilter;
+
+    /**
+     * Add the tokens of everything in the backing store to the token filter. Note that this reads the entire store.
+     */
+    public void loadTokenFilter() {
+        if (tokenFilter == null) {
+            throw new GeneralException("Error: no token filter has been set");
+        }
+        if (hasStore()) {
+            for (Object t : getBackingStore().values()) {
+                addTokens((BasicTransaction) t);
+            }
+        }
+        for (Object t : getTransactionIndices().values()) {
+            addTokens((BasicTransaction) t);
+        }
+    }
+
+    /**
+     * Keep the token filter and negative cache up to date when a transaction is written.
+     *
+     * @param t
+     */
+    protected void addTokens(BasicTransaction t) {
+        invalidateMissing(t.getIdentifier());
+        if (t.hasAuthorizationGrant()) {
+            addToken(t.getAuthorizationGrant(), TEMP_CRED);
+        }
+        if (t.hasAccessToken()) {
+            addToken(t.getAccessToken(), ACCESS_TOKEN);
+        }
+        if (t.hasVerifier()) {
+            addToken(t.getVerifier(), VERIFIER);
+        }
+    }
+
+    void addToken(Token token, int action) {
+        if (tokenFilter != null) {
+            tokenFilter.put(token.getToken());
+        }
+        invalidateMissing(missingKey(token, action));
+    }
+
+    /**
+     * The key for a token in the negative cache. Different kinds of tokens may have the same value, so
+     * these are kept apart.
+     */
+    protected Object missingKey(Object key, int action) {
+        if (action == IDENTIFIER) {
+            return key;
+        }
+        return action + ":" + ((Token) key).getToken();
+    }
+
     public boolean isDestroyed() {
         return destroyed;
     }
@@ -80,6 +169,9 @@ public class TransactionCache<V extends BasicTransaction> extends CachedMapFacad
         setDestroyed(true);
         getTransactionIndices().clear();
         getCache().clear();
+        if (isWriteBehind()) {
+            getWriteBehindQueue().clear();
+        }
         if (hasStore()) {
             getTheStore().clear();
         }
@@ -96,6 +188,7 @@ public class TransactionCache<V extends BasicTransaction> extends CachedMapFacad
 
     public void put(V t) {
         checkDestroyed();
+        addTokens(t);
         getTransactionIndices().add(t);
         getCache().add(t);
     }
@@ -119,10 +212,11 @@ public class TransactionCache<V extends BasicTransaction> extends CachedMapFacad
         if (!containsKey(t.getIdentifier())) {
             throw new UnregisteredObjectException("Error: non-existent transaction \"" + t.getIdentifierString() + "\" cannot be updated. Save it first.");
         }
+        addTokens(t);
         getTransactionIndices().updateIndices(t);
         getTransactionIndices().add(t);
         getCache().add(t);
-        if (hasStore()) getBackingStore().update(t);
+        if (hasStore() && !queueWrite((V) t)) getBackingStore().update(t);
     }
 
 
@@ -157,30 +251,61 @@ public class TransactionCache<V extends BasicTransaction> extends CachedMapFacad
             default:
                 throw new IllegalStateException("Error: unrecognized action for getting a transaction");
         }
-        if (t != null) return (V) t;
+        if (t != null) {
+            getStats().recordHit();
+            return (V) t;
+        }
+        getStats().recordMiss();
+        if (action != IDENTIFIER && tokenFilter != null && !tokenFilter.mightContain(((Token) key).getToken())) {
+            getStats().recordRejection();
+            return null;
+        }
+        if (getNegativeCache() != null && getNegativeCache().isMissing(missingKey(key, action))) {
+            getStats().recordRejection();
+            return null;
+        }
         if (hasStore()) {
-            switch (action) {
-                case TEMP_CRED:
-                    t = getBackingStore().get((AuthorizationGrant) key);
-                    break;
-                case ACCESS_TOKEN:
-                    t = getBackingStore().get((AccessToken) key);
-                    break;
-                case VERIFIER:
-                    t = getBackingStore().get((Verifier) key);
-                    break;
-                case IDENTIFIER:
-                    t = (BasicTransaction) getBackingStore().get(key);
-                    break;
-
+            long start = System.nanoTime();
+            try {
+                t = loadByKey(key, action);
+            } catch (RuntimeException x) {
+                getStats().recordLoadFailure(System.nanoTime() - start);
+                throw x;
             }
-            if (t != null) {
+            getStats().recordLoadSuccess(System.nanoTime() - start);
+            if (t == null) {
+                if (getNegativeCache() != null) {
+                    getNegativeCache().recordMissing(missingKey(key, action));
+                }
+            } else {
                 getTransactionIndices().add(t);
             }
         }
         return (V) t;
     }
 
+    /**
+     * Look up the transaction in the backing store.
+     *
+     * @param key
+     * @param action
+     * @return
+     */
+    protected BasicTransaction loadByKey(Object key, int action) {
+        switch (action) {
+            case TEMP_CRED:
+                return getBackingStore().get((AuthorizationGrant) key);
+            case ACCESS_TOKEN:
+                return getBackingStore().get((AccessToken) key);
+            case VERIFIER:
+                return getBackingStore().get((Verifier) key);
+            case IDENTIFIER:
+                return (BasicTransaction) getBackingStore().get(key);
+            default:
+                throw new IllegalStateException("Error: unrecognized action for getting a transaction");
+        }
+    }
+
 
     public V get(AuthorizationGrant tempCred) {
         return getByKey(tempCred, TEMP_CRED);
@@ -239,6 +364,7 @@ public class TransactionCache<V extends BasicTransaction> extends CachedMapFacad
 
     public V put(Identifier key, V value) {
         checkDestroyed();
+        addTokens(value);
         getTransactionIndices().add(value);
         return super.put(key, value);
     }
@@ -287,7 +413,7 @@ public class TransactionCache<V extends BasicTransaction> extends CachedMapFacad
     public void save(V t) {
         checkDestroyed();
         put(t);
-        if (hasStore()) {
+        if (hasStore() && !queueWrite(t)) {
             getBackingStore().save(t);
         }
     }
@@ -9,6 +9,7 @@ import edu.uiuc.ncsa.security.delegation.token.AuthorizationGrant;
 import edu.uiuc.ncsa.security.delegation.token.Verifier;
 import edu.uiuc.ncsa.security.storage.MemoryStore;
 
+import java.util.Collection;
 import java.util.HashMap;
 
 /**
@@ -112,6 +113,14 @@ public  class TransactionMemoryStore<V extends BasicTransaction> extends MemoryS
         updateIndices(value);
     }
 
+    @Override
+    protected void realSaveAll(Collection<? extends V> values) {
+        super.realSaveAll(values);
+        for (V value : values) {
+            updateIndices(value);
+        }
+    }
+
     @Override
     public void clear() {
         super.clear();
@@ -1,16 +1,24 @@
 package edu.uiuc.ncsa.security.delegation.storage;
 
+import edu.uiuc.ncsa.security.core.BatchStore;
+import edu.uiuc.ncsa.security.core.Identifier;
 import edu.uiuc.ncsa.security.core.Initializable;
+import edu.uiuc.ncsa.security.core.PageableStore;
 import edu.uiuc.ncsa.security.core.exceptions.GeneralException;
 import edu.uiuc.ncsa.security.core.util.BasicIdentifier;
 import edu.uiuc.ncsa.security.delegation.storage.impl.BasicTransaction;
 import edu.uiuc.ncsa.security.delegation.token.AccessToken;
 import edu.uiuc.ncsa.security.delegation.token.AuthorizationGrant;
 import edu.uiuc.ncsa.security.delegation.token.Verifier;
+import edu.uiuc.ncsa.security.storage.SortedIndex;
 import edu.uiuc.ncsa.security.util.TestBase;
 import org.junit.Test;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * <p>Created by Jeff Gaynor<br>
@@ -192,4 +200,124 @@ public abstract class BaseTransactionStoreTest extends TestBase {
             assert store.entrySet().size() == beforeSaveSize;
         }
     }
+
+    /**
+     * The batch operations, for stores that have them.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBatches() throws Exception {
+        TransactionStore store = getInitializedStore();
+        if (!(store instanceof BatchStore)) {
+            return;
+        }
+        BatchStore batchStore = (BatchStore) store;
+        List<BasicTransaction> transactions = new ArrayList<BasicTransaction>();
+        for (int i = 0; i < 5; i++) {
+            BasicTransaction t = createTransaction(store);
+            t.setVerifier(newVerifier());
+            transactions.add(t);
+        }
+        batchStore.registerAll(transactions.subList(0, 3));
+        for (int i = 0; i < 5; i++) {
+            assert store.containsKey(transactions.get(i).getIdentifier()) == (i < 3);
+        }
+
+        // saves the first three again, one with a new access token, and adds the rest.
+        transactions.get(1).setAccessToken(newAT());
+        batchStore.saveAll(transactions);
+        for (BasicTransaction t : transactions) {
+            assert t.equals(store.get(t.getIdentifier()));
+            assert t.equals(store.get(t.getVerifier()));
+        }
+        BasicTransaction t1 = transactions.get(1);
+        assert t1.getAccessToken().equals(((BasicTransaction) store.get(t1.getIdentifier())).getAccessToken());
+        assert t1.equals(store.get(t1.getAccessToken()));
+
+        List<Identifier> identifiers = new ArrayList<Identifier>();
+        for (BasicTransaction t : transactions) {
+            identifiers.add(t.getIdentifier());
+        }
+        // one that was never saved is not counted.
+        identifiers.add(createTransaction(store).getIdentifier());
+        assert batchStore.removeAll(identifiers) == 5;
+        for (BasicTransaction t : transactions) {
+            assert !store.containsKey(t.getIdentifier());
+        }
+        assert batchStore.removeAll(identifiers) == 0;
+    }
+
+    /**
+     * The key that sorts on the access token, which not every transaction has, or null if the store cannot sort on it.
+     *
+     * @return
+     */
+    protected String getAccessTokenSortKey() {
+        return null;
+    }
+
+    protected String sortValue(BasicTransaction t, String sortKey) {
+        if (sortKey == null) {
+            return t.getIdentifierString();
+        }
+        return t.hasAccessToken() ? t.getAccessToken().getToken().toString() : null;
+    }
+
+    /**
+     * Reads the store a page at a time and checks that this gets every element in order, nulls first.
+     *
+     * @param store
+     * @param sortKey
+     * @param pageSize
+     */
+    protected void checkPages(PageableStore store, final String sortKey, int pageSize) {
+        List<BasicTransaction> expected = new ArrayList<BasicTransaction>(store.getAll());
+        Collections.sort(expected, new Comparator<BasicTransaction>() {
+            @Override
+            public int compare(BasicTransaction a, BasicTransaction b) {
+                return new SortedIndex.Key(sortValue(a, sortKey), a.getIdentifierString()).compareTo(
+                        new SortedIndex.Key(sortValue(b, sortKey), b.getIdentifierString()));
+            }
+        });
+        List<Identifier> paged = new ArrayList<Identifier>();
+        List<BasicTransaction> page = store.getPage(sortKey, null, pageSize);
+        while (!page.isEmpty()) {
+            assert page.size() <= pageSize;
+            for (BasicTransaction t : page) {
+                paged.add(t.getIdentifier());
+            }
+            page = store.getPage(sortKey, page.get(page.size() - 1), pageSize);
+        }
+        List<Identifier> identifiers = new ArrayList<Identifier>();
+        for (BasicTransaction t : expected) {
+            identifiers.add(t.getIdentifier());
+        }
+        assert identifiers.equals(paged) : "expected " + identifiers + " but got " + paged;
+    }
+
+    /**
+     * Pages, for stores that have them, sorted on the identifier and on the access token, which some are missing.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPages() throws Exception {
+        TransactionStore store = getInitializedStore();
+        if (!(store instanceof PageableStore)) {
+            return;
+        }
+        for (int i = 0; i < 7; i++) {
+            BasicTransaction t = createTransaction(store);
+            if (i % 2 == 0) {
+                t.setAccessToken(newAT());
+            }
+            store.save(t);
+        }
+        checkPages((PageableStore) store, null, 3);
+        if (getAccessTokenSortKey() != null) {
+            checkPages((PageableStore) store, getAccessTokenSortKey(), 3);
+            checkPages((PageableStore) store, getAccessTokenSortKey(), 1);
+        }
+    }
 }
@@ -4,6 +4,7 @@ import edu.uiuc.ncsa.security.core.Identifier;
 import edu.uiuc.ncsa.security.core.XMLConverter;
 import edu.uiuc.ncsa.security.core.exceptions.GeneralException;
 import edu.uiuc.ncsa.security.core.exceptions.NotImplementedException;
+import edu.uiuc.ncsa.security.core.util.CloseableIterator;
 import edu.uiuc.ncsa.security.core.util.IdentifiableProviderImpl;
 import edu.uiuc.ncsa.security.core.util.IdentifierProvider;
 import edu.uiuc.ncsa.security.delegation.storage.impl.BasicTransaction;
@@ -15,11 +16,22 @@ import edu.uiuc.ncsa.security.delegation.token.AuthorizationGrant;
 import edu.uiuc.ncsa.security.delegation.token.TokenForge;
 import edu.uiuc.ncsa.security.delegation.token.Verifier;
 
+import org.junit.Test;
+
 import javax.servlet.http.HttpServletRequest;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>Created by Jeff Gaynor<br>
@@ -107,6 +119,13 @@ public class FileStoreTest extends BaseTransactionStoreTest {
     static TransactionStore fileStore = null;
     // since we need this to preserve state, we make a static instance of the store and manage that.
 
+    static final String ACCESS_TOKEN_KEY = "access_token";
+
+    @Override
+    protected String getAccessTokenSortKey() {
+        return ACCESS_TOKEN_KEY;
+    }
+
     public TransactionStore<BasicTransaction> getStore() throws IOException {
         if (fileStore == null) {
             TestTokenForge ttf = new TestTokenForge();
@@ -123,6 +142,16 @@ public class FileStoreTest extends BaseTransactionStoreTest {
         public XMLConverter getXMLConverter() {
             throw new NotImplementedException("Error: Method not implemented");
         }
+
+        // There is no converter to get the access token with, so get it directly.
+        @Override
+        protected String sortValue(BasicTransaction v, String sortKey) {
+            if (ACCESS_TOKEN_KEY.equals(sortKey)) {
+                return v.hasAccessToken() ? v.getAccessToken().getToken().toString() : null;
+            }
+            return super.sortValue(v, sortKey);
+        }
+
         public TestFileStore(File file, IdentifiableProviderImpl<BasicTransaction> btp, TestTokenForge ttf) throws IOException {
             super(new File(file, "data"), new File(file, "index"), btp, ttf, new BasicTransactionConverter(btp, ttf));
 
@@ -137,6 +166,242 @@ public class FileStoreTest extends BaseTransactionStoreTest {
     }
 }
 
+    /**
+     * A batch checks the directories once, rather than once or more for each file.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBatchPermissions() throws Exception {
+        final AtomicInteger checks = new AtomicInteger(0);
+        IdentifierProvider<Identifier> idp = new IdentifierProvider<Identifier>("transactions") {};
+        IdentifiableProviderImpl<BasicTransaction> btp = new BasicTransactionProvider<BasicTransaction>(idp);
+        TestFileStore store = new TestFileStore(getTempDir(), btp, new TestTokenForge()) {
+            {
+                // Every check of the permissions starts by asking if this exists.
+                storageDirectory = new File(storageDirectory.getPath()) {
+                    @Override
+                    public boolean exists() {
+                        checks.incrementAndGet();
+                        return super.exists();
+                    }
+                };
+            }
+        };
+        List<BasicTransaction> transactions = new ArrayList<BasicTransaction>();
+        List<Identifier> identifiers = new ArrayList<Identifier>();
+        for (int i = 0; i < 5; i++) {
+            BasicTransaction t = createTransaction(store);
+            transactions.add(t);
+            identifiers.add(t.getIdentifier());
+        }
+        store.saveAll(transactions);
+        assert checks.get() == 1 : checks.get();
+        store.registerAll(transactions);
+        assert checks.get() == 2 : checks.get();
+        checks.set(0);
+        store.save(transactions.get(0));
+        // one for the save and one for finding its file.
+        assert checks.get() == 2 : checks.get();
+        checks.set(0);
+        assert store.removeAll(identifiers) == 5;
+        assert checks.get() == 1 : checks.get();
+        // each call checks again.
+        assert store.removeAll(identifiers) == 0;
+        assert checks.get() == 2 : checks.get();
+        assert store.size() == 0;
+    }
+
+    /**
+     * Pages see what this store and another one on the same directory do, and only the files on the page are
+     * read once the index is made.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPagesSeeChanges() throws Exception {
+        final AtomicInteger loads = new AtomicInteger(0);
+        IdentifierProvider<Identifier> idp = new IdentifierProvider<Identifier>("transactions") {};
+        IdentifiableProviderImpl<BasicTransaction> btp = new BasicTransactionProvider<BasicTransaction>(idp);
+        File dir = getTempDir();
+        TestFileStore store = new TestFileStore(dir, btp, new TestTokenForge()) {
+            @Override
+            protected BasicTransaction loadFile(File f) {
+                loads.incrementAndGet();
+                return super.loadFile(f);
+            }
+        };
+        TestFileStore other = new TestFileStore(dir, btp, new TestTokenForge());
+        List<BasicTransaction> transactions = new ArrayList<BasicTransaction>();
+        for (int i = 0; i < 4; i++) {
+            transactions.add(createTransaction(store));
+        }
+        store.saveAll(transactions);
+        assert store.getPage(ACCESS_TOKEN_KEY, null, 10).size() == 4;
+
+        // saved and removed by this store, so the index is updated without reading anything else.
+        BasicTransaction t = createTransaction(store);
+        t.setAccessToken(newAT());
+        store.save(t);
+        loads.set(0);
+        List<BasicTransaction> page = store.getPage(ACCESS_TOKEN_KEY, null, 10);
+        assert page.size() == 5;
+        // no access token sorts first.
+        assert page.get(4).equals(t);
+        assert loads.get() == 5 : loads.get();
+        loads.set(0);
+        assert store.getPage(ACCESS_TOKEN_KEY, page.get(1), 2).size() == 2;
+        assert loads.get() == 2 : loads.get();
+        store.remove(t.getIdentifier());
+        assert store.getPage(ACCESS_TOKEN_KEY, null, 10).size() == 4;
+
+        // made by the other store, so this one has to look.
+        BasicTransaction t2 = createTransaction(other);
+        other.save(t2);
+        page = store.getPage(ACCESS_TOKEN_KEY, null, 10);
+        assert page.size() == 5 && page.contains(t2);
+        other.remove(transactions.get(0).getIdentifier());
+        page = store.getPage(ACCESS_TOKEN_KEY, null, 10);
+        assert page.size() == 4 && !page.contains(transactions.get(0));
+        store.clear();
+        assert store.getPage(ACCESS_TOKEN_KEY, null, 10).isEmpty();
+    }
+
+    /**
+     * An index that could not be made is not kept, so the next page reads everything again. Reading files for an
+     * index does not hold up saves.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testIndexReads() throws Exception {
+        final AtomicLong modified = new AtomicLong(0L);
+        final AtomicBoolean fail = new AtomicBoolean(false);
+        final AtomicBoolean block = new AtomicBoolean(false);
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        IdentifierProvider<Identifier> idp = new IdentifierProvider<Identifier>("transactions") {};
+        IdentifiableProviderImpl<BasicTransaction> btp = new BasicTransactionProvider<BasicTransaction>(idp);
+        File dir = getTempDir();
+        final TestFileStore store = new TestFileStore(dir, btp, new TestTokenForge()) {
+            // So the directory is listed again only when this changes or the index was not made.
+            @Override
+            protected FileTime getModified() {
+                return FileTime.fromMillis(modified.get());
+            }
+
+            @Override
+            protected BasicTransaction loadFile(File f) {
+                if (fail.get()) {
+                    throw new GeneralException("could not read " + f);
+                }
+                if (block.get()) {
+                    reading.countDown();
+                    try {
+                        release.await(10L, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new GeneralException(e);
+                    }
+                }
+                return super.loadFile(f);
+            }
+        };
+        List<BasicTransaction> transactions = new ArrayList<BasicTransaction>();
+        for (int i = 0; i < 3; i++) {
+            transactions.add(createTransaction(store));
+        }
+        store.saveAll(transactions);
+        fail.set(true);
+        try {
+            store.getPage(ACCESS_TOKEN_KEY, null, 10);
+            assert false : "got a page from files that could not be read";
+        } catch (GeneralException x) {
+            assert true;
+        }
+        fail.set(false);
+        assert store.getPage(ACCESS_TOKEN_KEY, null, 10).size() == 3;
+
+        // Another store adds one, so this one reads it for the next page. Its own saves go through meanwhile.
+        TestFileStore other = new TestFileStore(dir, btp, new TestTokenForge());
+        BasicTransaction t = createTransaction(other);
+        other.save(t);
+        modified.set(1L);
+        block.set(true);
+        final List<BasicTransaction> page = new ArrayList<BasicTransaction>();
+        Thread pager = new Thread() {
+            @Override
+            public void run() {
+                page.addAll(store.getPage(ACCESS_TOKEN_KEY, null, 10));
+            }
+        };
+        pager.start();
+        assert reading.await(10L, TimeUnit.SECONDS);
+        block.set(false);
+        final BasicTransaction t2 = createTransaction(store);
+        Thread saver = new Thread() {
+            @Override
+            public void run() {
+                store.save(t2);
+            }
+        };
+        saver.start();
+        saver.join(5000L);
+        boolean saved = !saver.isAlive();
+        release.countDown();
+        pager.join();
+        saver.join();
+        assert saved : "a save waited for the index to read a file";
+        assert page.size() == 5 && page.contains(t) && page.contains(t2);
+    }
+
+    /**
+     * The iterator reads each file only when it gets to it and skips files that cannot be read.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testIterateAll() throws Exception {
+        final AtomicInteger loads = new AtomicInteger(0);
+        IdentifierProvider<Identifier> idp = new IdentifierProvider<Identifier>("transactions") {};
+        IdentifiableProviderImpl<BasicTransaction> btp = new BasicTransactionProvider<BasicTransaction>(idp);
+        File dir = getTempDir();
+        TestFileStore store = new TestFileStore(dir, btp, new TestTokenForge()) {
+            @Override
+            protected BasicTransaction loadFile(File f) {
+                loads.incrementAndGet();
+                return super.loadFile(f);
+            }
+        };
+        List<BasicTransaction> transactions = new ArrayList<BasicTransaction>();
+        for (int i = 0; i < 3; i++) {
+            transactions.add(createTransaction(store));
+        }
+        store.saveAll(transactions);
+        // not a transaction, so it is skipped.
+        FileWriter fw = new FileWriter(new File(new File(dir, "data"), "garbage"));
+        fw.write("not a transaction");
+        fw.close();
+
+        loads.set(0);
+        CloseableIterator<BasicTransaction> iterator = store.iterateAll();
+        assert loads.get() == 0;
+        List<BasicTransaction> found = new ArrayList<BasicTransaction>();
+        while (iterator.hasNext()) {
+            found.add(iterator.next());
+            assert loads.get() <= found.size() + 1 : loads.get();
+        }
+        assert loads.get() == 4 : loads.get();
+        assert found.size() == 3 && found.containsAll(transactions);
+
+        // closing early reads no more.
+        iterator = store.iterateAll();
+        iterator.next();
+        int read = loads.get();
+        iterator.close();
+        assert !iterator.hasNext();
+        assert loads.get() == read;
+    }
+
     /**
      * <p>Created by Jeff Gaynor<br>
      * on May 6, 2011 at  3:19:07 PM
@@ -0,0 +1,186 @@
+package edu.uiuc.ncsa.security.delegation.storage;
+
+import edu.uiuc.ncsa.security.core.Identifier;
+import edu.uiuc.ncsa.security.core.XMLConverter;
+import edu.uiuc.ncsa.security.core.util.CloseableIterator;
+import edu.uiuc.ncsa.security.core.util.IdentifierProvider;
+import edu.uiuc.ncsa.security.delegation.storage.impl.BasicTransaction;
+import edu.uiuc.ncsa.security.delegation.storage.impl.BasicTransactionConverter;
+import edu.uiuc.ncsa.security.delegation.storage.impl.BasicTransactionProvider;
+import edu.uiuc.ncsa.security.delegation.storage.impl.TransactionMemoryStore;
+import edu.uiuc.ncsa.security.delegation.token.AccessToken;
+import edu.uiuc.ncsa.security.delegation.token.AuthorizationGrant;
+import edu.uiuc.ncsa.security.delegation.token.Verifier;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the transaction store tests against a {@link TransactionMemoryStore}.
+ */
+public class MemoryStoreTest extends BaseTransactionStoreTest {
+    @Override
+    protected AuthorizationGrant newAG(URI id) {
+        return new FileStoreTest.FakeAuthorizationGrant(id.toString());
+    }
+
+    @Override
+    protected Verifier newVerifier(URI id) {
+        return new FileStoreTest.FakeVerifier(id.toString());
+    }
+
+    @Override
+    protected AccessToken newAT(URI id) {
+        return new FileStoreTest.FakeAccessToken(id.toString());
+    }
+
+    static TransactionMemoryStore<BasicTransaction> memoryStore;
+
+    @Override
+    protected String getAccessTokenSortKey() {
+        return FileStoreTest.ACCESS_TOKEN_KEY;
+    }
+
+    @Override
+    public TransactionStore<BasicTransaction> getStore() {
+        if (memoryStore == null) {
+            final BasicTransactionProvider<BasicTransaction> provider =
+                    new BasicTransactionProvider<BasicTransaction>(new IdentifierProvider<Identifier>("transactions") {});
+            memoryStore = new TransactionMemoryStore<BasicTransaction>(provider) {
+                // Needed to search and sort on anything but the identifier.
+                @Override
+                public XMLConverter<BasicTransaction> getXMLConverter() {
+                    return new BasicTransactionConverter<BasicTransaction>(provider, new FileStoreTest.TestTokenForge());
+                }
+            };
+        }
+        return memoryStore;
+    }
+
+    /**
+     * The indices are kept up to date as the store changes.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPagesAfterChanges() throws Exception {
+        TransactionMemoryStore<BasicTransaction> store = (TransactionMemoryStore<BasicTransaction>) getStore();
+        String key = getAccessTokenSortKey();
+        checkPages(store, key, 2);
+        BasicTransaction t = createTransaction(store);
+        store.save(t);
+        checkPages(store, key, 2);
+        t.setAccessToken(newAT());
+        store.save(t);
+        checkPages(store, key, 2);
+        Map<Identifier, BasicTransaction> map = new HashMap<Identifier, BasicTransaction>();
+        for (int i = 0; i < 3; i++) {
+            BasicTransaction t2 = createTransaction(store);
+            map.put(t2.getIdentifier(), t2);
+        }
+        store.putAll(map);
+        checkPages(store, key, 2);
+        checkPages(store, null, 2);
+        store.remove(t.getIdentifier());
+        checkPages(store, key, 2);
+
+        // The other ways of changing a map.
+        final BasicTransaction t3 = createTransaction(store);
+        t3.setAccessToken(newAT());
+        store.putIfAbsent(t3.getIdentifier(), t3);
+        checkPages(store, key, 2);
+        BasicTransaction t4 = createTransaction(store);
+        t4.setIdentifier(t3.getIdentifier());
+        store.replace(t3.getIdentifier(), t4);
+        checkPages(store, key, 2);
+        store.compute(t3.getIdentifier(), new BiFunction<Identifier, BasicTransaction, BasicTransaction>() {
+            @Override
+            public BasicTransaction apply(Identifier identifier, BasicTransaction transaction) {
+                return t3;
+            }
+        });
+        checkPages(store, key, 2);
+        store.keySet().remove(t3.getIdentifier());
+        checkPages(store, key, 2);
+        Iterator<BasicTransaction> iterator = store.values().iterator();
+        iterator.next();
+        iterator.remove();
+        checkPages(store, key, 2);
+        Map.Entry<Identifier, BasicTransaction> entry = store.entrySet().iterator().next();
+        BasicTransaction t5 = createTransaction(store);
+        t5.setIdentifier(entry.getKey());
+        t5.setAccessToken(newAT());
+        entry.setValue(t5);
+        checkPages(store, key, 2);
+        store.clear();
+        assert store.getPage(key, null, 2).isEmpty();
+    }
+
+    /**
+     * A batch with a value that has no identifier is refused before anything in it is added.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSaveAllWithNullIdentifier() throws Exception {
+        TransactionMemoryStore<BasicTransaction> store = (TransactionMemoryStore<BasicTransaction>) getStore();
+        int size = store.size();
+        List<BasicTransaction> transactions = new ArrayList<BasicTransaction>();
+        transactions.add(createTransaction(store));
+        transactions.add(new BasicTransaction((Identifier) null));
+        transactions.add(createTransaction(store));
+        try {
+            store.saveAll(transactions);
+            assert false : "was able to save a transaction with no identifier";
+        } catch (UnsupportedOperationException x) {
+            assert true;
+        }
+        try {
+            store.registerAll(transactions);
+            assert false : "was able to register a transaction with no identifier";
+        } catch (UnsupportedOperationException x) {
+            assert true;
+        }
+        assert store.size() == size;
+        assert !store.containsKey(transactions.get(0).getIdentifier());
+        assert store.get(transactions.get(0).getAuthorizationGrant()) == null;
+    }
+
+    /**
+     * Searches on a value, on a regular expression and on a key that some transactions do not have. The store can
+     * be changed while the iterator is in use.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testIterateSearch() throws Exception {
+        TransactionMemoryStore<BasicTransaction> store = (TransactionMemoryStore<BasicTransaction>) getStore();
+        BasicTransaction t1 = createTransaction(store);
+        t1.setAccessToken(newAT());
+        BasicTransaction t2 = createTransaction(store);
+        store.save(t1);
+        store.save(t2);
+
+        CloseableIterator<BasicTransaction> iterator = store.iterateSearch(FileStoreTest.ACCESS_TOKEN_KEY, t1.getAccessToken().getToken().toString(), false);
+        assert iterator.hasNext();
+        assert t1.equals(iterator.next());
+        assert !iterator.hasNext();
+
+        iterator = store.iterateSearch("temp_token", Pattern.quote(t2.getIdentifierString()) + "|nothing", true);
+        assert iterator.hasNext();
+        store.remove(t2.getIdentifier());
+        assert t2.equals(iterator.next());
+        assert !iterator.hasNext();
+        iterator.close();
+
+        assert store.search("temp_token", t2.getIdentifierString(), false).isEmpty();
+        assert store.search("temp_token", t1.getIdentifierString(), false).size() == 1;
+    }
+}
@@ -0,0 +1,996 @@
+package edu.uiuc.ncsa.security.delegation.storage;
+
+import edu.uiuc.ncsa.security.core.Identifier;
+import edu.uiuc.ncsa.security.core.cache.TimestampRetentionPolicy;
+import edu.uiuc.ncsa.security.core.exceptions.GeneralException;
+import edu.uiuc.ncsa.security.core.exceptions.UnregisteredObjectException;
+import edu.uiuc.ncsa.security.core.exceptions.UninitializedException;
+import edu.uiuc.ncsa.security.core.util.CloseableIterator;
+import edu.uiuc.ncsa.security.core.util.IdentifierProvider;
+import edu.uiuc.ncsa.security.delegation.storage.impl.BasicTransaction;
+import edu.uiuc.ncsa.security.delegation.storage.impl.BasicTransactionConverter;
+import edu.uiuc.ncsa.security.delegation.storage.impl.BasicTransactionKeys;
+import edu.uiuc.ncsa.security.delegation.storage.impl.BasicTransactionProvider;
+import edu.uiuc.ncsa.security.delegation.storage.impl.BasicTransactionTable;
+import edu.uiuc.ncsa.security.delegation.storage.impl.SQLBaseTransactionStore;
+import edu.uiuc.ncsa.security.delegation.token.AccessToken;
+import edu.uiuc.ncsa.security.delegation.token.AuthorizationGrant;
+import edu.uiuc.ncsa.security.delegation.token.Verifier;
+import edu.uiuc.ncsa.security.storage.sql.ConnectionPool;
+import edu.uiuc.ncsa.security.storage.sql.SQLDialect;
+import edu.uiuc.ncsa.security.storage.sql.StatementCache;
+import edu.uiuc.ncsa.security.storage.sql.derby.DerbyConnectionParameters;
+import edu.uiuc.ncsa.security.storage.sql.derby.DerbyDialect;
+import edu.uiuc.ncsa.security.storage.sql.h2.H2Dialect;
+import edu.uiuc.ncsa.security.storage.sql.internals.ColumnDescriptorEntry;
+import edu.uiuc.ncsa.security.storage.sql.internals.ColumnTypeTranslator;
+import edu.uiuc.ncsa.security.storage.sql.internals.Table;
+import edu.uiuc.ncsa.security.storage.sql.mariadb.MariaDBDialect;
+import edu.uiuc.ncsa.security.storage.sql.mysql.MySQLDialect;
+import edu.uiuc.ncsa.security.storage.sql.postgres.PostgresDialect;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the transaction store tests against an {@link edu.uiuc.ncsa.security.storage.sql.SQLStore} on an embedded,
+ * in memory Derby database, then tests the SQL specific parts of the store.
+ */
+public class SQLStoreTest extends BaseTransactionStoreTest {
+    static final String DERBY_DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
+    // Derby upper cases table names and the store looks for the table by name, so use upper case here.
+    static final String TABLENAME = "TRANSACTIONS";
+
+    @Override
+    protected AuthorizationGrant newAG(URI id) {
+        return new FileStoreTest.FakeAuthorizationGrant(id.toString());
+    }
+
+    @Override
+    protected Verifier newVerifier(URI id) {
+        return new FileStoreTest.FakeVerifier(id.toString());
+    }
+
+    @Override
+    protected AccessToken newAT(URI id) {
+        return new FileStoreTest.FakeAccessToken(id.toString());
+    }
+
+    /**
+     * Derby has no text type, so the token columns are varchars.
+     */
+    public static class TestTransactionTable extends BasicTransactionTable {
+        public TestTransactionTable() {
+            super(new BasicTransactionKeys(), null, null, TABLENAME);
+        }
+
+        @Override
+        public String createTableStatement() {
+            String x = super.createTableStatement();
+            return x.substring(0, x.length() - 1) + ", PRIMARY KEY (" + getPrimaryKeyColumnName() + "))";
+        }
+
+        @Override
+        public ColumnTypeTranslator getColumnTypeTranslator() {
+            return new ColumnTypeTranslator() {
+                @Override
+                public String toSQL(int sqlType) {
+                    if (sqlType == Types.LONGVARCHAR) {
+                        return "varchar(255)";
+                    }
+                    return super.toSQL(sqlType);
+                }
+            };
+        }
+    }
+
+    public static class TestSQLStore extends SQLBaseTransactionStore<BasicTransaction> {
+        public TestSQLStore(ConnectionPool connectionPool, BasicTransactionProvider<BasicTransaction> provider, FileStoreTest.TestTokenForge tokenForge) {
+            this(connectionPool, provider, tokenForge, new TestTransactionTable());
+        }
+
+        public TestSQLStore(ConnectionPool connectionPool, BasicTransactionProvider<BasicTransaction> provider,
+                            FileStoreTest.TestTokenForge tokenForge, BasicTransactionTable table) {
+            super(tokenForge, connectionPool, table, provider, new BasicTransactionConverter(provider, tokenForge));
+        }
+    }
+
+    static ConnectionPool connectionPool;
+
+    /**
+     * One database for all the tests, with the table made when it is.
+     *
+     * @return
+     * @throws Exception
+     */
+    public static ConnectionPool getConnectionPool() throws Exception {
+        if (connectionPool == null) {
+            // Otherwise Derby leaves a derby.log in the current directory.
+            System.setProperty("derby.stream.error.file", new File(System.getProperty("java.io.tmpdir"), "derby-test.log").getPath());
+            DerbyConnectionParameters parameters = new DerbyConnectionParameters("", "", "test" + System.currentTimeMillis(), null,
+                    null, -1, DERBY_DRIVER, false, true, null);
+            connectionPool = new ConnectionPool(parameters);
+            Connection c = connectionPool.pop();
+            Statement stmt = c.createStatement();
+            stmt.execute(new TestTransactionTable().createTableStatement());
+            stmt.close();
+            connectionPool.push(c);
+        }
+        return connectionPool;
+    }
+
+    protected BasicTransactionProvider<BasicTransaction> newProvider() {
+        return new BasicTransactionProvider<BasicTransaction>(new IdentifierProvider<Identifier>("transactions") {});
+    }
+
+    static TestSQLStore sqlStore;
+
+    @Override
+    protected String getAccessTokenSortKey() {
+        return "access_token";
+    }
+
+    @Override
+    public TransactionStore<BasicTransaction> getStore() throws Exception {
+        if (sqlStore == null) {
+            sqlStore = new TestSQLStore(getConnectionPool(), newProvider(), new FileStoreTest.TestTokenForge());
+        }
+        return sqlStore;
+    }
+
+    /**
+     * Saving uses an upsert, which does not call register. A store that overrides register and says it is not safe to
+     * upsert must still have it called.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSaveWithOverriddenRegister() throws Exception {
+        final AtomicInteger registers = new AtomicInteger(0);
+        TestSQLStore store = new TestSQLStore(getConnectionPool(), newProvider(), new FileStoreTest.TestTokenForge()) {
+            @Override
+            public void register(BasicTransaction value) {
+                registers.incrementAndGet();
+                super.register(value);
+            }
+
+            @Override
+            protected boolean isUpsertSafe() {
+                return false;
+            }
+        };
+        BasicTransaction t = createTransaction(store);
+        store.save(t);
+        assert registers.get() == 1;
+        t.setAccessToken(newAT());
+        store.save(t); // an update
+        assert registers.get() == 1;
+        assert t.equals(store.get(t.getIdentifier()));
+        store.saveAll(Arrays.asList(createTransaction(store), createTransaction(store)));
+        assert registers.get() == 3;
+    }
+
+    /**
+     * Every write, including the upsert, calls the hooks.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWriteHooks() throws Exception {
+        final AtomicInteger checks = new AtomicInteger(0);
+        final AtomicInteger writes = new AtomicInteger(0);
+        TestSQLStore store = new TestSQLStore(getConnectionPool(), newProvider(), new FileStoreTest.TestTokenForge()) {
+            @Override
+            protected void checkWrite(BasicTransaction value) {
+                checks.incrementAndGet();
+                if (value.getIdentifierString() == null) {
+                    throw new UninitializedException("Error: There is no identifier for this transaction");
+                }
+            }
+
+            @Override
+            protected void written(BasicTransaction value) {
+                writes.incrementAndGet();
+            }
+        };
+        BasicTransaction t = createTransaction(store);
+        store.save(t);
+        assert checks.get() == 1 && writes.get() == 1;
+        t.setVerifier(newVerifier());
+        store.save(t);
+        assert checks.get() == 2 && writes.get() == 2;
+        assert t.equals(store.get(t.getIdentifier()));
+        try {
+            store.save(new BasicTransaction((Identifier) null));
+            assert false : "was able to save a transaction with no identifier";
+        } catch (UninitializedException x) {
+            assert true;
+        }
+        assert writes.get() == 2;
+        store.saveAll(Arrays.asList(createTransaction(store), createTransaction(store)));
+        assert checks.get() == 5 && writes.get() == 4;
+        try {
+            store.update(createTransaction(store));
+            assert false : "was able to update a transaction that was never saved";
+        } catch (GeneralException x) {
+            assert true;
+        }
+        assert writes.get() == 4;
+    }
+
+    protected static Table newKeyOnlyTable() {
+        return new Table(new BasicTransactionKeys(), null, null, "KEYS_ONLY") {
+            @Override
+            public ColumnTypeTranslator getColumnTypeTranslator() {
+                return new TestTransactionTable().getColumnTypeTranslator();
+            }
+        };
+    }
+
+    protected List<String> upsertColumnNames(SQLDialect dialect, Table table) {
+        List<String> names = new ArrayList<String>();
+        for (ColumnDescriptorEntry cde : dialect.getUpsertColumns(table)) {
+            names.add(cde.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testDialects() throws Exception {
+        Table table = new TestTransactionTable();
+        Table keyOnly = newKeyOnlyTable();
+        // Statements list the columns in the order the table has them.
+        String columns = table.createRegisterStatement();
+        List<String> allColumns = new ArrayList<String>();
+        List<String> nonKeyColumns = new ArrayList<String>();
+        for (ColumnDescriptorEntry cde : table.getColumnDescriptor()) {
+            allColumns.add(cde.getName());
+            if (!cde.isPrimaryKey()) {
+                nonKeyColumns.add(cde.getName());
+            }
+        }
+        assert nonKeyColumns.equals(Arrays.asList("access_token", "oauth_verifier")) || nonKeyColumns.equals(Arrays.asList("oauth_verifier", "access_token"));
+        String a = nonKeyColumns.get(0);
+        String v = nonKeyColumns.get(1);
+
+        SQLDialect dialect = new SQLDialect();
+        assert !dialect.supportsUpsert();
+        assert dialect.createUpsertStatement(table) == null;
+        assert dialect.limit("SELECT * from T", 10).equals("SELECT * from T FETCH FIRST 10 ROWS ONLY");
+
+        dialect = new DerbyDialect();
+        assert dialect.createUpsertStatement(table).equals("MERGE INTO TRANSACTIONS USING SYSIBM.SYSDUMMY1 ON temp_token=?" +
+                " WHEN MATCHED THEN UPDATE SET " + a + "=?, " + v + "=?" +
+                " WHEN NOT MATCHED THEN INSERT (" + columns + ") VALUES (?, ?, ?)") : dialect.createUpsertStatement(table);
+        // the key, then the other columns for the update, then all of them for the insert.
+        List<String> expected = new ArrayList<String>();
+        expected.add("temp_token");
+        expected.addAll(nonKeyColumns);
+        expected.addAll(allColumns);
+        assert upsertColumnNames(dialect, table).equals(expected);
+        assert dialect.createUpsertStatement(keyOnly).equals("MERGE INTO KEYS_ONLY USING SYSIBM.SYSDUMMY1 ON temp_token=?" +
+                " WHEN NOT MATCHED THEN INSERT (temp_token) VALUES (?)") : dialect.createUpsertStatement(keyOnly);
+        assert upsertColumnNames(dialect, keyOnly).equals(Arrays.asList("temp_token", "temp_token"));
+
+        dialect = new MySQLDialect();
+        assert dialect.createUpsertStatement(table).equals("insert into TRANSACTIONS(" + columns + ") values (?, ?, ?)" +
+                " ON DUPLICATE KEY UPDATE " + a + "=VALUES(" + a + "), " + v + "=VALUES(" + v + ")") : dialect.createUpsertStatement(table);
+        assert upsertColumnNames(dialect, table).equals(allColumns);
+        assert dialect.createUpsertStatement(keyOnly).equals("insert into KEYS_ONLY(temp_token) values (?)" +
+                " ON DUPLICATE KEY UPDATE temp_token=temp_token") : dialect.createUpsertStatement(keyOnly);
+        assert dialect.limit("SELECT * from T", 10).equals("SELECT * from T LIMIT 10");
+        // same SQL as MySQL.
+        assert new MariaDBDialect().createUpsertStatement(table).equals(dialect.createUpsertStatement(table));
+
+        dialect = new PostgresDialect();
+        assert dialect.createUpsertStatement(table).equals("insert into TRANSACTIONS(" + columns + ") values (?, ?, ?)" +
+                " ON CONFLICT (temp_token) DO UPDATE SET " + a + "=EXCLUDED." + a + ", " + v + "=EXCLUDED." + v) : dialect.createUpsertStatement(table);
+        assert upsertColumnNames(dialect, table).equals(allColumns);
+        assert dialect.createUpsertStatement(keyOnly).equals("insert into KEYS_ONLY(temp_token) values (?) ON CONFLICT (temp_token) DO NOTHING")
+                : dialect.createUpsertStatement(keyOnly);
+
+        dialect = new H2Dialect();
+        assert dialect.createUpsertStatement(table).equals("MERGE INTO TRANSACTIONS(" + columns + ") KEY (temp_token) VALUES (?, ?, ?)")
+                : dialect.createUpsertStatement(table);
+        assert upsertColumnNames(dialect, table).equals(allColumns);
+    }
+
+    /**
+     * Runs the Derby upsert, which has its parameters in a different order than the other dialects.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDerbyUpsert() throws Exception {
+        TestSQLStore store = (TestSQLStore) getStore();
+        assert store.getDialect() instanceof DerbyDialect;
+        BasicTransaction t = createTransaction(store);
+        t.setVerifier(newVerifier());
+        store.upsert(t); // insert
+        assert t.equals(store.get(t.getIdentifier()));
+        t.setAccessToken(newAT());
+        t.setVerifier(newVerifier());
+        store.upsert(t); // update
+        BasicTransaction t2 = store.get(t.getIdentifier());
+        assert t.equals(t2);
+        assert t.getAccessToken().equals(t2.getAccessToken());
+        assert t.getVerifier().equals(t2.getVerifier());
+
+        // A table with only a key. Upserting an existing row does nothing.
+        Table keyOnly = newKeyOnlyTable();
+        Connection c = getConnectionPool().pop();
+        Statement stmt = c.createStatement();
+        stmt.execute(keyOnly.createTableStatement());
+        stmt.close();
+        PreparedStatement upsert = c.prepareStatement(keyOnly.createUpsertStatement(store.getDialect()));
+        for (int i = 0; i < 2; i++) {
+            upsert.setString(1, "key");
+            upsert.setString(2, "key");
+            upsert.executeUpdate();
+        }
+        upsert.close();
+        stmt = c.createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT COUNT(*) from KEYS_ONLY");
+        assert rs.next() && rs.getInt(1) == 1;
+        rs.close();
+        stmt.close();
+        getConnectionPool().push(c);
+    }
+
+    /**
+     * An update is a single statement that finds out the entry is missing only when no row was changed.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testUpdateMissing() throws Exception {
+        final AtomicInteger lookups = new AtomicInteger(0);
+        TestSQLStore store = new TestSQLStore(getConnectionPool(), newProvider(), new FileStoreTest.TestTokenForge()) {
+            @Override
+            public boolean containsKey(Object key) {
+                lookups.incrementAndGet();
+                return super.containsKey(key);
+            }
+        };
+        BasicTransaction t = createTransaction(store);
+        try {
+            store.update(t);
+            assert false : "was able to update a transaction that was never saved";
+        } catch (UnregisteredObjectException x) {
+            assert true;
+        }
+        assert store.get(t.getIdentifier()) == null;
+        store.register(t);
+        t.setAccessToken(newAT());
+        store.update(t);
+        assert t.getAccessToken().equals(store.get(t.getIdentifier()).getAccessToken());
+        assert lookups.get() == 0;
+    }
+
+    @Test
+    public void testStatementCache() throws Exception {
+        Connection c = getConnectionPool().pop();
+        String sql1 = "SELECT * from " + TABLENAME + " where temp_token =?";
+        String sql2 = "SELECT * from " + TABLENAME + " where access_token =?";
+        String sql3 = "SELECT * from " + TABLENAME + " where oauth_verifier =?";
+        StatementCache cache = new StatementCache(c, 2);
+
+        // least recently used goes first.
+        PreparedStatement s1 = cache.prepare(sql1);
+        cache.release(s1);
+        PreparedStatement s2 = cache.prepare(sql2);
+        cache.release(s2);
+        assert cache.prepare(sql1) == s1;
+        cache.release(s1);
+        assert cache.getHits() == 1 && cache.getMisses() == 2;
+        PreparedStatement s3 = cache.prepare(sql3);
+        cache.release(s3);
+        assert cache.size() == 2;
+        assert s2.isClosed();
+        assert !s1.isClosed() && !s3.isClosed();
+        assert cache.prepare(sql2) != s2;
+
+        // already in use, so a new one is made, which is closed when released.
+        s1 = cache.prepare(sql1);
+        PreparedStatement duplicate = cache.prepare(sql1);
+        assert duplicate != s1;
+        cache.release(duplicate);
+        assert duplicate.isClosed();
+        cache.release(s1);
+        assert !s1.isClosed();
+        assert cache.prepare(sql1) == s1;
+        cache.release(s1);
+
+        // pushed out while in use, so it is closed when it is released.
+        cache = new StatementCache(c, 1);
+        s1 = cache.prepare(sql1);
+        s2 = cache.prepare(sql2);
+        assert !s1.isClosed();
+        cache.release(s1);
+        assert s1.isClosed();
+        cache.release(s2);
+        assert !s2.isClosed();
+        cache.close();
+        assert s2.isClosed() && cache.size() == 0;
+        getConnectionPool().push(c);
+    }
+
+    @Test
+    public void testPoolStatementCache() throws Exception {
+        ConnectionPool pool = getConnectionPool();
+        String sql = "SELECT * from " + TABLENAME + " where temp_token =?";
+        Connection c = pool.pop();
+        PreparedStatement stmt = pool.prepareStatement(c, sql);
+        pool.releaseStatement(c, stmt);
+        assert pool.prepareStatement(c, sql) == stmt;
+        pool.releaseStatement(c, stmt);
+        assert !stmt.isClosed();
+        // destroying the connection closes its statements.
+        pool.doDestroy(c);
+        assert stmt.isClosed();
+
+        // no cache, so statements are closed on release.
+        ConnectionPool uncached = new ConnectionPool((DerbyConnectionParameters) pool.getConnectionParameters());
+        uncached.setStatementCacheSize(0);
+        c = uncached.pop();
+        stmt = uncached.prepareStatement(c, sql);
+        uncached.releaseStatement(c, stmt);
+        assert stmt.isClosed();
+        uncached.doDestroy(c);
+    }
+
+    /**
+     * The table's statements are made once, then made again if its name changes.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTableStatements() throws Exception {
+        TestTransactionTable table = new TestTransactionTable();
+        SQLDialect derby = new DerbyDialect();
+        String select = table.createSelectStatement();
+        String update = table.createUpdateStatement();
+        String upsert = table.createUpsertStatement(derby);
+        String byAccessToken = table.getByAccessTokenStatement();
+        assert table.createSelectStatement() == select;
+        assert table.createUpdateStatement() == update;
+        assert table.createUpsertStatement(derby) == upsert;
+        assert table.getByAccessTokenStatement() == byAccessToken;
+        // a different dialect makes a new one.
+        assert !table.createUpsertStatement(new PostgresDialect()).equals(upsert);
+        assert table.createUpsertStatement(derby).equals(upsert);
+
+        table.setTablename("OTHER");
+        assert table.createSelectStatement().contains(" OTHER ");
+        assert table.createUpdateStatement().startsWith("UPDATE OTHER ");
+        assert table.createInsertStatement().startsWith("insert into OTHER(");
+        assert table.createDeleteStatement().startsWith("DELETE FROM OTHER ");
+        assert table.createSelectAllStatement().equals("SELECT * from OTHER");
+        assert table.createUpsertStatement(derby).startsWith("MERGE INTO OTHER ");
+        assert table.getByAccessTokenStatement().startsWith("SELECT * FROM OTHER ");
+
+        table.setTablenamePrefix("p");
+        assert table.getFQTablename().equals("p_OTHER");
+        assert table.createSelectStatement().contains(" p_OTHER ");
+        assert table.createUpsertStatement(derby).startsWith("MERGE INTO p_OTHER ");
+        assert table.getByTempCredStatement().startsWith("SELECT * FROM p_OTHER ");
+        assert table.getByVerifierStatement().startsWith("SELECT * FROM p_OTHER ");
+    }
+
+    protected List<BasicTransaction> createTransactions(TransactionStore store, int count) {
+        List<BasicTransaction> transactions = new ArrayList<BasicTransaction>();
+        for (int i = 0; i < count; i++) {
+            transactions.add(createTransaction(store));
+        }
+        return transactions;
+    }
+
+    protected List<Identifier> identifiers(List<BasicTransaction> transactions) {
+        List<Identifier> identifiers = new ArrayList<Identifier>();
+        for (BasicTransaction t : transactions) {
+            identifiers.add(t.getIdentifier());
+        }
+        return identifiers;
+    }
+
+    /**
+     * The batches with a batch size that does not divide the number of values, saving without the upsert and
+     * a batch that fails part way through.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSQLBatches() throws Exception {
+        TestSQLStore store = new TestSQLStore(getConnectionPool(), newProvider(), new FileStoreTest.TestTokenForge());
+        store.setBatchSize(2);
+        List<BasicTransaction> transactions = createTransactions(store, 5);
+        store.registerAll(transactions);
+        for (BasicTransaction t : transactions) {
+            assert t.equals(store.get(t.getIdentifier()));
+        }
+
+        // updates the existing ones, then registers the new ones.
+        store.setUseUpsert(false);
+        transactions.get(4).setAccessToken(newAT());
+        List<BasicTransaction> more = createTransactions(store, 3);
+        List<BasicTransaction> all = new ArrayList<BasicTransaction>(transactions);
+        all.addAll(more);
+        store.saveAll(all);
+        for (BasicTransaction t : all) {
+            assert t.equals(store.get(t.getIdentifier()));
+        }
+        assert transactions.get(4).getAccessToken().equals(store.get(transactions.get(4).getIdentifier()).getAccessToken());
+
+        // the second one is already there, so none of them are registered.
+        List<BasicTransaction> failing = createTransactions(store, 3);
+        failing.set(1, transactions.get(0));
+        try {
+            store.registerAll(failing);
+            assert false : "was able to register a transaction twice";
+        } catch (GeneralException x) {
+            assert true;
+        }
+        assert !store.containsKey(failing.get(0).getIdentifier());
+        assert !store.containsKey(failing.get(2).getIdentifier());
+
+        List<Identifier> identifiers = identifiers(all);
+        identifiers.add(failing.get(0).getIdentifier());
+        assert store.removeAll(identifiers) == all.size();
+        for (Identifier identifier : identifiers) {
+            assert !store.containsKey(identifier);
+        }
+    }
+
+    /**
+     * If setting the parameters for a batch fails with something other than an {@link SQLException}, e.g. a converter
+     * error, the transaction is rolled back and the connection destroyed rather than being left open.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSQLBatchFailures() throws Exception {
+        final List<BasicTransaction> transactions = new ArrayList<BasicTransaction>();
+        CountingSQLStore store = new CountingSQLStore(getConnectionPool()) {
+            protected void check(BasicTransaction value) {
+                if (value == transactions.get(1)) {
+                    throw new IllegalStateException("could not convert " + value.getIdentifierString());
+                }
+            }
+
+            @Override
+            protected void setRegisterParameters(PreparedStatement stmt, BasicTransaction value) throws SQLException {
+                check(value);
+                super.setRegisterParameters(stmt, value);
+            }
+
+            @Override
+            protected void setUpdateParameters(PreparedStatement stmt, BasicTransaction value) throws SQLException {
+                check(value);
+                super.setUpdateParameters(stmt, value);
+            }
+
+            @Override
+            protected void setUpsertParameters(PreparedStatement stmt, SQLDialect dialect, BasicTransaction value) throws SQLException {
+                check(value);
+                super.setUpsertParameters(stmt, dialect, value);
+            }
+        };
+        transactions.addAll(createTransactions(store, 3));
+        store.setBatchSize(1);
+        for (boolean useUpsert : new boolean[]{true, false}) {
+            store.setUseUpsert(useUpsert);
+            try {
+                store.saveAll(transactions);
+                assert false : "saved a value that could not be converted";
+            } catch (IllegalStateException x) {
+                assert true;
+            }
+            assert store.connection.isClosed();
+            assert store.gets == store.releases + store.destroys;
+        }
+        try {
+            store.registerAll(transactions);
+            assert false : "registered a value that could not be converted";
+        } catch (IllegalStateException x) {
+            assert true;
+        }
+        assert store.connection.isClosed();
+        assert store.destroys == 3;
+        assert store.gets == store.releases + store.destroys;
+        // the first one was rolled back.
+        assert !store.containsKey(transactions.get(0).getIdentifier());
+    }
+
+    /**
+     * Registering a batch, directly or with putAll, calls an overridden register for each value if the store says it is
+     * not safe to upsert.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRegisterAllWithOverriddenRegister() throws Exception {
+        final AtomicInteger registers = new AtomicInteger(0);
+        TestSQLStore store = new TestSQLStore(getConnectionPool(), newProvider(), new FileStoreTest.TestTokenForge()) {
+            @Override
+            public void register(BasicTransaction value) {
+                registers.incrementAndGet();
+                super.register(value);
+            }
+
+            @Override
+            protected boolean isUpsertSafe() {
+                return false;
+            }
+        };
+        List<BasicTransaction> transactions = createTransactions(store, 3);
+        store.registerAll(transactions);
+        assert registers.get() == 3;
+        Map<Identifier, BasicTransaction> map = new HashMap<Identifier, BasicTransaction>();
+        for (BasicTransaction t : createTransactions(store, 2)) {
+            map.put(t.getIdentifier(), t);
+        }
+        store.putAll(map);
+        assert registers.get() == 5;
+        for (BasicTransaction t : map.values()) {
+            assert t.equals(store.get(t.getIdentifier()));
+        }
+        assert store.removeAll(identifiers(transactions)) == 3;
+        assert store.removeAll(new ArrayList<Identifier>(map.keySet())) == 2;
+    }
+
+    /**
+     * Registering into a table that is not there fails, one at a time or in a batch.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMissingTable() throws Exception {
+        TestSQLStore store = new TestSQLStore(getConnectionPool(), newProvider(), new FileStoreTest.TestTokenForge());
+        store.getTable().setTablename("MISSING");
+        try {
+            store.registerAll(createTransactions(store, 2));
+            assert false : "was able to register a batch in a missing table";
+        } catch (GeneralException x) {
+            assert x.getMessage().contains("MISSING") : x.getMessage();
+        }
+        try {
+            store.register(createTransaction(store));
+            assert false : "was able to register in a missing table";
+        } catch (GeneralException x) {
+            assert x.getMessage().contains("MISSING") : x.getMessage();
+        }
+    }
+
+    @Test
+    public void testPageStatement() throws Exception {
+        Table table = new TestTransactionTable();
+        SQLDialect derby = new DerbyDialect();
+        assert table.createPageStatement(null, true, true, 10, derby).equals(
+                "SELECT * from TRANSACTIONS ORDER BY temp_token FETCH FIRST 10 ROWS ONLY");
+        assert table.createPageStatement("temp_token", false, false, 10, derby).equals(
+                "SELECT * from TRANSACTIONS where temp_token >? ORDER BY temp_token FETCH FIRST 10 ROWS ONLY");
+        assert table.createPageStatement("access_token", true, true, 10, derby).equals(
+                "SELECT * from TRANSACTIONS ORDER BY access_token NULLS FIRST, temp_token FETCH FIRST 10 ROWS ONLY");
+        assert table.createPageStatement("access_token", false, false, 10, derby).equals(
+                "SELECT * from TRANSACTIONS where access_token >? OR (access_token =? AND temp_token >?)" +
+                        " ORDER BY access_token NULLS FIRST, temp_token FETCH FIRST 10 ROWS ONLY");
+        assert table.createPageStatement("access_token", false, true, 10, derby).equals(
+                "SELECT * from TRANSACTIONS where (access_token IS NULL AND temp_token >?) OR access_token IS NOT NULL" +
+                        " ORDER BY access_token NULLS FIRST, temp_token FETCH FIRST 10 ROWS ONLY");
+        // MySQL puts nulls first without being told.
+        SQLDialect mysql = new MySQLDialect();
+        assert table.createPageStatement("access_token", false, false, 5, mysql).equals(
+                "SELECT * from TRANSACTIONS where access_token >? OR (access_token =? AND temp_token >?)" +
+                        " ORDER BY access_token, temp_token LIMIT 5");
+        assert table.createPageStatement(null, false, true, 5, mysql).equals(
+                "SELECT * from TRANSACTIONS where temp_token >? ORDER BY temp_token LIMIT 5");
+    }
+
+    /**
+     * Pages on the primary key by name are the same as on the identifier and unknown columns are refused.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPageColumns() throws Exception {
+        TestSQLStore store = (TestSQLStore) getStore();
+        store.save(createTransaction(store));
+        checkPages(store, null, 2);
+        List<BasicTransaction> byKey = store.getPage("temp_token", null, 5);
+        List<BasicTransaction> byIdentifier = store.getPage(null, null, 5);
+        assert identifiers(byKey).equals(identifiers(byIdentifier));
+        try {
+            store.getPage("no_such_column", null, 5);
+            assert false : "was able to sort on a column that is not in the table";
+        } catch (GeneralException x) {
+            assert true;
+        }
+    }
+
+    /**
+     * Counts the connections it gets and gives back and keeps the last one it got.
+     */
+    public static class CountingSQLStore extends TestSQLStore {
+        public CountingSQLStore(ConnectionPool connectionPool) {
+            super(connectionPool, new BasicTransactionProvider<BasicTransaction>(new IdentifierProvider<Identifier>("transactions") {}),
+                    new FileStoreTest.TestTokenForge());
+        }
+
+        int gets = 0;
+        int releases = 0;
+        int destroys = 0;
+        Connection connection;
+
+        @Override
+        public Connection getConnection() {
+            gets++;
+            connection = super.getConnection();
+            return connection;
+        }
+
+        @Override
+        public void releaseConnection(Connection c) {
+            releases++;
+            super.releaseConnection(c);
+        }
+
+        @Override
+        protected void destroyConnection(Connection c) {
+            destroys++;
+            super.destroyConnection(c);
+        }
+
+        public boolean allReleased() {
+            return gets == releases && destroys == 0;
+        }
+    }
+
+    /**
+     * The iterators give back their connection when they run out or are closed early, but not before.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testIterators() throws Exception {
+        CountingSQLStore store = new CountingSQLStore(getConnectionPool());
+        store.setFetchSize(2);
+        List<BasicTransaction> transactions = createTransactions(store, 5);
+        store.saveAll(transactions);
+        List<Identifier> identifiers = identifiers(transactions);
+
+        CloseableIterator<BasicTransaction> iterator = store.iterateAll();
+        List<Identifier> found = new ArrayList<Identifier>();
+        while (iterator.hasNext()) {
+            found.add(iterator.next().getIdentifier());
+        }
+        assert found.containsAll(identifiers);
+        assert store.allReleased();
+
+        // closed early.
+        iterator = store.iterateAll();
+        assert iterator.hasNext();
+        iterator.next();
+        assert store.releases == store.gets - 1;
+        iterator.close();
+        assert store.allReleased();
+        iterator.close();
+        assert store.allReleased();
+        assert !iterator.hasNext();
+
+        BasicTransaction t = transactions.get(2);
+        CloseableIterator<BasicTransaction> search = store.iterateSearch("temp_token", t.getIdentifierString(), false);
+        try {
+            assert search.hasNext();
+            assert t.equals(search.next());
+            assert store.releases == store.gets - 1;
+        } finally {
+            search.close();
+        }
+        assert store.allReleased();
+        assert store.removeAll(identifiers) == 5;
+    }
+
+    /**
+     * Like PostgreSQL, this only uses a cursor outside of auto commit.
+     */
+    public static class NoAutoCommitDialect extends DerbyDialect {
+        @Override
+        public void setFetchSize(Connection c, Statement stmt, int fetchSize) throws SQLException {
+            c.setAutoCommit(false);
+            super.setFetchSize(c, stmt, fetchSize);
+        }
+    }
+
+    /**
+     * A dialect that turns off auto commit to get a cursor has it turned back on when the iterator is done.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testIteratorAutoCommit() throws Exception {
+        ConnectionPool pool = new ConnectionPool((DerbyConnectionParameters) getConnectionPool().getConnectionParameters());
+        pool.setDialect(new NoAutoCommitDialect());
+        CountingSQLStore store = new CountingSQLStore(pool);
+        List<BasicTransaction> transactions = createTransactions(store, 3);
+        store.saveAll(transactions);
+
+        CloseableIterator<BasicTransaction> iterator = store.iterateAll();
+        Connection c = store.connection;
+        assert !c.getAutoCommit();
+        assert iterator.hasNext();
+        iterator.next();
+        iterator.close();
+        assert c.getAutoCommit();
+        assert store.allReleased();
+
+        iterator = store.iterateSearch("temp_token", transactions.get(0).getIdentifierString(), false);
+        c = store.connection;
+        assert !c.getAutoCommit();
+        assert iterator.hasNext();
+        assert transactions.get(0).equals(iterator.next());
+        assert !iterator.hasNext();
+        // ran out, so it closed itself.
+        assert c.getAutoCommit();
+        assert store.allReleased();
+        assert store.removeAll(identifiers(transactions)) == 3;
+    }
+
+    /**
+     * The transaction table with two timestamps the transactions do not set, one a timestamp and one in
+     * milliseconds, for testing retention.
+     */
+    public static class RetentionTable extends TestTransactionTable {
+        public RetentionTable() {
+            setTablename("RETAINED");
+        }
+
+        @Override
+        public void createColumnDescriptors() {
+            super.createColumnDescriptors();
+            getColumnDescriptor().add(new ColumnDescriptorEntry("created", Types.TIMESTAMP, true, false));
+            getColumnDescriptor().add(new ColumnDescriptorEntry("created_ms", Types.BIGINT, true, false));
+        }
+    }
+
+    static TestSQLStore retentionStore;
+
+    protected TestSQLStore getRetentionStore() throws Exception {
+        if (retentionStore == null) {
+            Connection c = getConnectionPool().pop();
+            Statement stmt = c.createStatement();
+            stmt.execute(new RetentionTable().createTableStatement());
+            stmt.close();
+            getConnectionPool().push(c);
+            retentionStore = new TestSQLStore(getConnectionPool(), newProvider(), new FileStoreTest.TestTokenForge(), new RetentionTable());
+        }
+        return retentionStore;
+    }
+
+    /**
+     * Adds transactions and sets the given column of each to the given time, or leaves it null.
+     *
+     * @param store
+     * @param column
+     * @param times
+     * @return
+     * @throws Exception
+     */
+    protected List<BasicTransaction> addWithTimes(TestSQLStore store, String column, Long... times) throws Exception {
+        List<BasicTransaction> transactions = createTransactions(store, times.length);
+        store.registerAll(transactions);
+        Connection c = getConnectionPool().pop();
+        PreparedStatement stmt = c.prepareStatement("UPDATE RETAINED SET " + column + "=? WHERE temp_token=?");
+        for (int i = 0; i < times.length; i++) {
+            if (times[i] == null) {
+                continue;
+            }
+            if (column.equals("created")) {
+                stmt.setTimestamp(1, new Timestamp(times[i]));
+            } else {
+                stmt.setLong(1, times[i]);
+            }
+            stmt.setString(2, transactions.get(i).getIdentifierString());
+            assert stmt.executeUpdate() == 1;
+        }
+        stmt.close();
+        getConnectionPool().push(c);
+        return transactions;
+    }
+
+    protected TimestampRetentionPolicy<Identifier, BasicTransaction> newRetentionPolicy(TestSQLStore store, String column, long maximumAge) {
+        return new TimestampRetentionPolicy<Identifier, BasicTransaction>(store, column, maximumAge) {
+            @Override
+            public Date getTimestamp(Identifier key, BasicTransaction value) {
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Removes the rows that are too old with single deletes and with batches, in both kinds of timestamp column.
+     * Rows with no timestamp are kept.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRetention() throws Exception {
+        TestSQLStore store = getRetentionStore();
+        long now = System.currentTimeMillis();
+        long hour = 3600000L;
+        Long old = now - 2 * hour;
+
+        // in batches of 2, so 2 then 1.
+        store.setRetentionBatchSize(2);
+        List<BasicTransaction> transactions = addWithTimes(store, "created", old, now - 3 * hour, old, now, null);
+        assert store.applyRetention(newRetentionPolicy(store, "created", hour)) == 3;
+        for (int i = 0; i < transactions.size(); i++) {
+            assert store.containsKey(transactions.get(i).getIdentifier()) == (i == 3 || i == 4) : i;
+        }
+        assert store.applyRetention(newRetentionPolicy(store, "created", hour)) == 0;
+        // a whole number of batches, so 2, 2 then none.
+        List<BasicTransaction> more = addWithTimes(store, "created", old, old, old, old);
+        assert store.applyRetention(newRetentionPolicy(store, "created", hour)) == 4;
+        for (BasicTransaction t : more) {
+            assert !store.containsKey(t.getIdentifier());
+        }
+
+        // one delete, on the column in milliseconds.
+        store.setRetentionBatchSize(0);
+        more = addWithTimes(store, "created_ms", old, now, old, null);
+        assert store.applyRetention(newRetentionPolicy(store, "created_ms", hour)) == 2;
+        assert !store.containsKey(more.get(0).getIdentifier());
+        assert store.containsKey(more.get(1).getIdentifier());
+        assert !store.containsKey(more.get(2).getIdentifier());
+        assert store.containsKey(more.get(3).getIdentifier());
+        // rows with no timestamp in that column are kept, so everything from before is still there.
+        assert store.containsKey(transactions.get(3).getIdentifier());
+        assert store.containsKey(transactions.get(4).getIdentifier());
+
+        store.setRetentionBatchSize(-1);
+        assert store.applyRetention(newRetentionPolicy(store, "created", 0L)) == 1;
+        assert !store.containsKey(transactions.get(3).getIdentifier());
+
+        assert !store.supports(newRetentionPolicy(store, "no_such_column", hour));
+        try {
+            store.applyRetention(newRetentionPolicy(store, "no_such_column", hour));
+            assert false : "was able to apply retention on a column that is not in the table";
+        } catch (GeneralException x) {
+            assert true;
+        }
+
+        // Statements come from the cache, and if the selected rows can't be deleted it stops rather than finding
+        // them again forever.
+        final List<String> prepared = new ArrayList<String>();
+        TestSQLStore stuck = new TestSQLStore(getConnectionPool(), newProvider(), new FileStoreTest.TestTokenForge(), new RetentionTable()) {
+            @Override
+            protected PreparedStatement prepareStatement(Connection c, String sql) throws SQLException {
+                prepared.add(sql);
+                if (sql.equals(getTable().createDeleteStatement())) {
+                    // e.g. another process holds the rows.
+                    sql = sql + " AND 1 = 0";
+                }
+                return super.prepareStatement(c, sql);
+            }
+        };
+        stuck.setRetentionBatchSize(2);
+        more = addWithTimes(store, "created", old, old);
+        assert stuck.applyRetention(newRetentionPolicy(stuck, "created", hour)) == 0;
+        assert prepared.contains(stuck.getTable().createDeleteStatement());
+        assert store.applyRetention(newRetentionPolicy(store, "created", hour)) == 2;
+    }
+}
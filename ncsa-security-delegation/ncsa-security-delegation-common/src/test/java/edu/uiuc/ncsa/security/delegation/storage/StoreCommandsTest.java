@@ -0,0 +1,144 @@
+package edu.uiuc.ncsa.security.delegation.storage;
+
+import edu.uiuc.ncsa.security.core.Identifiable;
+import edu.uiuc.ncsa.security.core.Identifier;
+import edu.uiuc.ncsa.security.core.Store;
+import edu.uiuc.ncsa.security.core.util.BasicIdentifier;
+import edu.uiuc.ncsa.security.core.util.IdentifierProvider;
+import edu.uiuc.ncsa.security.core.util.MyLoggingFacade;
+import edu.uiuc.ncsa.security.delegation.storage.impl.BasicTransaction;
+import edu.uiuc.ncsa.security.delegation.storage.impl.BasicTransactionProvider;
+import edu.uiuc.ncsa.security.delegation.storage.impl.TransactionMemoryStore;
+import edu.uiuc.ncsa.security.util.TestBase;
+import edu.uiuc.ncsa.security.util.cli.InputLine;
+import edu.uiuc.ncsa.security.util.cli.StoreCommands;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests listing a store a page at a time with {@link StoreCommands}.
+ */
+public class StoreCommandsTest extends TestBase {
+    /**
+     * Keeps what it says, rather than printing it.
+     */
+    public static class TestStoreCommands extends StoreCommands {
+        public TestStoreCommands(Store store) {
+            super(new MyLoggingFacade(StoreCommandsTest.class.getSimpleName()), store);
+        }
+
+        List<String> output = new ArrayList<String>();
+
+        @Override
+        protected void say(String x) {
+            output.add(x);
+        }
+
+        public List<Identifiable> ls(String input) {
+            output.clear();
+            setBufferedReader(new BufferedReader(new StringReader(input)));
+            return listAll(false, "");
+        }
+
+        @Override
+        public String getName() {
+            return "test";
+        }
+
+        @Override
+        public void serialize(InputLine inputLine) {
+        }
+
+        @Override
+        public void deserialize(InputLine inputLine) {
+        }
+
+        @Override
+        public void search(InputLine inputLine) {
+        }
+
+        @Override
+        public void edit(InputLine inputLine) {
+        }
+
+        @Override
+        public boolean update(Identifiable identifiable) {
+            return false;
+        }
+
+        @Override
+        public void extraUpdates(Identifiable identifiable) {
+        }
+
+        @Override
+        protected String format(Identifiable identifiable) {
+            return identifiable.getIdentifierString();
+        }
+
+        @Override
+        protected void longFormat(Identifiable identifiable) {
+            say(identifiable.toString());
+        }
+    }
+
+    protected List<String> fill(TransactionMemoryStore<BasicTransaction> store, int count) {
+        List<String> identifiers = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            BasicTransaction t = store.create();
+            t.setAuthorizationGrant(new FileStoreTest.FakeAuthorizationGrant("urn:test:identifier/" + getRandomString() + "/" + i));
+            store.save(t);
+            identifiers.add(t.getIdentifierString());
+        }
+        Collections.sort(identifiers);
+        return identifiers;
+    }
+
+    protected List<String> identifiers(List<Identifiable> entries) {
+        List<String> identifiers = new ArrayList<String>();
+        for (Identifiable x : entries) {
+            identifiers.add(x.getIdentifierString());
+        }
+        return identifiers;
+    }
+
+    @Test
+    public void testListPages() throws Exception {
+        TransactionMemoryStore<BasicTransaction> store = new TransactionMemoryStore<BasicTransaction>(
+                new BasicTransactionProvider<BasicTransaction>(new IdentifierProvider<Identifier>("transactions") {}));
+        TestStoreCommands commands = new TestStoreCommands(store);
+        commands.setPageSize(2);
+        assert commands.ls("").isEmpty();
+        assert commands.output.equals(Collections.singletonList("(no entries found)"));
+
+        List<String> identifiers = fill(store, 5);
+        // two pages, then stop.
+        List<Identifiable> entries = commands.ls("y\nn\n");
+        assert identifiers(entries).equals(identifiers.subList(0, 4)) : identifiers(entries);
+        assert commands.output.size() == 4;
+        for (int i = 0; i < 4; i++) {
+            assert commands.output.get(i).equals(i + ". " + identifiers.get(i)) : commands.output.get(i);
+        }
+
+        // the last page is short, so there is no more to ask about.
+        assert identifiers(commands.ls("y\ny\n")).equals(identifiers);
+
+        // batch mode does not ask.
+        commands.setBatchMode(true);
+        assert identifiers(commands.ls("")).equals(identifiers);
+        commands.setBatchMode(false);
+
+        // the last page is full, so the next one is empty.
+        store.remove(BasicIdentifier.newID(identifiers.get(4)));
+        assert identifiers(commands.ls("y\ny\n")).equals(identifiers.subList(0, 4));
+        assert commands.output.size() == 4;
+
+        // not paged, so everything is listed at once.
+        commands.setPageSize(0);
+        assert identifiers(commands.ls("")).equals(identifiers.subList(0, 4));
+    }
+}
@@ -2,13 +2,24 @@ package edu.uiuc.ncsa.security.delegation.storage;
 
 import edu.uiuc.ncsa.security.core.Identifiable;
 import edu.uiuc.ncsa.security.core.Identifier;
+import edu.uiuc.ncsa.security.core.cache.AdmissionPolicy;
+import edu.uiuc.ncsa.security.core.cache.BloomFilter;
+import edu.uiuc.ncsa.security.core.cache.CacheCodec;
+import edu.uiuc.ncsa.security.core.cache.Cacheable;
 import edu.uiuc.ncsa.security.core.cache.CachedMapFacade;
 import edu.uiuc.ncsa.security.core.cache.CachedObject;
 import edu.uiuc.ncsa.security.core.cache.Cleanup;
+import edu.uiuc.ncsa.security.core.cache.MaxAgePolicy;
 import edu.uiuc.ncsa.security.core.cache.MaxCacheSizePolicy;
+import edu.uiuc.ncsa.security.core.cache.NegativeCache;
+import edu.uiuc.ncsa.security.core.cache.OffHeapCache;
+import edu.uiuc.ncsa.security.core.cache.WriteBehindQueue;
+import edu.uiuc.ncsa.security.core.util.IdentifierProvider;
 import edu.uiuc.ncsa.security.core.util.MyLoggingFacade;
 import edu.uiuc.ncsa.security.delegation.storage.impl.BasicTransaction;
+import edu.uiuc.ncsa.security.delegation.storage.impl.BasicTransactionProvider;
 import edu.uiuc.ncsa.security.delegation.storage.impl.TransactionCache;
+import edu.uiuc.ncsa.security.delegation.storage.impl.TransactionMemoryStore;
 import edu.uiuc.ncsa.security.delegation.token.AccessToken;
 import edu.uiuc.ncsa.security.delegation.token.AuthorizationGrant;
 import edu.uiuc.ncsa.security.delegation.token.Verifier;
@@ -16,6 +27,9 @@ import org.junit.Test;
 
 import java.net.URI;
 import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -75,4 +89,307 @@ public class TransactionCacheTest extends BaseTransactionStoreTest {
         assert maxCacheSize == cc.getMap().size();
     }
 
+    @Test
+    public void testWriteBehind() throws Exception {
+        final int[] saves = new int[]{0};
+        IdentifierProvider<Identifier> idp = new IdentifierProvider<Identifier>("transactions") {};
+        TransactionMemoryStore<BasicTransaction> backingStore = new TransactionMemoryStore<BasicTransaction>(new BasicTransactionProvider<BasicTransaction>(idp)) {
+            @Override
+            public void save(BasicTransaction value) {
+                saves[0]++;
+                super.save(value);
+            }
+        };
+        TransactionCache<BasicTransaction> cache = new TransactionCache<BasicTransaction>(backingStore);
+        // long enough that nothing is written until we say so.
+        WriteBehindQueue<BasicTransaction> queue = new WriteBehindQueue<BasicTransaction>(cache.getTheStore(),
+                new MyLoggingFacade(getClass().getSimpleName() + ".testWriteBehind", true), 60000L, 100);
+        cache.setWriteBehindQueue(queue);
+
+        BasicTransaction bt = cache.create();
+        bt.setAuthorizationGrant(newAG());
+        cache.save(bt);
+        bt.setVerifier(newVerifier());
+        cache.update(bt);
+        bt.setAccessToken(newAT());
+        cache.update(bt);
+        assert saves[0] == 0;
+        assert !backingStore.containsKey(bt.getIdentifier());
+        // evict it from the cache. It must still be found.
+        cache.getCache().clear();
+        assert cache.get(bt.getIdentifier()) == bt;
+
+        assert queue.flush() == 1;
+        assert saves[0] == 1;
+        assert queue.getCoalescedCount() == 2;
+        assert backingStore.get(bt.getIdentifier()).getAccessToken().equals(bt.getAccessToken());
+
+        // a removed entry is never written.
+        BasicTransaction bt2 = cache.create();
+        bt2.setAuthorizationGrant(newAG());
+        cache.save(bt2);
+        cache.remove(bt2.getIdentifier());
+        assert queue.shutdown() == 0;
+        assert saves[0] == 1;
+        assert !backingStore.containsKey(bt2.getIdentifier());
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        final AtomicInteger loads = new AtomicInteger(0);
+        IdentifierProvider<Identifier> idp = new IdentifierProvider<Identifier>("transactions") {};
+        TransactionMemoryStore<BasicTransaction> backingStore = new TransactionMemoryStore<BasicTransaction>(new BasicTransactionProvider<BasicTransaction>(idp)) {
+            @Override
+            public BasicTransaction get(Object key) {
+                loads.incrementAndGet();
+                try {
+                    Thread.sleep(100L); // slow enough that every thread misses.
+                } catch (InterruptedException e) {
+                    // fine
+                }
+                return super.get(key);
+            }
+        };
+        BasicTransaction bt = backingStore.create();
+        bt.setAuthorizationGrant(newAG());
+        backingStore.save(bt);
+        final TransactionCache<BasicTransaction> cache = new TransactionCache<BasicTransaction>(backingStore);
+        cache.setSingleFlight(true);
+        final Identifier id = bt.getIdentifier();
+        int threadCount = 10;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger found = new AtomicInteger(0);
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        if (cache.get(id) != null) {
+                            found.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        // fine
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert found.get() == threadCount;
+        assert loads.get() == 1 : "expected 1 load, got " + loads.get();
+
+        // Now refresh it once it has been cached a while.
+        cache.setRefreshAfter(1L);
+        Thread.sleep(5L);
+        assert cache.get(id) != null;
+        long timeout = System.currentTimeMillis() + 5000L;
+        while (loads.get() < 2 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10L);
+        }
+        assert loads.get() == 2;
+    }
+
+    @Test
+    public void testNegativeLookup() throws Exception {
+        final AtomicInteger loads = new AtomicInteger(0);
+        IdentifierProvider<Identifier> idp = new IdentifierProvider<Identifier>("transactions") {};
+        TransactionMemoryStore<BasicTransaction> backingStore = new TransactionMemoryStore<BasicTransaction>(new BasicTransactionProvider<BasicTransaction>(idp)) {
+            @Override
+            public BasicTransaction get(AccessToken accessToken) {
+                loads.incrementAndGet();
+                return super.get(accessToken);
+            }
+        };
+        BasicTransaction bt = backingStore.create();
+        bt.setAuthorizationGrant(newAG());
+        bt.setAccessToken(newAT());
+        backingStore.save(bt);
+
+        TransactionCache<BasicTransaction> cache = new TransactionCache<BasicTransaction>(backingStore);
+        cache.setNegativeCache(new NegativeCache(60000L, 100));
+        AccessToken bogus = newAT();
+        assert cache.get(bogus) == null;
+        assert cache.get(bogus) == null;
+        assert loads.get() == 1;
+        assert cache.getStats().getRejectionCount() == 1;
+        // A real one is still found and then cached.
+        assert cache.get(bt.getAccessToken()) != null;
+        assert loads.get() == 2;
+        // Issuing the token takes it out of the negative cache.
+        BasicTransaction bt2 = cache.create();
+        bt2.setAuthorizationGrant(newAG());
+        bt2.setAccessToken(bogus);
+        cache.save(bt2);
+        assert cache.get(bogus) == bt2;
+
+        // Now with a filter: tokens never issued are not looked up at all.
+        cache = new TransactionCache<BasicTransaction>(backingStore);
+        cache.setTokenFilter(new BloomFilter(1000, 0.001));
+        cache.loadTokenFilter();
+        loads.set(0);
+        for (int i = 0; i < 100; i++) {
+            cache.get(newAT());
+        }
+        assert loads.get() < 5 : "too many bogus tokens got through the filter: " + loads.get();
+        assert cache.get(bt.getAccessToken()) != null;
+    }
+
+    @Test
+    public void testSecondLevel() throws Exception {
+        final AtomicInteger loads = new AtomicInteger(0);
+        IdentifierProvider<Identifier> idp = new IdentifierProvider<Identifier>("transactions") {};
+        TransactionMemoryStore<BasicTransaction> backingStore = new TransactionMemoryStore<BasicTransaction>(new BasicTransactionProvider<BasicTransaction>(idp)) {
+            @Override
+            public BasicTransaction get(Object key) {
+                loads.incrementAndGet();
+                return super.get(key);
+            }
+        };
+        final AtomicInteger encodes = new AtomicInteger(0);
+        final AtomicBoolean failDecode = new AtomicBoolean(false);
+        final CacheCodec<BasicTransaction> javaCodec = new OffHeapCache<BasicTransaction>(1024, 2).getCodec();
+        CacheCodec<BasicTransaction> codec = new CacheCodec<BasicTransaction>() {
+            @Override
+            public byte[] encode(BasicTransaction value) {
+                encodes.incrementAndGet();
+                return javaCodec.encode(value);
+            }
+
+            @Override
+            public BasicTransaction decode(byte[] bytes) {
+                if (failDecode.get()) {
+                    throw new IllegalStateException("bad bytes");
+                }
+                return javaCodec.decode(bytes);
+            }
+        };
+        int count = 20;
+        int maxCacheSize = 5;
+
+        // The transaction cache indexes everything it caches, so nothing should spill.
+        TransactionCache<BasicTransaction> cache = new TransactionCache<BasicTransaction>(backingStore);
+        OffHeapCache<BasicTransaction> secondLevel = new OffHeapCache<BasicTransaction>(64 * 1024, 4, codec);
+        cache.setSecondLevel(secondLevel);
+        BasicTransaction[] transactions = fillAndAge(cache, count, maxCacheSize);
+        assert secondLevel.size() == 0;
+        assert encodes.get() == 0;
+        for (BasicTransaction bt : transactions) {
+            assert cache.get(bt.getAuthorizationGrant()) == bt;
+        }
+
+        // Now one that does spill.
+        cache = new TransactionCache<BasicTransaction>(backingStore) {
+            @Override
+            protected boolean isSpillable() {
+                return true;
+            }
+        };
+        secondLevel = new OffHeapCache<BasicTransaction>(64 * 1024, 4, codec);
+        cache.setSecondLevel(secondLevel);
+        transactions = fillAndAge(cache, count, maxCacheSize);
+        assert secondLevel.size() == count - maxCacheSize;
+        loads.set(0);
+        for (int i = 1; i < count; i++) {
+            BasicTransaction found = cache.get(transactions[i].getIdentifier());
+            assert found != null && found.getIdentifier().equals(transactions[i].getIdentifier());
+        }
+        assert loads.get() == 0 : "expected no loads from the store, got " + loads.get();
+        // everything but the first was promoted back.
+        assert secondLevel.size() == 1;
+        assert cache.getCache().size() == count - 1;
+
+        // An entry that can't be decoded is dropped and loaded from the store.
+        failDecode.set(true);
+        BasicTransaction found = cache.get(transactions[0].getIdentifier());
+        assert found != null && found.getIdentifier().equals(transactions[0].getIdentifier());
+        assert loads.get() == 1;
+        assert secondLevel.size() == 0;
+        failDecode.set(false);
+
+        // Removing something does not write it to the second level first.
+        encodes.set(0);
+        cache.remove(transactions[1].getIdentifier());
+        assert encodes.get() == 0;
+        assert !secondLevel.containsKey(transactions[1].getIdentifier());
+    }
+
+    @Test
+    public void testSecondLevelExpiry() throws Exception {
+        final AtomicInteger loads = new AtomicInteger(0);
+        IdentifierProvider<Identifier> idp = new IdentifierProvider<Identifier>("transactions") {};
+        TransactionMemoryStore<BasicTransaction> backingStore = new TransactionMemoryStore<BasicTransaction>(new BasicTransactionProvider<BasicTransaction>(idp)) {
+            @Override
+            public BasicTransaction get(Object key) {
+                loads.incrementAndGet();
+                return super.get(key);
+            }
+        };
+        TransactionCache<BasicTransaction> cache = new TransactionCache<BasicTransaction>(backingStore) {
+            @Override
+            protected boolean isSpillable() {
+                return true;
+            }
+        };
+        OffHeapCache<BasicTransaction> secondLevel = new OffHeapCache<BasicTransaction>(64 * 1024, 4);
+        cache.setSecondLevel(secondLevel);
+        int count = 5;
+        BasicTransaction[] transactions = new BasicTransaction[count];
+        for (int i = 0; i < count; i++) {
+            transactions[i] = cache.create();
+            transactions[i].setAuthorizationGrant(newAG());
+            cache.save(transactions[i]);
+        }
+        Cleanup<Identifier, CachedObject> cc = new Cleanup<Identifier, CachedObject>(new MyLoggingFacade(getClass().getSimpleName() + ".testSecondLevelExpiry", true));
+        cc.setExpiryResolution(10L);
+        cc.setMap(cache.getCache());
+        cc.addRetentionPolicy(new MaxAgePolicy(cache.getCache(), 50L));
+        Thread.sleep(200L);
+        assert cc.age().size() == count;
+        assert cache.getCache().size() == 0;
+        // expired, so not kept in the second level and the next get goes to the store.
+        assert secondLevel.size() == 0;
+        loads.set(0);
+        assert cache.get(transactions[0].getIdentifier()) != null;
+        assert loads.get() == 1 : "expected one load from the store, got " + loads.get();
+
+        // Promotions from the second level go through the admission policy.
+        cache.getCache().clear();
+        cache.setAdmissionPolicy(new AdmissionPolicy() {
+            @Override
+            public void recordAccess(Object key) {
+            }
+
+            @Override
+            public boolean admit(Identifier key, Cacheable value) {
+                return false;
+            }
+        });
+        secondLevel.put(transactions[1].getIdentifier(), transactions[1]);
+        loads.set(0);
+        BasicTransaction found = cache.get(transactions[1].getIdentifier());
+        assert found != null && found.getIdentifier().equals(transactions[1].getIdentifier());
+        assert loads.get() == 0;
+        assert !cache.getCache().containsKey(transactions[1].getIdentifier());
+        assert secondLevel.containsKey(transactions[1].getIdentifier());
+    }
+
+    protected BasicTransaction[] fillAndAge(TransactionCache<BasicTransaction> cache, int count, int maxCacheSize) {
+        BasicTransaction[] transactions = new BasicTransaction[count];
+        for (int i = 0; i < count; i++) {
+            transactions[i] = cache.create();
+            transactions[i].setAuthorizationGrant(newAG());
+            cache.save(transactions[i]);
+        }
+        Cleanup<Identifier, CachedObject> cc = new Cleanup<Identifier, CachedObject>(new MyLoggingFacade(getClass().getSimpleName() + ".testSecondLevel", true));
+        cc.setMap(cache.getCache());
+        cc.addRetentionPolicy(new MaxCacheSizePolicy(cache.getCache(), maxCacheSize));
+        cc.age();
+        assert cache.getCache().size() == maxCacheSize;
+        return transactions;
+    }
 }
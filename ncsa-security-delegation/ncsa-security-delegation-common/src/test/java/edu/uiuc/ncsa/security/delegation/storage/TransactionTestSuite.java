@@ -10,6 +10,9 @@ import org.junit.runners.Suite;
  */
 @RunWith(Suite.class)
 @Suite.SuiteClasses({TransactionCacheTest.class,
-        FileStoreTest.class})
+        FileStoreTest.class,
+        MemoryStoreTest.class,
+        StoreCommandsTest.class,
+        SQLStoreTest.class})
 public class TransactionTestSuite extends TestSuite {
 }
@@ -37,11 +37,19 @@ public abstract class SQLServiceTransactionStore<V extends ServiceTransaction> e
 
     HashMap<String, ServiceTransaction> createdTransactions;
 
-    public void register(V t) {
+    /*
+    These are hooks rather than an override of register, since saving may be done with an upsert, which does not
+    call register.
+     */
+    @Override
+    protected void checkWrite(V t) {
         if (t.getIdentifierString() == null) {
             throw new UninitializedException("Error: There is no identifier for this transaction");
         }
-        super.register(t);
+    }
+
+    @Override
+    protected void written(V t) {
         getCreatedTransactions().remove(t.getIdentifier());
     }
 
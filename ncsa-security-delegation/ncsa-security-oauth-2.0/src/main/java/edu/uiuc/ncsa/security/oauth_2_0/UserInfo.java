@@ -34,13 +34,13 @@ public class UserInfo {
 
     public JSONObject toJSon(){
         if(map == null ) return null;
-        DebugUtil.trace(this, "map is " + map);
+        DebugUtil.trace(this, "map is {}", map);
 
         if(map instanceof JSONObject){
             return (JSONObject) map;
         }
         JSONObject jj = JSONObject.fromObject(map);
-        DebugUtil.trace(this, "JSON object from map is " + jj);
+        DebugUtil.trace(this, "JSON object from map is {}", jj);
         return jj;
     }
     public String getString(String key) {
@@ -116,22 +116,24 @@ public class ATServer2 extends TokenAwareServer implements ATServer {
                 // This is optional to return, so it is possible that this might not work.
             }
         }
-        ServletDebugUtil.trace(this, "Is OIDC enabled? "  + oidcEnabled);
+        ServletDebugUtil.trace(this, "Is OIDC enabled? {}", oidcEnabled);
 
         if(oidcEnabled) {
             ServletDebugUtil.trace(this, "Processing id token entry");
             IDTokenEntry idTokenEntry = new IDTokenEntry( );
             ServletDebugUtil.trace(this, "created new idTokenEntry " );
             JSONObject idToken = getAndCheckIDToken(jsonObject, atRequest);
-            ServletDebugUtil.trace(this,"got id token = " + idToken.toString(2));
+            if (ServletDebugUtil.isTraceEnabled()) {
+                ServletDebugUtil.trace(this, "got id token = " + idToken.toString(2));
+            }
             if (jsonObject.containsKey(ID_TOKEN)) {
                 params.put(RAW_ID_TOKEN, jsonObject.getString(ID_TOKEN));
                 idTokenEntry.rawToken = (String) params.get(RAW_ID_TOKEN);
-                ServletDebugUtil.trace(this,"raw token = " + idTokenEntry.rawToken);
+                ServletDebugUtil.trace(this,"raw token = {}", idTokenEntry.rawToken);
             }
 
             idTokenEntry.idToken = idToken;
-            ServletDebugUtil.trace(this,"idTokenEntry= " + idTokenEntry);
+            ServletDebugUtil.trace(this,"idTokenEntry= {}", idTokenEntry);
 
             // and now the specific checks for ID tokens returned by the AT server.
             if (!idToken.getString(NONCE).equals(atRequest.getParameters().get(NONCE))) {
@@ -145,10 +147,10 @@ public class ATServer2 extends TokenAwareServer implements ATServer {
                 params.put(AUTHORIZATION_TIME, idToken.getLong(AUTHORIZATION_TIME));
             }
             params.put(ID_TOKEN, idToken);
-            ServletDebugUtil.trace(this, "Adding idTokenEntry with id = " + at.getToken() + " to the ID Token store. Store has " + getIDTokenStore().size() + " entries");
+            ServletDebugUtil.trace(this, "Adding idTokenEntry with id = {} to the ID Token store. Store has {} entries", at.getToken(), getIDTokenStore().size());
             getIDTokenStore().put(at.getToken(), idTokenEntry);
-            ServletDebugUtil.trace(this, "ID Token store=" + getIDTokenStore().size());
-            ServletDebugUtil.trace(this, "Added idTokenEntry to the ID Token store. Store now has " + getIDTokenStore().size() + " entries");
+            ServletDebugUtil.trace(this, "ID Token store={}", getIDTokenStore().size());
+            ServletDebugUtil.trace(this, "Added idTokenEntry to the ID Token store. Store now has {} entries", getIDTokenStore().size());
         }else{
             ServletDebugUtil.trace(this, "Skipping id token entry...");
         }
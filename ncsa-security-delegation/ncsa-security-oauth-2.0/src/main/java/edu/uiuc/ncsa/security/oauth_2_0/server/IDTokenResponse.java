@@ -152,7 +152,7 @@ public abstract class IDTokenResponse extends IResponse2 {
                     idTokken = JWTUtil.createJWT(claims);
                 }
                 if (ServletDebugUtil.isEnabled()) {
-                    ServletDebugUtil.info(this, "raw ID_Token=" + idTokken);
+                    ServletDebugUtil.info(this, "raw ID_Token={}", idTokken);
                 }
                 m.put(ID_TOKEN, idTokken);
             } catch (Throwable e) {